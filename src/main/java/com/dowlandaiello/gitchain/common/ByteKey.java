@@ -0,0 +1,71 @@
+package com.dowlandaiello.gitchain.common;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * ByteKey wraps a byte array (e.g. a hash or public key) so that it can be used
+ * as a hash map or sorted map key. The wrapped array must not be mutated.
+ */
+public final class ByteKey implements Serializable, Comparable<ByteKey> {
+    /* lol serialization */
+    static final long serialVersionUID = CommonIO.SerialVersionUID;
+
+    /* Wrapped bytes */
+    public final byte[] Bytes;
+
+    /* Cached hash code */
+    private final int hashCode;
+
+    /**
+     * Initialize a new key wrapping a given byte array.
+     *
+     * @param bytes bytes to wrap
+     */
+    public ByteKey(byte[] bytes) {
+        this.Bytes = bytes == null ? new byte[0] : bytes; // Set bytes
+        this.hashCode = Arrays.hashCode(this.Bytes); // Set hash code
+    }
+
+    /**
+     * Check whether the key wraps the same bytes as a given object.
+     *
+     * @param o object to compare against
+     * @return whether the keys are equal
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) { // Check same key
+            return true; // Equal
+        }
+
+        if (!(o instanceof ByteKey)) { // Check not a key
+            return false; // Not equal
+        }
+
+        ByteKey other = (ByteKey) o; // Cast
+
+        return this.hashCode == other.hashCode && Arrays.equals(this.Bytes, other.Bytes); // Compare
+    }
+
+    /**
+     * Get the hash code of the wrapped bytes.
+     *
+     * @return hash code
+     */
+    @Override
+    public int hashCode() {
+        return this.hashCode; // Return cached hash code
+    }
+
+    /**
+     * Lexicographically compare the key to a given key.
+     *
+     * @param other key to compare against
+     * @return comparison result
+     */
+    @Override
+    public int compareTo(ByteKey other) {
+        return CommonByteCmp.compareTo(this.Bytes, 0, this.Bytes.length, other.Bytes, 0, other.Bytes.length); // Compare
+    }
+}
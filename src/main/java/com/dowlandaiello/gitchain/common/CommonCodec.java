@@ -0,0 +1,398 @@
+package com.dowlandaiello.gitchain.common;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * CommonCodec outlines the common binary wire and storage format.
+ *
+ * Every encoded record begins with a one byte record tag and a one byte
+ * format version. Records written by any version from MinVersion on are still
+ * decoded (version 1 blocks carry no state root). Variable length fields are prefixed with a signed 32-bit
+ * big-endian length, where -1 represents null. Decoding never allocates more
+ * than the remaining input could actually hold.
+ */
+public class CommonCodec {
+    /* Codec format version */
+    public static final byte Version = 2;
+
+    /* Oldest codec format version still decoded */
+    public static final byte MinVersion = 1;
+
+    /* First codec format version carrying block state roots */
+    public static final byte StateRootVersion = 2;
+
+    /* Block record tag */
+    public static final byte BlockTag = 1;
+
+    /* Transaction record tag */
+    public static final byte TransactionTag = 2;
+
+    /* Connection record tag */
+    public static final byte ConnectionTag = 3;
+
+    /* Connection event record tag */
+    public static final byte ConnectionEventTag = 4;
+
+    /* Block header (proof of work preimage) record tag */
+    public static final byte BlockHeaderTag = 5;
+
+    /* Merkle inclusion proof record tag */
+    public static final byte MerkleProofTag = 6;
+
+    /* State trie proof record tag */
+    public static final byte StateProofTag = 7;
+
+    /* Dht header (chain config) record tag */
+    public static final byte DhtHeaderTag = 8;
+
+    /* Size of a record tag and version */
+    public static final int HeaderSize = 2;
+
+    /* Size of a length prefix */
+    public static final int LengthSize = 4;
+
+    /* Max length of a single length-prefixed field */
+    public static final int MaxFieldLength = 16 * 1024 * 1024;
+
+    /* Per-thread reusable encoding buffers */
+    private static final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocate(4096); // Init buffer
+        }
+    };
+
+    /**
+     * Get the working thread's reusable encoding buffer, cleared and grown to hold at
+     * least capacity bytes.
+     *
+     * @param capacity minimum buffer capacity
+     * @return encoding buffer
+     */
+    public static ByteBuffer GetBuffer(int capacity) {
+        ByteBuffer buffer = buffers.get(); // Get buffer
+
+        if (buffer.capacity() < capacity) { // Check too small
+            buffer = ByteBuffer.allocate(Math.max(capacity, buffer.capacity() * 2)); // Grow buffer
+
+            buffers.set(buffer); // Set buffer
+        }
+
+        buffer.clear(); // Reset buffer
+
+        return buffer; // Return buffer
+    }
+
+    /**
+     * Copy the written contents of a given buffer to a byte array.
+     *
+     * @param buffer buffer to copy
+     * @return written contents
+     */
+    public static byte[] ToArray(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.position()]; // Init buffer
+
+        System.arraycopy(buffer.array(), buffer.arrayOffset(), bytes, 0, bytes.length); // Copy
+
+        return bytes; // Return contents
+    }
+
+    /**
+     * Check whether a given byte array is a Java serialization stream (i.e. was written
+     * before the binary codec existed).
+     *
+     * @param b byte array to check
+     * @return whether b is Java serialized
+     */
+    public static boolean IsJavaSerialized(byte[] b) {
+        return b != null && b.length >= 2 && b[0] == (byte) 0xAC && b[1] == (byte) 0xED; // Check stream magic
+    }
+
+    /**
+     * Write a record tag and format version.
+     *
+     * @param buffer buffer to write to
+     * @param tag    record tag
+     */
+    public static void WriteHeader(ByteBuffer buffer, byte tag) {
+        buffer.put(tag); // Write tag
+        buffer.put(Version); // Write version
+    }
+
+    /**
+     * Read and check a record tag and format version.
+     *
+     * @param buffer buffer to read from
+     * @param tag    expected record tag
+     * @return format version the record was written with
+     */
+    public static byte ReadHeader(ByteBuffer buffer, byte tag) {
+        Require(buffer, HeaderSize); // Check has header
+
+        if (buffer.get() != tag) { // Check wrong record
+            throw new IllegalArgumentException("unexpected record tag"); // Panic
+        }
+
+        byte version = buffer.get(); // Read version
+
+        if (version < MinVersion || version > Version) { // Check unsupported version
+            throw new IllegalArgumentException("unsupported codec version"); // Panic
+        }
+
+        return version; // Return version
+    }
+
+    /**
+     * Get the encoded size of a length-prefixed byte array.
+     *
+     * @param b byte array
+     * @return encoded size
+     */
+    public static int SizeOf(byte[] b) {
+        return LengthSize + (b == null ? 0 : b.length); // Return size
+    }
+
+    /**
+     * Get the encoded size of a length-prefixed array of byte arrays.
+     *
+     * @param b byte arrays
+     * @return encoded size
+     */
+    public static int SizeOf(byte[][] b) {
+        int size = LengthSize; // Init size
+
+        if (b != null) { // Check not null
+            for (byte[] element : b) { // Iterate through elements
+                size += SizeOf(element); // Add element size
+            }
+        }
+
+        return size; // Return size
+    }
+
+    /**
+     * Get the encoded size of a length-prefixed big integer.
+     *
+     * @param i big integer
+     * @return encoded size
+     */
+    public static int SizeOf(BigInteger i) {
+        return SizeOf(i == null ? null : i.toByteArray()); // Return size
+    }
+
+    /**
+     * Get the encoded size of a length-prefixed string.
+     *
+     * @param s string
+     * @return encoded size
+     */
+    public static int SizeOf(String s) {
+        return SizeOf(s == null ? null : s.getBytes(StandardCharsets.UTF_8)); // Return size
+    }
+
+    /**
+     * Write a length-prefixed byte array.
+     *
+     * @param buffer buffer to write to
+     * @param b      byte array to write
+     */
+    public static void WriteBytes(ByteBuffer buffer, byte[] b) {
+        if (b == null) { // Check null
+            buffer.putInt(-1); // Write null
+
+            return; // Done
+        }
+
+        buffer.putInt(b.length); // Write length
+        buffer.put(b); // Write bytes
+    }
+
+    /**
+     * Read a length-prefixed byte array.
+     *
+     * @param buffer buffer to read from
+     * @return read byte array
+     */
+    public static byte[] ReadBytes(ByteBuffer buffer) {
+        Require(buffer, LengthSize); // Check has length
+
+        int length = buffer.getInt(); // Read length
+
+        if (length == -1) { // Check null
+            return null; // Null
+        }
+
+        if (length < 0 || length > MaxFieldLength) { // Check invalid length
+            throw new IllegalArgumentException("invalid field length"); // Panic
+        }
+
+        Require(buffer, length); // Check has contents
+
+        byte[] b = new byte[length]; // Init buffer
+
+        buffer.get(b); // Read bytes
+
+        return b; // Return bytes
+    }
+
+    /**
+     * Write a length-prefixed array of byte arrays.
+     *
+     * @param buffer buffer to write to
+     * @param b      byte arrays to write
+     */
+    public static void WriteBytesArray(ByteBuffer buffer, byte[][] b) {
+        if (b == null) { // Check null
+            buffer.putInt(-1); // Write null
+
+            return; // Done
+        }
+
+        buffer.putInt(b.length); // Write count
+
+        for (byte[] element : b) { // Iterate through elements
+            WriteBytes(buffer, element); // Write element
+        }
+    }
+
+    /**
+     * Read a length-prefixed array of byte arrays.
+     *
+     * @param buffer buffer to read from
+     * @return read byte arrays
+     */
+    public static byte[][] ReadBytesArray(ByteBuffer buffer) {
+        int count = ReadCount(buffer, LengthSize); // Read count
+
+        if (count == -1) { // Check null
+            return null; // Null
+        }
+
+        byte[][] b = new byte[count][]; // Init buffer
+
+        for (int i = 0; i < count; i++) { // Read elements
+            b[i] = ReadBytes(buffer); // Read element
+        }
+
+        return b; // Return byte arrays
+    }
+
+    /**
+     * Read an array element count, ensuring the remaining input could hold that many
+     * elements of at least a given size.
+     *
+     * @param buffer         buffer to read from
+     * @param minElementSize smallest possible encoded element size
+     * @return read count (-1 if null)
+     */
+    public static int ReadCount(ByteBuffer buffer, int minElementSize) {
+        Require(buffer, LengthSize); // Check has count
+
+        int count = buffer.getInt(); // Read count
+
+        if (count == -1) { // Check null
+            return -1; // Null
+        }
+
+        if (count < 0 || (long) count * minElementSize > buffer.remaining()) { // Check invalid count
+            throw new IllegalArgumentException("invalid element count"); // Panic
+        }
+
+        return count; // Return count
+    }
+
+    /**
+     * Write a length-prefixed big integer.
+     *
+     * @param buffer buffer to write to
+     * @param i      big integer to write
+     */
+    public static void WriteBigInteger(ByteBuffer buffer, BigInteger i) {
+        WriteBytes(buffer, i == null ? null : i.toByteArray()); // Write bytes
+    }
+
+    /**
+     * Read a length-prefixed big integer.
+     *
+     * @param buffer buffer to read from
+     * @return read big integer
+     */
+    public static BigInteger ReadBigInteger(ByteBuffer buffer) {
+        byte[] b = ReadBytes(buffer); // Read bytes
+
+        if (b == null || b.length == 0) { // Check null
+            return null; // Null
+        }
+
+        return new BigInteger(b); // Return big integer
+    }
+
+    /**
+     * Write a length-prefixed UTF-8 string.
+     *
+     * @param buffer buffer to write to
+     * @param s      string to write
+     */
+    public static void WriteString(ByteBuffer buffer, String s) {
+        WriteBytes(buffer, s == null ? null : s.getBytes(StandardCharsets.UTF_8)); // Write bytes
+    }
+
+    /**
+     * Read a length-prefixed UTF-8 string.
+     *
+     * @param buffer buffer to read from
+     * @return read string
+     */
+    public static String ReadString(ByteBuffer buffer) {
+        byte[] b = ReadBytes(buffer); // Read bytes
+
+        return b == null ? null : new String(b, StandardCharsets.UTF_8); // Return string
+    }
+
+    /**
+     * Read an enum constant from its one byte ordinal.
+     *
+     * @param buffer buffer to read from
+     * @param values enum constants
+     * @return read constant (null if the ordinal is -1)
+     */
+    public static <T extends Enum<T>> T ReadEnum(ByteBuffer buffer, T[] values) {
+        Require(buffer, 1); // Check has ordinal
+
+        byte ordinal = buffer.get(); // Read ordinal
+
+        if (ordinal == -1) { // Check null
+            return null; // Null
+        }
+
+        if (ordinal < 0 || ordinal >= values.length) { // Check invalid ordinal
+            throw new IllegalArgumentException("invalid enum ordinal"); // Panic
+        }
+
+        return values[ordinal]; // Return constant
+    }
+
+    /**
+     * Write an enum constant as its one byte ordinal.
+     *
+     * @param buffer buffer to write to
+     * @param value  constant to write
+     */
+    public static void WriteEnum(ByteBuffer buffer, Enum<?> value) {
+        buffer.put(value == null ? (byte) -1 : (byte) value.ordinal()); // Write ordinal
+    }
+
+    /**
+     * Ensure a given buffer has at least n bytes remaining.
+     *
+     * @param buffer buffer to check
+     * @param n      required bytes
+     */
+    public static void Require(ByteBuffer buffer, int n) {
+        if (buffer.remaining() < n) { // Check truncated
+            throw new IllegalArgumentException("truncated input"); // Panic
+        }
+    }
+}
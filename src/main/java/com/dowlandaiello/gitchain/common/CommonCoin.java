@@ -9,4 +9,7 @@ package com.dowlandaiello.gitchain.common;
 public class CommonCoin {
     /* Miner coinbase */
     public static byte[] MinerCoinbase;
+
+    /* Max value a block after genesis may mint to its miner */
+    public static final float BlockReward = 50f;
 }
\ No newline at end of file
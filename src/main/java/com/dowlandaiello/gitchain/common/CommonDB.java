@@ -0,0 +1,174 @@
+package com.dowlandaiello.gitchain.common;
+
+import java.nio.ByteBuffer;
+
+/**
+ * CommonDB outlines the common LevelDB key layout used by the block database.
+ *
+ * Keys are prefixed by their record type, and numeric components are encoded
+ * big-endian so LevelDB's lexicographic ordering matches numeric ordering:
+ *
+ * b/<hash>    => serialized block
+ * h/<height>  => hash of the canonical block at height
+ * i/<hash>    => height of canonical block with hash
+ * m/<hash>    => height and total difficulty of any stored block
+ * u/<hash>    => account states before canonical block with hash
+ * a/<account> => account balance and nonce
+ * t/<hash>    => state trie node
+ */
+public class CommonDB {
+    /* Block body key prefix */
+    public static final byte[] BlockPrefix = "b/".getBytes();
+
+    /* Canonical height => hash key prefix */
+    public static final byte[] HeightPrefix = "h/".getBytes();
+
+    /* Hash => height key prefix */
+    public static final byte[] HashHeightPrefix = "i/".getBytes();
+
+    /* Hash => height and total difficulty key prefix */
+    public static final byte[] BlockMetaPrefix = "m/".getBytes();
+
+    /* Block state undo record key prefix */
+    public static final byte[] UndoPrefix = "u/".getBytes();
+
+    /* Account state key prefix */
+    public static final byte[] AccountPrefix = "a/".getBytes();
+
+    /* State trie node key prefix */
+    public static final byte[] TrieNodePrefix = "t/".getBytes();
+
+    /* Chain head hash key */
+    public static final byte[] HeadHashKey = "chain_head_hash".getBytes();
+
+    /* Chain head height key */
+    public static final byte[] HeadHeightKey = "chain_head_height".getBytes();
+
+    /* Chain total difficulty key */
+    public static final byte[] TotalDifficultyKey = "chain_total_difficulty".getBytes();
+
+    /* Height of the last block whose account state was flushed */
+    public static final byte[] StateHeightKey = "state_height".getBytes();
+
+    /* State trie root at the last flush */
+    public static final byte[] StateRootKey = "state_root".getBytes();
+
+    /**
+     * Get the block body key for a given block hash.
+     *
+     * @param hash block hash
+     * @return block body key
+     */
+    public static byte[] BlockKey(byte[] hash) {
+        return Prefixed(BlockPrefix, hash); // Return key
+    }
+
+    /**
+     * Get the canonical index key for a given block height.
+     *
+     * @param height block height
+     * @return height index key
+     */
+    public static byte[] HeightKey(long height) {
+        return Prefixed(HeightPrefix, EncodeLong(height)); // Return key
+    }
+
+    /**
+     * Get the hash => height index key for a given block hash.
+     *
+     * @param hash block hash
+     * @return hash index key
+     */
+    public static byte[] HashHeightKey(byte[] hash) {
+        return Prefixed(HashHeightPrefix, hash); // Return key
+    }
+
+    /**
+     * Get the block metadata (height and total difficulty) key for a given block hash.
+     *
+     * @param hash block hash
+     * @return block metadata key
+     */
+    public static byte[] BlockMetaKey(byte[] hash) {
+        return Prefixed(BlockMetaPrefix, hash); // Return key
+    }
+
+    /**
+     * Get the state undo record key for a given block hash.
+     *
+     * @param hash block hash
+     * @return undo record key
+     */
+    public static byte[] UndoKey(byte[] hash) {
+        return Prefixed(UndoPrefix, hash); // Return key
+    }
+
+    /**
+     * Get the account state key for a given account.
+     *
+     * @param account account address
+     * @return account state key
+     */
+    public static byte[] AccountKey(byte[] account) {
+        return Prefixed(AccountPrefix, account); // Return key
+    }
+
+    /**
+     * Get the state trie node key for a given node hash.
+     *
+     * @param hash node hash
+     * @return state trie node key
+     */
+    public static byte[] TrieNodeKey(byte[] hash) {
+        return Prefixed(TrieNodePrefix, hash); // Return key
+    }
+
+    /**
+     * Check whether a given key begins with a given prefix.
+     *
+     * @param key    key to check
+     * @param prefix prefix to check for
+     * @return whether key begins with prefix
+     */
+    public static boolean HasPrefix(byte[] key, byte[] prefix) {
+        return key.length >= prefix.length
+                && CommonByteCmp.compareTo(key, 0, prefix.length, prefix, 0, prefix.length) == 0; // Compare
+    }
+
+    /**
+     * Concatenate a key prefix and a key.
+     *
+     * @param prefix key prefix
+     * @param key    key
+     * @return prefixed key
+     */
+    public static byte[] Prefixed(byte[] prefix, byte[] key) {
+        byte[] prefixed = new byte[prefix.length + key.length]; // Init buffer
+
+        System.arraycopy(prefix, 0, prefixed, 0, prefix.length); // Copy prefix
+        System.arraycopy(key, 0, prefixed, prefix.length, key.length); // Copy key
+
+        return prefixed; // Return prefixed key
+    }
+
+    /**
+     * Encode a long as 8 big-endian bytes.
+     *
+     * @param value value to encode
+     * @return encoded value
+     */
+    public static byte[] EncodeLong(long value) {
+        return ByteBuffer.allocate(8).putLong(value).array(); // Encode
+    }
+
+    /**
+     * Decode a long from 8 big-endian bytes, starting at a given offset.
+     *
+     * @param b      buffer to decode from
+     * @param offset offset of the encoded value
+     * @return decoded value
+     */
+    public static long DecodeLong(byte[] b, int offset) {
+        return ByteBuffer.wrap(b, offset, 8).getLong(); // Decode
+    }
+}
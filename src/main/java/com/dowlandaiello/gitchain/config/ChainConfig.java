@@ -38,19 +38,39 @@ public class ChainConfig implements Serializable {
     /* Starting chain difficulty */
     public Float Difficulty;
 
+    /* Number of recent block timestamps difficulty is retargeted from (0 for the parent only) */
+    public int RetargetWindow;
+
     /**
-     * Initialize a new chain config.
+     * Initialize a new chain config retargeting difficulty from the parent block
+     * only.
      * 
      * @param alloc   chain supply allocation
      * @param network chain network identifier
      * @param chain   chain name / version
      */
     public ChainConfig(Map<BigInteger, Float> alloc, int network, String chain, int blockInterval, Float difficulty) {
+        this(alloc, network, chain, blockInterval, difficulty, 0); // Init config
+    }
+
+    /**
+     * Initialize a new chain config.
+     * 
+     * @param alloc          chain supply allocation
+     * @param network        chain network identifier
+     * @param chain          chain name / version
+     * @param blockInterval  time in seconds between blocks
+     * @param difficulty     starting chain difficulty
+     * @param retargetWindow number of recent block timestamps to retarget from
+     */
+    public ChainConfig(Map<BigInteger, Float> alloc, int network, String chain, int blockInterval, Float difficulty,
+            int retargetWindow) {
         this.Alloc = alloc; // Set alloc
         this.Network = network; // Set network
         this.Chain = chain; // Set chain
         this.BlockInterval = blockInterval; // Set block time
         this.Difficulty = difficulty; // Set difficulty
+        this.RetargetWindow = retargetWindow; // Set retarget window
     }
 
     /**
@@ -68,6 +88,7 @@ public class ChainConfig implements Serializable {
         this.Chain = chainConfig.Chain; // Set chain
         this.BlockInterval = chainConfig.BlockInterval; // Set block time
         this.Difficulty = chainConfig.Difficulty; // Set difficulty
+        this.RetargetWindow = chainConfig.RetargetWindow; // Set retarget window
     }
 
     /**
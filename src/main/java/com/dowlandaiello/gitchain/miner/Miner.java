@@ -0,0 +1,322 @@
+package com.dowlandaiello.gitchain.miner;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.dowlandaiello.gitchain.crypto.Sha;
+import com.dowlandaiello.gitchain.types.Block;
+import com.dowlandaiello.gitchain.types.Blockchain;
+
+/**
+ * Miner is a multithreaded proof-of-work nonce search.
+ *
+ * The nonce-free header digest and difficulty target are computed once per
+ * template, and the nonce space is striped across worker threads, each of
+ * which checks candidates through the allocation-free Blockchain.VerifyNonce.
+ */
+public class Miner {
+    /* Number of distinct nonces (nonces are hashed as floats) */
+    public static final long NonceSpace = 1L << 24;
+
+    /* Number of attempts between hash counter updates and cancellation checks */
+    private static final int BatchSize = 4096;
+
+    /* Number of worker threads */
+    public final int Threads;
+
+    /* Worker thread pool */
+    private final ExecutorService workers;
+
+    /* Total hashes computed */
+    private final AtomicLong hashes = new AtomicLong();
+
+    /* Working job */
+    private volatile Job workingJob;
+
+    /* Time the working (or last) job started, in nanoseconds */
+    private volatile long startedAt;
+
+    /* Hashes computed before the working (or last) job started */
+    private volatile long hashesAtStart;
+
+    /* Time the last job finished, in nanoseconds (0 while mining) */
+    private volatile long finishedAt;
+
+    /**
+     * Initialize a new miner with a given number of worker threads.
+     *
+     * @param threads number of worker threads
+     */
+    public Miner(int threads) {
+        this.Threads = Math.max(1, threads); // Set threads
+        this.workers = Executors.newFixedThreadPool(this.Threads, new java.util.concurrent.ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger(); // Thread counter
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "miner-" + this.count.getAndIncrement()); // Init thread
+
+                thread.setDaemon(true); // Don't block shutdown
+
+                return thread; // Return thread
+            }
+        }); // Init workers
+    }
+
+    /**
+     * Search for a valid nonce for a given block template whose difficulty
+     * doesn't depend on its timestamp (e.g. a genesis block). See Mine(Block,
+     * Blockchain).
+     *
+     * @param template block to mine (its Nonce, Timestamp, and Hash are set in place)
+     * @return the solved template (null if cancelled)
+     */
+    public Block Mine(Block template) {
+        return this.Mine(template, null); // Mine
+    }
+
+    /**
+     * Search for a valid nonce for a given block template. Blocks until a nonce is
+     * found or the search is cancelled; only one search runs at a time. If the nonce
+     * space is exhausted, the template timestamp is bumped, its difficulty is
+     * retargeted from its parent for the new timestamp, and the search restarts.
+     *
+     * @param template block to mine (its Nonce, Timestamp, Difficulty, and Hash are
+     *                 set in place)
+     * @param chain    chain holding the template's parent (null to keep the
+     *                 template's difficulty)
+     * @return the solved template (null if cancelled)
+     */
+    public Block Mine(Block template, Blockchain chain) {
+        this.Cancel(); // Cancel any working job
+
+        this.startedAt = System.nanoTime(); // Set start time
+        this.hashesAtStart = this.hashes.get(); // Set start hashes
+        this.finishedAt = 0; // Reset finish time
+
+        Job job = new Job(template, this.Threads, new AtomicBoolean()); // Init job
+
+        this.workingJob = job; // Set working job (before any worker starts, so it can be cancelled)
+
+        try {
+            while (true) { // Mine until solved or cancelled
+                for (int i = 0; i < this.Threads; i++) { // Start workers
+                    this.workers.execute(new Worker(job, i)); // Start worker
+                }
+
+                try {
+                    job.Finished.await(); // Wait for workers
+                } catch (InterruptedException e) { // Catch
+                    job.Cancelled.set(true); // Cancel job
+
+                    Thread.currentThread().interrupt(); // Restore interrupt
+
+                    return null; // Cancelled
+                }
+
+                if (job.Solution >= 0) { // Check solved
+                    template.Nonce = job.Solution; // Set nonce
+                    template.Hash = Sha.Sha3(template.BytesHashSafe()); // Hash
+
+                    return template; // Return solved
+                }
+
+                if (job.Cancelled.get()) { // Check cancelled
+                    return null; // Cancelled
+                }
+
+                template.Timestamp++; // Nonce space exhausted, move to a fresh header
+
+                Block parent = chain == null ? null : chain.GetBlockByHash(template.ParentHash); // Get parent
+
+                if (parent != null) { // Check has parent
+                    template.Difficulty = chain.NextDifficulty(parent, template.Timestamp); // Retarget for new timestamp
+                }
+
+                job = new Job(template, this.Threads, job.Cancelled); // Init job (sharing the search's cancellation)
+
+                this.workingJob = job; // Set working job
+            }
+        } finally {
+            this.finishedAt = System.nanoTime(); // Set finish time
+        }
+    }
+
+    /**
+     * Cancel the working search, if any.
+     */
+    public void Cancel() {
+        Job job = this.workingJob; // Get working job
+
+        if (job != null) { // Check has job
+            job.Cancelled.set(true); // Cancel job
+        }
+    }
+
+    /**
+     * Notify the miner of a new chain head. Cancels the working search if it isn't
+     * building on the new head.
+     *
+     * @param parent new chain head
+     * @return whether the working search was cancelled
+     */
+    public boolean NewParent(Block parent) {
+        Job job = this.workingJob; // Get working job
+
+        if (job != null && !Arrays.equals(job.Template.ParentHash, parent.Hash)) { // Check stale template
+            job.Cancelled.set(true); // Cancel search
+
+            return true; // Cancelled
+        }
+
+        return false; // Still valid
+    }
+
+    /**
+     * Get the total number of hashes computed by the miner.
+     *
+     * @return total hashes
+     */
+    public long Hashes() {
+        return this.hashes.get(); // Return hashes
+    }
+
+    /**
+     * Get the hash rate of the working (or last) search.
+     *
+     * @return hashes per second
+     */
+    public double HashRate() {
+        long end = this.finishedAt == 0 ? System.nanoTime() : this.finishedAt; // Get end time
+        long elapsed = end - this.startedAt; // Get elapsed time
+
+        if (this.startedAt == 0 || elapsed <= 0) { // Check never mined
+            return 0; // No rate
+        }
+
+        return (this.hashes.get() - this.hashesAtStart) * 1e9 / elapsed; // Return rate
+    }
+
+    /**
+     * Cancel the working search and stop all worker threads.
+     */
+    public void Shutdown() {
+        this.Cancel(); // Cancel search
+        this.workers.shutdownNow(); // Stop workers
+    }
+
+    /**
+     * Job is a single template search shared by all workers. The jobs of a single
+     * Mine call share their cancellation, so cancelling between jobs stops the
+     * next one.
+     */
+    private static class Job {
+        /* Block being mined */
+        final Block Template;
+
+        /* Nonce-free header digest */
+        final byte[] HeaderDigest;
+
+        /* Target hash */
+        final byte[] Target;
+
+        /* Set when the job should stop */
+        final AtomicBoolean Cancelled;
+
+        /* Set when all workers have stopped */
+        final CountDownLatch Finished;
+
+        /* Found nonce (-1 if none) */
+        volatile long Solution = -1;
+
+        /**
+         * Initialize a new job, computing the template's header digest and target.
+         *
+         * @param template  block to mine
+         * @param workers   number of workers
+         * @param cancelled cancellation of the search the job belongs to
+         */
+        Job(Block template, int workers, AtomicBoolean cancelled) {
+            this.Template = template; // Set template
+            this.Cancelled = cancelled; // Set cancellation
+            this.HeaderDigest = template.HeaderDigest(); // Set digest
+            this.Target = Blockchain.CalculateTarget(template.Difficulty); // Set target
+            this.Finished = new CountDownLatch(workers); // Init latch
+        }
+
+        /**
+         * Record a found nonce, stopping all other workers.
+         *
+         * @param nonce found nonce
+         */
+        void Solve(long nonce) {
+            if (this.Cancelled.compareAndSet(false, true)) { // Check first solution
+                this.Solution = nonce; // Set solution
+            }
+        }
+    }
+
+    /**
+     * Worker searches every Nth nonce of a job.
+     */
+    private class Worker implements Runnable {
+        /* Job to work on */
+        private final Job job;
+
+        /* Worker index */
+        private final int index;
+
+        /**
+         * Initialize a new worker.
+         *
+         * @param job   job to work on
+         * @param index worker index
+         */
+        Worker(Job job, int index) {
+            this.job = job; // Set job
+            this.index = index; // Set index
+        }
+
+        /**
+         * Search this worker's stripe of the nonce space.
+         */
+        @Override
+        public void run() {
+            try {
+                byte[] headerDigest = this.job.HeaderDigest; // Get digest
+                byte[] target = this.job.Target; // Get target
+
+                int count = 0; // Init batch counter
+
+                for (long nonce = this.index; nonce < NonceSpace; nonce += Threads) { // Search stripe
+                    if (Blockchain.VerifyNonce(headerDigest, nonce, target)) { // Check valid
+                        hashes.addAndGet(count + 1); // Add hashes
+
+                        this.job.Solve(nonce); // Solve
+
+                        return; // Done
+                    }
+
+                    if (++count == BatchSize) { // Check batch done
+                        hashes.addAndGet(count); // Add hashes
+
+                        count = 0; // Reset counter
+
+                        if (this.job.Cancelled.get()) { // Check cancelled
+                            return; // Done
+                        }
+                    }
+                }
+
+                hashes.addAndGet(count); // Add remaining hashes
+            } finally {
+                this.job.Finished.countDown(); // Mark finished
+            }
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.dowlandaiello.gitchain.p2p;
+
+import java.util.Arrays;
+
+/**
+ * BootstrapPage is a single page of a DHT bootstrap: a bounded set of node db
+ * entries, and a continuation token the next page can be requested with.
+ *
+ * The first page of a bootstrap carries the nodes closest to the requester;
+ * every following page carries the next entries of the serving node's db in
+ * key order. A token is the last key sent, prefixed by a marker byte, so that
+ * a bootstrap can be resumed later, or from another connection.
+ */
+public class BootstrapPage {
+    /* Token requesting the first page of a bootstrap */
+    public static final byte[] FirstPage = new byte[0];
+
+    /* Token requesting the start of a node db scan */
+    public static final byte[] ScanStart = new byte[] { 1 };
+
+    /* Node db keys */
+    public final byte[][] Keys;
+
+    /* Node db values (encoded peers) */
+    public final byte[][] Values;
+
+    /* Token to request the next page with (empty if this is the last page) */
+    public final byte[] Token;
+
+    /**
+     * Initialize a new bootstrap page.
+     *
+     * @param keys   node db keys
+     * @param values node db values
+     * @param token  token to request the next page with (empty if last)
+     */
+    public BootstrapPage(byte[][] keys, byte[][] values, byte[] token) {
+        if (keys.length != values.length) { // Check mismatched entries
+            throw new IllegalArgumentException("bootstrap page must have a value for every key"); // Panic
+        }
+
+        this.Keys = keys; // Set keys
+        this.Values = values; // Set values
+        this.Token = token; // Set token
+    }
+
+    /**
+     * Decode a bootstrap page from a given response event.
+     *
+     * @param event response event
+     */
+    public BootstrapPage(ConnectionEvent event) {
+        if (event.Meta == null || event.Meta.length == 0 || event.Meta.length % 2 != 1) { // Check malformed
+            throw new IllegalArgumentException("malformed bootstrap page"); // Panic
+        }
+
+        int size = event.Meta.length / 2; // Get number of entries
+
+        this.Token = event.Meta[0]; // Set token
+        this.Keys = new byte[size][]; // Init keys
+        this.Values = new byte[size][]; // Init values
+
+        for (int i = 0; i < size; i++) { // Iterate through entries
+            this.Keys[i] = event.Meta[1 + 2 * i]; // Set key
+            this.Values[i] = event.Meta[2 + 2 * i]; // Set value
+        }
+    }
+
+    /**
+     * Encode the page as a response event.
+     *
+     * @return response event
+     */
+    public ConnectionEvent Event() {
+        byte[][] meta = new byte[1 + 2 * this.Keys.length][]; // Init meta
+
+        meta[0] = this.Token; // Set token
+
+        for (int i = 0; i < this.Keys.length; i++) { // Iterate through entries
+            meta[1 + 2 * i] = this.Keys[i]; // Set key
+            meta[2 + 2 * i] = this.Values[i]; // Set value
+        }
+
+        return new ConnectionEvent(ConnectionEvent.ConnectionEventType.Response, meta); // Return event
+    }
+
+    /**
+     * Get the number of entries in the page.
+     *
+     * @return number of entries
+     */
+    public int Size() {
+        return this.Keys.length; // Return size
+    }
+
+    /**
+     * Check whether this is the last page of the bootstrap.
+     *
+     * @return whether there are no more pages
+     */
+    public boolean Done() {
+        return this.Token.length == 0; // Check no token
+    }
+
+    /**
+     * Make a token resuming a node db scan after a given key.
+     *
+     * @param key last key sent
+     * @return token
+     */
+    public static byte[] ResumeAfter(byte[] key) {
+        byte[] token = new byte[key.length + 1]; // Init token
+
+        token[0] = ScanStart[0]; // Set marker
+
+        System.arraycopy(key, 0, token, 1, key.length); // Set key
+
+        return token; // Return token
+    }
+
+    /**
+     * Get the last key sent before a given scan token.
+     *
+     * @param token scan token
+     * @return last key sent (empty if the scan hasn't started)
+     */
+    public static byte[] LastKey(byte[] token) {
+        if (token.length == 0 || token[0] != ScanStart[0]) { // Check not a scan token
+            throw new IllegalArgumentException("invalid bootstrap token"); // Panic
+        }
+
+        return Arrays.copyOfRange(token, 1, token.length); // Return key
+    }
+}
@@ -0,0 +1,510 @@
+package com.dowlandaiello.gitchain.p2p;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.dowlandaiello.gitchain.common.CommonDB;
+import com.dowlandaiello.gitchain.crypto.Sha;
+import com.dowlandaiello.gitchain.types.Block;
+import com.dowlandaiello.gitchain.types.Blockchain;
+import com.dowlandaiello.gitchain.types.DifficultyRetarget;
+import com.dowlandaiello.gitchain.types.ImportPipeline;
+
+/**
+ * ChainSync brings a local chain up to date with its peers headers-first.
+ *
+ * Header chains are downloaded from every peer at once and checked link by
+ * link (parent hash, retargeted difficulty, and proof of work) without any
+ * transactions, and the chain with the most work is kept. Bodies are then
+ * fetched in fixed-size windows, several windows at a time, each from a
+ * different peer, and imported in order through an import pipeline (which
+ * checks signatures and each block against its parent before committing);
+ * windows arriving ahead of the ones below them are held until those land.
+ *
+ * A block hash covers its transactions, so the hash a header claims is only
+ * verified once its body arrives; a window whose bodies don't match their
+ * headers is requested again from the next peer.
+ */
+public class ChainSync {
+    /* Max number of headers in a single request */
+    public static final int HeaderBatchSize = 512;
+
+    /* Default number of blocks in a body download window */
+    public static final int DefaultWindowSize = 64;
+
+    /* Default number of body download windows in flight at once */
+    public static final int DefaultWindowsInFlight = 8;
+
+    /* Number of failed requests after which a window is given up on */
+    public static final int MaxAttempts = 4;
+
+    /* Max size of the blocks in a single response */
+    public static final int MaxResponseSize = Frame.MaxFrameSize / 2;
+
+    /* Time a peer has to answer a sync request, in milliseconds */
+    public static final int RequestTimeout = 10000;
+
+    /* Chain being synced */
+    public final Blockchain Chain;
+
+    /* Number of blocks in a body download window */
+    public final int WindowSize;
+
+    /* Number of body download windows in flight at once */
+    public final int WindowsInFlight;
+
+    /* Source headers and bodies are downloaded from */
+    private final Source source;
+
+    /* Peers to sync from */
+    private final List<Peer> peers;
+
+    /* Number of failed or rejected requests */
+    private final AtomicLong failures = new AtomicLong();
+
+    /**
+     * Source is anything that can serve headers and blocks of a remote chain.
+     */
+    public static interface Source {
+        /**
+         * Get up to count headers of a peer's canonical chain, starting at a given
+         * height.
+         *
+         * @param peer        peer to ask
+         * @param startHeight height of the first header
+         * @param count       max number of headers
+         * @return headers in height order (null if the peer didn't answer)
+         */
+        List<Block> GetHeaders(Peer peer, long startHeight, int count);
+
+        /**
+         * Get the blocks with the given hashes from a peer. Peers may answer with
+         * a prefix of the requested blocks.
+         *
+         * @param peer   peer to ask
+         * @param hashes hashes of the requested blocks
+         * @return blocks in request order (null if the peer didn't answer)
+         */
+        List<Block> GetBlocks(Peer peer, List<byte[]> hashes);
+    }
+
+    /**
+     * Initialize a new chain sync with the default window size.
+     *
+     * @param chain  chain to sync
+     * @param source source to download from
+     * @param peers  peers to sync from
+     */
+    public ChainSync(Blockchain chain, Source source, List<Peer> peers) {
+        this(chain, source, peers, DefaultWindowSize, DefaultWindowsInFlight); // Init sync
+    }
+
+    /**
+     * Initialize a new chain sync.
+     *
+     * @param chain           chain to sync
+     * @param source          source to download from
+     * @param peers           peers to sync from
+     * @param windowSize      number of blocks in a body download window
+     * @param windowsInFlight number of body download windows in flight at once
+     */
+    public ChainSync(Blockchain chain, Source source, List<Peer> peers, int windowSize, int windowsInFlight) {
+        if (peers.isEmpty()) { // Check no peers
+            throw new IllegalArgumentException("chain sync needs at least one peer"); // Panic
+        }
+
+        this.Chain = chain; // Set chain
+        this.source = source; // Set source
+        this.peers = new ArrayList<Peer>(peers); // Set peers
+        this.WindowSize = Math.max(1, windowSize); // Set window size
+        this.WindowsInFlight = Math.max(1, windowsInFlight); // Set windows in flight
+    }
+
+    /**
+     * Sync the chain: download and verify the best header chain, then download,
+     * verify, and add its bodies in order.
+     *
+     * @param executor executor downloads are run on
+     * @return number of blocks added (-1 if no peer answered)
+     */
+    public long Sync(ExecutorService executor) {
+        List<Block> headers = this.DownloadHeaders(executor); // Download headers
+
+        if (headers == null) { // Check no peer answered
+            return -1; // Failed
+        }
+
+        return this.DownloadBodies(headers, executor); // Download bodies
+    }
+
+    /**
+     * Download the header chain of every peer in parallel, keeping the valid
+     * chain with the most work. A peer's chain is cut off at its first invalid
+     * header.
+     *
+     * @param executor executor downloads are run on
+     * @return best header chain extending the local head (null if no peer answered)
+     */
+    public List<Block> DownloadHeaders(ExecutorService executor) {
+        final Block head = this.Chain.GetLastBlock(); // Get local head
+        final long startHeight = this.Chain.GetBlockHeight(head.Hash) + 1; // Get first missing height
+
+        List<Future<List<Block>>> downloads = new ArrayList<Future<List<Block>>>(); // Init downloads
+
+        for (final Peer peer : this.peers) { // Iterate through peers
+            downloads.add(executor.submit(new Callable<List<Block>>() {
+                @Override
+                public List<Block> call() {
+                    return downloadHeaders(peer, head, startHeight); // Download peer's headers
+                }
+            })); // Start download
+        }
+
+        List<Block> best = null; // Init best chain
+        long bestWork = 0; // Init best chain work
+
+        for (Future<List<Block>> download : downloads) { // Iterate through downloads
+            List<Block> headers = this.await(download); // Wait for download
+
+            if (headers == null) { // Check failed
+                continue; // Skip
+            }
+
+            long work = 0; // Init chain work
+
+            for (Block header : headers) { // Iterate through headers
+                work = DifficultyRetarget.AddWork(work, header.Difficulty); // Add work
+            }
+
+            if (best == null || work > bestWork) { // Check more work
+                best = headers; // Set best
+                bestWork = work; // Set best work
+            }
+        }
+
+        return best; // Return best chain
+    }
+
+    /**
+     * Download the bodies of a given verified header chain in parallel windows
+     * and import them into the chain through an import pipeline, which checks
+     * bodies in parallel and commits them in batches. A window finishing before
+     * the ones below it is held until they land rather than downloaded again; at
+     * most WindowsInFlight windows' worth of blocks are held. Stops at the first
+     * window that can't be downloaded, or the first block the pipeline rejects.
+     *
+     * @param headers  header chain extending the local head
+     * @param executor executor downloads are run on
+     * @return number of blocks added
+     */
+    public long DownloadBodies(List<Block> headers, ExecutorService executor) {
+        CompletionService<List<Block>> completed = new ExecutorCompletionService<List<Block>>(executor); // Init completion queue
+        Map<Future<List<Block>>, Integer> inFlight = new HashMap<Future<List<Block>>, Integer>(); // Init windows in flight by number
+        Map<Integer, List<Block>> held = new HashMap<Integer, List<Block>>(); // Init windows waiting on the ones below them
+
+        ImportPipeline pipeline = new ImportPipeline(this.Chain); // Init import pipeline
+
+        int next = 0; // Init next window start
+        int window = 0; // Init next window number
+        int imported = 0; // Init next window number to import
+        long submitted = 0; // Init submitted blocks
+
+        long added = 0; // Init added blocks
+
+        try {
+            while (!pipeline.Stopped()) { // Download until done or rejected
+                while (next < headers.size() && inFlight.size() < this.WindowsInFlight
+                        && next < submitted + this.WindowSize * this.WindowsInFlight) { // Fill windows (bounding held blocks)
+                    final List<Block> windowHeaders = headers.subList(next, Math.min(next + this.WindowSize, headers.size())); // Get window
+                    final int offset = window++; // Get window number
+
+                    inFlight.put(completed.submit(new Callable<List<Block>>() {
+                        @Override
+                        public List<Block> call() {
+                            return downloadWindow(windowHeaders, offset); // Download window
+                        }
+                    }), offset); // Start download
+
+                    next += windowHeaders.size(); // Move to next window
+                }
+
+                if (inFlight.isEmpty()) { // Check nothing left to wait for
+                    break; // Done
+                }
+
+                Future<List<Block>> download = this.take(completed); // Wait for any window
+
+                if (download == null) { // Check interrupted
+                    break; // Done
+                }
+
+                int number = inFlight.remove(download); // Window done
+
+                List<Block> bodies = this.await(download); // Get bodies
+
+                if (bodies == null) { // Check failed
+                    break; // Done
+                }
+
+                held.put(number, bodies); // Hold window
+
+                for (List<Block> ready; (ready = held.remove(imported)) != null; imported++) { // Iterate through windows in order
+                    for (Block body : ready) { // Iterate through bodies
+                        if (!pipeline.Submit(body)) { // Import block
+                            break; // Pipeline stopped
+                        }
+
+                        submitted++; // Count block
+                    }
+                }
+            }
+        } finally {
+            for (Future<List<Block>> pending : inFlight.keySet()) { // Iterate through abandoned windows
+                pending.cancel(true); // Stop download
+            }
+
+            added = pipeline.Finish(); // Wait for imports
+        }
+
+        return added; // Return added blocks
+    }
+
+    /**
+     * Get the number of failed or rejected requests.
+     *
+     * @return number of failures
+     */
+    public long Failures() {
+        return this.failures.get(); // Return failures
+    }
+
+    /**
+     * Download and verify the header chain of a given peer.
+     *
+     * @param peer        peer to download from
+     * @param head        local head
+     * @param startHeight height of the first header
+     * @return valid headers (null if the peer didn't answer)
+     */
+    private List<Block> downloadHeaders(Peer peer, Block head, long startHeight) {
+        List<Block> headers = new ArrayList<Block>(); // Init headers
+
+        Block parent = head; // Init parent
+
+        DifficultyRetarget retarget = this.Chain.Retarget(); // Get retarget rule
+        long[] window = this.Chain.TimestampWindow(head); // Get timestamps ending at head
+
+        while (true) { // Download batches
+            List<Block> batch = this.source.GetHeaders(peer, startHeight + headers.size(), HeaderBatchSize); // Get batch
+
+            if (batch == null) { // Check no answer
+                this.failures.incrementAndGet(); // Count failure
+
+                return headers.isEmpty() ? null : headers; // Keep what was downloaded
+            }
+
+            for (Block header : batch) { // Iterate through headers
+                if (!Blockchain.VerifyHeader(retarget, window, parent, header)) { // Check doesn't extend chain
+                    this.failures.incrementAndGet(); // Count failure
+
+                    return headers; // Cut off chain
+                }
+
+                parent = header.IsHeader() ? header : header.Header(); // Drop any body
+                window = retarget.Push(window, parent.Timestamp); // Move window
+
+                headers.add(parent); // Add header
+            }
+
+            if (batch.size() < HeaderBatchSize) { // Check peer's head reached
+                return headers; // Done
+            }
+        }
+    }
+
+    /**
+     * Download the bodies of a given window of headers, rotating through peers
+     * when a peer fails or answers with bodies that don't match.
+     *
+     * @param headers window headers
+     * @param offset  window number (used to spread windows across peers)
+     * @return bodies in height order (null if the window couldn't be downloaded)
+     */
+    private List<Block> downloadWindow(List<Block> headers, int offset) {
+        List<Block> bodies = new ArrayList<Block>(headers.size()); // Init bodies
+
+        int attempts = 0; // Init failed attempts
+        int peer = offset; // Init peer
+
+        while (bodies.size() < headers.size()) { // Download until done
+            if (attempts >= MaxAttempts || Thread.currentThread().isInterrupted()) { // Check given up
+                return null; // Failed
+            }
+
+            List<byte[]> hashes = new ArrayList<byte[]>(); // Init requested hashes
+
+            for (Block header : headers.subList(bodies.size(), headers.size())) { // Iterate through missing bodies
+                hashes.add(header.Hash); // Request body
+            }
+
+            List<Block> answer = this.source.GetBlocks(this.peers.get(peer % this.peers.size()), hashes); // Request bodies
+
+            int matched = 0; // Init matched bodies
+
+            if (answer != null) { // Check answered
+                for (Block body : answer) { // Iterate through bodies
+                    if (bodies.size() == headers.size() || !MatchesHeader(headers.get(bodies.size()), body)) { // Check doesn't match
+                        break; // Reject rest
+                    }
+
+                    bodies.add(body); // Add body
+                    matched++; // Count match
+                }
+            }
+
+            if (answer == null || matched == 0 || matched < answer.size()) { // Check failed or sent bad bodies
+                this.failures.incrementAndGet(); // Count failure
+
+                attempts++; // Count attempt
+                peer++; // Try next peer
+            }
+        }
+
+        return bodies; // Return bodies
+    }
+
+    /**
+     * Check whether a given block is the body of a given verified header.
+     *
+     * @param header verified header
+     * @param body   downloaded block
+     * @return whether the block matches the header
+     */
+    public static boolean MatchesHeader(Block header, Block body) {
+        if (body == null || body.Transactions == null || body.Nonce != header.Nonce) { // Check no body or different pow
+            return false; // Doesn't match
+        }
+
+        if (!Arrays.equals(body.MerkleRoot, Block.HashTransactionSum(body.Transactions))) { // Check transactions don't match root
+            return false; // Doesn't match
+        }
+
+        if (!Arrays.equals(body.HeaderDigest(), header.HeaderDigest())) { // Check different header
+            return false; // Doesn't match
+        }
+
+        return Arrays.equals(body.Hash, header.Hash) && Arrays.equals(Sha.Sha3(body.BytesHashSafe()), header.Hash); // Check hash
+    }
+
+    /**
+     * Wait for the next finished download.
+     *
+     * @param completed completion queue downloads are submitted to
+     * @return finished download (null if interrupted)
+     */
+    private Future<List<Block>> take(CompletionService<List<Block>> completed) {
+        try {
+            return completed.take(); // Wait for download
+        } catch (InterruptedException e) { // Catch
+            Thread.currentThread().interrupt(); // Restore interrupt
+
+            return null; // Failed
+        }
+    }
+
+    /**
+     * Wait for a given download.
+     *
+     * @param download download to wait for
+     * @return downloaded blocks (null if the download failed)
+     */
+    private List<Block> await(Future<List<Block>> download) {
+        try {
+            return download.get(); // Wait for download
+        } catch (InterruptedException e) { // Catch
+            Thread.currentThread().interrupt(); // Restore interrupt
+
+            return null; // Failed
+        } catch (ExecutionException e) { // Catch
+            this.failures.incrementAndGet(); // Count failure
+
+            return null; // Failed
+        }
+    }
+
+    /**
+     * NetworkSource downloads headers and blocks from peers' DHT servers.
+     */
+    public static class NetworkSource implements Source {
+        /* Time a peer has to answer, in milliseconds */
+        private final int timeout;
+
+        /**
+         * Initialize a new network source with the default request timeout.
+         */
+        public NetworkSource() {
+            this(RequestTimeout); // Init source
+        }
+
+        /**
+         * Initialize a new network source.
+         *
+         * @param timeout time a peer has to answer, in milliseconds
+         */
+        public NetworkSource(int timeout) {
+            this.timeout = timeout; // Set timeout
+        }
+
+        @Override
+        public List<Block> GetHeaders(Peer peer, long startHeight, int count) {
+            return this.request(peer, Connection.ConnectionType.GetHeaders,
+                    new byte[][] { CommonDB.EncodeLong(startHeight), CommonDB.EncodeLong(count) }); // Request headers
+        }
+
+        @Override
+        public List<Block> GetBlocks(Peer peer, List<byte[]> hashes) {
+            return this.request(peer, Connection.ConnectionType.GetBlocks, hashes.toArray(new byte[hashes.size()][])); // Request blocks
+        }
+
+        /**
+         * Send a request to a given peer and decode the blocks it answers with.
+         *
+         * @param peer peer to ask
+         * @param type request type
+         * @param meta request meta
+         * @return answered blocks (null if the peer didn't answer)
+         */
+        private List<Block> request(Peer peer, Connection.ConnectionType type, byte[][] meta) {
+            Peer sender = Dht.LocalPeer; // Get local peer
+
+            ConnectionEvent answer = Dht.Call(peer,
+                    new Connection(type, meta, sender == null ? new Peer(null, null, null) : sender, peer), this.timeout); // Send request
+
+            if (answer == null || answer.Type != ConnectionEvent.ConnectionEventType.Response) { // Check no answer
+                return null; // Failed
+            }
+
+            List<Block> blocks = new ArrayList<Block>(answer.Meta.length); // Init blocks
+
+            try {
+                for (byte[] rawBlock : answer.Meta) { // Iterate through blocks
+                    blocks.add(new Block(rawBlock)); // Decode block
+                }
+            } catch (RuntimeException e) { // Catch malformed block
+                return null; // Failed
+            }
+
+            return blocks; // Return blocks
+        }
+    }
+}
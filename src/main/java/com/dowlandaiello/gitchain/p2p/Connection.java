@@ -5,12 +5,12 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.math.BigInteger;
 import java.net.Socket;
+import java.nio.ByteBuffer;
 
+import com.dowlandaiello.gitchain.common.CommonCodec;
 import com.dowlandaiello.gitchain.common.CommonIO;
 import com.dowlandaiello.gitchain.p2p.ConnectionEvent.ConnectionEventType;
 
-import org.apache.commons.lang3.SerializationUtils;
-
 /**
  * Connection represents a given connection's metadata and routing information.
  */
@@ -31,11 +31,11 @@ public class Connection implements Serializable {
     public String RecipientAddress;
 
     /* Current connection */
-    public Socket WorkingSocket;
+    public transient Socket WorkingSocket;
 
     /* Common connection types */
     public static enum ConnectionType {
-        DHTBootstrapRequest, PeerJoinRequest; // Connection type defs
+        DHTBootstrapRequest, PeerJoinRequest, Ping, FindNode, FindValue, InventoryAnnounce, GetData, Data, GetHeaders, GetBlocks; // Connection type defs
     }
 
     /**
@@ -74,7 +74,7 @@ public class Connection implements Serializable {
      * @param rawBytes raw data to deserialize
      */
     public Connection(byte[] rawBytes) {
-        Connection connection = SerializationUtils.deserialize(rawBytes); // Deserialize
+        Connection connection = Decode(ByteBuffer.wrap(rawBytes)); // Decode
 
         this.Type = connection.Type; // Set connection type
         this.Meta = connection.Meta; // Set meta
@@ -89,7 +89,7 @@ public class Connection implements Serializable {
      * @param workingSocket connection socket
      */
     public Connection(byte[] rawBytes, Socket workingSocket) {
-        Connection connection = SerializationUtils.deserialize(rawBytes); // Deserialize
+        Connection connection = Decode(ByteBuffer.wrap(rawBytes)); // Decode
 
         this.Type = connection.Type; // Set connection type
         this.Meta = connection.Meta; // Set meta
@@ -98,6 +98,12 @@ public class Connection implements Serializable {
         this.WorkingSocket = workingSocket; // Set working socket
     }
 
+    /**
+     * Initialize an empty connection to decode into.
+     */
+    private Connection() {
+    }
+
     /**
      * Close connection from receiving peer.
      */
@@ -133,6 +139,52 @@ public class Connection implements Serializable {
      * Serialize connection to byte array.
      */
     public byte[] Bytes() {
-        return (SerializationUtils.serialize(this)); // Serialize
+        ByteBuffer buffer = CommonCodec.GetBuffer(this.EncodedSize()); // Get buffer
+
+        this.Encode(buffer); // Encode
+
+        return CommonCodec.ToArray(buffer); // Return encoded
+    }
+
+    /**
+     * Get the size of the working connection once encoded.
+     *
+     * @return encoded size
+     */
+    public int EncodedSize() {
+        return CommonCodec.HeaderSize + 1 + CommonCodec.SizeOf(this.Meta) + CommonCodec.SizeOf(this.SenderPublicKey)
+                + CommonCodec.SizeOf(this.RecipientAddress); // Return size
+    }
+
+    /**
+     * Encode the working connection into a given buffer.
+     *
+     * @param buffer buffer to encode into
+     */
+    public void Encode(ByteBuffer buffer) {
+        CommonCodec.WriteHeader(buffer, CommonCodec.ConnectionTag); // Write header
+        CommonCodec.WriteEnum(buffer, this.Type); // Write type
+        CommonCodec.WriteBytesArray(buffer, this.Meta); // Write meta
+        CommonCodec.WriteBigInteger(buffer, this.SenderPublicKey); // Write sender
+        CommonCodec.WriteString(buffer, this.RecipientAddress); // Write recipient
+    }
+
+    /**
+     * Decode a connection from a given buffer.
+     *
+     * @param buffer buffer to decode from
+     * @return decoded connection
+     */
+    public static Connection Decode(ByteBuffer buffer) {
+        CommonCodec.ReadHeader(buffer, CommonCodec.ConnectionTag); // Read header
+
+        Connection connection = new Connection(); // Init connection
+
+        connection.Type = CommonCodec.ReadEnum(buffer, ConnectionType.values()); // Read type
+        connection.Meta = CommonCodec.ReadBytesArray(buffer); // Read meta
+        connection.SenderPublicKey = CommonCodec.ReadBigInteger(buffer); // Read sender
+        connection.RecipientAddress = CommonCodec.ReadString(buffer); // Read recipient
+
+        return connection; // Return connection
     }
 }
\ No newline at end of file
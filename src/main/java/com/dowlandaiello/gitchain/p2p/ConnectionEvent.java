@@ -1,11 +1,11 @@
 package com.dowlandaiello.gitchain.p2p;
 
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 
+import com.dowlandaiello.gitchain.common.CommonCodec;
 import com.dowlandaiello.gitchain.common.CommonIO;
 
-import org.apache.commons.lang3.SerializationUtils;
-
 /**
  * Connection event represents an atomic p2p event.
  */
@@ -22,7 +22,7 @@ public class ConnectionEvent implements Serializable {
 
     /* Event types */
     public static enum ConnectionEventType {
-        Close, Response;
+        Close, Response, Nodes, Value;
     }
 
     /**
@@ -40,7 +40,7 @@ public class ConnectionEvent implements Serializable {
      */
     public ConnectionEvent(byte[] rawBytes) {
         try {
-            ConnectionEvent connectionEvent = SerializationUtils.deserialize(rawBytes); // Deserialize
+            ConnectionEvent connectionEvent = Decode(ByteBuffer.wrap(rawBytes)); // Decode
 
             this.Type = connectionEvent.Type; // Set connection event type
             this.Meta = connectionEvent.Meta; // Set meta
@@ -53,6 +53,44 @@ public class ConnectionEvent implements Serializable {
      * Serialize connection event to byte array.
      */
     public byte[] Bytes() {
-        return(SerializationUtils.serialize(this)); // Serialize
+        ByteBuffer buffer = CommonCodec.GetBuffer(this.EncodedSize()); // Get buffer
+
+        this.Encode(buffer); // Encode
+
+        return CommonCodec.ToArray(buffer); // Return encoded
+    }
+
+    /**
+     * Get the size of the working connection event once encoded.
+     *
+     * @return encoded size
+     */
+    public int EncodedSize() {
+        return CommonCodec.HeaderSize + 1 + CommonCodec.SizeOf(this.Meta); // Return size
+    }
+
+    /**
+     * Encode the working connection event into a given buffer.
+     *
+     * @param buffer buffer to encode into
+     */
+    public void Encode(ByteBuffer buffer) {
+        CommonCodec.WriteHeader(buffer, CommonCodec.ConnectionEventTag); // Write header
+        CommonCodec.WriteEnum(buffer, this.Type); // Write type
+        CommonCodec.WriteBytesArray(buffer, this.Meta); // Write meta
+    }
+
+    /**
+     * Decode a connection event from a given buffer.
+     *
+     * @param buffer buffer to decode from
+     * @return decoded connection event
+     */
+    public static ConnectionEvent Decode(ByteBuffer buffer) {
+        CommonCodec.ReadHeader(buffer, CommonCodec.ConnectionEventTag); // Read header
+
+        ConnectionEventType type = CommonCodec.ReadEnum(buffer, ConnectionEventType.values()); // Read type
+
+        return new ConnectionEvent(type, CommonCodec.ReadBytesArray(buffer)); // Return event
     }
 }
\ No newline at end of file
@@ -1,27 +1,55 @@
 package com.dowlandaiello.gitchain.p2p;
 
+import com.dowlandaiello.gitchain.account.Account;
+import com.dowlandaiello.gitchain.common.CommonCodec;
+import com.dowlandaiello.gitchain.common.CommonDB;
 import com.dowlandaiello.gitchain.common.CommonIO;
 import com.dowlandaiello.gitchain.common.CommonNet;
 import com.dowlandaiello.gitchain.common.CommonNet.PeerAddress;
 import com.dowlandaiello.gitchain.config.ChainConfig;
 import com.dowlandaiello.gitchain.crypto.Sha;
 import com.dowlandaiello.gitchain.p2p.ConnectionEvent.ConnectionEventType;
+import com.dowlandaiello.gitchain.types.Blockchain;
+import com.dowlandaiello.gitchain.types.Mempool;
 
 import org.apache.commons.lang3.SerializationUtils;
 import org.iq80.leveldb.DB;
 import org.iq80.leveldb.DBIterator;
 import org.iq80.leveldb.Options;
+import org.iq80.leveldb.WriteBatch;
 
 import static org.fusesource.leveldbjni.JniDBFactory.*;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.Serializable;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Dht is a synchronously managed distributed hash table used for the storage
@@ -37,9 +65,56 @@ public class Dht implements Serializable {
     /* Node DB */
     public static transient DB WorkingNodeDB = null;
 
+    /* Max number of nodes contacted at once when joining */
+    public static final int JoinParallelism = 16;
+
+    /* Time each node has to accept a join announcement, in milliseconds */
+    public static final long JoinPeerTimeout = 5000;
+
+    /* Time each node has to answer a lookup request, in milliseconds */
+    public static final int LookupTimeout = 3000;
+
+    /* Time after which a bucket nobody has looked up or been seen in is refreshed, in milliseconds */
+    public static final long RefreshInterval = 60 * 60 * 1000;
+
+    /* Max number of nodes in a single bootstrap page */
+    public static final int BootstrapPageSize = 256;
+
+    /* Default max number of pages requested by a single bootstrap */
+    public static final int MaxBootstrapPages = 16;
+
+    /* Default time a single bootstrap may take, in milliseconds */
+    public static final long BootstrapTimeout = 30000;
+
+    /* Pooled outbound peer connections */
+    public static final transient PeerConnectionPool Connections = new PeerConnectionPool();
+
+    /* Routing table of known nodes */
+    public static transient RoutingTable Table = null;
+
+    /* Local peer identity, announced in lookup requests (null if not yet known) */
+    public static transient volatile Peer LocalPeer = null;
+
+    /* Pings least-recently seen nodes of full buckets (drops pings when backed up) */
+    private static final transient ExecutorService maintenance = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(RoutingTable.K * 4), daemonThreads("dht-maintenance"),
+            new ThreadPoolExecutor.DiscardPolicy());
+
     /* Dht server instance */
     private transient DhtServer Server;
 
+    /* Bucket refresh scheduler */
+    private transient ScheduledExecutorService refresher;
+
+    /* Block and transaction gossip engine (null if not gossiping) */
+    private transient GossipEngine gossip;
+
+    /* Chain served to syncing peers (null if not serving a chain) */
+    private transient Blockchain chain;
+
+    /* Token to resume an unfinished bootstrap with (null if not bootstrapped or finished) */
+    private transient byte[] bootstrapToken;
+
     /**
      * Initialize a new DHT with a given chain config.
      * 
@@ -58,6 +133,8 @@ public class Dht implements Serializable {
 
             WorkingNodeDB.put(Sha.Sha3(bootstrapPeer.ConnectionAddr.getBytes()), bootstrapPeer.Bytes()); // Add
                                                                                                          // bootstrap
+
+            LoadRoutingTable(); // Build routing table from known nodes
         } catch (IOException e) { // Catch
             if (!CommonIO.StdoutSilenced) { // Check can print
                 e.printStackTrace(); // Print stack trace
@@ -66,7 +143,17 @@ public class Dht implements Serializable {
     }
 
     /**
-     * Deserialize a DHT from a given byte array.
+     * Initialize a DHT header with a given chain config, without opening the node DB.
+     *
+     * @param config chain config
+     */
+    private Dht(ChainConfig config) {
+        this.Config = config; // Set config
+    }
+
+    /**
+     * Deserialize a DHT from a given byte array read from local persistent
+     * memory. Never call this on bytes received from a peer; use FromHeader.
      */
     public Dht(byte[] rawBytes) {
         try {
@@ -101,49 +188,461 @@ public class Dht implements Serializable {
      * @return whether the operation was successful
      */
     public boolean JoinNetwork(Peer peerIdentity) {
-        DBIterator iterator = Dht.WorkingNodeDB.iterator(); // Get iterator
+        return this.JoinNetwork(peerIdentity, JoinParallelism, JoinPeerTimeout) != null; // Join
+    }
 
+    /**
+     * Announce presence to the nodes closest to a given peer, contacting at most
+     * parallelism nodes at once and giving each node at most peerTimeout to
+     * accept the announcement. The closest nodes are found with an iterative
+     * lookup of the peer's own id, so joining contacts O(log N) nodes.
+     *
+     * @param peerIdentity peer to announce
+     * @param parallelism  max number of nodes to contact at once
+     * @param peerTimeout  time each node has to accept the announcement, in milliseconds
+     * @return summary of nodes reached (null if the join was interrupted)
+     */
+    public JoinSummary JoinNetwork(Peer peerIdentity, int parallelism, final long peerTimeout) {
         if (WorkingNodeDB.get(Sha.Sha3(peerIdentity.ConnectionAddr.getBytes())) != null) { // Check key already exists
-            return true; // Already done
+            return new JoinSummary(0, 0, 0); // Already done
         }
 
-        for (iterator.seekToFirst(); iterator.hasNext(); iterator.next()) { // Iterate through keys
-            Peer destinationPeer = new Peer(iterator.peekNext().getValue()); // Get dest peer identity
+        LocalPeer = peerIdentity; // Announce identity in lookups
 
-            PeerAddress parsedPeerAddress = CommonNet.ParseConnectionAddress(destinationPeer.ConnectionAddr); // Parse
+        byte[] id = RoutingTable.NodeId(peerIdentity); // Get own id
+
+        this.FindNode(id, (int) Math.min(peerTimeout, Integer.MAX_VALUE)); // Discover the nodes closest to us
+
+        List<Peer> destinationPeers = new ArrayList<Peer>(); // Init buffer
+
+        for (Peer destinationPeer : Table.Closest(id, RoutingTable.K)) { // Iterate through closest nodes
+            if (!destinationPeer.ConnectionAddr.equals(peerIdentity.ConnectionAddr)) { // Check isn't self
+                destinationPeers.add(destinationPeer); // Add destination
+            }
+        }
 
-            Connection connection = new Connection(Connection.ConnectionType.PeerJoinRequest,
+        final AtomicInteger reached = new AtomicInteger(); // Init reached counter
+        final AtomicInteger failed = new AtomicInteger(); // Init failed counter
+        final AtomicInteger timedOut = new AtomicInteger(); // Init timed out counter
+
+        final CountDownLatch finished = new CountDownLatch(destinationPeers.size()); // Init latch
+
+        ExecutorService workers = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(parallelism, destinationPeers.size())), daemonThreads("dht-join")); // Init workers
+        final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(daemonThreads("dht-join-watchdog")); // Init watchdog
+
+        for (final Peer destinationPeer : destinationPeers) { // Iterate through destinations
+            final Connection connection = new Connection(Connection.ConnectionType.PeerJoinRequest,
                     new byte[][] { peerIdentity.Bytes() }, peerIdentity, destinationPeer); // Construct
                                                                                            // connection
 
-            try {
-                Socket socket = new Socket(parsedPeerAddress.InetAddress, parsedPeerAddress.Port); // Connect
+            workers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    final AtomicBoolean expired = new AtomicBoolean(); // Init expired flag
+
+                    ScheduledFuture<?> timer = watchdog.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            expired.set(true); // Mark expired
+
+                            Connections.Disconnect(destinationPeer.ConnectionAddr); // Abort stalled write
+                        }
+                    }, peerTimeout, TimeUnit.MILLISECONDS); // Start timer
+
+                    try {
+                        PeerConnectionPool.SendResult result = Connections.TrySendAll(destinationPeer,
+                                new Connection[] { connection }, (int) Math.min(peerTimeout, Integer.MAX_VALUE)); // Announce over a pooled connection
+
+                        timer.cancel(false); // Stop timer
+
+                        if (result == PeerConnectionPool.SendResult.Sent) { // Check sent
+                            reached.incrementAndGet(); // Count reached
+                        } else if (result == PeerConnectionPool.SendResult.TimedOut || expired.get()) { // Check timed out
+                            timedOut.incrementAndGet(); // Count timed out
+                        } else {
+                            failed.incrementAndGet(); // Count failed
+                        }
+                    } finally {
+                        finished.countDown(); // Mark finished
+                    }
+                }
+            }); // Announce
+        }
 
-                DataOutputStream out = new DataOutputStream(socket.getOutputStream()); // Init out writer
+        try {
+            finished.await(); // Wait for every destination
+        } catch (InterruptedException e) { // Catch
+            Thread.currentThread().interrupt(); // Restore interrupt
+
+            return null; // Interrupted
+        } finally {
+            workers.shutdownNow(); // Stop workers
+            watchdog.shutdownNow(); // Stop watchdog
+        }
 
-                out.write(connection.Bytes()); // Write connection
+        if (WorkingNodeDB.get(Sha.Sha3(peerIdentity.ConnectionAddr.getBytes())) == null) { // Check doesn't already exist
+            WorkingNodeDB.put(Sha.Sha3(peerIdentity.ConnectionAddr.getBytes()), peerIdentity.Bytes()); // Add to local
+                                                                                                       // db
+        }
+
+        return new JoinSummary(reached.get(), failed.get(), timedOut.get()); // Return summary
+    }
+
+    /**
+     * Find the nodes closest to a given id.
+     *
+     * @param target target node id
+     * @return closest nodes that answered, closest first
+     */
+    public List<Peer> FindNode(byte[] target) {
+        return this.FindNode(target, LookupTimeout); // Find node
+    }
+
+    /**
+     * Find the nodes closest to a given id, giving each node a given amount of time
+     * to answer.
+     *
+     * @param target  target node id
+     * @param timeout time each node has to answer, in milliseconds
+     * @return closest nodes that answered, closest first
+     */
+    public List<Peer> FindNode(byte[] target, int timeout) {
+        if (Table == null) { // Check no routing table
+            LoadRoutingTable(); // Build routing table
+        }
+
+        return this.lookup(new NodeLookup(Table, target, null, LocalPeer, timeout)).Closest; // Look up node
+    }
+
+    /**
+     * Find the value stored under a given key, asking the nodes closest to the key
+     * if it isn't stored locally.
+     *
+     * @param key key to look up
+     * @return value (null if not found)
+     */
+    public byte[] FindValue(byte[] key) {
+        byte[] value = WorkingNodeDB.get(key); // Get local value
+
+        if (value != null) { // Check stored locally
+            return value; // Return value
+        }
+
+        byte[] target = key.length == RoutingTable.IdBits / 8 ? key : Sha.Sha3(key); // Get key id
 
+        if (Table == null) { // Check no routing table
+            LoadRoutingTable(); // Build routing table
+        }
+
+        return this.lookup(new NodeLookup(Table, target, key, LocalPeer, LookupTimeout)).Value; // Look up value
+    }
+
+    /**
+     * Run a given lookup on a pool of Alpha workers.
+     *
+     * @param lookup lookup to run
+     * @return finished lookup
+     */
+    private LookupResult lookup(NodeLookup lookup) {
+        int index = Table.BucketIndex(lookup.Target); // Get target bucket
+
+        if (index >= 0) { // Check isn't self
+            Table.Touch(index); // Bucket was looked up
+        }
+
+        ExecutorService workers = Executors.newFixedThreadPool(NodeLookup.Alpha, daemonThreads("dht-lookup")); // Init workers
+
+        try {
+            List<Peer> closest = lookup.Run(workers); // Run lookup
+
+            return new LookupResult(closest, lookup.Value); // Return result
+        } finally {
+            workers.shutdownNow(); // Stop workers
+        }
+    }
+
+    /**
+     * Look up a random id in every bucket nobody has looked up or been seen in for
+     * RefreshInterval, so that every part of the id space stays known.
+     */
+    public void RefreshBuckets() {
+        if (Table == null) { // Check no routing table
+            return; // Nothing to refresh
+        }
+
+        Random random = new Random(); // Init random source
+
+        for (int index : Table.StaleBuckets(RefreshInterval)) { // Iterate through stale buckets
+            this.FindNode(Table.RandomId(index, random)); // Refresh bucket
+        }
+    }
+
+    /**
+     * Add a given node to the node db and routing table.
+     *
+     * @param peer node to add
+     * @return whether the node was new
+     */
+    public static boolean AddPeer(Peer peer) {
+        if (peer.ConnectionAddr == null || WorkingNodeDB == null) { // Check can't add
+            return false; // Failed
+        }
+
+        Observe(peer); // Add to routing table
+
+        byte[] key = Sha.Sha3(peer.ConnectionAddr.getBytes()); // Get key
+
+        if (WorkingNodeDB.get(key) != null) { // Check already exists
+            return false; // Already known
+        }
+
+        WorkingNodeDB.put(key, peer.Bytes()); // Put node
+
+        return true; // Added
+    }
+
+    /**
+     * Record that a given node was seen. If its bucket is full, the bucket's
+     * least-recently seen node is pinged in the background and replaced by the
+     * new node if it doesn't answer.
+     *
+     * @param peer node that was seen
+     */
+    public static void Observe(Peer peer) {
+        final RoutingTable table = Table; // Get table
+
+        if (table == null || peer == null || peer.ConnectionAddr == null) { // Check nothing to update
+            return; // Done
+        }
+
+        final Peer stale = table.Seen(peer); // Update table
+
+        if (stale == null) { // Check added
+            return; // Done
+        }
+
+        maintenance.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (Ping(stale, LookupTimeout)) { // Check alive
+                    table.Seen(stale); // Keep
+                } else {
+                    table.Failed(stale); // Replace
+                }
+            }
+        }); // Check stale node
+    }
+
+    /**
+     * Check whether a given node answers requests.
+     *
+     * @param peer    node to ping
+     * @param timeout time the node has to answer, in milliseconds
+     * @return whether the node answered
+     */
+    public static boolean Ping(Peer peer, int timeout) {
+        Peer sender = LocalPeer; // Get local peer
+
+        Connection request = new Connection(Connection.ConnectionType.Ping,
+                new byte[][] { sender == null ? new byte[0] : sender.Bytes() },
+                sender == null ? new Peer(null, null, null) : sender, peer); // Init request
+
+        ConnectionEvent answer = Call(peer, request, timeout); // Ping
+
+        return answer != null && answer.Type == ConnectionEventType.Response; // Check answered
+    }
+
+    /**
+     * Send a request to a given node and read its answer over a dedicated
+     * connection.
+     *
+     * @param peer    node to ask
+     * @param request request to send
+     * @param timeout time the node has to connect and answer, in milliseconds
+     * @return answer (null if the node didn't answer in time)
+     */
+    static ConnectionEvent Call(Peer peer, Connection request, int timeout) {
+        Socket socket = new Socket(); // Init socket
+
+        try {
+            PeerAddress address = CommonNet.ParseConnectionAddress(peer.ConnectionAddr); // Parse address
+
+            socket.setTcpNoDelay(true); // Don't delay request
+            socket.connect(new InetSocketAddress(address.InetAddress, address.Port), timeout); // Connect
+            socket.setSoTimeout(timeout); // Don't wait forever for an answer
+
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream())); // Init out writer
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream())); // Init in reader
+
+            Frame.Write(out, Frame.ConnectionFrame, request.Bytes()); // Write request
+            out.flush(); // Send request
+
+            return new ConnectionEvent(Frame.ReadExpected(in, Frame.ConnectionEventFrame)); // Read answer
+        } catch (IOException e) { // Catch
+            return null; // No answer
+        } catch (RuntimeException e) { // Catch unparseable address or answer
+            return null; // No answer
+        } finally {
+            try {
                 socket.close(); // Close socket
-                out.close(); // Close out writer
             } catch (IOException e) { // Catch
-                continue; // Continue
+                if (!CommonIO.StdoutSilenced) { // Check can print
+                    e.printStackTrace(); // Print stack trace
+                }
             }
         }
+    }
+
+    /**
+     * Build the routing table from every node in the node db.
+     */
+    public static void LoadRoutingTable() {
+        Table = new RoutingTable(RoutingTable.NodeId(new Peer("", localPublicKey()))); // Init table around local id
+
+        DBIterator iterator = WorkingNodeDB.iterator(); // Get iterator
 
         try {
-            iterator.close(); // Close iterator
-        } catch (IOException e) { // Catch
-            return false; // Return
+            for (iterator.seekToFirst(); iterator.hasNext(); iterator.next()) { // Iterate through nodes
+                Table.Seen(new Peer(iterator.peekNext().getValue())); // Add node
+            }
+        } catch (RuntimeException e) { // Catch malformed node
+            if (!CommonIO.StdoutSilenced) { // Check can print
+                e.printStackTrace(); // Print stack trace
+            }
+        } finally {
+            try {
+                iterator.close(); // Close iterator
+            } catch (IOException e) { // Catch
+                if (!CommonIO.StdoutSilenced) { // Check can print
+                    e.printStackTrace(); // Print stack trace
+                }
+            }
         }
+    }
+
+    /**
+     * Get the public key identifying the local node.
+     *
+     * @return local public key
+     */
+    private static BigInteger localPublicKey() {
+        Peer peer = Peer.ReadPeer(); // Read local peer
 
-        if (WorkingNodeDB.get(Sha.Sha3(peerIdentity.ConnectionAddr.getBytes())) != null) { // Check already exists
-            return true; // Return
+        if (peer != null && peer.PublicKey != null) { // Check have identity
+            return peer.PublicKey; // Return key
         }
 
-        WorkingNodeDB.put(Sha.Sha3(peerIdentity.ConnectionAddr.getBytes()), peerIdentity.Bytes()); // Add to local
-                                                                                                   // db
+        Account account = new File(CommonIO.P2PKeystorePath + "/identity.json").exists() ? Account.ReadP2PIdentity()
+                : new Account(); // Read or generate p2p identity
 
-        return true; // Success
+        account.WriteP2PIdentityToMemory(); // Keep identity
+
+        return account.PublicKey; // Return key
+    }
+
+    /**
+     * Start gossiping blocks and transactions with the nodes in the routing table,
+     * delivering received objects to a given listener.
+     *
+     * @param identity local peer identity
+     * @param listener listener validating and applying received objects
+     * @return gossip engine
+     */
+    public GossipEngine StartGossip(Peer identity, GossipEngine.Listener listener) {
+        this.gossip = new GossipEngine(identity, new GossipEngine.Transport() {
+            @Override
+            public boolean Send(Peer peer, Connection connection) {
+                return Connections.Send(peer, connection); // Send over a pooled connection
+            }
+
+            @Override
+            public List<Peer> Peers() {
+                RoutingTable table = Table; // Get routing table
+
+                return table == null ? new ArrayList<Peer>() : table.Peers(); // Return known nodes
+            }
+        }, listener); // Init gossip engine
+
+        if (this.Server != null) { // Check serving
+            this.Server.Gossip = this.gossip; // Handle gossip
+        }
+
+        return this.gossip; // Return gossip engine
+    }
+
+    /**
+     * Start gossiping blocks and transactions with the nodes in the routing table,
+     * adding received blocks to a given chain and received transactions to a
+     * given mempool.
+     *
+     * @param identity local peer identity
+     * @param chain    chain to add received blocks to
+     * @param mempool  mempool to add received transactions to (null to drop them)
+     * @return gossip engine
+     */
+    public GossipEngine StartGossip(Peer identity, Blockchain chain, Mempool mempool) {
+        return this.StartGossip(identity, new GossipEngine.ChainListener(chain, mempool)); // Start gossip
+    }
+
+    /**
+     * Serve headers and blocks of a given chain to syncing peers.
+     *
+     * @param chain chain to serve
+     */
+    public void ServeChain(Blockchain chain) {
+        this.chain = chain; // Set chain
+
+        if (this.Server != null) { // Check serving
+            this.Server.Chain = chain; // Serve chain
+        }
+    }
+
+    /**
+     * Sync a given chain headers-first from the closest nodes in the routing
+     * table.
+     *
+     * @param chain chain to sync
+     * @return number of blocks added (-1 if no node answered)
+     */
+    public long SyncChain(Blockchain chain) {
+        RoutingTable table = Table; // Get routing table
+
+        List<Peer> peers = table == null ? new ArrayList<Peer>() : table.Closest(table.LocalId, table.BucketSize); // Get closest nodes
+
+        if (peers.isEmpty()) { // Check no nodes
+            return -1; // Failed
+        }
+
+        ExecutorService workers = Executors.newFixedThreadPool(Math.max(peers.size(), ChainSync.DefaultWindowsInFlight),
+                daemonThreads("chain-sync")); // Init workers
+
+        try {
+            return new ChainSync(chain, new ChainSync.NetworkSource(), peers).Sync(workers); // Sync
+        } finally {
+            workers.shutdownNow(); // Stop workers
+        }
+    }
+
+    /**
+     * Get a thread factory making named daemon threads.
+     *
+     * @param name thread name prefix
+     * @return thread factory
+     */
+    private static ThreadFactory daemonThreads(final String name) {
+        return new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger(); // Thread counter
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name + "-" + this.count.getAndIncrement()); // Init thread
+
+                thread.setDaemon(true); // Don't block shutdown
+
+                return thread; // Return thread
+            }
+        };
     }
 
     /**
@@ -177,25 +676,119 @@ public class Dht implements Serializable {
         return bytes; // Return serialized
     }
 
+    /**
+     * Encode the DHT header (chain config) for sending to a peer.
+     *
+     * @return encoded header
+     */
+    public byte[] Header() {
+        ChainConfig config = this.Config; // Get config
+
+        int size = CommonCodec.HeaderSize + 4 + CommonCodec.SizeOf(config.Chain) + 4 + 5 + 4 + CommonCodec.LengthSize; // Init size
+
+        if (config.Alloc != null) { // Check has alloc
+            for (BigInteger address : config.Alloc.keySet()) { // Iterate through allocated addresses
+                size += CommonCodec.SizeOf(address) + 4; // Add entry size
+            }
+        }
+
+        ByteBuffer buffer = CommonCodec.GetBuffer(size); // Get buffer
+
+        CommonCodec.WriteHeader(buffer, CommonCodec.DhtHeaderTag); // Write header
+        buffer.putInt(config.Network); // Write network
+        CommonCodec.WriteString(buffer, config.Chain); // Write chain
+        buffer.putInt(config.BlockInterval); // Write block interval
+        buffer.put(config.Difficulty == null ? (byte) 0 : (byte) 1); // Write has difficulty
+        buffer.putFloat(config.Difficulty == null ? 0f : config.Difficulty); // Write difficulty
+        buffer.putInt(config.RetargetWindow); // Write retarget window
+
+        if (config.Alloc == null) { // Check no alloc
+            buffer.putInt(-1); // Write null
+        } else {
+            buffer.putInt(config.Alloc.size()); // Write alloc count
+
+            for (Map.Entry<BigInteger, Float> entry : config.Alloc.entrySet()) { // Iterate through alloc
+                CommonCodec.WriteBigInteger(buffer, entry.getKey()); // Write address
+                buffer.putFloat(entry.getValue() == null ? 0f : entry.getValue()); // Write amount
+            }
+        }
+
+        return CommonCodec.ToArray(buffer); // Return encoded
+    }
+
+    /**
+     * Decode a DHT header received from a peer. The node DB isn't opened.
+     *
+     * @param rawBytes encoded header
+     * @return decoded DHT header
+     */
+    public static Dht FromHeader(byte[] rawBytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(rawBytes); // Wrap input
+
+        CommonCodec.ReadHeader(buffer, CommonCodec.DhtHeaderTag); // Read header
+        CommonCodec.Require(buffer, 4); // Check has network
+
+        int network = buffer.getInt(); // Read network
+        String chain = CommonCodec.ReadString(buffer); // Read chain
+
+        CommonCodec.Require(buffer, 4 + 5 + 4); // Check has interval, difficulty and retarget window
+
+        int blockInterval = buffer.getInt(); // Read block interval
+        boolean hasDifficulty = buffer.get() != 0; // Read has difficulty
+        float difficulty = buffer.getFloat(); // Read difficulty
+        int retargetWindow = buffer.getInt(); // Read retarget window
+
+        int count = CommonCodec.ReadCount(buffer, CommonCodec.LengthSize + 4); // Read alloc count
+
+        Map<BigInteger, Float> alloc = null; // Init alloc
+
+        if (count != -1) { // Check has alloc
+            alloc = new HashMap<BigInteger, Float>(); // Init alloc
+
+            for (int i = 0; i < count; i++) { // Read alloc entries
+                BigInteger address = CommonCodec.ReadBigInteger(buffer); // Read address
+
+                CommonCodec.Require(buffer, 4); // Check has amount
+
+                alloc.put(address, buffer.getFloat()); // Read amount
+            }
+        }
+
+        if (chain == null || buffer.hasRemaining()) { // Check invalid header
+            throw new IllegalArgumentException("invalid dht header"); // Panic
+        }
+
+        return new Dht(new ChainConfig(alloc, network, chain, blockInterval, hasDifficulty ? difficulty : null,
+                retargetWindow)); // Return header
+    }
+
     /**
      * Read DHT header from persistent memory.
      * 
      * @return read DHT
      */
     public static Dht ReadFromMemory(String chain) {
-        File dbHeaderFile = new File(CommonIO.DHTPath + "/" + chain + "/db_header.db"); // Init file
+        return new Dht(ReadHeader(chain)); // init dht
+    }
 
-        byte[] rawData = null; // Declare buffer
+    /**
+     * Read the raw DHT header of a given chain from persistent memory.
+     *
+     * @param chain chain name
+     * @return serialized DHT header (null if not found)
+     */
+    public static byte[] ReadHeader(String chain) {
+        File dbHeaderFile = new File(CommonIO.DHTPath + "/" + chain + "/db_header.db"); // Init file
 
         try {
-            rawData = Files.readAllBytes(dbHeaderFile.toPath());
+            return Files.readAllBytes(dbHeaderFile.toPath()); // Read header
         } catch (IOException e) { // Catch
             if (!CommonIO.StdoutSilenced) { // Check can print
                 e.printStackTrace(); // Log stack trace
             }
-        }
 
-        return new Dht(rawData); // init dht
+            return null; // Not found
+        }
     }
 
     /**
@@ -287,20 +880,50 @@ public class Dht implements Serializable {
             // peer identity
         }
 
+        LocalPeer = workingPeerIdentity; // Announce identity in lookups
+
         DhtServer server = new DhtServer(workingPeerIdentity); // Initialize DHT server
 
+        server.Gossip = this.gossip; // Handle gossip
+        server.Chain = this.chain; // Serve chain
+
         this.Server = server; // Set dht server
 
-        Thread thread = new Thread(this.Server); // Initialize thread
+        if (!server.Bind()) { // Bind before returning so the server is immediately reachable
+            return; // Failed
+        }
+
+        Thread thread = new Thread(this.Server, "dht-server"); // Initialize thread
+
+        thread.setDaemon(true); // Don't block shutdown
 
         thread.start(); // Start serving DHT
+
+        this.refresher = Executors.newSingleThreadScheduledExecutor(daemonThreads("dht-refresh")); // Init refresher
+
+        this.refresher.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                RefreshBuckets(); // Refresh stale buckets
+            }
+        }, RefreshInterval, RefreshInterval, TimeUnit.MILLISECONDS); // Schedule refresh
     }
 
     /**
-     * Stop dht server.
+     * Stop dht server, waiting for in-flight connections to finish.
      */
     public void StopServing() {
-        this.Server.StopServing(); // Stop serving
+        if (this.refresher != null) { // Check refreshing
+            this.refresher.shutdownNow(); // Stop refreshing
+
+            this.refresher = null; // Reset refresher
+        }
+
+        if (this.Server != null) { // Check serving
+            this.Server.StopServing(); // Stop serving
+
+            this.Server = null; // Reset server
+        }
     }
 
     /**
@@ -311,9 +934,66 @@ public class Dht implements Serializable {
      * @return bootstrapped DHT
      */
     public static Dht Bootstrap(String bootstrapPeerAddress, String chain) {
-        PeerAddress parsedPeerAddress = CommonNet.ParseConnectionAddress(bootstrapPeerAddress); // Parse address
+        return Bootstrap(bootstrapPeerAddress, chain, MaxBootstrapPages, BootstrapTimeout); // Bootstrap
+    }
 
-        Dht dht = null; // Init buffer
+    /**
+     * Attempt to bootstrap a DHT with a given bootstrap peer address, requesting
+     * at most a given number of pages of at most BootstrapPageSize nodes, for at
+     * most a given time. The first page holds the nodes closest to the local node;
+     * if the bootstrap peer knows more nodes than were requested, the bootstrap
+     * can be continued later with ResumeBootstrap.
+     *
+     * @param bootstrapPeerAddress bootstrap peer address represented as a string
+     * @param chain                chain name
+     * @param maxPages             max number of pages to request
+     * @param timeout              max time the bootstrap may take, in milliseconds
+     * @return bootstrapped DHT (null if failed)
+     */
+    public static Dht Bootstrap(String bootstrapPeerAddress, String chain, int maxPages, long timeout) {
+        return bootstrap(bootstrapPeerAddress, chain, null, BootstrapPage.FirstPage, maxPages, timeout); // Bootstrap
+    }
+
+    /**
+     * Continue an unfinished bootstrap from where it stopped.
+     *
+     * @param bootstrapPeerAddress bootstrap peer address represented as a string
+     * @param maxPages             max number of pages to request
+     * @param timeout              max time the bootstrap may take, in milliseconds
+     * @return whether any pages were received
+     */
+    public boolean ResumeBootstrap(String bootstrapPeerAddress, int maxPages, long timeout) {
+        if (this.bootstrapToken == null) { // Check nothing to resume
+            return false; // Nothing to do
+        }
+
+        return bootstrap(bootstrapPeerAddress, this.Config.Chain, this, this.bootstrapToken, maxPages, timeout) != null; // Resume
+    }
+
+    /**
+     * Get the token an unfinished bootstrap can be resumed with.
+     *
+     * @return bootstrap token (null if the bootstrap finished)
+     */
+    public byte[] BootstrapToken() {
+        return this.bootstrapToken; // Return token
+    }
+
+    /**
+     * Request bootstrap pages over a single connection, starting at a given token,
+     * applying each page to the node db as it is received.
+     *
+     * @param bootstrapPeerAddress bootstrap peer address
+     * @param chain                chain name
+     * @param dht                  DHT being bootstrapped (null if the first page hasn't been received)
+     * @param token                token of the first page to request
+     * @param maxPages             max number of pages to request
+     * @param timeout              max time the bootstrap may take, in milliseconds
+     * @return bootstrapped DHT (null if failed)
+     */
+    private static Dht bootstrap(String bootstrapPeerAddress, String chain, Dht dht, byte[] token, int maxPages,
+            long timeout) {
+        long deadline = System.currentTimeMillis() + timeout; // Get deadline
 
         Peer workingPeerIdentity = Peer.ReadPeer(); // Read local peer
 
@@ -323,67 +1003,137 @@ public class Dht implements Serializable {
                                                                                                        // peer identity
         }
 
-        Socket socket = null; // Init buffer
-
-        DataOutputStream out = null; // Init buffer
+        byte[] target = RoutingTable.NodeId(workingPeerIdentity); // Get local id
 
-        DataInputStream in = null; // Init buffer
-
-        byte[] buffer = new byte[880]; // Init buffer
-
-        Connection connection = new Connection(Connection.ConnectionType.DHTBootstrapRequest,
-                new byte[][] { chain.getBytes() }, workingPeerIdentity, Peer.GetPeer(bootstrapPeerAddress)); // Construct
-                                                                                                             // connection
+        Socket socket = new Socket(); // Init socket
 
         try {
-            socket = new Socket(parsedPeerAddress.InetAddress, parsedPeerAddress.Port); // Connect
-
-            out = new DataOutputStream(socket.getOutputStream()); // Init out writer
-
-            in = new DataInputStream(socket.getInputStream()); // Init in reader
+            PeerAddress parsedPeerAddress = CommonNet.ParseConnectionAddress(bootstrapPeerAddress); // Parse address
 
-            out.write(connection.Bytes()); // Write connection type
+            socket.connect(new InetSocketAddress(parsedPeerAddress.InetAddress, parsedPeerAddress.Port),
+                    (int) Math.max(1, timeout)); // Connect
+            socket.setSoTimeout(DhtServer.SocketTimeout); // Don't hang on a stalled server
 
-            in.read(buffer); // Read into buffer
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream())); // Init out writer
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream())); // Init in reader
 
-            dht = new Dht(buffer); // Deserialize DHT
+            synchronized (Dht.class) {
+                if (WorkingNodeDB == null) { // Check no db
+                    Options options = new Options(); // Make DB options
+                    options.createIfMissing(true); // Set options
 
-            in.read(buffer); // Read into buffer
+                    WorkingNodeDB = factory.open(new File(CommonIO.DHTPath + "/" + chain), options); // Construct db
+                }
+            }
 
-            Options options = new Options(); // Make DB options
-            options.createIfMissing(true); // Set options
+            for (int page = 0; page < maxPages && System.currentTimeMillis() < deadline; page++) { // Request pages
+                Connection connection = new Connection(Connection.ConnectionType.DHTBootstrapRequest,
+                        new byte[][] { chain.getBytes(), target, token, CommonDB.EncodeLong(BootstrapPageSize) },
+                        workingPeerIdentity, Peer.GetPeer(bootstrapPeerAddress)); // Construct connection
 
-            byte[] lastReadBuffer = null; // Set last read buffer
+                Frame.Write(out, Frame.ConnectionFrame, connection.Bytes()); // Write connection
+                out.flush(); // Send connection
 
-            for (ConnectionEvent connectionEvent = new ConnectionEvent(buffer); connectionEvent != null;) { // Check not
-                                                                                                            // closed
-                if (lastReadBuffer != buffer && connectionEvent.Type == ConnectionEventType.Response) { // Check is
-                                                                                                        // response
-                    if (WorkingNodeDB.get(connectionEvent.Meta[0]) == null) { // Check is unique
-                        WorkingNodeDB.put(connectionEvent.Meta[0], connectionEvent.Meta[1]); // Put node
-                    }
+                if (token.length == 0) { // Check first page
+                    dht = Dht.FromHeader(Frame.ReadExpected(in, Frame.DhtHeaderFrame)); // Read DHT header
                 }
 
-                lastReadBuffer = buffer; // Set last read buffer
+                BootstrapPage received = new BootstrapPage(
+                        new ConnectionEvent(Frame.ReadExpected(in, Frame.ConnectionEventFrame))); // Read page
 
-                buffer = new byte[880]; // Reset buffer
+                applyBootstrapPage(received); // Add nodes
 
-                if (in.read(buffer) == -1) { // Check finished
-                    break; // Break
+                token = received.Token; // Move to next page
+
+                if (received.Done()) { // Check last page
+                    break; // Done
                 }
             }
-
-            socket.close(); // Close socket
-            in.close(); // Close input
-            out.close(); // Close output
         } catch (Exception e) { // Catch
             if (!CommonIO.StdoutSilenced) { // Check can print
                 e.printStackTrace(); // Print stack trace
+            }
 
+            if (dht == null) { // Check nothing received
                 return null; // Failed
             }
+        } finally {
+            try {
+                socket.close(); // Close socket
+            } catch (IOException e) { // Catch
+                if (!CommonIO.StdoutSilenced) { // Check can print
+                    e.printStackTrace(); // Print stack trace
+                }
+            }
+        }
+
+        if (dht != null) { // Check bootstrapped
+            dht.bootstrapToken = token.length == 0 ? null : token; // Remember where to resume
         }
 
         return dht; // Return dht
     }
-}
\ No newline at end of file
+
+    /**
+     * Add the nodes of a given bootstrap page to the node db in a single batch and
+     * to the routing table. Entries whose key isn't the hash of the node's address
+     * are dropped.
+     *
+     * @param page received page
+     */
+    private static void applyBootstrapPage(BootstrapPage page) throws IOException {
+        List<Peer> peers = new ArrayList<Peer>(page.Size()); // Init peers
+
+        WriteBatch batch = WorkingNodeDB.createWriteBatch(); // Init batch
+
+        try {
+            for (int i = 0; i < page.Size(); i++) { // Iterate through entries
+                Peer peer; // Init buffer
+
+                try {
+                    peer = new Peer(page.Values[i]); // Decode node
+                } catch (RuntimeException e) { // Catch malformed node
+                    continue; // Skip
+                }
+
+                if (peer.ConnectionAddr == null
+                        || !Arrays.equals(page.Keys[i], Sha.Sha3(peer.ConnectionAddr.getBytes()))) { // Check key doesn't match
+                    continue; // Skip
+                }
+
+                batch.put(page.Keys[i], page.Values[i]); // Put node
+                peers.add(peer); // Track node
+            }
+
+            WorkingNodeDB.write(batch); // Commit page
+        } finally {
+            batch.close(); // Close batch
+        }
+
+        for (Peer peer : peers) { // Iterate through added nodes
+            Observe(peer); // Add to routing table
+        }
+    }
+
+    /**
+     * LookupResult is the outcome of a finished lookup.
+     */
+    private static class LookupResult {
+        /* Closest nodes that answered */
+        final List<Peer> Closest;
+
+        /* Value found (null if none) */
+        final byte[] Value;
+
+        /**
+         * Initialize a new lookup result.
+         *
+         * @param closest closest nodes that answered
+         * @param value   value found
+         */
+        LookupResult(List<Peer> closest, byte[] value) {
+            this.Closest = closest; // Set closest
+            this.Value = value; // Set value
+        }
+    }
+}
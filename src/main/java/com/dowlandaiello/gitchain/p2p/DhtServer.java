@@ -1,15 +1,44 @@
 package com.dowlandaiello.gitchain.p2p;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
-
+import java.net.SocketTimeoutException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.dowlandaiello.gitchain.common.CommonDB;
 import com.dowlandaiello.gitchain.common.CommonIO;
 import com.dowlandaiello.gitchain.common.CommonNet;
-import com.dowlandaiello.gitchain.common.CommonNet.PeerAddress;
+import com.dowlandaiello.gitchain.crypto.Sha;
+import com.dowlandaiello.gitchain.types.Block;
+import com.dowlandaiello.gitchain.types.BlockIterator;
+import com.dowlandaiello.gitchain.types.Blockchain;
 
 import org.iq80.leveldb.DBIterator;
 import org.iq80.leveldb.Options;
@@ -18,21 +47,92 @@ import static org.fusesource.leveldbjni.JniDBFactory.*;
 
 /**
  * Dht server is a simple socket-based DHT server.
+ *
+ * The accept loop only accepts connections; each connection is handled on a
+ * bounded pool of worker threads, so a slow peer only ties up its own worker.
+ * Between frames a connection doesn't hold a worker at all: it's parked on a
+ * single selector thread until its next frame arrives, so long-lived pooled
+ * connections from many more peers than there are workers can sit idle without
+ * starving new requests. Connections beyond MaxConnections (handled, queued or
+ * parked) are closed immediately rather than left to pile up.
  */
 public class DhtServer implements Runnable {
+    /* Default number of worker threads */
+    public static final int DefaultWorkers = 32;
+
+    /* Default max number of concurrently handled or queued connections */
+    public static final int DefaultMaxConnections = 1024;
+
+    /* Socket read timeout (and max time a connection may sit parked) in milliseconds */
+    public static final int SocketTimeout = 10000;
+
+    /* Interval between sweeps for connections parked longer than SocketTimeout, in milliseconds */
+    public static final long SweepInterval = 1000;
+
+    /* Time to wait for in-flight connections when stopping, in milliseconds */
+    public static final long ShutdownTimeout = 5000;
+
+    /* Size of per-connection read and write buffers */
+    public static final int BufferSize = 8192;
+
     /* Server peer identity */
     public Peer PeerIdentity;
 
     /* Is serving */
-    public boolean IsServing;
+    public volatile boolean IsServing;
+
+    /* Gossip engine handling block and transaction propagation (null if not gossiping) */
+    public volatile GossipEngine Gossip;
+
+    /* Chain served to syncing peers (null if not serving a chain) */
+    public volatile Blockchain Chain;
+
+    /* Number of worker threads */
+    public final int Workers;
+
+    /* Max number of concurrently handled or queued connections */
+    public final int MaxConnections;
+
+    /* Listening socket */
+    private volatile ServerSocket serverSocket;
+
+    /* Connection handlers */
+    private ExecutorService workerPool;
+
+    /* Connections waiting for their next frame */
+    private ReadinessWatcher watcher;
+
+    /* Available connection slots */
+    private final Semaphore connectionSlots;
+
+    /* Sockets currently being handled */
+    private final Set<Socket> activeSockets = ConcurrentHashMap.newKeySet();
+
+    /* Number of connections closed because the server was full */
+    private final AtomicLong rejectedConnections = new AtomicLong();
 
     /**
      * Initialize a new DHT server with a given peer identity.
-     * 
+     *
      * @param identity working peer identity
      */
     public DhtServer(Peer identity) {
+        this(identity, DefaultWorkers, DefaultMaxConnections); // Init server
+    }
+
+    /**
+     * Initialize a new DHT server with a given peer identity, number of worker threads,
+     * and connection limit.
+     *
+     * @param identity       working peer identity
+     * @param workers        number of worker threads
+     * @param maxConnections max number of concurrently handled or queued connections
+     */
+    public DhtServer(Peer identity, int workers, int maxConnections) {
         this.PeerIdentity = identity; // Set identity
+        this.Workers = Math.max(1, workers); // Set workers
+        this.MaxConnections = Math.max(this.Workers, maxConnections); // Set connection limit
+        this.connectionSlots = new Semaphore(this.MaxConnections); // Init slots
     }
 
     /**
@@ -43,206 +143,862 @@ public class DhtServer implements Runnable {
     }
 
     /**
-     * Start serving.
+     * Bind the server's listening socket, if it isn't already bound. Binding before
+     * handing the server to a thread guarantees it accepts connections as soon as this
+     * returns.
+     *
+     * @return whether the server is bound
      */
-    public void StartServing() {
-        this.IsServing = true; // Set is serving
+    public synchronized boolean Bind() {
+        if (this.serverSocket != null) { // Check already bound
+            return true; // Bound
+        }
+
+        try {
+            ServerSocketChannel channel = ServerSocketChannel.open(); // Open channel (accepted sockets can be parked on a selector)
+
+            channel.socket().setReuseAddress(true); // Allow rebinding a recently closed port
+            channel.bind(new InetSocketAddress(CommonNet.ParseConnectionAddress(PeerIdentity.ConnectionAddr).Port)); // Bind
 
-        ServerSocket serverSocket = null; // Initialize server
+            this.serverSocket = channel.socket(); // Set server socket
+        } catch (IOException e) { // Catch
+            if (!CommonIO.StdoutSilenced) { // Check can print
+                e.printStackTrace(); // Print stack trace
+            }
+
+            return false; // Failed
+        }
+
+        this.workerPool = Executors.newFixedThreadPool(this.Workers, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger(); // Thread counter
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "dht-worker-" + this.count.getAndIncrement()); // Init thread
+
+                thread.setDaemon(true); // Don't block shutdown
+
+                return thread; // Return thread
+            }
+        }); // Init workers
 
         try {
-            serverSocket = new ServerSocket(CommonNet.ParseConnectionAddress(PeerIdentity.ConnectionAddr).Port); // Set
-                                                                                                                 // server
-                                                                                                                 // socket
+            this.watcher = new ReadinessWatcher(this.workerPool); // Init watcher
         } catch (IOException e) { // Catch
+            if (!CommonIO.StdoutSilenced) { // Check can print
+                e.printStackTrace(); // Print stack trace
+            }
+
+            closeQuietly(this.serverSocket); // Release port
+            this.workerPool.shutdown(); // Stop workers
+
+            this.serverSocket = null; // Reset server socket
+            this.workerPool = null; // Reset worker pool
+
+            return false; // Failed
+        }
+
+        Thread watcherThread = new Thread(this.watcher, "dht-selector"); // Init watcher thread
+
+        watcherThread.setDaemon(true); // Don't block shutdown
+        watcherThread.start(); // Start watching
+
+        this.IsServing = true; // Set is serving
+
+        return true; // Bound
+    }
+
+    /**
+     * Start serving. Blocks until the server is stopped.
+     */
+    public void StartServing() {
+        if (!this.Bind()) { // Bind
             return; // Failed
         }
 
+        ServerSocket serverSocket; // Init buffer
+        ReadinessWatcher watcher; // Init buffer
+
+        synchronized (this) {
+            serverSocket = this.serverSocket; // Get server socket
+            watcher = this.watcher; // Get watcher
+        }
+
+        if (serverSocket == null) { // Check stopped before serving
+            return; // Done
+        }
+
         while (this.IsServing) { // Check should be serving
             Socket socket = null; // Init buffer
 
-            DataInputStream in = null; // Init buffer
+            try {
+                socket = serverSocket.accept(); // Accept connection
+            } catch (IOException e) { // Catch
+                if (!this.IsServing) { // Check closed by StopServing
+                    break; // Done
+                }
+
+                if (!CommonIO.StdoutSilenced) { // Check stdout silenced
+                    e.printStackTrace(); // Print stack trace
+                }
 
-            DataOutputStream out = null; // Init buffer
+                continue; // Continue
+            }
+
+            if (!this.connectionSlots.tryAcquire()) { // Check full
+                this.rejectedConnections.incrementAndGet(); // Count rejection
+
+                closeQuietly(socket); // Shed connection
+
+                continue; // Continue
+            }
 
-            byte[] buffer = new byte[896]; // Init buffer
+            this.activeSockets.add(socket); // Track connection
 
             try {
-                socket = serverSocket.accept(); // Accept connection
+                socket.setSoTimeout(SocketTimeout); // Don't let a stalled frame hold a worker
+                socket.setTcpNoDelay(true); // Flush writes immediately
+            } catch (IOException e) { // Catch
+                this.release(socket); // Drop connection
 
-                in = new DataInputStream(socket.getInputStream()); // Set input stream
+                continue; // Continue
+            }
 
-                out = new DataOutputStream(socket.getOutputStream()); // Set output stream
+            if (!watcher.Watch(new ConnectionHandler(socket))) { // Wait for first frame
+                this.release(socket); // Drop connection (stopped)
+            }
+        }
+    }
 
-                in.read(buffer); // Read into buffer
+    /**
+     * Stop serving DHT. Stops accepting connections immediately, then waits up to
+     * ShutdownTimeout for in-flight connections before interrupting them.
+     */
+    public void StopServing() {
+        ServerSocket serverSocket; // Init buffer
+        ExecutorService workerPool; // Init buffer
+        ReadinessWatcher watcher; // Init buffer
+
+        synchronized (this) {
+            this.IsServing = false; // Stop serving
+
+            serverSocket = this.serverSocket; // Get server socket
+            workerPool = this.workerPool; // Get worker pool
+            watcher = this.watcher; // Get watcher
+
+            this.serverSocket = null; // Reset server socket
+            this.workerPool = null; // Reset worker pool
+            this.watcher = null; // Reset watcher
+        }
+
+        if (watcher != null) { // Check watching
+            watcher.Close(); // Close parked connections
+        }
+
+        if (serverSocket != null) { // Check bound
+            try {
+                serverSocket.close(); // Close (unblocks accept)
             } catch (IOException e) { // Catch
-                if (!CommonIO.StdoutSilenced) { // Check stdout silenced
+                if (!CommonIO.StdoutSilenced) { // Check can print
                     e.printStackTrace(); // Print stack trace
                 }
-
-                continue; // Continue
             }
+        }
 
-            Connection connection = new Connection(buffer, socket); // Deserialize connection
+        if (workerPool != null) { // Check has workers
+            workerPool.shutdown(); // Stop accepting work
 
-            this.handleConnection(connection, socket, in, out); // handle
+            try {
+                if (!workerPool.awaitTermination(ShutdownTimeout, TimeUnit.MILLISECONDS)) { // Wait for in-flight connections
+                    this.abortActive(workerPool); // Abort stragglers
+                }
+            } catch (InterruptedException e) { // Catch
+                this.abortActive(workerPool); // Abort stragglers
+
+                Thread.currentThread().interrupt(); // Restore interrupt
+            }
         }
+    }
 
-        try {
-            serverSocket.close(); // Close
-        } catch (IOException e) { // Catch
-            return; // Failed
+    /**
+     * Close every in-flight connection and interrupt the workers handling them.
+     *
+     * @param workerPool worker pool to stop
+     */
+    private void abortActive(ExecutorService workerPool) {
+        for (Socket socket : this.activeSockets) { // Iterate through in-flight connections
+            closeQuietly(socket); // Close (unblocks pending reads and writes)
         }
+
+        workerPool.shutdownNow(); // Interrupt workers
     }
 
     /**
-     * Stop serving DHT.
+     * Close a given accepted connection and release its slot. Called exactly once per
+     * accepted connection.
+     *
+     * @param socket accepted socket
      */
-    public void StopServing() {
-        this.IsServing = false; // Stop serving
+    private void release(Socket socket) {
+        closeQuietly(socket); // Close socket (and its streams)
+
+        this.activeSockets.remove(socket); // Untrack connection
+        this.connectionSlots.release(); // Release slot
+    }
+
+    /**
+     * Get the number of connections currently being handled, queued or parked.
+     *
+     * @return number of active connections
+     */
+    public int ActiveConnections() {
+        return this.MaxConnections - this.connectionSlots.availablePermits(); // Return active
+    }
+
+    /**
+     * Get the number of connections closed because the server was full.
+     *
+     * @return number of rejected connections
+     */
+    public long RejectedConnections() {
+        return this.rejectedConnections.get(); // Return rejected
     }
 
     /**
      * Handle received connection.
-     * 
+     *
      * @param connection connection to handle
      * @param socket     socket
      * @param in         input data stream
      * @param out        output data stream
      */
-    private void handleConnection(Connection connection, Socket socket, DataInputStream in, DataOutputStream out) {
+    private void handleConnection(Connection connection, Socket socket, DataInputStream in, DataOutputStream out)
+            throws IOException {
+        if (connection.Type == null) { // Check unknown type
+            return; // Nothing to handle
+        }
+
         switch (connection.Type) { // Handle connection types
         case DHTBootstrapRequest: // Handle bootstrap request
-            handleBootstrapRequest(in, out, connection); // Handle bootstrap request
+            handleBootstrapRequest(out, connection); // Handle bootstrap request
 
             break; // Break
         case PeerJoinRequest: // Handle peer join request
             handlePeerJoinRequest(connection); // handle join request
 
             break; // Break
-        }
+        case Ping: // Handle ping
+            handlePing(out, connection); // Handle ping
 
-        try {
-            in.close(); // Close input stream
-            out.close(); // Close output stream
-            socket.close(); // Close socket
-        } catch (IOException e) { // Catch
-            if (!CommonIO.StdoutSilenced) { // Check can print
-                e.printStackTrace(); // Print stack trace
+            break; // Break
+        case FindNode: // Handle node lookup
+        case FindValue: // Handle value lookup
+            handleFindRequest(out, connection); // Handle lookup
+
+            break; // Break
+        case InventoryAnnounce: // Handle inventory announcement
+        case GetData: // Handle object request
+        case Data: // Handle object
+            GossipEngine gossip = this.Gossip; // Get gossip engine
+
+            if (gossip != null) { // Check gossiping
+                gossip.Handle(connection); // Handle gossip
             }
 
-            return; // Failed
+            break; // Break
+        case GetHeaders: // Handle header request
+            handleHeadersRequest(out, connection); // Handle header request
+
+            break; // Break
+        case GetBlocks: // Handle block request
+            handleBlocksRequest(out, connection); // Handle block request
+
+            break; // Break
         }
     }
 
     /**
-     * Handle received db bootstrap request.
-     * 
-     * @param in  input stream
-     * @param out output stream
+     * Handle received db bootstrap request. Answers with one page of at most
+     * Dht.BootstrapPageSize nodes: the first page (preceded by the DHT header) holds
+     * the nodes closest to the requester, and every following page the next nodes
+     * of the node db after the request's continuation token.
+     *
+     * @param out        output stream
+     * @param connection bootstrap request
      */
-    private void handleBootstrapRequest(DataInputStream in, DataOutputStream out, Connection connection) {
-        Options options = new Options(); // Make DB options
-        options.createIfMissing(true); // Set options
+    private void handleBootstrapRequest(DataOutputStream out, Connection connection) throws IOException {
+        if (connection.Meta == null || connection.Meta.length == 0) { // Check no chain
+            return; // Return
+        }
 
-        Dht dht = null; // Init buffer
+        String chain = new String(connection.Meta[0]); // Get chain
+        byte[] target = connection.Meta.length > 1 ? connection.Meta[1] : new byte[0]; // Get requester id
+        byte[] token = connection.Meta.length > 2 ? connection.Meta[2] : BootstrapPage.FirstPage; // Get token
+        long pageSize = connection.Meta.length > 3 ? CommonDB.DecodeLong(connection.Meta[3], 0) : Dht.BootstrapPageSize; // Get page size
 
-        try {
-            dht = Dht.ReadFromMemory(new String(connection.Meta[0])); // Read dht
+        pageSize = Math.max(1, Math.min(pageSize, Dht.BootstrapPageSize)); // Bound page size
 
-            out.write(dht.Bytes()); // Write DB
+        if (token.length == 0) { // Check first page
+            Dht header = Dht.ReadFromMemory(chain); // Read DHT header
 
-            if (Dht.WorkingNodeDB == null) { // Check no db
-                Dht.WorkingNodeDB = factory.open(new File(CommonIO.DHTPath + "/" + new String(connection.Meta[0])),
-                        options); // Construct db
+            if (header.Config == null || header.Config.Chain == null) { // Check no header
+                ConnectionEvent close = new ConnectionEvent(ConnectionEvent.ConnectionEventType.Close, new byte[0][]); // Init close event
+
+                Frame.Write(out, Frame.ConnectionEventFrame, close.Bytes()); // Refuse
+
+                return; // Done
             }
-        } catch (IOException e) { // Catch
-            if (!CommonIO.StdoutSilenced) { // Check can print
-                e.printStackTrace(); // Print stack trace
 
-                return; // Return
+            Frame.Write(out, Frame.DhtHeaderFrame, header.Header()); // Write DB header
+        }
+
+        synchronized (Dht.class) {
+            if (Dht.WorkingNodeDB == null) { // Check no db
+                Options options = new Options(); // Make DB options
+                options.createIfMissing(true); // Set options
+
+                Dht.WorkingNodeDB = factory.open(new File(CommonIO.DHTPath + "/" + chain), options); // Construct db
             }
         }
 
+        BootstrapPage page = token.length == 0 ? closestPage(target, (int) pageSize)
+                : scanPage(BootstrapPage.LastKey(token), (int) pageSize); // Get page
+
+        Frame.Write(out, Frame.ConnectionEventFrame, page.Event().Bytes()); // Write page
+    }
+
+    /**
+     * Get the first page of a bootstrap: the known nodes closest to the requester.
+     *
+     * @param target   requester id (may be empty)
+     * @param pageSize max number of nodes
+     * @return first page
+     */
+    private static BootstrapPage closestPage(byte[] target, int pageSize) {
+        RoutingTable table = Dht.Table; // Get routing table
+
+        List<Peer> closest = table == null || target.length != RoutingTable.IdBits / 8 ? new ArrayList<Peer>()
+                : table.Closest(target, Math.min(pageSize, table.BucketSize)); // Get closest nodes
+
+        byte[][] keys = new byte[closest.size()][]; // Init keys
+        byte[][] values = new byte[closest.size()][]; // Init values
+
+        for (int i = 0; i < closest.size(); i++) { // Iterate through closest nodes
+            keys[i] = Sha.Sha3(closest.get(i).ConnectionAddr.getBytes()); // Set key
+            values[i] = closest.get(i).Bytes(); // Set value
+        }
+
+        return new BootstrapPage(keys, values, BootstrapPage.ScanStart); // Return page
+    }
+
+    /**
+     * Get the next page of a node db scan.
+     *
+     * @param lastKey  last key sent (empty to start from the first key)
+     * @param pageSize max number of nodes
+     * @return next page
+     */
+    private static BootstrapPage scanPage(byte[] lastKey, int pageSize) throws IOException {
+        List<byte[]> keys = new ArrayList<byte[]>(); // Init keys
+        List<byte[]> values = new ArrayList<byte[]>(); // Init values
+
+        boolean more = false; // Init has more
+
         DBIterator iterator = Dht.WorkingNodeDB.iterator(); // Get iterator
 
         try {
-            for (iterator.seekToFirst(); iterator.hasNext(); iterator.next()) {
-                byte[][] data = new byte[2][]; // Initialize data
+            if (lastKey.length == 0) { // Check scan start
+                iterator.seekToFirst(); // Seek to first node
+            } else {
+                iterator.seek(lastKey); // Seek to last node sent
 
-                data[0] = iterator.peekNext().getKey(); // Set key
-                data[1] = iterator.peekNext().getValue(); // Set value
+                if (iterator.hasNext() && java.util.Arrays.equals(iterator.peekNext().getKey(), lastKey)) { // Check already sent
+                    iterator.next(); // Skip
+                }
+            }
 
-                ConnectionEvent event = new ConnectionEvent(ConnectionEvent.ConnectionEventType.Response, data); // Init
-                                                                                                                 // event
+            while (iterator.hasNext()) { // Iterate through nodes
+                if (keys.size() == pageSize) { // Check page full
+                    more = true; // Has more
 
-                out.write(event.Bytes()); // Write connection event
-            }
+                    break; // Done
+                }
 
-            iterator.close(); // Close iterator
-        } catch (IOException e) { // Catch
-            if (!CommonIO.StdoutSilenced) { // Check can print
-                e.printStackTrace(); // Print stack trace
+                Map.Entry<byte[], byte[]> entry = iterator.next(); // Get node
 
-                return; // Return
+                keys.add(entry.getKey()); // Add key
+                values.add(entry.getValue()); // Add value
             }
+        } finally {
+            iterator.close(); // Close iterator
         }
 
-        return; // Return
+        byte[] token = more ? BootstrapPage.ResumeAfter(keys.get(keys.size() - 1)) : new byte[0]; // Get token
+
+        return new BootstrapPage(keys.toArray(new byte[keys.size()][]), values.toArray(new byte[values.size()][]), token); // Return page
     }
 
     /**
-     * Handle incoming peer join request.
-     * 
+     * Handle incoming peer join request. The joining peer announces itself to the
+     * nodes closest to it, so the request isn't forwarded.
+     *
      * @param connection
      */
     private void handlePeerJoinRequest(Connection connection) {
-        DBIterator iterator = Dht.WorkingNodeDB.iterator(); // Get iterator
+        if (connection.Meta == null || connection.Meta.length == 0 || Dht.WorkingNodeDB == null) { // Check nothing to add
+            return; // Return
+        }
+
+        Dht.AddPeer(new Peer(connection.Meta[0])); // Add new peer
+    }
 
-        if (Dht.WorkingNodeDB.get(connection.Meta[0]) != null) { // Check already exists
+    /**
+     * Handle incoming ping.
+     *
+     * @param out        output stream
+     * @param connection ping request
+     */
+    private void handlePing(DataOutputStream out, Connection connection) throws IOException {
+        observeSender(connection, 0); // Sender is alive
+
+        ConnectionEvent pong = new ConnectionEvent(ConnectionEvent.ConnectionEventType.Response,
+                new byte[][] { this.PeerIdentity.Bytes() }); // Init pong
+
+        Frame.Write(out, Frame.ConnectionEventFrame, pong.Bytes()); // Write pong
+    }
+
+    /**
+     * Handle incoming node or value lookup request, answering with the value if it
+     * is a value request for a stored key, and with the closest known nodes
+     * otherwise.
+     *
+     * @param out        output stream
+     * @param connection lookup request
+     */
+    private void handleFindRequest(DataOutputStream out, Connection connection) throws IOException {
+        if (connection.Meta == null || connection.Meta.length == 0) { // Check no key
             return; // Return
         }
 
-        Dht.WorkingNodeDB.put(new Peer(connection.Meta[0]).PublicKey.toByteArray(),
-                new Peer(connection.Meta[0]).Bytes()); // Put new peer
+        observeSender(connection, 1); // Sender is alive
+
+        byte[] key = connection.Meta[0]; // Get requested key
+
+        if (connection.Type == Connection.ConnectionType.FindValue && Dht.WorkingNodeDB != null) { // Check value request
+            byte[] value = Dht.WorkingNodeDB.get(key); // Get value
+
+            if (value != null) { // Check stored
+                ConnectionEvent event = new ConnectionEvent(ConnectionEvent.ConnectionEventType.Value,
+                        new byte[][] { value }); // Init value event
+
+                Frame.Write(out, Frame.ConnectionEventFrame, event.Bytes()); // Write value
+
+                return; // Done
+            }
+
+            key = key.length == RoutingTable.IdBits / 8 ? key : Sha.Sha3(key); // Get key id
+        }
+
+        RoutingTable table = Dht.Table; // Get routing table
+
+        List<Peer> closest = table == null || key.length != RoutingTable.IdBits / 8 ? new ArrayList<Peer>()
+                : table.Closest(key, table.BucketSize); // Get closest nodes
+
+        byte[][] nodes = new byte[closest.size()][]; // Init nodes
+
+        for (int i = 0; i < nodes.length; i++) { // Iterate through closest nodes
+            nodes[i] = closest.get(i).Bytes(); // Encode node
+        }
+
+        ConnectionEvent event = new ConnectionEvent(ConnectionEvent.ConnectionEventType.Nodes, nodes); // Init nodes event
+
+        Frame.Write(out, Frame.ConnectionEventFrame, event.Bytes()); // Write nodes
+    }
+
+    /**
+     * Handle incoming header request, answering with up to HeaderBatchSize headers
+     * of the canonical chain from the requested height.
+     *
+     * @param out        output stream
+     * @param connection header request
+     */
+    private void handleHeadersRequest(DataOutputStream out, Connection connection) throws IOException {
+        Blockchain chain = this.Chain; // Get chain
+
+        if (chain == null || connection.Meta == null || connection.Meta.length < 2) { // Check nothing to serve
+            writeBlocks(out, null); // Refuse
+
+            return; // Done
+        }
+
+        long startHeight = CommonDB.DecodeLong(connection.Meta[0], 0); // Get start height
+        long count = Math.min(CommonDB.DecodeLong(connection.Meta[1], 0), ChainSync.HeaderBatchSize); // Get count
 
+        List<byte[]> headers = new ArrayList<byte[]>(); // Init headers
+
+        if (startHeight >= 0 && count > 0) { // Check valid range
+            BlockIterator iterator = chain.IterateBlocks(startHeight, startHeight + count - 1); // Get iterator
+
+            try {
+                while (iterator.hasNext()) { // Iterate through blocks
+                    headers.add(iterator.next().Header().Bytes()); // Add header
+                }
+            } finally {
+                iterator.close(); // Close iterator
+            }
+        }
+
+        writeBlocks(out, headers); // Write headers
+    }
+
+    /**
+     * Handle incoming block request, answering with the longest prefix of the
+     * requested blocks that is stored and fits in MaxResponseSize.
+     *
+     * @param out        output stream
+     * @param connection block request
+     */
+    private void handleBlocksRequest(DataOutputStream out, Connection connection) throws IOException {
+        Blockchain chain = this.Chain; // Get chain
+
+        if (chain == null || connection.Meta == null) { // Check nothing to serve
+            writeBlocks(out, null); // Refuse
+
+            return; // Done
+        }
+
+        List<byte[]> blocks = new ArrayList<byte[]>(); // Init blocks
+
+        int size = 0; // Init response size
+
+        for (byte[] hash : connection.Meta) { // Iterate through requested hashes
+            Block block = chain.GetBlockByHash(hash); // Get block
+
+            if (block == null) { // Check not stored
+                break; // Done
+            }
+
+            byte[] rawBlock = block.Bytes(); // Encode block
+
+            if (!blocks.isEmpty() && size + rawBlock.length > ChainSync.MaxResponseSize) { // Check response full
+                break; // Done
+            }
+
+            blocks.add(rawBlock); // Add block
+            size += rawBlock.length; // Add size
+        }
+
+        writeBlocks(out, blocks); // Write blocks
+    }
+
+    /**
+     * Write a response carrying a given list of encoded blocks, or a close event
+     * if there is nothing to serve.
+     *
+     * @param out    output stream
+     * @param blocks encoded blocks (null to refuse)
+     */
+    private static void writeBlocks(DataOutputStream out, List<byte[]> blocks) throws IOException {
+        ConnectionEvent event = blocks == null
+                ? new ConnectionEvent(ConnectionEvent.ConnectionEventType.Close, new byte[0][])
+                : new ConnectionEvent(ConnectionEvent.ConnectionEventType.Response, blocks.toArray(new byte[blocks.size()][])); // Init event
+
+        Frame.Write(out, Frame.ConnectionEventFrame, event.Bytes()); // Write event
+    }
+
+    /**
+     * Add the sender of a given request to the routing table, if it announced
+     * itself.
+     *
+     * @param connection request
+     * @param index      index of the sender in the request meta
+     */
+    private static void observeSender(Connection connection, int index) {
+        if (connection.Meta == null || connection.Meta.length <= index || connection.Meta[index].length == 0) { // Check anonymous
+            return; // Nothing to add
+        }
+
+        Dht.Observe(new Peer(connection.Meta[index])); // Add sender
+    }
+
+    /**
+     * Close a given socket, ignoring any errors.
+     *
+     * @param socket socket to close
+     */
+    private static void closeQuietly(Closeable socket) {
         try {
-            for (iterator.seekToFirst(); iterator.hasNext(); iterator.next()) {
-                if (iterator.peekNext().getKey() != this.PeerIdentity.PublicKey.toByteArray()
-                        && iterator.peekNext().getKey() != new Peer(connection.Meta[0]).PublicKey.toByteArray()) { // Check
-                                                                                                                   // isn't
-                                                                                                                   // same
-                                                                                                                   // peer
+            socket.close(); // Close socket
+        } catch (IOException e) { // Catch
+            return; // Nothing to do
+        }
+    }
+
+    /**
+     * ReadinessWatcher parks connections that have no frame pending on a single
+     * selector, handing each back to the worker pool once its next frame starts to
+     * arrive, and closing it once it has been parked for longer than SocketTimeout.
+     */
+    private class ReadinessWatcher implements Runnable {
+        /* Read readiness selector */
+        private final Selector selector;
+
+        /* Worker pool parked connections are handed back to */
+        private final ExecutorService workerPool;
+
+        /* Connections waiting to be registered with the selector */
+        private final Queue<ConnectionHandler> pending = new ConcurrentLinkedQueue<ConnectionHandler>();
+
+        /* Whether the watcher has stopped */
+        private boolean closed;
+
+        /**
+         * Initialize a new readiness watcher.
+         *
+         * @param workerPool worker pool to hand ready connections to
+         * @throws IOException if the selector can't be opened
+         */
+        ReadinessWatcher(ExecutorService workerPool) throws IOException {
+            this.selector = Selector.open(); // Open selector
+            this.workerPool = workerPool; // Set worker pool
+        }
+
+        /**
+         * Park a given connection until its next frame arrives.
+         *
+         * @param handler connection to park
+         * @return whether the connection was parked (false if the watcher has stopped)
+         */
+        synchronized boolean Watch(ConnectionHandler handler) {
+            if (this.closed) { // Check stopped
+                return false; // Not parked
+            }
+
+            handler.parkedAt = System.currentTimeMillis(); // Set park time
+
+            this.pending.add(handler); // Queue registration
+            this.selector.wakeup(); // Register on the selector thread
+
+            return true; // Parked
+        }
+
+        /**
+         * Stop watching, closing every parked connection.
+         */
+        void Close() {
+            synchronized (this) {
+                this.closed = true; // Stop parking
+            }
+
+            this.selector.wakeup(); // Unblock select
+        }
+
+        /**
+         * Wait for parked connections to become readable.
+         */
+        @Override
+        public void run() {
+            long lastSweep = System.currentTimeMillis(); // Init last sweep time
+
+            try {
+                while (true) { // Watch until closed
+                    synchronized (this) {
+                        if (this.closed) { // Check stopped
+                            break; // Done
+                        }
+                    }
+
+                    this.register(); // Register parked connections
 
-                    Peer destinationPeer = new Peer(iterator.peekNext().getValue()); // Deserialize peer
+                    this.selector.select(SweepInterval); // Wait for readable connections
 
-                    PeerAddress parsedPeerAddress = CommonNet.ParseConnectionAddress(destinationPeer.ConnectionAddr); // Parse
+                    List<ConnectionHandler> ready = new ArrayList<ConnectionHandler>(); // Init ready connections
 
-                    Connection newConnection = new Connection(Connection.ConnectionType.PeerJoinRequest,
-                            connection.Meta, this.PeerIdentity, destinationPeer); // Construct connection
+                    for (SelectionKey key : this.selector.selectedKeys()) { // Iterate through readable connections
+                        key.cancel(); // Stop watching (the channel must be deregistered before it can block again)
 
-                    try {
-                        Socket socket = new Socket(parsedPeerAddress.InetAddress, parsedPeerAddress.Port); // Connect
+                        ready.add((ConnectionHandler) key.attachment()); // Add connection
+                    }
+
+                    this.selector.selectedKeys().clear(); // Reset selected keys
 
-                        DataOutputStream out = new DataOutputStream(socket.getOutputStream()); // Init out writer
+                    if (System.currentTimeMillis() - lastSweep >= SweepInterval) { // Check should sweep
+                        lastSweep = System.currentTimeMillis(); // Set last sweep time
 
-                        out.write(newConnection.Bytes()); // Write connection
+                        this.sweep(lastSweep); // Close idle connections
+                    }
 
-                        socket.close(); // Close socket
-                        out.close(); // Close out writer
-                    } catch (IOException e) { // Catch
+                    if (ready.isEmpty()) { // Check nothing to hand back
                         continue; // Continue
                     }
+
+                    this.selector.selectNow(); // Deregister cancelled keys
+
+                    for (ConnectionHandler handler : ready) { // Iterate through readable connections
+                        this.dispatch(handler); // Hand back to a worker
+                    }
                 }
+            } catch (IOException | ClosedSelectorException e) { // Catch
+                if (!CommonIO.StdoutSilenced) { // Check can print
+                    e.printStackTrace(); // Print stack trace
+                }
+            } finally {
+                synchronized (this) {
+                    this.closed = true; // Stop parking
+                }
+
+                this.shutdown(); // Close parked connections
             }
+        }
 
-            iterator.close(); // Close iterator
-        } catch (IOException e) { // Catch
-            if (!CommonIO.StdoutSilenced) { // Check can print
-                e.printStackTrace(); // Print stack trace
+        /**
+         * Register every queued connection with the selector.
+         */
+        private void register() {
+            for (ConnectionHandler handler = this.pending.poll(); handler != null; handler = this.pending.poll()) { // Drain queue
+                try {
+                    SocketChannel channel = handler.socket.getChannel(); // Get channel
+
+                    channel.configureBlocking(false); // Make selectable
+                    channel.register(this.selector, SelectionKey.OP_READ, handler); // Watch for next frame
+                } catch (IOException e) { // Catch closed
+                    release(handler.socket); // Drop connection
+                }
+            }
+        }
+
+        /**
+         * Close every connection parked for longer than SocketTimeout.
+         *
+         * @param now current time in milliseconds
+         */
+        private void sweep(long now) {
+            for (SelectionKey key : this.selector.keys()) { // Iterate through parked connections
+                ConnectionHandler handler = (ConnectionHandler) key.attachment(); // Get connection
+
+                if (key.isValid() && now - handler.parkedAt >= SocketTimeout) { // Check idle too long
+                    key.cancel(); // Stop watching
+
+                    release(handler.socket); // Close connection
+                }
+            }
+        }
+
+        /**
+         * Hand a readable connection back to the worker pool.
+         *
+         * @param handler readable connection
+         */
+        private void dispatch(ConnectionHandler handler) {
+            try {
+                handler.socket.getChannel().configureBlocking(true); // Restore blocking reads
+
+                this.workerPool.execute(handler); // Handle next frame
+            } catch (IOException | RejectedExecutionException e) { // Catch closed or stopped
+                release(handler.socket); // Drop connection
+            }
+        }
+
+        /**
+         * Close the selector and every connection still parked or waiting to be.
+         */
+        private void shutdown() {
+            try {
+                for (SelectionKey key : this.selector.keys()) { // Iterate through parked connections
+                    if (key.isValid()) { // Check still parked
+                        key.cancel(); // Stop watching
+
+                        release(((ConnectionHandler) key.attachment()).socket); // Close connection
+                    }
+                }
+            } catch (ClosedSelectorException e) { // Catch already closed
+            }
+
+            for (ConnectionHandler handler = this.pending.poll(); handler != null; handler = this.pending.poll()) { // Drain queue
+                release(handler.socket); // Close connection
+            }
+
+            closeQuietly(this.selector); // Close selector
+        }
+    }
+
+    /**
+     * ConnectionHandler reads and handles the frames sent over a single accepted
+     * connection on a worker thread while they keep arriving, then parks the
+     * connection on the ReadinessWatcher until its next frame. Its connection slot is
+     * released once the peer hangs up or goes idle for SocketTimeout.
+     */
+    private class ConnectionHandler implements Runnable {
+        /* Accepted socket */
+        final Socket socket;
+
+        /* Time the connection was last parked, in milliseconds */
+        volatile long parkedAt;
+
+        /* Connection input stream (opened by the first worker to handle the connection) */
+        private DataInputStream in;
+
+        /* Connection output stream */
+        private DataOutputStream out;
+
+        /**
+         * Initialize a new connection handler.
+         *
+         * @param socket accepted socket
+         */
+        ConnectionHandler(Socket socket) {
+            this.socket = socket; // Set socket
+        }
+
+        /**
+         * Read and handle every frame that has arrived on the connection.
+         */
+        @Override
+        public void run() {
+            boolean parked = false; // Init parked
+
+            try {
+                if (this.in == null) { // Check first frame
+                    this.in = new DataInputStream(new BufferedInputStream(this.socket.getInputStream(), BufferSize)); // Set input stream
+                    this.out = new DataOutputStream(new BufferedOutputStream(this.socket.getOutputStream(), BufferSize)); // Set output stream
+                }
 
-                return; // Return
+                do {
+                    Frame frame = Frame.Read(this.in); // Read frame
+
+                    if (frame == null) { // Check peer hung up
+                        return; // Done (finally releases the slot)
+                    }
+
+                    if (frame.Type == Frame.ConnectionFrame) { // Check connection
+                        handleConnection(new Connection(frame.Payload, this.socket), this.socket, this.in, this.out); // Handle
+
+                        this.out.flush(); // Send any remaining output
+                    }
+
+                    if (!IsServing) { // Check stopping
+                        return; // Done
+                    }
+                } while (this.in.available() > 0); // Handle frames that have already arrived
+
+                ReadinessWatcher watcher = DhtServer.this.watcher; // Get watcher
+
+                parked = watcher != null && watcher.Watch(this); // Free the worker until the next frame
+            } catch (SocketTimeoutException e) { // Catch stalled peer
+                return; // Done (finally releases the slot)
+            } catch (IOException e) { // Catch
+                if (!CommonIO.StdoutSilenced) { // Check can print
+                    e.printStackTrace(); // Print stack trace
+                }
+            } catch (IllegalArgumentException e) { // Catch malformed connection
+                if (!CommonIO.StdoutSilenced) { // Check can print
+                    e.printStackTrace(); // Print stack trace
+                }
+            } finally {
+                if (!parked) { // Check not waiting for another frame
+                    release(this.socket); // Close connection
+                }
             }
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,170 @@
+package com.dowlandaiello.gitchain.p2p;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Frame is a single length-prefixed message on a p2p stream.
+ *
+ * Each frame is laid out as:
+ *
+ * u32 payload length | u8 frame type | payload | u32 crc32(type || payload)
+ *
+ * Frames are read with readFully, so messages split across TCP segments are
+ * reassembled (into a buffer grown as the payload arrives), and writes aren't flushed, so several small frames written to a
+ * buffered stream go out together.
+ */
+public class Frame {
+    /* Connection frame type */
+    public static final byte ConnectionFrame = 1;
+
+    /* Connection event frame type */
+    public static final byte ConnectionEventFrame = 2;
+
+    /* Dht header frame type */
+    public static final byte DhtHeaderFrame = 3;
+
+    /* Max payload size of a single frame */
+    public static final int MaxFrameSize = 16 * 1024 * 1024;
+
+    /* Size of the first buffer a payload is read into */
+    public static final int ChunkSize = 64 * 1024;
+
+    /* Frame type */
+    public final byte Type;
+
+    /* Frame payload */
+    public final byte[] Payload;
+
+    /**
+     * Initialize a new frame.
+     *
+     * @param type    frame type
+     * @param payload frame payload
+     */
+    public Frame(byte type, byte[] payload) {
+        this.Type = type; // Set type
+        this.Payload = payload; // Set payload
+    }
+
+    /**
+     * Write a frame to a given stream. The stream isn't flushed.
+     *
+     * @param out     stream to write to
+     * @param type    frame type
+     * @param payload frame payload
+     * @throws IOException if the payload is too large or the write fails
+     */
+    public static void Write(DataOutputStream out, byte type, byte[] payload) throws IOException {
+        if (payload.length > MaxFrameSize) { // Check too large
+            throw new IOException("frame exceeds max frame size"); // Panic
+        }
+
+        out.writeInt(payload.length); // Write length
+        out.writeByte(type); // Write type
+        out.write(payload); // Write payload
+        out.writeInt(Checksum(type, payload)); // Write checksum
+    }
+
+    /**
+     * Read a frame from a given stream, blocking until the whole frame has arrived.
+     *
+     * @param in stream to read from
+     * @return read frame (null if the stream ended cleanly before a new frame)
+     * @throws IOException if the frame is truncated, too large, or corrupt
+     */
+    public static Frame Read(DataInputStream in) throws IOException {
+        int first = in.read(); // Read first length byte
+
+        if (first == -1) { // Check clean end of stream
+            return null; // No more frames
+        }
+
+        byte[] rest = new byte[3]; // Init buffer
+
+        in.readFully(rest); // Read remaining length bytes
+
+        int length = (first << 24) | ((rest[0] & 0xFF) << 16) | ((rest[1] & 0xFF) << 8) | (rest[2] & 0xFF); // Get length
+
+        if (length < 0 || length > MaxFrameSize) { // Check invalid length
+            throw new IOException("frame exceeds max frame size"); // Panic
+        }
+
+        byte type = in.readByte(); // Read type
+        byte[] payload = ReadPayload(in, length); // Read payload
+
+        if (in.readInt() != Checksum(type, payload)) { // Check corrupt
+            throw new IOException("frame checksum mismatch"); // Panic
+        }
+
+        return new Frame(type, payload); // Return frame
+    }
+
+    /**
+     * Read a payload of a given claimed length, growing the buffer only as data
+     * actually arrives so a peer can't make us allocate a max size frame up front.
+     *
+     * @param in     stream to read from
+     * @param length claimed payload length
+     * @return read payload
+     * @throws IOException if the stream ends before the whole payload
+     */
+    private static byte[] ReadPayload(DataInputStream in, int length) throws IOException {
+        byte[] payload = new byte[Math.min(length, ChunkSize)]; // Init payload
+        int read = 0; // Init read count
+
+        while (read < length) { // Read until done
+            if (read == payload.length) { // Check buffer full
+                payload = Arrays.copyOf(payload, (int) Math.min(length, 2L * payload.length)); // Grow buffer
+            }
+
+            in.readFully(payload, read, payload.length - read); // Read chunk
+
+            read = payload.length; // Update read count
+        }
+
+        return payload; // Return payload
+    }
+
+    /**
+     * Read a frame of a given type from a given stream.
+     *
+     * @param in   stream to read from
+     * @param type expected frame type
+     * @return read frame payload
+     * @throws IOException if the stream ended, the frame is invalid, or has the wrong type
+     */
+    public static byte[] ReadExpected(DataInputStream in, byte type) throws IOException {
+        Frame frame = Read(in); // Read frame
+
+        if (frame == null) { // Check ended
+            throw new EOFException("stream ended before frame"); // Panic
+        }
+
+        if (frame.Type != type) { // Check wrong type
+            throw new IOException("unexpected frame type " + frame.Type); // Panic
+        }
+
+        return frame.Payload; // Return payload
+    }
+
+    /**
+     * Calculate the checksum of a frame's type and payload.
+     *
+     * @param type    frame type
+     * @param payload frame payload
+     * @return checksum
+     */
+    private static int Checksum(byte type, byte[] payload) {
+        CRC32 crc = new CRC32(); // Init crc
+
+        crc.update(type); // Write type
+        crc.update(payload, 0, payload.length); // Write payload
+
+        return (int) crc.getValue(); // Return checksum
+    }
+}
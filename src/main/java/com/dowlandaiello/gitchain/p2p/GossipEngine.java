@@ -0,0 +1,650 @@
+package com.dowlandaiello.gitchain.p2p;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.dowlandaiello.gitchain.common.ByteKey;
+import com.dowlandaiello.gitchain.crypto.Sha;
+import com.dowlandaiello.gitchain.types.Block;
+import com.dowlandaiello.gitchain.types.Blockchain;
+import com.dowlandaiello.gitchain.types.ImportPipeline;
+import com.dowlandaiello.gitchain.types.Mempool;
+import com.dowlandaiello.gitchain.types.OrphanPool;
+import com.dowlandaiello.gitchain.types.Transaction;
+
+/**
+ * GossipEngine spreads new blocks and transactions across the network.
+ *
+ * New objects aren't pushed whole; a node announces the hashes of the objects
+ * it has to a few random peers (InventoryAnnounce), peers that haven't seen an
+ * object ask for it (GetData), and receive it (Data). Once an object is
+ * received and accepted by the listener, it is announced onwards, so an object
+ * reaches every node in O(log N) hops while each node downloads it once.
+ *
+ * Hashes already seen are remembered in a bounded LRU so that duplicate
+ * announcements are dropped, and every peer is rate limited by a token bucket
+ * so that a single peer can't flood the node.
+ */
+public class GossipEngine {
+    /* Block inventory kind */
+    public static final byte BlockInventory = 1;
+
+    /* Transaction inventory kind */
+    public static final byte TransactionInventory = 2;
+
+    /* Default number of peers each object is announced to */
+    public static final int DefaultFanout = 8;
+
+    /* Default number of hashes remembered as seen */
+    public static final int DefaultSeenCapacity = 65536;
+
+    /* Default number of objects kept to answer requests with */
+    public static final int DefaultObjectCapacity = 4096;
+
+    /* Default number of messages each peer may send per second */
+    public static final double DefaultRate = 200;
+
+    /* Default number of messages each peer may send at once */
+    public static final int DefaultBurst = 400;
+
+    /* Time after which an object announced but not received is requested again, in milliseconds */
+    public static final long RequestTimeout = 2000;
+
+    /* Max number of items in a single announcement or request */
+    public static final int MaxInventoryItems = 1024;
+
+    /* Size of an inventory item (kind byte and sha3-512 hash) */
+    public static final int InventoryItemSize = 65;
+
+    /* Local peer identity */
+    public final Peer Identity;
+
+    /* Number of peers each object is announced to */
+    public final int Fanout;
+
+    /* Transport messages are sent over */
+    private final Transport transport;
+
+    /* Listener objects are delivered to */
+    private final Listener listener;
+
+    /* Number of messages each peer may send per second */
+    private final double rate;
+
+    /* Number of messages each peer may send at once */
+    private final int burst;
+
+    /* Seen hashes (LRU, access ordered) to the time they were last requested */
+    private final LinkedHashMap<ByteKey, Long> seen;
+
+    /* Received objects (LRU, access ordered) by hash */
+    private final LinkedHashMap<ByteKey, byte[]> objects;
+
+    /* Rate limits by peer address */
+    private final ConcurrentHashMap<String, TokenBucket> limits = new ConcurrentHashMap<String, TokenBucket>();
+
+    /* Encoded local identity */
+    private final byte[] identityBytes;
+
+    /* Number of objects received and accepted */
+    private final AtomicLong delivered = new AtomicLong();
+
+    /* Number of announcements and objects received that had already been seen */
+    private final AtomicLong duplicates = new AtomicLong();
+
+    /* Number of messages dropped by rate limits */
+    private final AtomicLong dropped = new AtomicLong();
+
+    /* Fanout selection random source */
+    private final Random random = new Random();
+
+    /**
+     * Transport sends gossip messages to peers.
+     */
+    public static interface Transport {
+        /**
+         * Send a given message to a given peer.
+         *
+         * @param peer       peer to send to
+         * @param connection message to send
+         * @return whether the message was sent
+         */
+        boolean Send(Peer peer, Connection connection);
+
+        /**
+         * Get the peers objects may be announced to.
+         *
+         * @return peers
+         */
+        List<Peer> Peers();
+    }
+
+    /**
+     * Listener validates and applies received objects.
+     */
+    public static interface Listener {
+        /**
+         * Validate and apply a received object.
+         *
+         * @param kind    inventory kind
+         * @param payload encoded object
+         * @return whether the object is valid (only valid objects are announced onwards)
+         */
+        boolean Deliver(byte kind, byte[] payload);
+    }
+
+    /**
+     * Initialize a new gossip engine with default limits.
+     *
+     * @param identity  local peer identity
+     * @param transport transport to send messages over
+     * @param listener  listener to deliver objects to
+     */
+    public GossipEngine(Peer identity, Transport transport, Listener listener) {
+        this(identity, transport, listener, DefaultFanout, DefaultRate, DefaultBurst, DefaultSeenCapacity); // Init engine
+    }
+
+    /**
+     * Initialize a new gossip engine.
+     *
+     * @param identity     local peer identity
+     * @param transport    transport to send messages over
+     * @param listener     listener to deliver objects to
+     * @param fanout       number of peers each object is announced to
+     * @param rate         number of messages each peer may send per second
+     * @param burst        number of messages each peer may send at once
+     * @param seenCapacity number of hashes remembered as seen
+     */
+    public GossipEngine(Peer identity, Transport transport, Listener listener, int fanout, double rate, int burst,
+            final int seenCapacity) {
+        this.Identity = identity; // Set identity
+        this.transport = transport; // Set transport
+        this.listener = listener; // Set listener
+        this.Fanout = Math.max(1, fanout); // Set fanout
+        this.rate = rate; // Set rate
+        this.burst = Math.max(1, burst); // Set burst
+        this.identityBytes = identity.Bytes(); // Encode identity
+
+        this.seen = new LinkedHashMap<ByteKey, Long>(16, 0.75f, true) {
+            static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteKey, Long> eldest) {
+                return this.size() > seenCapacity; // Forget oldest hash
+            }
+        }; // Init seen hashes
+
+        this.objects = new LinkedHashMap<ByteKey, byte[]>(16, 0.75f, true) {
+            static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteKey, byte[]> eldest) {
+                return this.size() > DefaultObjectCapacity; // Drop oldest object
+            }
+        }; // Init objects
+    }
+
+    /**
+     * Get the inventory hash of a given encoded object.
+     *
+     * @param payload encoded object
+     * @return inventory hash
+     */
+    public static byte[] InventoryHash(byte[] payload) {
+        return Sha.Sha3(payload); // Return hash
+    }
+
+    /**
+     * Announce a new block.
+     *
+     * @param block block to announce
+     * @return inventory hash
+     */
+    public byte[] PublishBlock(Block block) {
+        return this.Publish(BlockInventory, block.Bytes()); // Publish
+    }
+
+    /**
+     * Announce a new transaction.
+     *
+     * @param transaction transaction to announce
+     * @return inventory hash
+     */
+    public byte[] PublishTransaction(Transaction transaction) {
+        return this.Publish(TransactionInventory, transaction.Bytes()); // Publish
+    }
+
+    /**
+     * Announce a new object created locally.
+     *
+     * @param kind    inventory kind
+     * @param payload encoded object
+     * @return inventory hash
+     */
+    public byte[] Publish(byte kind, byte[] payload) {
+        byte[] hash = InventoryHash(payload); // Get hash
+
+        this.store(new ByteKey(hash), payload); // Keep object to answer requests
+
+        this.announce(kind, hash, null); // Announce
+
+        return hash; // Return hash
+    }
+
+    /**
+     * Handle a received gossip message.
+     *
+     * @param connection received message
+     * @return whether the message was handled (false if malformed, not gossip, or
+     *         rate limited)
+     */
+    public boolean Handle(Connection connection) {
+        if (connection.Type == null || connection.Meta == null || connection.Meta.length < 1) { // Check malformed
+            return false; // Not handled
+        }
+
+        Peer from = new Peer(connection.Meta[0]); // Decode sender
+
+        if (from.ConnectionAddr == null) { // Check anonymous
+            return false; // Can't answer
+        }
+
+        if (!this.allow(from.ConnectionAddr)) { // Check over rate limit
+            this.dropped.incrementAndGet(); // Count dropped
+
+            return false; // Dropped
+        }
+
+        switch (connection.Type) { // Handle gossip types
+        case InventoryAnnounce: // Handle announcement
+            this.onAnnounce(from, connection.Meta); // Request unseen objects
+
+            return true; // Handled
+        case GetData: // Handle request
+            this.onGetData(from, connection.Meta); // Send requested objects
+
+            return true; // Handled
+        case Data: // Handle object
+            return this.onData(from, connection.Meta); // Deliver object
+        default:
+            return false; // Not gossip
+        }
+    }
+
+    /**
+     * Check whether a given hash has been seen.
+     *
+     * @param hash inventory hash
+     * @return whether the hash has been seen
+     */
+    public boolean Seen(byte[] hash) {
+        synchronized (this.seen) {
+            return this.seen.containsKey(new ByteKey(hash)); // Check seen
+        }
+    }
+
+    /**
+     * Get the number of objects received and accepted.
+     *
+     * @return number of objects delivered
+     */
+    public long Delivered() {
+        return this.delivered.get(); // Return delivered
+    }
+
+    /**
+     * Get the number of announcements and objects received that had already been
+     * seen.
+     *
+     * @return number of duplicates
+     */
+    public long Duplicates() {
+        return this.duplicates.get(); // Return duplicates
+    }
+
+    /**
+     * Get the number of messages dropped by rate limits.
+     *
+     * @return number of dropped messages
+     */
+    public long Dropped() {
+        return this.dropped.get(); // Return dropped
+    }
+
+    /**
+     * Request every announced object that hasn't been seen (or whose request has
+     * gone unanswered for RequestTimeout).
+     *
+     * @param from sender
+     * @param meta announcement meta
+     */
+    private void onAnnounce(Peer from, byte[][] meta) {
+        List<byte[]> wanted = new ArrayList<byte[]>(); // Init wanted items
+
+        long now = System.currentTimeMillis(); // Get time
+
+        for (int i = 1; i < meta.length && i <= MaxInventoryItems; i++) { // Iterate through items
+            if (meta[i] == null || meta[i].length != InventoryItemSize) { // Check malformed
+                continue; // Skip
+            }
+
+            ByteKey hash = new ByteKey(itemHash(meta[i])); // Get hash
+
+            synchronized (this.seen) {
+                Long requestedAt = this.seen.get(hash); // Get last request time
+
+                if (requestedAt != null && (this.has(hash) || now - requestedAt < RequestTimeout)) { // Check seen
+                    this.duplicates.incrementAndGet(); // Count duplicate
+
+                    continue; // Skip
+                }
+
+                this.seen.put(hash, now); // Mark requested
+            }
+
+            wanted.add(meta[i]); // Request
+        }
+
+        if (!wanted.isEmpty()) { // Check anything to request
+            this.transport.Send(from, this.message(Connection.ConnectionType.GetData, wanted, from)); // Request objects
+        }
+    }
+
+    /**
+     * Send every requested object that is still held.
+     *
+     * @param from sender
+     * @param meta request meta
+     */
+    private void onGetData(Peer from, byte[][] meta) {
+        for (int i = 1; i < meta.length && i <= MaxInventoryItems; i++) { // Iterate through items
+            if (meta[i] == null || meta[i].length != InventoryItemSize) { // Check malformed
+                continue; // Skip
+            }
+
+            byte[] payload; // Init buffer
+
+            synchronized (this.seen) {
+                payload = this.objects.get(new ByteKey(itemHash(meta[i]))); // Get object
+            }
+
+            if (payload == null) { // Check not held
+                continue; // Skip
+            }
+
+            this.transport.Send(from, new Connection(Connection.ConnectionType.Data,
+                    new byte[][] { this.identityBytes, new byte[] { meta[i][0] }, payload }, this.Identity, from)); // Send object
+        }
+    }
+
+    /**
+     * Deliver a received object, announcing it onwards if it is new and valid.
+     *
+     * @param from sender
+     * @param meta object meta
+     * @return whether the object was well formed
+     */
+    private boolean onData(Peer from, byte[][] meta) {
+        if (meta.length != 3 || meta[1] == null || meta[1].length != 1 || meta[2] == null) { // Check malformed
+            return false; // Not handled
+        }
+
+        byte kind = meta[1][0]; // Get kind
+        byte[] payload = meta[2]; // Get object
+        byte[] hash = InventoryHash(payload); // Get hash
+
+        ByteKey key = new ByteKey(hash); // Get key
+
+        synchronized (this.seen) {
+            if (this.has(key)) { // Check already received
+                this.duplicates.incrementAndGet(); // Count duplicate
+
+                return true; // Handled
+            }
+
+            this.seen.put(key, System.currentTimeMillis()); // Mark seen
+        }
+
+        if (!this.listener.Deliver(kind, payload)) { // Check invalid
+            synchronized (this.seen) {
+                this.seen.put(key, Long.MAX_VALUE); // Never request again
+            }
+
+            return true; // Handled (not relayed)
+        }
+
+        this.delivered.incrementAndGet(); // Count delivered
+
+        this.store(key, payload); // Keep object to answer requests
+
+        this.announce(kind, hash, from); // Announce onwards
+
+        return true; // Handled
+    }
+
+    /**
+     * Announce an object to Fanout random peers.
+     *
+     * @param kind   inventory kind
+     * @param hash   inventory hash
+     * @param except peer not to announce to (null if none)
+     */
+    private void announce(byte kind, byte[] hash, Peer except) {
+        byte[] item = new byte[InventoryItemSize]; // Init item
+
+        item[0] = kind; // Set kind
+        System.arraycopy(hash, 0, item, 1, hash.length); // Set hash
+
+        List<byte[]> items = Collections.singletonList(item); // Init items
+
+        for (Peer peer : this.SelectFanout(except)) { // Iterate through selected peers
+            this.transport.Send(peer, this.message(Connection.ConnectionType.InventoryAnnounce, items, peer)); // Announce
+        }
+    }
+
+    /**
+     * Select up to Fanout random peers.
+     *
+     * @param except peer not to select (null if none)
+     * @return selected peers
+     */
+    public List<Peer> SelectFanout(Peer except) {
+        List<Peer> candidates = new ArrayList<Peer>(); // Init candidates
+
+        for (Peer peer : this.transport.Peers()) { // Iterate through peers
+            if (peer.ConnectionAddr == null || peer.ConnectionAddr.equals(this.Identity.ConnectionAddr)
+                    || (except != null && peer.ConnectionAddr.equals(except.ConnectionAddr))) { // Check excluded
+                continue; // Skip
+            }
+
+            candidates.add(peer); // Add candidate
+        }
+
+        int count = Math.min(this.Fanout, candidates.size()); // Get count
+
+        synchronized (this.random) {
+            for (int i = 0; i < count; i++) { // Partially shuffle
+                Collections.swap(candidates, i, i + this.random.nextInt(candidates.size() - i)); // Pick random candidate
+            }
+        }
+
+        return new ArrayList<Peer>(candidates.subList(0, count)); // Return selected
+    }
+
+    /**
+     * Build an inventory message.
+     *
+     * @param type      message type
+     * @param items     inventory items
+     * @param recipient recipient
+     * @return message
+     */
+    private Connection message(Connection.ConnectionType type, List<byte[]> items, Peer recipient) {
+        byte[][] meta = new byte[items.size() + 1][]; // Init meta
+
+        meta[0] = this.identityBytes; // Set sender
+
+        for (int i = 0; i < items.size(); i++) { // Iterate through items
+            meta[i + 1] = items.get(i); // Set item
+        }
+
+        return new Connection(type, meta, this.Identity, recipient); // Return message
+    }
+
+    /**
+     * Keep a received or published object.
+     *
+     * @param key     inventory hash
+     * @param payload encoded object
+     */
+    private void store(ByteKey key, byte[] payload) {
+        synchronized (this.seen) {
+            this.seen.put(key, System.currentTimeMillis()); // Mark seen
+            this.objects.put(key, payload); // Keep object
+        }
+    }
+
+    /**
+     * Check whether an object is held. Must be called while holding the seen lock.
+     *
+     * @param key inventory hash
+     * @return whether the object is held
+     */
+    private boolean has(ByteKey key) {
+        return this.objects.containsKey(key); // Check held
+    }
+
+    /**
+     * Take a token from a given peer's rate limit.
+     *
+     * @param address peer address
+     * @return whether the peer is within its rate limit
+     */
+    private boolean allow(String address) {
+        TokenBucket bucket = this.limits.get(address); // Get bucket
+
+        if (bucket == null) { // Check new peer
+            TokenBucket newBucket = new TokenBucket(this.burst); // Init bucket
+
+            bucket = this.limits.putIfAbsent(address, newBucket); // Set bucket
+
+            if (bucket == null) { // Check set
+                bucket = newBucket; // Use new bucket
+            }
+        }
+
+        return bucket.TryTake(this.rate, this.burst); // Take token
+    }
+
+    /**
+     * Get the hash of an inventory item.
+     *
+     * @param item inventory item
+     * @return hash
+     */
+    private static byte[] itemHash(byte[] item) {
+        byte[] hash = new byte[item.length - 1]; // Init hash
+
+        System.arraycopy(item, 1, hash, 0, hash.length); // Copy hash
+
+        return hash; // Return hash
+    }
+
+    /**
+     * ChainListener applies received blocks to a chain and received transactions
+     * to a mempool. Blocks go through the same stateless checks as an import
+     * pipeline (hash, proof of work, merkle root, and signatures through the
+     * chain's verifier), then through an orphan pool, so blocks arriving ahead of
+     * their parents are held; blocks with a known parent are checked against it
+     * and added by the chain.
+     */
+    public static class ChainListener implements Listener {
+        /* Chain blocks are added to */
+        public final Blockchain Chain;
+
+        /* Pool holding blocks that arrive ahead of their parents */
+        public final OrphanPool Orphans;
+
+        /* Mempool transactions are added to (null if transactions are dropped) */
+        private final Mempool mempool;
+
+        /**
+         * Initialize a new chain listener.
+         *
+         * @param chain   chain to add blocks to
+         * @param mempool mempool to add transactions to (null to drop them)
+         */
+        public ChainListener(Blockchain chain, Mempool mempool) {
+            this.Chain = chain; // Set chain
+            this.Orphans = new OrphanPool(chain); // Init orphan pool
+            this.mempool = mempool; // Set mempool
+        }
+
+        @Override
+        public boolean Deliver(byte kind, byte[] payload) {
+            try {
+                if (kind == BlockInventory) { // Check block
+                    Block block = new Block(payload); // Decode block
+
+                    return ImportPipeline.CheckStateless(block, this.Chain.Verifier) && this.Orphans.Submit(block) >= 0; // Check and add block
+                }
+
+                if (kind == TransactionInventory && this.mempool != null) { // Check transaction
+                    return this.mempool.AddTransaction(new Transaction(payload)); // Add transaction
+                }
+            } catch (RuntimeException e) { // Catch malformed object
+                return false; // Invalid
+            }
+
+            return false; // Unknown kind
+        }
+    }
+
+    /**
+     * TokenBucket is a single peer's rate limit.
+     */
+    private static class TokenBucket {
+        /* Available tokens */
+        private double tokens;
+
+        /* Time tokens were last refilled, in nanoseconds */
+        private long refilledAt = System.nanoTime();
+
+        /**
+         * Initialize a new full bucket.
+         *
+         * @param burst bucket capacity
+         */
+        TokenBucket(int burst) {
+            this.tokens = burst; // Fill bucket
+        }
+
+        /**
+         * Refill the bucket and take a token.
+         *
+         * @param rate  tokens added per second
+         * @param burst bucket capacity
+         * @return whether a token was available
+         */
+        synchronized boolean TryTake(double rate, int burst) {
+            long now = System.nanoTime(); // Get time
+
+            this.tokens = Math.min(burst, this.tokens + (now - this.refilledAt) * rate / 1e9); // Refill
+            this.refilledAt = now; // Mark refilled
+
+            if (this.tokens < 1) { // Check empty
+                return false; // Limited
+            }
+
+            this.tokens--; // Take token
+
+            return true; // Allowed
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.dowlandaiello.gitchain.p2p;
+
+/**
+ * JoinSummary is the outcome of announcing a peer to every known node.
+ */
+public class JoinSummary {
+    /* Number of peers the announcement was delivered to */
+    public final int Reached;
+
+    /* Number of peers that refused or dropped the announcement */
+    public final int Failed;
+
+    /* Number of peers that didn't accept the announcement in time */
+    public final int TimedOut;
+
+    /**
+     * Initialize a new join summary.
+     *
+     * @param reached  number of peers reached
+     * @param failed   number of peers failed
+     * @param timedOut number of peers timed out
+     */
+    public JoinSummary(int reached, int failed, int timedOut) {
+        this.Reached = reached; // Set reached
+        this.Failed = failed; // Set failed
+        this.TimedOut = timedOut; // Set timed out
+    }
+
+    /**
+     * Get the number of peers the announcement was attempted to.
+     *
+     * @return number of peers
+     */
+    public int Total() {
+        return this.Reached + this.Failed + this.TimedOut; // Return total
+    }
+
+    /**
+     * Summarize the join.
+     *
+     * @return summary
+     */
+    @Override
+    public String toString() {
+        return "reached " + this.Reached + ", failed " + this.Failed + ", timed out " + this.TimedOut; // Return summary
+    }
+}
@@ -0,0 +1,232 @@
+package com.dowlandaiello.gitchain.p2p;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.dowlandaiello.gitchain.common.ByteKey;
+import com.dowlandaiello.gitchain.p2p.ConnectionEvent.ConnectionEventType;
+
+/**
+ * NodeLookup is a single iterative Kademlia lookup: starting from the closest
+ * peers in the routing table, it asks Alpha peers at a time for the peers they
+ * know closest to the target, until the K closest peers found have all been
+ * asked. Each round moves at least one bit closer to the target, so a lookup
+ * takes O(log N) rounds.
+ *
+ * A value lookup stops as soon as any peer answers with the value.
+ */
+public class NodeLookup {
+    /* Number of peers asked at once */
+    public static final int Alpha = 3;
+
+    /* Lookup target id */
+    public final byte[] Target;
+
+    /* Value found by a value lookup (null if none) */
+    public byte[] Value;
+
+    /* Routing table to start from and update */
+    private final RoutingTable table;
+
+    /* Value key (null for a node lookup) */
+    private final byte[] valueKey;
+
+    /* Local peer (null if not known) */
+    private final Peer sender;
+
+    /* Time each peer has to answer, in milliseconds */
+    private final int timeout;
+
+    /**
+     * Initialize a new lookup.
+     *
+     * @param table    routing table to start from and update
+     * @param target   target id
+     * @param valueKey key to look up the value of (null for a node lookup)
+     * @param sender   local peer, announced to every peer asked (null if not known)
+     * @param timeout  time each peer has to answer, in milliseconds
+     */
+    public NodeLookup(RoutingTable table, byte[] target, byte[] valueKey, Peer sender, int timeout) {
+        this.table = table; // Set table
+        this.Target = target; // Set target
+        this.valueKey = valueKey; // Set value key
+        this.sender = sender; // Set sender
+        this.timeout = timeout; // Set timeout
+    }
+
+    /**
+     * Run the lookup on a given executor.
+     *
+     * @param executor executor to ask peers on (should run at least Alpha tasks at once)
+     * @return closest peers that answered, closest first
+     */
+    public List<Peer> Run(ExecutorService executor) {
+        Map<ByteKey, Peer> known = new HashMap<ByteKey, Peer>(); // Init known peers
+        Set<ByteKey> queried = new HashSet<ByteKey>(); // Init queried peers
+        Map<ByteKey, Peer> responded = new HashMap<ByteKey, Peer>(); // Init responding peers
+
+        for (Peer peer : this.table.Closest(this.Target, this.table.BucketSize)) { // Iterate through closest known peers
+            known.put(new ByteKey(RoutingTable.NodeId(peer)), peer); // Add peer
+        }
+
+        Connection.ConnectionType type = this.valueKey == null ? Connection.ConnectionType.FindNode
+                : Connection.ConnectionType.FindValue; // Get request type
+
+        byte[] key = this.valueKey == null ? this.Target : this.valueKey; // Get requested key
+        byte[] senderBytes = this.sender == null ? new byte[0] : this.sender.Bytes(); // Get sender
+
+        while (true) { // Ask closer peers until none are left
+            List<ByteKey> round = new ArrayList<ByteKey>(); // Init round
+
+            for (ByteKey id : this.closest(known.keySet(), this.table.BucketSize)) { // Iterate through closest peers
+                if (!queried.contains(id)) { // Check not asked yet
+                    round.add(id); // Ask
+                }
+
+                if (round.size() == Alpha) { // Check round full
+                    break; // Done
+                }
+            }
+
+            if (round.isEmpty()) { // Check every close peer asked
+                break; // Done
+            }
+
+            List<Future<ConnectionEvent>> answers = new ArrayList<Future<ConnectionEvent>>(); // Init answers
+
+            for (ByteKey id : round) { // Iterate through round
+                final Peer peer = known.get(id); // Get peer
+
+                final Connection request = new Connection(type, new byte[][] { key, senderBytes },
+                        this.sender == null ? new Peer(null, null, null) : this.sender, peer); // Init request (anonymous if no sender)
+
+                queried.add(id); // Mark asked
+
+                answers.add(executor.submit(new Callable<ConnectionEvent>() {
+                    @Override
+                    public ConnectionEvent call() {
+                        return Dht.Call(peer, request, timeout); // Ask peer
+                    }
+                })); // Ask
+            }
+
+            for (int i = 0; i < round.size(); i++) { // Iterate through answers
+                Peer peer = known.get(round.get(i)); // Get peer
+
+                ConnectionEvent answer = this.await(answers.get(i)); // Wait for answer
+
+                if (answer == null || answer.Type == null || answer.Meta == null) { // Check no answer
+                    this.table.Failed(peer); // Count failure
+
+                    continue; // Skip
+                }
+
+                responded.put(round.get(i), peer); // Mark answered
+
+                Dht.Observe(peer); // Peer is alive
+
+                if (answer.Type == ConnectionEventType.Value && this.valueKey != null && answer.Meta.length > 0) { // Check found value
+                    this.Value = answer.Meta[0]; // Set value
+
+                    return this.closestPeers(responded); // Done
+                }
+
+                if (answer.Type != ConnectionEventType.Nodes) { // Check not a node list
+                    continue; // Skip
+                }
+
+                for (byte[] rawPeer : answer.Meta) { // Iterate through returned peers
+                    Peer found = new Peer(rawPeer); // Decode peer
+
+                    if (found.ConnectionAddr == null) { // Check unreachable
+                        continue; // Skip
+                    }
+
+                    byte[] foundId = RoutingTable.NodeId(found); // Get id
+
+                    if (this.table.BucketIndex(foundId) < 0) { // Check self
+                        continue; // Skip
+                    }
+
+                    ByteKey foundKey = new ByteKey(foundId); // Get key
+
+                    if (!known.containsKey(foundKey)) { // Check new
+                        known.put(foundKey, found); // Add peer
+                    }
+                }
+            }
+        }
+
+        return this.closestPeers(responded); // Return closest answering peers
+    }
+
+    /**
+     * Get the closest of a given set of peers.
+     *
+     * @param peers peers by id
+     * @return up to BucketSize peers, closest first
+     */
+    private List<Peer> closestPeers(Map<ByteKey, Peer> peers) {
+        List<Peer> closest = new ArrayList<Peer>(); // Init closest
+
+        for (ByteKey id : this.closest(peers.keySet(), this.table.BucketSize)) { // Iterate through closest
+            closest.add(peers.get(id)); // Add peer
+        }
+
+        return closest; // Return closest
+    }
+
+    /**
+     * Get the ids closest to the target.
+     *
+     * @param ids   ids to choose from
+     * @param count max number of ids to return
+     * @return ids, closest first
+     */
+    private List<ByteKey> closest(Set<ByteKey> ids, int count) {
+        final Map<ByteKey, ByteKey> distances = new HashMap<ByteKey, ByteKey>(); // Init distances
+
+        for (ByteKey id : ids) { // Iterate through ids
+            distances.put(id, new ByteKey(RoutingTable.Distance(id.Bytes, this.Target))); // Get distance
+        }
+
+        ByteKey[] sorted = ids.toArray(new ByteKey[ids.size()]); // Init sorted ids
+
+        Arrays.sort(sorted, new Comparator<ByteKey>() {
+            @Override
+            public int compare(ByteKey a, ByteKey b) {
+                return distances.get(a).compareTo(distances.get(b)); // Compare distances
+            }
+        }); // Sort by distance
+
+        return Arrays.asList(sorted).subList(0, Math.min(count, sorted.length)); // Return closest
+    }
+
+    /**
+     * Wait for a peer's answer.
+     *
+     * @param answer pending answer
+     * @return answer (null if the peer didn't answer)
+     */
+    private ConnectionEvent await(Future<ConnectionEvent> answer) {
+        try {
+            return answer.get(); // Wait (bounded by the request timeout)
+        } catch (InterruptedException e) { // Catch
+            Thread.currentThread().interrupt(); // Restore interrupt
+
+            return null; // No answer
+        } catch (ExecutionException e) { // Catch
+            return null; // No answer
+        }
+    }
+}
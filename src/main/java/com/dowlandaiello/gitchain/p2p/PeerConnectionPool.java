@@ -0,0 +1,413 @@
+package com.dowlandaiello.gitchain.p2p;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.dowlandaiello.gitchain.common.CommonNet;
+import com.dowlandaiello.gitchain.common.CommonNet.PeerAddress;
+
+/**
+ * PeerConnectionPool keeps long-lived outbound connections to peers, keyed by
+ * peer connection address, so that repeated messages to the same peer don't
+ * each pay for a TCP handshake.
+ *
+ * Any number of threads may send to the same peer; their frames are written
+ * one at a time over the shared connection, and a batch of frames can be
+ * pipelined with a single flush. Connections idle for longer than IdleTimeout
+ * are closed (before the remote DhtServer's read timeout would), dead
+ * connections are detected by TCP keep-alive or a failed write and redialed
+ * once, and peers that can't be dialed are backed off exponentially.
+ */
+public class PeerConnectionPool {
+    /* Default time a connection may sit unused before being closed, in milliseconds */
+    public static final long DefaultIdleTimeout = DhtServer.SocketTimeout / 2;
+
+    /* Connect timeout in milliseconds */
+    public static final int ConnectTimeout = 3000;
+
+    /* Delay before redialing a peer after its first failure, in milliseconds */
+    public static final long BaseBackoff = 500;
+
+    /* Max delay before redialing a failing peer, in milliseconds */
+    public static final long MaxBackoff = 60000;
+
+    /* Size of per-connection write buffers */
+    public static final int BufferSize = 8192;
+
+    /* Outcome of a send attempt */
+    public static enum SendResult {
+        Sent, Failed, TimedOut;
+    }
+
+    /* Time a connection may sit unused before being closed, in milliseconds */
+    public final long IdleTimeout;
+
+    /* Open connections by peer address */
+    private final ConcurrentHashMap<String, PooledConnection> connections = new ConcurrentHashMap<String, PooledConnection>();
+
+    /* Dial failures by peer address */
+    private final ConcurrentHashMap<String, Backoff> backoffs = new ConcurrentHashMap<String, Backoff>();
+
+    /* Idle connection evictor */
+    private final ScheduledExecutorService evictor;
+
+    /**
+     * Initialize a new connection pool with the default idle timeout.
+     */
+    public PeerConnectionPool() {
+        this(DefaultIdleTimeout); // Init pool
+    }
+
+    /**
+     * Initialize a new connection pool with a given idle timeout.
+     *
+     * @param idleTimeout time a connection may sit unused before being closed, in milliseconds
+     */
+    public PeerConnectionPool(long idleTimeout) {
+        this.IdleTimeout = Math.max(1, idleTimeout); // Set idle timeout
+        this.evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "peer-pool-evictor"); // Init thread
+
+                thread.setDaemon(true); // Don't block shutdown
+
+                return thread; // Return thread
+            }
+        }); // Init evictor
+
+        long period = Math.max(1, this.IdleTimeout / 2); // Get eviction period
+
+        this.evictor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                EvictIdle(); // Evict idle connections
+            }
+        }, period, period, TimeUnit.MILLISECONDS); // Schedule eviction
+    }
+
+    /**
+     * Send a connection to a given peer over a pooled connection.
+     *
+     * @param peer       peer to send to
+     * @param connection connection to send
+     * @return whether the connection was sent
+     */
+    public boolean Send(Peer peer, Connection connection) {
+        return this.SendAll(peer, new Connection[] { connection }); // Send
+    }
+
+    /**
+     * Pipeline several connections to a given peer over a pooled connection, flushing
+     * once at the end.
+     *
+     * @param peer        peer to send to
+     * @param connections connections to send, in order
+     * @return whether every connection was sent
+     */
+    public boolean SendAll(Peer peer, Connection[] connections) {
+        return this.TrySendAll(peer, connections, ConnectTimeout) == SendResult.Sent; // Send
+    }
+
+    /**
+     * Pipeline several connections to a given peer over a pooled connection, flushing
+     * once at the end, and report how the attempt ended.
+     *
+     * @param peer           peer to send to
+     * @param connections    connections to send, in order
+     * @param connectTimeout connect timeout in milliseconds, if a connection must be dialed
+     * @return outcome of the attempt
+     */
+    public SendResult TrySendAll(Peer peer, Connection[] connections, int connectTimeout) {
+        String address = peer.ConnectionAddr; // Get address
+
+        if (address == null || this.InBackoff(address)) { // Check can't dial
+            return SendResult.Failed; // Failed
+        }
+
+        byte[][] payloads = new byte[connections.length][]; // Init payloads
+
+        for (int i = 0; i < connections.length; i++) { // Encode connections
+            payloads[i] = connections[i].Bytes(); // Encode connection
+        }
+
+        for (int attempt = 0; attempt < 2; attempt++) { // Retry once on a stale connection
+            PooledConnection pooled; // Init buffer
+
+            try {
+                pooled = this.getOrDial(address, connectTimeout); // Get connection
+            } catch (SocketTimeoutException e) { // Catch connect timeout
+                this.recordFailure(address); // Back off
+
+                return SendResult.TimedOut; // Timed out
+            }
+
+            if (pooled == null) { // Check couldn't dial
+                this.recordFailure(address); // Back off
+
+                return SendResult.Failed; // Failed
+            }
+
+            if (pooled.Write(payloads)) { // Write
+                this.backoffs.remove(address); // Reset backoff
+
+                return SendResult.Sent; // Sent
+            }
+
+            this.connections.remove(address, pooled); // Drop stale connection
+        }
+
+        this.recordFailure(address); // Back off
+
+        return SendResult.Failed; // Failed
+    }
+
+    /**
+     * Close the pooled connection to a given address, if any, aborting any write in
+     * progress on it.
+     *
+     * @param address peer connection address
+     */
+    public void Disconnect(String address) {
+        PooledConnection pooled = this.connections.remove(address); // Remove connection
+
+        if (pooled != null) { // Check was open
+            pooled.Abort(); // Close
+        }
+    }
+
+    /**
+     * Check whether dialing a given peer address is being backed off.
+     *
+     * @param address peer connection address
+     * @return whether the address is in backoff
+     */
+    public boolean InBackoff(String address) {
+        Backoff backoff = this.backoffs.get(address); // Get backoff
+
+        return backoff != null && System.currentTimeMillis() < backoff.RetryAt; // Check waiting
+    }
+
+    /**
+     * Get the number of open connections.
+     *
+     * @return number of open connections
+     */
+    public int Size() {
+        return this.connections.size(); // Return size
+    }
+
+    /**
+     * Close every connection that has been unused for longer than IdleTimeout.
+     */
+    public void EvictIdle() {
+        long now = System.currentTimeMillis(); // Get time
+
+        for (Map.Entry<String, PooledConnection> entry : this.connections.entrySet()) { // Iterate through connections
+            PooledConnection pooled = entry.getValue(); // Get connection
+
+            if (now - pooled.LastUsed > this.IdleTimeout && pooled.CloseIfIdle(now, this.IdleTimeout)) { // Check idle
+                this.connections.remove(entry.getKey(), pooled); // Evict
+            }
+        }
+    }
+
+    /**
+     * Close every connection and stop the evictor.
+     */
+    public void Close() {
+        this.evictor.shutdownNow(); // Stop evictor
+
+        for (PooledConnection pooled : this.connections.values()) { // Iterate through connections
+            pooled.Close(); // Close
+        }
+
+        this.connections.clear(); // Clear connections
+    }
+
+    /**
+     * Get the open connection to a given address, dialing one if there isn't one.
+     *
+     * @param address        peer connection address
+     * @param connectTimeout connect timeout in milliseconds
+     * @return open connection (null if dialing failed)
+     * @throws SocketTimeoutException if dialing timed out
+     */
+    private PooledConnection getOrDial(String address, int connectTimeout) throws SocketTimeoutException {
+        PooledConnection pooled = this.connections.get(address); // Get connection
+
+        if (pooled != null) { // Check open
+            return pooled; // Return connection
+        }
+
+        try {
+            PeerAddress parsedAddress = CommonNet.ParseConnectionAddress(address); // Parse address
+
+            Socket socket = new Socket(); // Init socket
+
+            socket.setKeepAlive(true); // Detect dead peers
+            socket.setTcpNoDelay(true); // Don't delay flushed frames
+            socket.connect(new InetSocketAddress(parsedAddress.InetAddress, parsedAddress.Port), connectTimeout); // Connect
+
+            pooled = new PooledConnection(socket); // Init connection
+        } catch (SocketTimeoutException e) { // Catch timeout
+            throw e; // Timed out
+        } catch (IOException e) { // Catch
+            return null; // Failed
+        } catch (RuntimeException e) { // Catch unparseable address
+            return null; // Failed
+        }
+
+        PooledConnection existing = this.connections.putIfAbsent(address, pooled); // Pool connection
+
+        if (existing != null) { // Check raced with another dialer
+            pooled.Close(); // Drop ours
+
+            return existing; // Use theirs
+        }
+
+        return pooled; // Return connection
+    }
+
+    /**
+     * Record a failure to reach a given address, extending its backoff.
+     *
+     * @param address peer connection address
+     */
+    private void recordFailure(String address) {
+        Backoff previous = this.backoffs.get(address); // Get previous backoff
+
+        int failures = previous == null ? 1 : previous.Failures + 1; // Count failure
+        long delay = Math.min(MaxBackoff, BaseBackoff << Math.min(failures - 1, 20)); // Get delay
+
+        this.backoffs.put(address, new Backoff(failures, System.currentTimeMillis() + delay)); // Back off
+    }
+
+    /**
+     * Backoff is the dial failure state of a single peer.
+     */
+    private static class Backoff {
+        /* Number of consecutive failures */
+        final int Failures;
+
+        /* Earliest time to redial, in milliseconds */
+        final long RetryAt;
+
+        /**
+         * Initialize a new backoff.
+         *
+         * @param failures number of consecutive failures
+         * @param retryAt  earliest time to redial
+         */
+        Backoff(int failures, long retryAt) {
+            this.Failures = failures; // Set failures
+            this.RetryAt = retryAt; // Set retry time
+        }
+    }
+
+    /**
+     * PooledConnection is a single long-lived outbound connection.
+     */
+    private static class PooledConnection {
+        /* Underlying socket */
+        private final Socket socket;
+
+        /* Buffered frame writer */
+        private final DataOutputStream out;
+
+        /* Whether the connection has been closed */
+        private boolean closed;
+
+        /* Time the connection was last written to, in milliseconds */
+        volatile long LastUsed = System.currentTimeMillis();
+
+        /**
+         * Initialize a new pooled connection.
+         *
+         * @param socket connected socket
+         */
+        PooledConnection(Socket socket) throws IOException {
+            this.socket = socket; // Set socket
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), BufferSize)); // Init writer
+        }
+
+        /**
+         * Write and flush several frames.
+         *
+         * @param payloads encoded connections
+         * @return whether the write succeeded (the connection is closed if not)
+         */
+        synchronized boolean Write(byte[][] payloads) {
+            if (this.closed) { // Check closed
+                return false; // Failed
+            }
+
+            try {
+                for (byte[] payload : payloads) { // Iterate through payloads
+                    Frame.Write(this.out, Frame.ConnectionFrame, payload); // Write frame
+                }
+
+                this.out.flush(); // Send frames
+
+                this.LastUsed = System.currentTimeMillis(); // Mark used
+
+                return true; // Sent
+            } catch (IOException e) { // Catch
+                this.Close(); // Close broken connection
+
+                return false; // Failed
+            }
+        }
+
+        /**
+         * Close the connection if it is still idle.
+         *
+         * @param now         current time in milliseconds
+         * @param idleTimeout idle timeout in milliseconds
+         * @return whether the connection was closed
+         */
+        synchronized boolean CloseIfIdle(long now, long idleTimeout) {
+            if (!this.closed && now - this.LastUsed <= idleTimeout) { // Check used since
+                return false; // Still active
+            }
+
+            this.Close(); // Close
+
+            return true; // Closed
+        }
+
+        /**
+         * Close the connection without waiting for a write in progress, which then fails.
+         */
+        void Abort() {
+            try {
+                this.socket.close(); // Close socket
+            } catch (IOException e) { // Catch
+                return; // Nothing to do
+            }
+        }
+
+        /**
+         * Close the connection.
+         */
+        synchronized void Close() {
+            this.closed = true; // Mark closed
+
+            try {
+                this.socket.close(); // Close socket
+            } catch (IOException e) { // Catch
+                return; // Nothing to do
+            }
+        }
+    }
+}
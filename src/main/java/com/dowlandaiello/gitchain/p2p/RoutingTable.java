@@ -0,0 +1,492 @@
+package com.dowlandaiello.gitchain.p2p;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Random;
+
+import com.dowlandaiello.gitchain.common.ByteKey;
+import com.dowlandaiello.gitchain.common.CommonByteCmp;
+import com.dowlandaiello.gitchain.crypto.Sha;
+
+/**
+ * RoutingTable is a Kademlia routing table: known peers are sorted into one
+ * k-bucket per bit of XOR distance from the local node id, so a node knows
+ * many peers close to itself and a few peers in every other part of the id
+ * space, and any lookup converges in O(log N) hops.
+ *
+ * Each bucket keeps its peers in least-recently seen order. A full bucket
+ * doesn't take new peers; they wait in the bucket's replacement cache until a
+ * member fails to respond (see Seen and Failed), so long-lived peers are
+ * preferred over newcomers.
+ */
+public class RoutingTable {
+    /* Number of bits in a node id (sha3-512) */
+    public static final int IdBits = 512;
+
+    /* Default max number of peers per bucket */
+    public static final int K = 20;
+
+    /* Number of consecutive failed requests after which a peer is dropped */
+    public static final int MaxFailures = 3;
+
+    /* Local node id */
+    public final byte[] LocalId;
+
+    /* Max number of peers per bucket */
+    public final int BucketSize;
+
+    /* Buckets by index of the highest differing bit */
+    private final KBucket[] buckets = new KBucket[IdBits];
+
+    /**
+     * Initialize a new routing table around a given local node id.
+     *
+     * @param localId local node id
+     */
+    public RoutingTable(byte[] localId) {
+        this(localId, K); // Init table
+    }
+
+    /**
+     * Initialize a new routing table around a given local node id, with a given
+     * bucket size.
+     *
+     * @param localId    local node id
+     * @param bucketSize max number of peers per bucket
+     */
+    public RoutingTable(byte[] localId, int bucketSize) {
+        if (localId == null || localId.length != IdBits / 8) { // Check invalid id
+            throw new IllegalArgumentException("node id must be " + IdBits / 8 + " bytes"); // Panic
+        }
+
+        this.LocalId = localId; // Set local id
+        this.BucketSize = Math.max(1, bucketSize); // Set bucket size
+
+        for (int i = 0; i < IdBits; i++) { // Init buckets
+            this.buckets[i] = new KBucket(); // Init bucket
+        }
+    }
+
+    /**
+     * Get the node id of a given peer (the hash of its public key, or of its
+     * address if it has no key).
+     *
+     * @param peer peer to get the id of
+     * @return node id
+     */
+    public static byte[] NodeId(Peer peer) {
+        if (peer.PublicKey == null) { // Check no key
+            return Sha.Sha3(peer.ConnectionAddr.getBytes()); // Return address hash
+        }
+
+        return Sha.Sha3(peer.PublicKey.toByteArray()); // Return key hash
+    }
+
+    /**
+     * Get the XOR distance between two node ids.
+     *
+     * @param a first node id
+     * @param b second node id
+     * @return distance
+     */
+    public static byte[] Distance(byte[] a, byte[] b) {
+        byte[] distance = new byte[a.length]; // Init distance
+
+        for (int i = 0; i < a.length; i++) { // Iterate through bytes
+            distance[i] = (byte) (a[i] ^ b[i]); // XOR
+        }
+
+        return distance; // Return distance
+    }
+
+    /**
+     * Get a comparator ordering peers by XOR distance from a given target id,
+     * closest first.
+     *
+     * @param target target id
+     * @return comparator
+     */
+    public static Comparator<Peer> ByDistance(final byte[] target) {
+        return new Comparator<Peer>() {
+            @Override
+            public int compare(Peer a, Peer b) {
+                byte[] distanceA = Distance(NodeId(a), target); // Get first distance
+                byte[] distanceB = Distance(NodeId(b), target); // Get second distance
+
+                return CommonByteCmp.compareTo(distanceA, 0, distanceA.length, distanceB, 0, distanceB.length); // Compare
+            }
+        };
+    }
+
+    /**
+     * Get the index of the bucket a given node id belongs in.
+     *
+     * @param id node id
+     * @return bucket index (-1 for the local id)
+     */
+    public int BucketIndex(byte[] id) {
+        for (int i = 0; i < this.LocalId.length; i++) { // Iterate through bytes
+            int diff = (this.LocalId[i] ^ id[i]) & 0xff; // Get differing bits
+
+            if (diff != 0) { // Check differs
+                return (this.LocalId.length - i) * 8 - (Integer.numberOfLeadingZeros(diff) - 24) - 1; // Return highest differing bit
+            }
+        }
+
+        return -1; // Same id
+    }
+
+    /**
+     * Record that a given peer was seen (sent or answered a request). Known peers
+     * move to the tail of their bucket; new peers are added if their bucket has
+     * room, and otherwise wait in its replacement cache.
+     *
+     * @param peer peer that was seen
+     * @return least-recently seen peer of the full bucket, which should be pinged
+     *         and passed to Failed if it doesn't answer (null if the peer was added
+     *         or is the local node)
+     */
+    public Peer Seen(Peer peer) {
+        byte[] id = NodeId(peer); // Get id
+
+        int index = this.BucketIndex(id); // Get bucket
+
+        if (index < 0 || peer.ConnectionAddr == null) { // Check self or unreachable
+            return null; // Nothing to do
+        }
+
+        return this.buckets[index].Seen(new ByteKey(id), peer, this.BucketSize); // Update bucket
+    }
+
+    /**
+     * Record that a given peer failed to answer a request, dropping it once it has
+     * failed MaxFailures times in a row (or immediately, if its bucket has a
+     * replacement waiting).
+     *
+     * @param peer peer that failed
+     * @return whether the peer was dropped
+     */
+    public boolean Failed(Peer peer) {
+        byte[] id = NodeId(peer); // Get id
+
+        int index = this.BucketIndex(id); // Get bucket
+
+        if (index < 0) { // Check self
+            return false; // Nothing to do
+        }
+
+        return this.buckets[index].Failed(new ByteKey(id)); // Update bucket
+    }
+
+    /**
+     * Drop a given peer, promoting the most recently seen replacement in its
+     * bucket.
+     *
+     * @param peer peer to drop
+     * @return whether the peer was known
+     */
+    public boolean Remove(Peer peer) {
+        byte[] id = NodeId(peer); // Get id
+
+        int index = this.BucketIndex(id); // Get bucket
+
+        return index >= 0 && this.buckets[index].Remove(new ByteKey(id)); // Remove
+    }
+
+    /**
+     * Check whether a given peer is in the table.
+     *
+     * @param peer peer to check
+     * @return whether the peer is in the table
+     */
+    public boolean Contains(Peer peer) {
+        byte[] id = NodeId(peer); // Get id
+
+        int index = this.BucketIndex(id); // Get bucket
+
+        return index >= 0 && this.buckets[index].Contains(new ByteKey(id)); // Check bucket
+    }
+
+    /**
+     * Get the peers closest to a given target id.
+     *
+     * @param target target id
+     * @param count  max number of peers to return
+     * @return peers, closest first
+     */
+    public List<Peer> Closest(byte[] target, int count) {
+        List<Entry> entries = new ArrayList<Entry>(); // Init entries
+
+        for (KBucket bucket : this.buckets) { // Iterate through buckets
+            bucket.CopyTo(entries); // Add bucket entries
+        }
+
+        final ByteKey[] distances = new ByteKey[entries.size()]; // Init distances
+        Integer[] order = new Integer[entries.size()]; // Init order
+
+        for (int i = 0; i < distances.length; i++) { // Iterate through entries
+            distances[i] = new ByteKey(Distance(entries.get(i).Id.Bytes, target)); // Get distance
+            order[i] = i; // Set order
+        }
+
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return distances[a].compareTo(distances[b]); // Compare distances
+            }
+        }); // Sort by distance (hashing each id once)
+
+        List<Peer> closest = new ArrayList<Peer>(); // Init closest
+
+        for (int i = 0; i < order.length && i < count; i++) { // Take closest
+            closest.add(entries.get(order[i]).Peer); // Add peer
+        }
+
+        return closest; // Return closest
+    }
+
+    /**
+     * Get every peer in the table.
+     *
+     * @return peers
+     */
+    public List<Peer> Peers() {
+        List<Entry> entries = new ArrayList<Entry>(); // Init entries
+
+        for (KBucket bucket : this.buckets) { // Iterate through buckets
+            bucket.CopyTo(entries); // Add bucket entries
+        }
+
+        List<Peer> peers = new ArrayList<Peer>(); // Init peers
+
+        for (Entry entry : entries) { // Iterate through entries
+            peers.add(entry.Peer); // Add peer
+        }
+
+        return peers; // Return peers
+    }
+
+    /**
+     * Get the number of peers in the table.
+     *
+     * @return number of peers
+     */
+    public int Size() {
+        int size = 0; // Init size
+
+        for (KBucket bucket : this.buckets) { // Iterate through buckets
+            size += bucket.Size(); // Add bucket size
+        }
+
+        return size; // Return size
+    }
+
+    /**
+     * Get the indexes of every non-empty bucket that hasn't been looked up or seen
+     * a peer in a given amount of time.
+     *
+     * @param maxAge max time since a bucket was last touched, in milliseconds
+     * @return stale bucket indexes
+     */
+    public List<Integer> StaleBuckets(long maxAge) {
+        List<Integer> stale = new ArrayList<Integer>(); // Init stale buckets
+
+        long now = System.currentTimeMillis(); // Get time
+
+        for (int i = 0; i < IdBits; i++) { // Iterate through buckets
+            if (this.buckets[i].Size() > 0 && now - this.buckets[i].LastTouched > maxAge) { // Check stale
+                stale.add(i); // Add bucket
+            }
+        }
+
+        return stale; // Return stale buckets
+    }
+
+    /**
+     * Mark a given bucket as refreshed.
+     *
+     * @param index bucket index
+     */
+    public void Touch(int index) {
+        this.buckets[index].LastTouched = System.currentTimeMillis(); // Touch
+    }
+
+    /**
+     * Get a random id that belongs in a given bucket, to look up when refreshing
+     * it.
+     *
+     * @param index  bucket index
+     * @param random random source
+     * @return random id in bucket
+     */
+    public byte[] RandomId(int index, Random random) {
+        byte[] distance = new byte[this.LocalId.length]; // Init distance
+
+        random.nextBytes(distance); // Randomize
+
+        int highByte = this.LocalId.length - 1 - index / 8; // Get byte holding the highest bit
+        int highBit = index % 8; // Get bit within byte
+
+        for (int i = 0; i < highByte; i++) { // Clear bytes above highest bit
+            distance[i] = 0; // Clear
+        }
+
+        distance[highByte] = (byte) ((distance[highByte] & ((1 << highBit) - 1)) | (1 << highBit)); // Set highest bit only
+
+        return Distance(this.LocalId, distance); // Return id at distance
+    }
+
+    /**
+     * KBucket is the set of known peers sharing a distance prefix with the local
+     * node.
+     */
+    private static class KBucket {
+        /* Peers in least-recently seen order */
+        private final LinkedHashMap<ByteKey, Entry> entries = new LinkedHashMap<ByteKey, Entry>();
+
+        /* Peers waiting for room, least-recently seen first */
+        private final LinkedHashMap<ByteKey, Peer> replacements = new LinkedHashMap<ByteKey, Peer>();
+
+        /* Time the bucket was last touched, in milliseconds */
+        volatile long LastTouched = System.currentTimeMillis();
+
+        /**
+         * Record that a peer was seen.
+         *
+         * @param id         peer node id
+         * @param peer       peer
+         * @param bucketSize max number of peers in the bucket
+         * @return least-recently seen peer to ping if the bucket is full
+         */
+        synchronized Peer Seen(ByteKey id, Peer peer, int bucketSize) {
+            this.LastTouched = System.currentTimeMillis(); // Touch
+
+            Entry entry = this.entries.remove(id); // Get existing entry
+
+            if (entry != null || this.entries.size() < bucketSize) { // Check known or room
+                this.entries.put(id, new Entry(id, peer)); // Move to tail
+
+                this.replacements.remove(id); // Not waiting anymore
+
+                return null; // Added
+            }
+
+            this.replacements.remove(id); // Move to tail
+            this.replacements.put(id, peer); // Wait for room
+
+            if (this.replacements.size() > bucketSize) { // Check cache full
+                Iterator<ByteKey> oldest = this.replacements.keySet().iterator(); // Get oldest
+
+                oldest.next(); // Select oldest
+                oldest.remove(); // Drop oldest
+            }
+
+            return this.entries.values().iterator().next().Peer; // Return least-recently seen
+        }
+
+        /**
+         * Record that a peer failed to answer.
+         *
+         * @param id peer node id
+         * @return whether the peer was dropped
+         */
+        synchronized boolean Failed(ByteKey id) {
+            Entry entry = this.entries.get(id); // Get entry
+
+            if (entry == null) { // Check unknown
+                this.replacements.remove(id); // Don't promote later
+
+                return false; // Nothing to drop
+            }
+
+            entry.Failures++; // Count failure
+
+            if (entry.Failures < MaxFailures && this.replacements.isEmpty()) { // Check worth keeping
+                return false; // Keep
+            }
+
+            return this.Remove(id); // Drop
+        }
+
+        /**
+         * Drop a peer, promoting the most recently seen replacement.
+         *
+         * @param id peer node id
+         * @return whether the peer was known
+         */
+        synchronized boolean Remove(ByteKey id) {
+            if (this.entries.remove(id) == null) { // Check unknown
+                return this.replacements.remove(id) != null; // Drop replacement
+            }
+
+            ByteKey newest = null; // Init buffer
+
+            for (ByteKey key : this.replacements.keySet()) { // Find most recently seen replacement
+                newest = key; // Set newest
+            }
+
+            if (newest != null) { // Check have replacement
+                this.entries.put(newest, new Entry(newest, this.replacements.remove(newest))); // Promote
+            }
+
+            return true; // Dropped
+        }
+
+        /**
+         * Check whether a peer is in the bucket.
+         *
+         * @param id peer node id
+         * @return whether the peer is in the bucket
+         */
+        synchronized boolean Contains(ByteKey id) {
+            return this.entries.containsKey(id); // Check entries
+        }
+
+        /**
+         * Add every entry in the bucket to a given list.
+         *
+         * @param entries list to add to
+         */
+        synchronized void CopyTo(List<Entry> entries) {
+            entries.addAll(this.entries.values()); // Add entries
+        }
+
+        /**
+         * Get the number of peers in the bucket.
+         *
+         * @return number of peers
+         */
+        synchronized int Size() {
+            return this.entries.size(); // Return size
+        }
+    }
+
+    /**
+     * Entry is a single peer in a bucket.
+     */
+    private static class Entry {
+        /* Peer node id */
+        final ByteKey Id;
+
+        /* Peer */
+        final Peer Peer;
+
+        /* Number of consecutive failed requests */
+        int Failures;
+
+        /**
+         * Initialize a new entry.
+         *
+         * @param id   peer node id
+         * @param peer peer
+         */
+        Entry(ByteKey id, Peer peer) {
+            this.Id = id; // Set id
+            this.Peer = peer; // Set peer
+        }
+    }
+}
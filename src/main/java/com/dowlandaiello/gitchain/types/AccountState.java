@@ -0,0 +1,77 @@
+package com.dowlandaiello.gitchain.types;
+
+import java.nio.ByteBuffer;
+
+/**
+ * AccountState is the balance and next transaction nonce of a single account.
+ * Account states are immutable; every change makes a new state.
+ */
+public final class AccountState {
+    /* Encoded size (balance and nonce) */
+    public static final int EncodedSize = 16;
+
+    /* State of an account that was never seen */
+    public static final AccountState Empty = new AccountState(0, 0);
+
+    /* Account balance */
+    public final double Balance;
+
+    /* Account nonce the next transaction from the account must carry */
+    public final long Nonce;
+
+    /**
+     * Initialize a new account state.
+     *
+     * @param balance account balance
+     * @param nonce   next transaction nonce
+     */
+    public AccountState(double balance, long nonce) {
+        this.Balance = balance; // Set balance
+        this.Nonce = nonce; // Set nonce
+    }
+
+    /**
+     * Decode an account state from a given byte array.
+     *
+     * @param rawBytes encoded account state
+     */
+    public AccountState(byte[] rawBytes) {
+        if (rawBytes.length != EncodedSize) { // Check malformed
+            throw new IllegalArgumentException("malformed account state"); // Panic
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(rawBytes); // Wrap bytes
+
+        this.Balance = buffer.getDouble(); // Read balance
+        this.Nonce = buffer.getLong(); // Read nonce
+    }
+
+    /**
+     * Encode the account state.
+     *
+     * @return encoded account state
+     */
+    public byte[] Bytes() {
+        return ByteBuffer.allocate(EncodedSize).putDouble(this.Balance).putLong(this.Nonce).array(); // Encode
+    }
+
+    /**
+     * Get the state after crediting a given value.
+     *
+     * @param value value to credit
+     * @return new state
+     */
+    public AccountState Credit(double value) {
+        return new AccountState(this.Balance + value, this.Nonce); // Return credited state
+    }
+
+    /**
+     * Get the state after sending a transaction of a given value.
+     *
+     * @param value value sent
+     * @return new state
+     */
+    public AccountState Debit(double value) {
+        return new AccountState(this.Balance - value, this.Nonce + 1); // Return debited state
+    }
+}
@@ -1,8 +1,9 @@
 package com.dowlandaiello.gitchain.types;
 
 import java.io.Serializable;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
 
+import com.dowlandaiello.gitchain.common.CommonCodec;
 import com.dowlandaiello.gitchain.common.CommonIO;
 import com.dowlandaiello.gitchain.crypto.Sha;
 
@@ -24,6 +25,9 @@ public class Block implements Serializable {
     /* Exactly what it sounds like... */
     public byte[] MerkleRoot;
 
+    /* Root of the account state trie after the block (see StateTrie) */
+    public byte[] StateRoot;
+
     /* Hash of preceding block */
     public byte[] ParentHash;
 
@@ -52,8 +56,23 @@ public class Block implements Serializable {
      * @param nonce block index in chain
      */
     public Block(Transaction[] transactions, byte[] parentHash, byte[] coinbase, Float difficulty, long nonce) {
+        this(transactions, HashTransactionSum(transactions), parentHash, coinbase, difficulty, nonce); // Init block
+    }
+
+    /**
+     * Initialize a new block with a transaction set whose merkle root is already
+     * known (e.g. kept up to date by a BlockTemplateBuilder).
+     *
+     * @param transactions transaction set to initialize block with
+     * @param merkleRoot   merkle root of the transactions
+     * @param parentHash   preceding block hash
+     * @param coinbase     fee address
+     * @param difficulty   network difficulty measurement at block
+     * @param nonce        block pow nonce
+     */
+    Block(Transaction[] transactions, byte[] merkleRoot, byte[] parentHash, byte[] coinbase, Float difficulty, long nonce) {
         this.Transactions = transactions; // Set transactions
-        this.MerkleRoot = HashTransactionSum(transactions); // Set merkle root
+        this.MerkleRoot = merkleRoot; // Set merkle root
         this.ParentHash = parentHash; // Set parent hash
         this.Coinbase = coinbase; // Set coinbase
         this.Difficulty = difficulty; // Set difficulty
@@ -66,10 +85,18 @@ public class Block implements Serializable {
      * @param rawBytes raw data to deserialize
      */
     public Block(byte[] rawBytes) {
-        Block block = SerializationUtils.deserialize(rawBytes); // Deserialize
+        this(Decode(ByteBuffer.wrap(rawBytes))); // Decode
+    }
 
+    /**
+     * Initialize a block with the contents of a given block.
+     *
+     * @param block block to copy
+     */
+    private Block(Block block) {
         this.Transactions = block.Transactions; // Set transactions
         this.MerkleRoot = block.MerkleRoot; // Set merkle root
+        this.StateRoot = block.StateRoot; // Set state root
         this.ParentHash = block.ParentHash; // Set parent hash
         this.Coinbase = block.Coinbase; // Set coinbase
         this.Difficulty = block.Difficulty; // Set difficulty
@@ -78,13 +105,129 @@ public class Block implements Serializable {
         this.Timestamp = block.Timestamp; // Set timestamp
     }
 
+    /**
+     * Initialize an empty block to decode into.
+     */
+    private Block() {
+    }
+
+    /**
+     * Decode a block read from the block database. Entries written with Java
+     * serialization before the binary codec existed are still accepted here, but never
+     * from peers.
+     *
+     * @param rawBytes raw stored block
+     * @return decoded block
+     */
+    public static Block ReadStored(byte[] rawBytes) {
+        if (CommonCodec.IsJavaSerialized(rawBytes)) { // Check legacy entry
+            return SerializationUtils.deserialize(rawBytes); // Deserialize
+        }
+
+        return new Block(rawBytes); // Decode
+    }
+
     /**
      * Serialize block to byte array
      * 
      * @return byte serialized block
      */
     public byte[] Bytes() {
-        return(SerializationUtils.serialize(this)); // Serialize
+        ByteBuffer buffer = CommonCodec.GetBuffer(this.EncodedSize()); // Get buffer
+
+        this.Encode(buffer); // Encode
+
+        return CommonCodec.ToArray(buffer); // Return encoded
+    }
+
+    /**
+     * Get the size of the working block once encoded.
+     *
+     * @return encoded size
+     */
+    public int EncodedSize() {
+        int size = CommonCodec.HeaderSize + CommonCodec.LengthSize + CommonCodec.SizeOf(this.MerkleRoot)
+                + CommonCodec.SizeOf(this.StateRoot) + CommonCodec.SizeOf(this.ParentHash) + CommonCodec.SizeOf(this.Coinbase) + 1 + 4 + 8
+                + CommonCodec.SizeOf(this.Hash) + 8; // Get fixed size
+
+        if (this.Transactions != null) { // Check has transactions
+            for (Transaction transaction : this.Transactions) { // Iterate through transactions
+                size += transaction.EncodedSize(); // Add transaction size
+            }
+        }
+
+        return size; // Return size
+    }
+
+    /**
+     * Encode the working block into a given buffer.
+     *
+     * @param buffer buffer to encode into
+     */
+    public void Encode(ByteBuffer buffer) {
+        CommonCodec.WriteHeader(buffer, CommonCodec.BlockTag); // Write header
+
+        if (this.Transactions == null) { // Check no transactions
+            buffer.putInt(-1); // Write null
+        } else {
+            buffer.putInt(this.Transactions.length); // Write transaction count
+
+            for (Transaction transaction : this.Transactions) { // Iterate through transactions
+                transaction.Encode(buffer); // Write transaction
+            }
+        }
+
+        CommonCodec.WriteBytes(buffer, this.MerkleRoot); // Write merkle root
+        CommonCodec.WriteBytes(buffer, this.StateRoot); // Write state root
+        CommonCodec.WriteBytes(buffer, this.ParentHash); // Write parent hash
+        CommonCodec.WriteBytes(buffer, this.Coinbase); // Write coinbase
+        buffer.put(this.Difficulty == null ? (byte) 0 : (byte) 1); // Write has difficulty
+        buffer.putFloat(this.Difficulty == null ? 0f : this.Difficulty); // Write difficulty
+        buffer.putLong(this.Nonce); // Write nonce
+        CommonCodec.WriteBytes(buffer, this.Hash); // Write hash
+        buffer.putLong(this.Timestamp); // Write timestamp
+    }
+
+    /**
+     * Decode a block from a given buffer. Blocks encoded before state roots
+     * existed are decoded with a null state root.
+     *
+     * @param buffer buffer to decode from
+     * @return decoded block
+     */
+    public static Block Decode(ByteBuffer buffer) {
+        byte version = CommonCodec.ReadHeader(buffer, CommonCodec.BlockTag); // Read header
+
+        Block block = new Block(); // Init block
+
+        int transactionCount = CommonCodec.ReadCount(buffer, CommonCodec.HeaderSize); // Read transaction count
+
+        if (transactionCount != -1) { // Check has transactions
+            block.Transactions = new Transaction[transactionCount]; // Init transactions
+
+            for (int i = 0; i < transactionCount; i++) { // Read transactions
+                block.Transactions[i] = Transaction.Decode(buffer); // Read transaction
+            }
+        }
+
+        block.MerkleRoot = CommonCodec.ReadBytes(buffer); // Read merkle root
+        block.StateRoot = version < CommonCodec.StateRootVersion ? null : CommonCodec.ReadBytes(buffer); // Read state root
+        block.ParentHash = CommonCodec.ReadBytes(buffer); // Read parent hash
+        block.Coinbase = CommonCodec.ReadBytes(buffer); // Read coinbase
+
+        CommonCodec.Require(buffer, 1 + 4 + 8); // Check has difficulty, nonce
+
+        boolean hasDifficulty = buffer.get() != 0; // Read has difficulty
+        float difficulty = buffer.getFloat(); // Read difficulty
+
+        block.Difficulty = hasDifficulty ? difficulty : null; // Set difficulty
+        block.Nonce = buffer.getLong(); // Read nonce
+        block.Hash = CommonCodec.ReadBytes(buffer); // Read hash
+
+        CommonCodec.Require(buffer, 8); // Check has timestamp
+        block.Timestamp = buffer.getLong(); // Read timestamp
+
+        return block; // Return block
     }
 
     /**
@@ -103,45 +246,79 @@ public class Block implements Serializable {
     }
 
     /**
-     * Serialize block to byte array, omitting the block nonce and block hash
-     * @return
+     * Serialize the block header to byte array, omitting the block nonce and block hash.
+     * Transactions are committed to through the merkle root, and the state after the
+     * block through the state root, so neither is included.
+     *
+     * @return serialized header
      */
     public byte[] BytesWithoutNonce() {
-        byte[] oldHash = this.Hash; // Store hash
-        long nonce = this.Nonce; // Store nonce
+        ByteBuffer buffer = CommonCodec.GetBuffer(CommonCodec.HeaderSize + CommonCodec.SizeOf(this.ParentHash)
+                + CommonCodec.SizeOf(this.MerkleRoot) + CommonCodec.SizeOf(this.StateRoot) + CommonCodec.SizeOf(this.Coinbase)
+                + 1 + 4 + 8); // Get buffer
 
-        this.Hash = new byte[0]; // Set hash
-        this.Nonce = 0l; // Set nonce
+        CommonCodec.WriteHeader(buffer, CommonCodec.BlockHeaderTag); // Write header
+        CommonCodec.WriteBytes(buffer, this.ParentHash); // Write parent hash
+        CommonCodec.WriteBytes(buffer, this.MerkleRoot); // Write merkle root
+        CommonCodec.WriteBytes(buffer, this.StateRoot); // Write state root
+        CommonCodec.WriteBytes(buffer, this.Coinbase); // Write coinbase
+        buffer.put(this.Difficulty == null ? (byte) 0 : (byte) 1); // Write has difficulty
+        buffer.putFloat(this.Difficulty == null ? 0f : this.Difficulty); // Write difficulty
+        buffer.putLong(this.Timestamp); // Write timestamp
 
-        byte[] bytes = this.Bytes(); // Store safe bytes
+        return CommonCodec.ToArray(buffer); // Return encoded
+    }
 
-        this.Hash = oldHash; // Reset hash
-        this.Nonce = nonce; // Set nonce
+    /**
+     * Get the header of the working block: a copy without transactions, which still
+     * carries the merkle root, nonce, and hash, so its proof of work can be checked
+     * before the body is downloaded.
+     *
+     * @return block header
+     */
+    public Block Header() {
+        Block header = new Block(this); // Copy block
 
-        return bytes; // Return safe bytes
+        header.Transactions = null; // Drop body
+
+        return header; // Return header
     }
 
     /**
-     * Calculate the hash sum of several transactions.
-     * 
-     * @param transactions transaction set to calculate hash sum
-     * @return byte-array-represented hash sum
+     * Check whether the working block is a header (has no body).
+     *
+     * @return whether the block is a header
      */
-    public static byte[] HashTransactionSum(Transaction[] transactions) {
-        ArrayList<Byte> byteSum = new ArrayList<Byte>(); // Declare buffer
-
-        for (Transaction transaction: transactions) { // Iterate through transactions
-            for (Byte hashByte: transaction.Hash) { // Append all bytes
-                byteSum.add(hashByte); // Append hash byte
-            }
-        }
+    public boolean IsHeader() {
+        return this.Transactions == null; // Check no transactions
+    }
 
-        byte[] hashSum = new byte[byteSum.size()]; // Declare buffer
+    /**
+     * Calculate the nonce-free digest of the working block that proof of work is computed over.
+     *
+     * @return header digest
+     */
+    public byte[] HeaderDigest() {
+        return Sha.Sha3(this.BytesWithoutNonce()); // Return digest
+    }
 
-        for (int i = 0; i < hashSum.length; i++) { // Iterate through bytes
-            hashSum[i] = byteSum.get(i); // Get byte at index
-        }
+    /**
+     * Generate a merkle inclusion proof for the transaction at a given index.
+     *
+     * @param index index of transaction in block
+     * @return inclusion proof against the block's merkle root
+     */
+    public MerkleProof ProveTransaction(int index) {
+        return new MerkleTree(this.Transactions).Proof(index); // Return proof
+    }
 
-        return Sha.Sha3(hashSum); // Return hash
+    /**
+     * Calculate the merkle root of several transactions.
+     * 
+     * @param transactions transaction set to calculate merkle root of
+     * @return byte-array-represented merkle root
+     */
+    public static byte[] HashTransactionSum(Transaction[] transactions) {
+        return new MerkleTree(transactions).Root(); // Return root
     }
-}
\ No newline at end of file
+}
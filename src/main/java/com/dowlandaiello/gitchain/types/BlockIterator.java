@@ -0,0 +1,82 @@
+package com.dowlandaiello.gitchain.types;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import com.dowlandaiello.gitchain.common.CommonDB;
+
+import org.iq80.leveldb.DB;
+import org.iq80.leveldb.DBIterator;
+
+/**
+ * BlockIterator walks the canonical chain in height order by scanning the
+ * block database's height index.
+ */
+public class BlockIterator implements Iterator<Block>, Closeable {
+    /* Block database */
+    private final DB blockDB;
+
+    /* Underlying height index iterator */
+    private final DBIterator iterator;
+
+    /* Last height to return (inclusive) */
+    private final long endHeight;
+
+    /**
+     * Initialize a new block iterator over the given inclusive height range.
+     *
+     * @param blockDB     block database to read from
+     * @param startHeight first height to return
+     * @param endHeight   last height to return
+     */
+    public BlockIterator(DB blockDB, long startHeight, long endHeight) {
+        this.blockDB = blockDB; // Set block db
+        this.endHeight = endHeight; // Set end height
+        this.iterator = blockDB.iterator(); // Init iterator
+
+        this.iterator.seek(CommonDB.HeightKey(startHeight)); // Seek to start
+    }
+
+    /**
+     * Check whether there is another block in range.
+     *
+     * @return whether there is another block
+     */
+    @Override
+    public boolean hasNext() {
+        if (!this.iterator.hasNext()) { // Check end of db
+            return false; // Done
+        }
+
+        byte[] key = this.iterator.peekNext().getKey(); // Get next key
+
+        return CommonDB.HasPrefix(key, CommonDB.HeightPrefix)
+                && CommonDB.DecodeLong(key, CommonDB.HeightPrefix.length) <= this.endHeight; // Check in range
+    }
+
+    /**
+     * Get the next block in range.
+     *
+     * @return next block
+     */
+    @Override
+    public Block next() {
+        if (!this.hasNext()) { // Check out of range
+            throw new NoSuchElementException(); // Panic
+        }
+
+        byte[] hash = this.iterator.next().getValue(); // Get block hash
+
+        return Block.ReadStored(this.blockDB.get(CommonDB.BlockKey(hash))); // Read block
+    }
+
+    /**
+     * Release the underlying db iterator.
+     */
+    @Override
+    public void close() throws IOException {
+        this.iterator.close(); // Close iterator
+    }
+}
@@ -0,0 +1,553 @@
+package com.dowlandaiello.gitchain.types;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import com.dowlandaiello.gitchain.common.ByteKey;
+import com.dowlandaiello.gitchain.crypto.Sha;
+
+/**
+ * BlockTemplateBuilder keeps a block template up to date as transactions enter
+ * and leave a mempool, so a miner can be handed a new template right away
+ * instead of selecting transactions and hashing the merkle tree from scratch
+ * for every block.
+ *
+ * Transactions are appended in arrival order once executable: a sender's
+ * transactions are included in consecutive nonce order, and only while its
+ * balance covers them. The merkle tree is kept up to date with each change, so
+ * appending a transaction costs O(log n) hashes and removing one only rehashes
+ * the transactions after it. When the parent changes, the senders in the
+ * template are checked against the new state, and transactions that are no
+ * longer executable (e.g. included in the parent) are dropped.
+ *
+ * Sender nonces and balances are read from the chain's StateDB (if any) and
+ * reflect its head. Without a StateDB, nonces are only checked against the
+ * mempool, as SelectForBlock does. Mints are never taken from the mempool.
+ */
+public class BlockTemplateBuilder implements Mempool.Listener {
+    /* Default max total encoded size of template transactions */
+    public static final int DefaultMaxBytes = 1 << 20;
+
+    /* Default max number of template transactions */
+    public static final int DefaultMaxTransactions = 4096;
+
+    /* Max total encoded size of template transactions */
+    public final int MaxBytes;
+
+    /* Max number of template transactions */
+    public final int MaxTransactions;
+
+    /* Chain templates are built for */
+    public final Blockchain Chain;
+
+    /* Mempool transactions are taken from */
+    public final Mempool Pool;
+
+    /* Template transactions, in inclusion order */
+    private final ArrayList<Transaction> transactions = new ArrayList<Transaction>();
+
+    /* Hashes of the template transactions */
+    private final HashSet<ByteKey> included = new HashSet<ByteKey>();
+
+    /* Remaining nonce and balance of each sender in the template */
+    private final HashMap<ByteKey, Sender> senders = new HashMap<ByteKey, Sender>();
+
+    /* Merkle tree over the template transactions */
+    private final MerkleAccumulator merkle = new MerkleAccumulator();
+
+    /* Total encoded size of the template transactions */
+    private long size;
+
+    /* Hash of the parent the template was last built on (null if none) */
+    private byte[] parentHash;
+
+    /* State root of the template on top of the head (null if not calculated) */
+    private byte[] stateRoot;
+
+    /**
+     * Initialize a new block template builder with the default limits.
+     *
+     * @param chain chain to build templates for
+     * @param pool  mempool to take transactions from
+     */
+    public BlockTemplateBuilder(Blockchain chain, Mempool pool) {
+        this(chain, pool, DefaultMaxBytes, DefaultMaxTransactions); // Init builder
+    }
+
+    /**
+     * Initialize a new block template builder, filling the template from the
+     * mempool and following it from then on.
+     *
+     * @param chain           chain to build templates for
+     * @param pool            mempool to take transactions from
+     * @param maxBytes        max total encoded size of template transactions
+     * @param maxTransactions max number of template transactions
+     */
+    public BlockTemplateBuilder(Blockchain chain, Mempool pool, int maxBytes, int maxTransactions) {
+        if (maxBytes < 0 || maxTransactions < 0) { // Check invalid limits
+            throw new IllegalArgumentException("template limits must not be negative"); // Panic
+        }
+
+        this.Chain = chain; // Set chain
+        this.Pool = pool; // Set mempool
+        this.MaxBytes = maxBytes; // Set max bytes
+        this.MaxTransactions = maxTransactions; // Set max transactions
+
+        pool.SetListener(this); // Follow mempool
+
+        this.Rebuild(); // Fill template
+    }
+
+    /**
+     * Get a block template on top of a given parent. The template's merkle root
+     * is already known; its state root is set if the parent is the chain's head
+     * and the chain has a StateDB (calculated once per template change).
+     *
+     * @param parent block to build on
+     * @return block template (nonce and hash unset)
+     */
+    public synchronized Block Template(Block parent) {
+        if (!Arrays.equals(parent.Hash, this.parentHash)) { // Check new parent
+            this.reparent(parent.Hash); // Revalidate template
+        }
+
+        Transaction[] transactions = this.transactions.toArray(new Transaction[0]); // Get transactions
+
+        Block block = this.Chain.newBlock(parent, transactions, this.merkle.Root(), 0); // Initialize block
+
+        StateDB state = this.state(); // Get state
+
+        if (state != null && Arrays.equals(parent.Hash, this.Chain.HeadHash)) { // Check state root known
+            if (this.stateRoot == null) { // Check not calculated
+                this.stateRoot = state.RootAfter(transactions); // Calculate state root
+            }
+
+            block.StateRoot = this.stateRoot; // Set state root
+        }
+
+        return block; // Return template
+    }
+
+    /**
+     * Reselect the template from scratch (e.g. after changing the chain's state
+     * outside of a new block).
+     */
+    public synchronized void Rebuild() {
+        this.truncate(0); // Clear template
+        this.senders.clear(); // Reset senders
+
+        this.fill(); // Fill template
+    }
+
+    /**
+     * Get the number of template transactions.
+     *
+     * @return number of template transactions
+     */
+    public synchronized int Size() {
+        return this.transactions.size(); // Return size
+    }
+
+    /**
+     * Get the total encoded size of the template transactions.
+     *
+     * @return encoded size
+     */
+    public synchronized long Bytes() {
+        return this.size; // Return size
+    }
+
+    /**
+     * Append a transaction added to the mempool if it's executable, along with
+     * its sender's pending transactions it unblocks.
+     *
+     * @param transaction added transaction
+     */
+    @Override
+    public synchronized void Added(Transaction transaction) {
+        this.include(transaction); // Include transaction
+    }
+
+    /**
+     * Drop a transaction removed from the mempool, along with its sender's later
+     * template transactions (which can no longer execute).
+     *
+     * @param transaction removed transaction
+     */
+    @Override
+    public synchronized void Removed(Transaction transaction) {
+        if (!this.included.contains(new ByteKey(transaction.Hash))) { // Check not in template
+            return; // Nothing to drop
+        }
+
+        int index = 0; // Init position
+
+        while (!Arrays.equals(this.transactions.get(index).Hash, transaction.Hash)) { // Find transaction
+            index++; // Next position
+        }
+
+        ByteKey senderKey = new ByteKey(transaction.Sender); // Get sender key
+
+        ArrayList<Transaction> kept = new ArrayList<Transaction>(); // Init kept transactions
+
+        for (Transaction next : this.transactions.subList(index + 1, this.transactions.size())) { // Iterate through later transactions
+            if (!senderKey.equals(new ByteKey(next.Sender))) { // Check other sender
+                kept.add(next); // Keep
+            }
+        }
+
+        for (int i = this.transactions.size() - 1; i >= index; i--) { // Iterate through dropped transactions, last first
+            Transaction dropped = this.transactions.get(i); // Get transaction
+
+            this.refund(dropped, this.senders.get(new ByteKey(dropped.Sender))); // Undo spend
+        }
+
+        this.truncate(index); // Drop transaction and later transactions
+
+        for (Transaction next : kept) { // Iterate through kept transactions
+            this.append(next, this.senders.get(new ByteKey(next.Sender))); // Re-append
+        }
+
+        this.fill(); // Use freed room
+    }
+
+    /**
+     * Revalidate the template against the state for a new parent, dropping
+     * transactions that can no longer execute.
+     *
+     * @param parentHash hash of the new parent
+     */
+    private void reparent(byte[] parentHash) {
+        this.parentHash = parentHash; // Set parent
+        this.senders.clear(); // Reset senders (reread from state)
+        this.stateRoot = null; // Reset state root
+
+        int first = 0; // Init first changed position
+
+        for (Transaction transaction : this.transactions) { // Iterate through transactions
+            Sender sender = this.sender(transaction); // Get sender
+
+            if (!this.executable(transaction, sender)) { // Check no longer executable
+                break; // Stop
+            }
+
+            this.spend(transaction, sender); // Spend
+            first++; // Count unchanged transaction
+        }
+
+        if (first == this.transactions.size()) { // Check all still executable
+            return; // Done
+        }
+
+        ArrayList<Transaction> tail = new ArrayList<Transaction>(this.transactions.subList(first, this.transactions.size())); // Get changed transactions
+
+        this.truncate(first); // Drop changed transactions
+
+        for (Transaction transaction : tail) { // Iterate through changed transactions
+            Sender sender = this.sender(transaction); // Get sender
+
+            if (this.executable(transaction, sender) && this.fits(transaction)) { // Check still executable
+                this.append(transaction, sender); // Re-append
+            }
+        }
+
+        this.fill(); // Use freed room
+    }
+
+    /**
+     * Append every executable mempool transaction that fits, highest value
+     * first.
+     */
+    private void fill() {
+        for (Transaction transaction : this.Pool.Transactions()) { // Iterate through pending transactions
+            if (this.transactions.size() >= this.MaxTransactions || this.size >= this.MaxBytes) { // Check full
+                return; // Done
+            }
+
+            this.include(transaction); // Include transaction
+        }
+    }
+
+    /**
+     * Append a given transaction if it's executable, then its sender's pending
+     * transactions with consecutive nonces.
+     *
+     * @param transaction transaction to include
+     */
+    private void include(Transaction transaction) {
+        while (transaction != null && !this.included.contains(new ByteKey(transaction.Hash))) { // Include until blocked
+            Sender sender = this.sender(transaction); // Get sender
+
+            if (!this.executable(transaction, sender) || !this.fits(transaction)) { // Check not executable, doesn't fit
+                return; // Done
+            }
+
+            this.append(transaction, sender); // Append
+
+            transaction = transaction.AccountNonce == Integer.MAX_VALUE ? null
+                    : this.Pool.GetTransaction(transaction.Sender, transaction.AccountNonce + 1); // Get sender's next transaction
+        }
+    }
+
+    /**
+     * Check whether a given transaction can execute after the template's
+     * transactions.
+     *
+     * @param transaction transaction to check
+     * @param sender      remaining state of its sender (null if unknown)
+     * @return whether the transaction is executable
+     */
+    private boolean executable(Transaction transaction, Sender sender) {
+        if (sender == null || transaction.Recipient == null || !(transaction.Value >= 0)) { // Check mint, invalid transaction
+            return false; // Not executable
+        }
+
+        return transaction.AccountNonce == sender.Nonce && sender.Balance >= transaction.Value; // Check nonce next, balance sufficient
+    }
+
+    /**
+     * Check whether a given transaction fits in the template.
+     *
+     * @param transaction transaction to check
+     * @return whether the transaction fits
+     */
+    private boolean fits(Transaction transaction) {
+        return this.transactions.size() < this.MaxTransactions
+                && this.size + transaction.EncodedSize() <= this.MaxBytes; // Check within limits
+    }
+
+    /**
+     * Append a given admitted transaction to the template.
+     *
+     * @param transaction transaction to append
+     * @param sender      remaining state of its sender
+     */
+    private void append(Transaction transaction, Sender sender) {
+        this.transactions.add(transaction); // Add transaction
+        this.included.add(new ByteKey(transaction.Hash)); // Index transaction
+        this.merkle.Append(transaction.Hash); // Update merkle tree
+
+        this.size += transaction.EncodedSize(); // Add size
+        this.stateRoot = null; // Reset state root
+
+        this.spend(transaction, sender); // Spend
+    }
+
+    /**
+     * Apply a given transaction to its sender's remaining state.
+     *
+     * @param transaction transaction to apply
+     * @param sender      remaining state of its sender
+     */
+    private void spend(Transaction transaction, Sender sender) {
+        sender.Nonce++; // Use nonce
+        sender.Balance -= transaction.Value; // Spend value
+    }
+
+    /**
+     * Undo a given transaction (the sender's last template transaction) on its
+     * sender's remaining state.
+     *
+     * @param transaction transaction to undo
+     * @param sender      remaining state of its sender
+     */
+    private void refund(Transaction transaction, Sender sender) {
+        sender.Nonce--; // Release nonce
+        sender.Balance += transaction.Value; // Refund value
+    }
+
+    /**
+     * Drop every template transaction from a given position on, without touching
+     * sender states.
+     *
+     * @param count number of transactions to keep
+     */
+    private void truncate(int count) {
+        for (int i = this.transactions.size() - 1; i >= count; i--) { // Iterate through dropped transactions
+            Transaction transaction = this.transactions.remove(i); // Remove transaction
+
+            this.included.remove(new ByteKey(transaction.Hash)); // Unindex transaction
+            this.size -= transaction.EncodedSize(); // Subtract size
+        }
+
+        this.merkle.Truncate(count); // Update merkle tree
+        this.stateRoot = null; // Reset state root
+    }
+
+    /**
+     * Get the remaining state of the sender of a given transaction, reading it
+     * from the state (or the mempool) the first time.
+     *
+     * @param transaction transaction from the sender
+     * @return sender state (null if a mint, or the nonce can't be checked yet)
+     */
+    private Sender sender(Transaction transaction) {
+        if (transaction.Sender == null || transaction.Sender.length == 0) { // Check mint
+            return null; // Never taken from mempool
+        }
+
+        ByteKey key = new ByteKey(transaction.Sender); // Get sender key
+        Sender sender = this.senders.get(key); // Get sender
+
+        if (sender != null) { // Check known
+            return sender; // Return sender
+        }
+
+        StateDB state = this.state(); // Get state
+
+        if (state != null) { // Check has state
+            sender = new Sender(state.NextNonce(transaction.Sender), state.Balance(transaction.Sender)); // Read sender state
+        } else if (transaction.AccountNonce == 0
+                || this.Pool.GetTransaction(transaction.Sender, transaction.AccountNonce - 1) == null) { // Check lowest pending nonce
+            sender = new Sender(transaction.AccountNonce, Double.POSITIVE_INFINITY); // Trust mempool
+        } else {
+            return null; // Wait for earlier transaction
+        }
+
+        this.senders.put(key, sender); // Remember sender
+
+        return sender; // Return sender
+    }
+
+    /**
+     * Get the chain's StateDB.
+     *
+     * @return state (null if none)
+     */
+    private StateDB state() {
+        Blockchain.StateTransition state = this.Chain.State; // Get derived state
+
+        return state instanceof StateDB ? (StateDB) state : null; // Return state
+    }
+
+    /**
+     * Sender is the state of a sender after the template's transactions.
+     */
+    private static class Sender {
+        /* Nonce of the sender's next transaction */
+        long Nonce;
+
+        /* Remaining balance */
+        double Balance;
+
+        /**
+         * Initialize a new sender.
+         *
+         * @param nonce   nonce of the sender's next transaction
+         * @param balance remaining balance
+         */
+        Sender(long nonce, double balance) {
+            this.Nonce = nonce; // Set nonce
+            this.Balance = balance; // Set balance
+        }
+    }
+
+    /**
+     * MerkleAccumulator is a merkle tree kept up to date as leaves are appended
+     * and truncated. It yields the same root as MerkleTree: only the last node
+     * of each level changes with an append or truncation, so each costs one
+     * hash per level.
+     */
+    static class MerkleAccumulator {
+        /* Tree levels, leaves first, up to the root */
+        private final ArrayList<ArrayList<byte[]>> levels = new ArrayList<ArrayList<byte[]>>();
+
+        /**
+         * Append a leaf.
+         *
+         * @param leaf leaf to append (usually a transaction hash)
+         */
+        void Append(byte[] leaf) {
+            if (this.levels.isEmpty()) { // Check empty tree
+                this.levels.add(new ArrayList<byte[]>()); // Add leaf level
+            }
+
+            this.levels.get(0).add(MerkleTree.HashLeaf(leaf)); // Add leaf
+
+            this.rehash(); // Update tree
+        }
+
+        /**
+         * Drop every leaf from a given position on.
+         *
+         * @param count number of leaves to keep
+         */
+        void Truncate(int count) {
+            if (this.levels.isEmpty() || count >= this.levels.get(0).size()) { // Check nothing to drop
+                return; // Done
+            }
+
+            if (count == 0) { // Check dropping everything
+                this.levels.clear(); // Clear tree
+
+                return; // Done
+            }
+
+            ArrayList<byte[]> leaves = this.levels.get(0); // Get leaf level
+
+            leaves.subList(count, leaves.size()).clear(); // Drop leaves
+
+            this.rehash(); // Update tree
+        }
+
+        /**
+         * Get the number of leaves.
+         *
+         * @return leaf count
+         */
+        int Size() {
+            return this.levels.isEmpty() ? 0 : this.levels.get(0).size(); // Return leaf count
+        }
+
+        /**
+         * Get the root of the tree. The root of an empty tree is sha3 of the empty
+         * string.
+         *
+         * @return merkle root
+         */
+        byte[] Root() {
+            if (this.levels.isEmpty()) { // Check empty tree
+                return Sha.Sha3(new byte[0]); // Return empty root
+            }
+
+            return this.levels.get(this.levels.size() - 1).get(0); // Return root
+        }
+
+        /**
+         * Rehash the last node of every level above the leaves, trimming each level
+         * to its width and dropping levels above the root.
+         */
+        private void rehash() {
+            int level = 0; // Init level
+
+            for (; this.levels.get(level).size() > 1; level++) { // Walk up tree
+                ArrayList<byte[]> nodes = this.levels.get(level); // Get level
+                int last = nodes.size() - 1; // Get last position
+
+                if (this.levels.size() == level + 1) { // Check no parent level
+                    this.levels.add(new ArrayList<byte[]>()); // Add parent level
+                }
+
+                ArrayList<byte[]> parents = this.levels.get(level + 1); // Get parent level
+                int width = (nodes.size() + 1) / 2; // Get parent width
+
+                if (parents.size() > width) { // Check truncated
+                    parents.subList(width, parents.size()).clear(); // Trim parent level
+                }
+
+                byte[] parent = last % 2 == 1 ? MerkleTree.HashNode(nodes.get(last - 1), nodes.get(last))
+                        : nodes.get(last); // Hash pair, or promote lone node
+
+                if (parents.size() == width) { // Check parent exists
+                    parents.set(width - 1, parent); // Replace parent
+                } else {
+                    parents.add(parent); // Add parent
+                }
+            }
+
+            this.levels.subList(level + 1, this.levels.size()).clear(); // Drop levels above root
+        }
+    }
+}
@@ -3,23 +3,36 @@ package com.dowlandaiello.gitchain.types;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 
+import com.dowlandaiello.gitchain.common.ByteKey;
 import com.dowlandaiello.gitchain.common.CommonByteCmp;
 import com.dowlandaiello.gitchain.common.CommonCoin;
+import com.dowlandaiello.gitchain.common.CommonDB;
 import com.dowlandaiello.gitchain.common.CommonIO;
 import com.dowlandaiello.gitchain.config.ChainConfig;
 import com.dowlandaiello.gitchain.crypto.Sha;
+import com.dowlandaiello.gitchain.miner.Miner;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 
-import org.bouncycastle.util.Arrays;
+import org.bouncycastle.crypto.digests.SHA3Digest;
 import org.bouncycastle.util.BigIntegers;
+import org.bouncycastle.util.encoders.Hex;
 
 import org.iq80.leveldb.*;
 
@@ -32,8 +45,40 @@ import static org.fusesource.leveldbjni.JniDBFactory.*;
  * @since 18.02.2019
  */
 public class Blockchain {
-    /* Blocks in blockchain */
-    public DB BlockDB;
+    /* Max target hash (difficulty 0) */
+    private static final BigInteger MaxTarget = BigInteger.valueOf(2).pow(255);
+
+    /* Max number of cached difficulty targets */
+    private static final int TargetCacheSize = 1024;
+
+    /* Max number of cached timestamp windows */
+    private static final int WindowCacheSize = 1024;
+
+    /* Cached difficulty targets */
+    private static final Map<Long, byte[]> targetCache = new ConcurrentHashMap<Long, byte[]>();
+
+    /* Per-thread nonce hashing buffers */
+    private static final ThreadLocal<NonceHasher> nonceHashers = new ThreadLocal<NonceHasher>() {
+        @Override
+        protected NonceHasher initialValue() {
+            return new NonceHasher(); // Init hasher
+        }
+    };
+
+    /* Blocks in blockchain (not part of the db header) */
+    public transient DB BlockDB;
+
+    /* Whether each block commit waits for the write to reach disk */
+    public transient boolean SyncOnCommit;
+
+    /* Transactions whose signatures were verified (share with the mempool, see Mempool) */
+    public final transient SignatureCache Signatures = new SignatureCache();
+
+    /* Verifier the signatures of every added block's transactions are checked with (through Signatures) */
+    public final transient SignatureVerifier Verifier = new SignatureVerifier(this.Signatures);
+
+    /* State derived from blocks, committed atomically with each block (null if none) */
+    public transient volatile StateTransition State;
 
     /* Blockchain genesis block */
     public Block GenesisBlock;
@@ -47,8 +92,75 @@ public class Blockchain {
     /* Network ID */
     public int Network;
 
-    /* Network difficulty */
-    public float TotalDifficulty;
+    /* Total difficulty of the working chain, in fixed point (see DifficultyRetarget.One) */
+    public long TotalDifficulty;
+
+    /* Hash of the working chain head */
+    public byte[] HeadHash;
+
+    /* Height of the working chain head (genesis is 0) */
+    public long Height;
+
+    /* Cached working chain head */
+    private transient Block head;
+
+    /* Difficulty retarget rule of the chain (see ChainConfig) */
+    private transient DifficultyRetarget retarget;
+
+    /* Recently used timestamp windows by block hash (see TimestampWindow) */
+    private final transient LinkedHashMap<ByteKey, long[]> windows = new LinkedHashMap<ByteKey, long[]>(16, 0.75f, true) {
+        /* lol serialization */
+        static final long serialVersionUID = CommonIO.SerialVersionUID;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ByteKey, long[]> eldest) {
+            return this.size() > WindowCacheSize; // Evict least recently used window
+        }
+    };
+
+    /**
+     * StateTransition derives state (e.g. account balances) from blocks. Its
+     * writes go into the same batch as the block, so a block and its state
+     * changes are committed together or not at all.
+     *
+     * A reorganization stages several blocks in one batch: the old branch is
+     * reverted head first, then the new branch is applied, each block on top of
+     * the changes staged before it. Batched imports likewise apply several
+     * consecutive blocks before committing. Staged changes are followed by
+     * exactly one Commit or Discard.
+     */
+    public static interface StateTransition {
+        /**
+         * Stage a given block on top of the current state.
+         *
+         * @param batch  batch to write state changes to
+         * @param block  block being committed
+         * @param height height of the block
+         * @return whether the block is valid against the current state
+         */
+        boolean Apply(WriteBatch batch, Block block, long height);
+
+        /**
+         * Stage undoing a given block, which must be the tip of the current state.
+         *
+         * @param batch  batch to write state changes to
+         * @param block  block being detached from the canonical chain
+         * @param height height of the block
+         * @return whether the block could be undone
+         */
+        boolean Revert(WriteBatch batch, Block block, long height);
+
+        /**
+         * Make every staged change current, once its batch was written.
+         */
+        void Commit();
+
+        /**
+         * Drop every staged change, if a block was rejected or the batch couldn't be
+         * written.
+         */
+        void Discard();
+    }
 
     /**
      * Initialize a blockchain with a given genesis block and chain config.
@@ -57,8 +169,17 @@ public class Blockchain {
      * @param genesisBlock chain genesis block
      */
     public Blockchain(ChainConfig chainConfig) {
-        Block genesisBlock = MakeGenesisBlock(chainConfig); // Make genesis
+        this(chainConfig, MakeGenesisBlock(chainConfig)); // Make genesis
+    }
 
+    /**
+     * Initialize a blockchain with a given chain config and an existing genesis block
+     * (e.g. one downloaded from a peer before syncing).
+     *
+     * @param chainConfig  chain configuration
+     * @param genesisBlock chain genesis block
+     */
+    public Blockchain(ChainConfig chainConfig, Block genesisBlock) {
         if (genesisBlock.Difficulty == 0) { // Check invalid difficulty
             genesisBlock.Difficulty = 1f; // Set difficulty
         }
@@ -70,18 +191,27 @@ public class Blockchain {
         this.ChainID = chainConfig.Chain; // Set chain name
         this.Network = chainConfig.Network; // Set network id
         this.GenesisBlock = genesisBlock; // Set genesis block
-        this.TotalDifficulty = genesisBlock.Difficulty; // Set difficulty
+        this.TotalDifficulty = DifficultyRetarget.ToFixed(genesisBlock.Difficulty); // Set difficulty
         this.GenesisBlock = genesisBlock; // Set genesis
 
         try {
             CommonIO.MakeDirIfNotExist(CommonIO.DbPath); // Make db path
 
             this.BlockDB = factory.open(new File(CommonIO.DbPath + "/" + chainConfig.Chain), options); // Construct DB
-
-            this.BlockDB.put(genesisBlock.Hash, genesisBlock.Bytes()); // Add genesis reeReeReeReeRee
         } catch (IOException e) {
             throw new RuntimeException(e); // Panic
         }
+
+        WriteBatch batch = this.BlockDB.createWriteBatch(); // Init batch
+
+        this.putBlock(batch, genesisBlock, 0, this.TotalDifficulty); // Add genesis reeReeReeReeRee
+        this.putHead(batch, genesisBlock, 0, this.TotalDifficulty); // Set genesis as head
+
+        if (!this.commit(batch)) { // Commit genesis
+            throw new RuntimeException("failed to write genesis block"); // Panic
+        }
+
+        this.setHead(genesisBlock, 0, this.TotalDifficulty); // Cache head
     }
 
     /**
@@ -91,53 +221,361 @@ public class Blockchain {
     public Blockchain(byte[] rawJSON) {
         Gson gson = new GsonBuilder().setPrettyPrinting().create(); // Init gson
 
-        Blockchain blockchain = gson.fromJson(new String(rawJSON), Blockchain.class);
+        JsonObject rawHeader = new JsonParser().parse(new String(rawJSON)).getAsJsonObject(); // Parse header
+        JsonElement rawTotalDifficulty = rawHeader.remove("TotalDifficulty"); // Take total difficulty (may be a legacy float)
+
+        Blockchain blockchain = gson.fromJson(rawHeader, Blockchain.class);
 
         this.GenesisBlock = blockchain.GenesisBlock; // Set genesis block
         this.Config = blockchain.Config; // Set config
         this.ChainID = blockchain.ChainID; // Set chain ID
         this.Network = blockchain.Network; // Set network
-        this.TotalDifficulty = blockchain.TotalDifficulty; // Set total difficulty
+        this.TotalDifficulty = decodeHeaderTotalDifficulty(rawTotalDifficulty); // Set total difficulty
+        this.HeadHash = blockchain.HeadHash; // Set head hash
+        this.Height = blockchain.Height; // Set height
+    }
+
+    /**
+     * Decode the total difficulty of a db header. Headers written before total
+     * difficulty was kept in fixed point hold it as a float, which is converted.
+     *
+     * @param rawTotalDifficulty total difficulty json value (null if missing)
+     * @return fixed point total difficulty
+     */
+    private static long decodeHeaderTotalDifficulty(JsonElement rawTotalDifficulty) {
+        if (rawTotalDifficulty == null || !rawTotalDifficulty.isJsonPrimitive()) { // Check missing
+            return 0; // No difficulty
+        }
+
+        String value = rawTotalDifficulty.getAsString(); // Get literal
+
+        if (value.indexOf('.') < 0 && value.indexOf('e') < 0 && value.indexOf('E') < 0) { // Check integral (fixed point)
+            return rawTotalDifficulty.getAsLong(); // Return total difficulty
+        }
+
+        return DifficultyRetarget.ToFixed(rawTotalDifficulty.getAsFloat()); // Convert legacy float
     }
 
     /**
-     * Add specified block to blockchain.
+     * Add specified block to blockchain. A block whose parent is known is stored
+     * even if it doesn't extend the head; the chain switches to its branch once
+     * that branch has more total difficulty than the canonical chain. Before a
+     * block is stored or weighed, its header is verified against its parent
+     * (see VerifyHeader), so a block can't claim more work than the retarget
+     * rule allows, and the signature of every transaction with a sender is
+     * verified.
+     *
      * @param block block to add
-     * @return whether the block was added successfully
+     * @return whether the block was added successfully (to the canonical chain or a side chain)
      */
-    public boolean AddBlock(Block block) {
-        if (this.BlockDB == null || !VerifyBlockNonce(block) || !java.util.Arrays.equals(block.ParentHash, this.GetLastBlock().Hash)) { // Check no block db, block nonce invalid
+    public synchronized boolean AddBlock(Block block) {
+        if (this.BlockDB == null || !VerifyBlockHash(block)) { // Check no block db, block hash invalid
             return false; // ¯\_(ツ)_/¯
         }
 
-        try {
-            this.BlockDB.put(block.Hash, block.Bytes()); // Add block
-        } catch (DBException e) { // Catch
+        if (!java.util.Arrays.equals(block.MerkleRoot, Block.HashTransactionSum(block.Transactions))) { // Check transactions don't match header
+            return false; // ¯\_(ツ)_/¯
+        }
+
+        Block lastBlock = this.GetLastBlock(); // Get chain head
+
+        if (lastBlock == null || block.ParentHash == null || this.HasBlock(block.Hash)) { // Check no head, already known
+            return false; // ¯\_(ツ)_/¯
+        }
+
+        byte[] parentMeta = this.BlockDB.get(CommonDB.BlockMetaKey(block.ParentHash)); // Get parent height, difficulty
+
+        if (parentMeta == null) { // Check unknown parent
+            return false; // ¯\_(ツ)_/¯
+        }
+
+        Block parent = java.util.Arrays.equals(block.ParentHash, lastBlock.Hash) ? lastBlock : this.GetBlockByHash(block.ParentHash); // Get parent
+
+        if (parent == null || !VerifyHeader(this.Retarget(), this.TimestampWindow(parent), parent, block)) { // Check difficulty not retargeted from parent, pow invalid
+            return false; // ¯\_(ツ)_/¯
+        }
+
+        if (!this.Verifier.VerifyBlock(block)) { // Check invalid signatures
+            return false; // ¯\_(ツ)_/¯
+        }
+
+        long height = metaHeight(parentMeta) + 1; // Get block height
+        long totalDifficulty = DifficultyRetarget.AddWork(metaTotalDifficulty(parentMeta), block.Difficulty); // Add difficulty
+
+        WriteBatch batch = this.BlockDB.createWriteBatch(); // Init batch
+
+        if (!java.util.Arrays.equals(block.ParentHash, lastBlock.Hash) && !(totalDifficulty > this.TotalDifficulty)) { // Check side chain isn't heavier
+            this.storeBlock(batch, block, height, totalDifficulty); // Store side block
+
+            return this.commit(batch); // Commit side block
+        }
+
+        StateTransition state = this.State; // Get derived state
+
+        if (!this.switchBranch(batch, state, block, height)) { // Move canonical chain (and state) onto block's branch
+            if (state != null) { // Check has derived state
+                state.Discard(); // Drop state changes
+            }
+
+            closeBatch(batch); // Discard batch
+
+            return false; // ¯\_(ツ)_/¯
+        }
+
+        this.putBlock(batch, block, height, totalDifficulty); // Add block
+        this.putHead(batch, block, height, totalDifficulty); // Move head
+
+        if (!this.commit(batch)) { // Commit block, indexes, head, and state atomically
+            if (state != null) { // Check has derived state
+                state.Discard(); // Drop state changes
+            }
+
             return false; // Failed
         }
 
-        this.TotalDifficulty += block.Difficulty; // Add difficulty
+        if (state != null) { // Check has derived state
+            state.Commit(); // Make state changes current
+        }
+
+        this.setHead(block, height, totalDifficulty); // Cache head
 
         return true; // Success
     }
 
+    /**
+     * Move the canonical chain onto the branch of a given block, which must have a
+     * stored parent: find the last canonical ancestor through parent links, then
+     * revert the canonical blocks above it and apply the branch's blocks (and the
+     * given block) to the derived state. Only the block indexes and state are
+     * written; the caller stores the given block and moves the head. Takes time
+     * proportional to the depth of the switch.
+     *
+     * @param batch  batch to write to
+     * @param state  derived state (null if none)
+     * @param block  new head
+     * @param height height of the new head
+     * @return whether every block of the branch is valid against the state
+     */
+    private boolean switchBranch(WriteBatch batch, StateTransition state, Block block, long height) {
+        List<Block> branch = new ArrayList<Block>(); // Init branch buffer
+
+        byte[] ancestor = block.ParentHash; // Init ancestor
+        long ancestorHeight = height - 1; // Init ancestor height
+
+        while (ancestorHeight > this.Height
+                || !java.util.Arrays.equals(this.BlockDB.get(CommonDB.HeightKey(ancestorHeight)), ancestor)) { // Check not canonical
+            Block sideBlock = this.GetBlockByHash(ancestor); // Get side block
+
+            if (sideBlock == null || ancestorHeight == 0) { // Check broken branch
+                return false; // Failed
+            }
+
+            branch.add(sideBlock); // Add side block
+
+            ancestor = sideBlock.ParentHash; // Move to parent
+            ancestorHeight--; // Move to parent height
+        }
+
+        for (long h = this.Height; h > ancestorHeight; h--) { // Iterate through detached blocks, head first
+            Block detached = this.GetBlockByHeight(h); // Get detached block
+
+            if (detached == null || (state != null && !state.Revert(batch, detached, h))) { // Revert block
+                return false; // Failed
+            }
+
+            batch.delete(CommonDB.HashHeightKey(detached.Hash)); // Unindex hash
+
+            if (h > height) { // Check above new head
+                batch.delete(CommonDB.HeightKey(h)); // Unindex height
+            }
+        }
+
+        Collections.reverse(branch); // Order by height
+
+        for (Block attached : branch) { // Iterate through attached blocks
+            ancestorHeight++; // Move to block height
+
+            if (state != null && !state.Apply(batch, attached, ancestorHeight)) { // Apply block
+                return false; // Failed
+            }
+
+            this.indexBlock(batch, attached, ancestorHeight); // Index block
+        }
+
+        return state == null || state.Apply(batch, block, height); // Apply new head
+    }
+
+    /**
+     * Add a given sequence of blocks whose merkle roots were already checked
+     * (e.g. by an ImportPipeline). Consecutive blocks extending the head are
+     * verified against their parents (see VerifyHeader), their signatures are
+     * verified, and they are applied and committed in a single batch; any other
+     * block goes through AddBlock. Stops at the first block that can't be added.
+     *
+     * @param blocks checked blocks, parents first
+     * @return number of blocks added
+     */
+    synchronized int addVerified(List<Block> blocks) {
+        int added = 0; // Init added blocks
+
+        while (added < blocks.size()) { // Add until done
+            int extended = this.extendHead(blocks, added, blocks.size() - added); // Add blocks extending head
+
+            if (extended < 0) { // Check commit failed
+                return added; // Failed
+            }
+
+            if (extended == 0 && !this.AddBlock(blocks.get(added))) { // Check doesn't extend head, can't be added
+                return added; // Done
+            }
+
+            added += Math.max(extended, 1); // Count blocks
+        }
+
+        return added; // Return added blocks
+    }
+
+    /**
+     * Apply up to count blocks extending the head, starting at a given index, and
+     * commit them in a single batch. If a block is rejected, the blocks before it
+     * are committed on their own.
+     *
+     * @param blocks checked blocks, parents first
+     * @param start  index of the first block
+     * @param count  max number of blocks
+     * @return number of blocks committed (-1 if the commit failed)
+     */
+    private int extendHead(List<Block> blocks, int start, int count) {
+        StateTransition state = this.State; // Get derived state
+        WriteBatch batch = this.BlockDB.createWriteBatch(); // Init batch
+
+        Block head = this.GetLastBlock(); // Get chain head
+        long height = this.Height; // Get head height
+        long totalDifficulty = this.TotalDifficulty; // Get head total difficulty
+
+        DifficultyRetarget retarget = this.Retarget(); // Get retarget rule
+        long[] window = this.TimestampWindow(head); // Get head timestamp window
+
+        int staged = 0; // Init staged blocks
+
+        for (; staged < count; staged++) { // Iterate through blocks
+            Block block = blocks.get(start + staged); // Get block
+
+            if (!java.util.Arrays.equals(block.ParentHash, head.Hash) || !VerifyBlockHash(block) || this.HasBlock(block.Hash)) { // Check doesn't extend head, invalid hash
+                break; // Stop run
+            }
+
+            if (!VerifyHeader(retarget, window, head, block) || !this.Verifier.VerifyBlock(block)) { // Check difficulty not retargeted from head, invalid signatures
+                break; // Stop run (rejected by AddBlock)
+            }
+
+            if (state != null && !state.Apply(batch, block, height + 1)) { // Apply block
+                state.Discard(); // Drop state changes
+                closeBatch(batch); // Discard batch
+
+                return staged == 0 ? 0 : this.extendHead(blocks, start, staged); // Commit valid blocks on their own
+            }
+
+            height++; // Move to block height
+            totalDifficulty = DifficultyRetarget.AddWork(totalDifficulty, block.Difficulty); // Add difficulty
+
+            this.putBlock(batch, block, height, totalDifficulty); // Add block
+
+            window = retarget.Push(window, block.Timestamp); // Move window
+            head = block; // Move head
+        }
+
+        if (staged == 0) { // Check nothing staged
+            closeBatch(batch); // Discard batch
+
+            return 0; // Nothing added
+        }
+
+        this.putHead(batch, head, height, totalDifficulty); // Move head
+
+        if (!this.commit(batch)) { // Commit blocks, indexes, head, and state atomically
+            if (state != null) { // Check has derived state
+                state.Discard(); // Drop state changes
+            }
+
+            return -1; // Failed
+        }
+
+        if (state != null) { // Check has derived state
+            state.Commit(); // Make state changes current
+        }
+
+        this.setHead(head, height, totalDifficulty); // Cache head
+
+        return staged; // Return committed blocks
+    }
+
     /**
      * Get working block.
      * @return last block
      */
-    public Block GetLastBlock() {
-        DBIterator iterator = this.BlockDB.iterator(); // Get iterator
+    public synchronized Block GetLastBlock() {
+        if (this.head != null) { // Check head cached
+            return this.head; // Return cached head
+        }
+
+        if (this.BlockDB == null || !this.loadHead()) { // Check can't load head
+            return null; // Failed
+        }
+
+        return this.head; // Return head
+    }
 
-        iterator.seekToFirst(); // Seek to first
+    /**
+     * Load the persisted chain head pointer into memory, migrating databases written before
+     * the head pointer existed.
+     *
+     * @return whether a head was found
+     */
+    private boolean loadHead() {
+        if (this.BlockDB.get(CommonDB.HeightKey(0)) == null) { // Check legacy db
+            return this.migrateLegacyLayout(); // Build indexes from scan
+        }
+
+        byte[] headHash = this.BlockDB.get(CommonDB.HeadHashKey); // Get head pointer
+
+        Block head = headHash == null ? null : this.GetBlockByHash(headHash); // Get head block
+
+        if (head == null) { // Check dangling pointer
+            return false; // Failed
+        }
+
+        this.setHead(head, CommonDB.DecodeLong(this.BlockDB.get(CommonDB.HeadHeightKey), 0),
+                decodeTotalDifficulty(this.BlockDB.get(CommonDB.TotalDifficultyKey), 0)); // Cache head
 
-        Block lastBlock = new Block(iterator.peekNext().getValue()); // Init block buffer
+        return true; // Success
+    }
+
+    /**
+     * Rebuild the block, height, and hash indexes of a db written before blocks were
+     * stored under prefixed keys. The block with the most total difficulty is taken
+     * as the chain head, and the canonical chain is found by walking its parent
+     * links; every other block is kept as a side block. Runs once per legacy db.
+     *
+     * @return whether a head was found
+     */
+    private boolean migrateLegacyLayout() {
+        Map<String, Block> legacyBlocks = new HashMap<String, Block>(); // Init legacy block buffer
+
+        DBIterator iterator = this.BlockDB.iterator(); // Get iterator
+
+        Block lastBlock = null; // Init block buffer
 
         for (iterator.seekToFirst(); iterator.hasNext(); iterator.next()) { // Move to next
-            Block currentBlock = new Block(iterator.peekNext().getValue()); // Get current block
+            Entry<byte[], byte[]> entry = iterator.peekNext(); // Get entry
 
-            if (currentBlock.Timestamp > lastBlock.Timestamp) { // Check newer block
-                lastBlock = currentBlock; // Set last block
+            if (java.util.Arrays.equals(entry.getKey(), CommonDB.HeadHashKey)
+                    || java.util.Arrays.equals(entry.getKey(), CommonDB.HeadHeightKey)
+                    || java.util.Arrays.equals(entry.getKey(), CommonDB.TotalDifficultyKey)) { // Check metadata
+                continue; // Skip
             }
+
+            legacyBlocks.put(Hex.toHexString(entry.getKey()), Block.ReadStored(entry.getValue())); // Store block
         }
 
         try {
@@ -147,10 +585,359 @@ public class Blockchain {
                 e.printStackTrace(); // Print stack trace
             }
 
-            return null; // Failed
+            return false; // Failed
+        }
+
+        Map<String, Long> totalDifficulties = new HashMap<String, Long>(); // Init difficulty buffer
+        Map<String, Long> heights = new HashMap<String, Long>(); // Init height buffer
+
+        for (String hash : legacyBlocks.keySet()) { // Iterate through legacy blocks
+            List<String> path = new ArrayList<String>(); // Init path buffer
+
+            for (String current = hash; current != null && !heights.containsKey(current);) { // Walk back to a known block
+                path.add(current); // Add block
+
+                Block currentBlock = legacyBlocks.get(current); // Get block
+
+                current = currentBlock.ParentHash == null || !legacyBlocks.containsKey(Hex.toHexString(currentBlock.ParentHash)) ? null
+                        : Hex.toHexString(currentBlock.ParentHash); // Move to parent
+            }
+
+            for (int i = path.size() - 1; i >= 0; i--) { // Iterate through path, oldest first
+                Block currentBlock = legacyBlocks.get(path.get(i)); // Get block
+                String parent = currentBlock.ParentHash == null ? null : Hex.toHexString(currentBlock.ParentHash); // Get parent
+
+                boolean hasParent = parent != null && heights.containsKey(parent); // Check parent known
+
+                heights.put(path.get(i), hasParent ? heights.get(parent) + 1 : 0); // Set height
+                totalDifficulties.put(path.get(i), DifficultyRetarget.AddWork(hasParent ? totalDifficulties.get(parent) : 0,
+                        currentBlock.Difficulty)); // Set difficulty
+            }
+
+            if (lastBlock == null || totalDifficulties.get(hash) > totalDifficulties.get(Hex.toHexString(lastBlock.Hash))) { // Check heavier chain
+                lastBlock = legacyBlocks.get(hash); // Set last block
+            }
+        }
+
+        if (lastBlock == null) { // Check empty db
+            return false; // Failed
+        }
+
+        List<Block> canonicalChain = new ArrayList<Block>(); // Init chain buffer
+
+        for (Block current = lastBlock; current != null;) { // Walk back to genesis
+            canonicalChain.add(current); // Add block
+
+            current = current.ParentHash == null ? null : legacyBlocks.get(Hex.toHexString(current.ParentHash)); // Move to parent
+        }
+
+        Collections.reverse(canonicalChain); // Order by height
+
+        long totalDifficulty = 0; // Init difficulty buffer
+
+        WriteBatch batch = this.BlockDB.createWriteBatch(); // Init batch
+
+        for (Entry<String, Block> legacyBlock : legacyBlocks.entrySet()) { // Iterate through legacy blocks
+            batch.delete(Hex.decode(legacyBlock.getKey())); // Remove legacy entry
+
+            this.storeBlock(batch, legacyBlock.getValue(), heights.get(legacyBlock.getKey()),
+                    totalDifficulties.get(legacyBlock.getKey())); // Add block
+        }
+
+        for (int height = 0; height < canonicalChain.size(); height++) { // Iterate through chain
+            Block block = canonicalChain.get(height); // Get block
+
+            this.indexBlock(batch, block, height); // Index block
+
+            totalDifficulty = DifficultyRetarget.AddWork(totalDifficulty, block.Difficulty); // Add difficulty
+        }
+
+        this.putHead(batch, lastBlock, canonicalChain.size() - 1, totalDifficulty); // Persist head
+
+        if (!this.commit(batch)) { // Commit migration
+            return false; // Failed
+        }
+
+        this.setHead(lastBlock, canonicalChain.size() - 1, totalDifficulty); // Cache head
+
+        return true; // Success
+    }
+
+    /**
+     * Write a canonical block and its indexes to a given batch.
+     *
+     * @param batch           batch to write to
+     * @param block           block to write
+     * @param height          height of the block
+     * @param totalDifficulty total difficulty at the block
+     */
+    private void putBlock(WriteBatch batch, Block block, long height, long totalDifficulty) {
+        this.storeBlock(batch, block, height, totalDifficulty); // Store block
+        this.indexBlock(batch, block, height); // Index block
+    }
+
+    /**
+     * Write a block and its height and total difficulty to a given batch, without
+     * making it canonical.
+     *
+     * @param batch           batch to write to
+     * @param block           block to write
+     * @param height          height of the block
+     * @param totalDifficulty total difficulty at the block
+     */
+    private void storeBlock(WriteBatch batch, Block block, long height, long totalDifficulty) {
+        batch.put(CommonDB.BlockKey(block.Hash), block.Bytes()); // Add block
+        batch.put(CommonDB.BlockMetaKey(block.Hash),
+                ByteBuffer.allocate(16).putLong(height).putLong(totalDifficulty).array()); // Add height, difficulty
+    }
+
+    /**
+     * Write the canonical height indexes of a given block to a given batch.
+     *
+     * @param batch  batch to write to
+     * @param block  canonical block
+     * @param height height of the block
+     */
+    private void indexBlock(WriteBatch batch, Block block, long height) {
+        batch.put(CommonDB.HeightKey(height), block.Hash); // Index height => hash
+        batch.put(CommonDB.HashHeightKey(block.Hash), CommonDB.EncodeLong(height)); // Index hash => height
+    }
+
+    /**
+     * Get the height stored in a given block metadata record.
+     *
+     * @param meta block metadata
+     * @return block height
+     */
+    private static long metaHeight(byte[] meta) {
+        return CommonDB.DecodeLong(meta, 0); // Return height
+    }
+
+    /**
+     * Get the total difficulty stored in a given block metadata record.
+     *
+     * @param meta block metadata
+     * @return fixed point total difficulty at the block
+     */
+    private static long metaTotalDifficulty(byte[] meta) {
+        return decodeTotalDifficulty(meta, 8); // Return difficulty
+    }
+
+    /**
+     * Decode a stored total difficulty: a fixed point long, or a float written
+     * before total difficulty was kept in fixed point.
+     *
+     * @param raw    record holding the total difficulty
+     * @param offset offset of the total difficulty in the record
+     * @return fixed point total difficulty
+     */
+    private static long decodeTotalDifficulty(byte[] raw, int offset) {
+        if (raw.length - offset == 4) { // Check legacy float
+            return DifficultyRetarget.ToFixed(ByteBuffer.wrap(raw, offset, 4).getFloat()); // Convert difficulty
         }
 
-        return lastBlock; // Return block
+        return CommonDB.DecodeLong(raw, offset); // Return difficulty
+    }
+
+    /**
+     * Write the chain head pointer, height, and total difficulty to a given batch.
+     *
+     * @param batch           batch to write to
+     * @param block           new chain head
+     * @param height          height of the new chain head
+     * @param totalDifficulty total difficulty at the new chain head
+     */
+    private void putHead(WriteBatch batch, Block block, long height, long totalDifficulty) {
+        batch.put(CommonDB.HeadHashKey, block.Hash); // Set head hash
+        batch.put(CommonDB.HeadHeightKey, CommonDB.EncodeLong(height)); // Set height
+        batch.put(CommonDB.TotalDifficultyKey, CommonDB.EncodeLong(totalDifficulty)); // Set difficulty
+    }
+
+    /**
+     * Write a given batch to the block db, waiting for it to reach disk if
+     * SyncOnCommit is set. The batch is closed.
+     *
+     * @param batch batch to commit
+     * @return whether the batch was written
+     */
+    private boolean commit(WriteBatch batch) {
+        try {
+            this.BlockDB.write(batch, new WriteOptions().sync(this.SyncOnCommit)); // Write batch
+        } catch (DBException e) { // Catch
+            if (!CommonIO.StdoutSilenced) { // Check can print
+                e.printStackTrace(); // Print stack trace
+            }
+
+            return false; // Failed
+        } finally {
+            closeBatch(batch); // Close batch
+        }
+
+        return true; // Success
+    }
+
+    /**
+     * Close a given batch, ignoring any errors.
+     *
+     * @param batch batch to close
+     */
+    private static void closeBatch(WriteBatch batch) {
+        try {
+            batch.close(); // Close batch
+        } catch (IOException e) { // Catch
+            if (!CommonIO.StdoutSilenced) { // Check can print
+                e.printStackTrace(); // Print stack trace
+            }
+        }
+    }
+
+    /**
+     * Wait for every commit so far to reach disk. Commits made without
+     * SyncOnCommit survive a process crash but may be lost if the machine
+     * crashes before this returns.
+     *
+     * @return whether the block db was flushed
+     */
+    public synchronized boolean Flush() {
+        if (this.BlockDB == null) { // Check no block db
+            return false; // Failed
+        }
+
+        WriteBatch batch = this.BlockDB.createWriteBatch(); // Init empty batch
+
+        try {
+            this.BlockDB.write(batch, new WriteOptions().sync(true)); // Sync log
+        } catch (DBException e) { // Catch
+            return false; // Failed
+        } finally {
+            closeBatch(batch); // Close batch
+        }
+
+        return true; // Success
+    }
+
+    /**
+     * Cache a given chain head.
+     *
+     * @param block           new chain head
+     * @param height          height of the new chain head
+     * @param totalDifficulty total difficulty at the new chain head
+     */
+    private void setHead(Block block, long height, long totalDifficulty) {
+        this.head = block; // Set head
+        this.HeadHash = block.Hash; // Set head hash
+        this.Height = height; // Set height
+        this.TotalDifficulty = totalDifficulty; // Set difficulty
+    }
+
+    /**
+     * Get a block with a given hash.
+     *
+     * @param hash hash of the block
+     * @return found block (null if not found)
+     */
+    public Block GetBlockByHash(byte[] hash) {
+        byte[] rawBlock = this.BlockDB.get(CommonDB.BlockKey(hash)); // Get block
+
+        if (rawBlock == null) { // Check not found
+            return null; // Not found
+        }
+
+        return Block.ReadStored(rawBlock); // Return block
+    }
+
+    /**
+     * Get the canonical block at a given height.
+     *
+     * @param height height of the block
+     * @return found block (null if not found)
+     */
+    public Block GetBlockByHeight(long height) {
+        byte[] hash = this.BlockDB.get(CommonDB.HeightKey(height)); // Get block hash
+
+        if (hash == null) { // Check not found
+            return null; // Not found
+        }
+
+        return this.GetBlockByHash(hash); // Return block
+    }
+
+    /**
+     * Check whether a block with a given hash is stored, on the canonical chain or
+     * a side chain.
+     *
+     * @param hash hash of the block
+     * @return whether the block is stored
+     */
+    public boolean HasBlock(byte[] hash) {
+        return this.BlockDB.get(CommonDB.BlockMetaKey(hash)) != null; // Check has metadata
+    }
+
+    /**
+     * Get the total difficulty of the chain ending at a stored block (canonical or not).
+     *
+     * @param hash hash of the block
+     * @return fixed point total difficulty (-1 if not found)
+     */
+    public long GetTotalDifficulty(byte[] hash) {
+        byte[] meta = this.BlockDB.get(CommonDB.BlockMetaKey(hash)); // Get metadata
+
+        return meta == null ? -1 : metaTotalDifficulty(meta); // Return difficulty
+    }
+
+    /**
+     * Get the height of a canonical block with a given hash.
+     *
+     * @param hash hash of the block
+     * @return block height (-1 if not found or not canonical)
+     */
+    public long GetBlockHeight(byte[] hash) {
+        byte[] rawHeight = this.BlockDB.get(CommonDB.HashHeightKey(hash)); // Get height
+
+        if (rawHeight == null) { // Check not found
+            return -1; // Not found
+        }
+
+        return CommonDB.DecodeLong(rawHeight, 0); // Return height
+    }
+
+    /**
+     * Iterate through the canonical chain in height order. The returned iterator must
+     * be closed.
+     *
+     * @param startHeight first height to return
+     * @param endHeight   last height to return (inclusive)
+     * @return block iterator
+     */
+    public BlockIterator IterateBlocks(long startHeight, long endHeight) {
+        return new BlockIterator(this.BlockDB, startHeight, endHeight); // Return iterator
+    }
+
+    /**
+     * Get all canonical blocks in a given height range.
+     *
+     * @param startHeight first height to return
+     * @param endHeight   last height to return (inclusive)
+     * @return found blocks
+     */
+    public List<Block> GetBlocksInRange(long startHeight, long endHeight) {
+        List<Block> blocks = new ArrayList<Block>(); // Init block buffer
+
+        BlockIterator iterator = this.IterateBlocks(startHeight, endHeight); // Get iterator
+
+        while (iterator.hasNext()) { // Iterate through blocks
+            blocks.add(iterator.next()); // Add block
+        }
+
+        try {
+            iterator.close(); // Close iterator
+        } catch (IOException e) { // Catch
+            if (!CommonIO.StdoutSilenced) { // Check can print
+                e.printStackTrace(); // Print stack trace
+            }
+        }
+
+        return blocks; // Return blocks
     }
 
     /**
@@ -162,6 +949,8 @@ public class Blockchain {
             options.createIfMissing(true); // Set options
 
             this.BlockDB = factory.open(new File(CommonIO.DbPath + "/" + this.Config.Chain), options); // Open DB
+
+            this.head = null; // Reset cached head
         } catch (IOException e) {
             if (!CommonIO.StdoutSilenced) { // Check can print
                 e.printStackTrace(); // Log stack trace
@@ -179,6 +968,9 @@ public class Blockchain {
     public boolean CloseBlockDB() {
         try {
             this.BlockDB.close(); // Close db
+
+            this.BlockDB = null; // Reset block db
+            this.head = null; // Reset cached head
         } catch (IOException e) {
             if (!CommonIO.StdoutSilenced) { // Check can print
                 e.printStackTrace(); // Log stack trace
@@ -191,26 +983,140 @@ public class Blockchain {
     }
 
     /**
-     * Generate a new block.
+     * Generate a new block. If the chain has a StateDB and the block extends the
+     * head, the block's state root is set too.
      * 
      * @param parent working block to generate from
      * @param transactions transactions to put in block (usually from mempool)
      * @return generated block
      */
     public Block CreateNewBlock(Block parent, Transaction[] transactions, long nonce) {
-        long time = System.currentTimeMillis() / 1000; // Get block time
+        Block block = newBlock(parent, transactions, Block.HashTransactionSum(transactions), nonce); // Initialize block
+
+        StateTransition state = this.State; // Get derived state
 
-        if (parent.Timestamp >= time) { // Check invalid time
-            time = parent.Timestamp + 1; // Adjust time to parent block
+        if (state instanceof StateDB && java.util.Arrays.equals(parent.Hash, this.HeadHash)) { // Check state root known
+            block.StateRoot = ((StateDB) state).RootAfter(transactions); // Set state root
         }
 
-        return new Block(
+        return block; // Return initialized block
+    }
+
+    /**
+     * Generate a new block on top of a given parent from a transaction set whose
+     * merkle root is already known, without setting its state root.
+     *
+     * @param parent       working block to generate from
+     * @param transactions transactions to put in block
+     * @param merkleRoot   merkle root of the transactions
+     * @param nonce        block pow nonce
+     * @return generated block
+     */
+    Block newBlock(Block parent, Transaction[] transactions, byte[] merkleRoot, long nonce) {
+        long[] window = this.TimestampWindow(parent); // Get parent timestamp window
+
+        long time = Math.max(System.currentTimeMillis() / 1000,
+                Math.max(parent.Timestamp, DifficultyRetarget.MedianTime(window)) + 1); // Get block time (past parent, window median)
+
+        Block block = new Block(
             transactions,
+            merkleRoot,
             parent.Hash,
             CommonCoin.MinerCoinbase,
-            CalculateDifficulty(parent, time),
+            this.Retarget().Next(parent.Difficulty, window, time),
             nonce
-        ); // Return initialized block
+        ); // Initialize block
+
+        block.Timestamp = time; // Set block time
+
+        return block; // Return initialized block
+    }
+
+    /**
+     * Calculate the difficulty of a new block on top of a given parent, using
+     * the chain's retarget rule.
+     *
+     * @param parent    parent block (stored, or the parent is the genesis block)
+     * @param blockTime time of the new block
+     * @return difficulty of the new block
+     */
+    public float NextDifficulty(Block parent, long blockTime) {
+        return this.Retarget().Next(parent.Difficulty, this.TimestampWindow(parent), blockTime); // Calculate difficulty
+    }
+
+    /**
+     * Get the chain's difficulty retarget rule.
+     *
+     * @return retarget rule
+     */
+    public DifficultyRetarget Retarget() {
+        DifficultyRetarget retarget = this.retarget; // Get rule
+
+        if (retarget == null) { // Check not initialized
+            retarget = this.Config == null ? DifficultyRetarget.Default : new DifficultyRetarget(this.Config); // Init rule
+
+            this.retarget = retarget; // Set rule
+        }
+
+        return retarget; // Return rule
+    }
+
+    /**
+     * Get the timestamps of a given block and its most recent ancestors, oldest
+     * first, as used to retarget the difficulty of its children. Windows are
+     * cached, so following the chain block by block reads no ancestors from the
+     * block db. The returned array must not be modified.
+     *
+     * @param block block ending the window
+     * @return timestamp window (shorter than the retarget window near genesis)
+     */
+    public long[] TimestampWindow(Block block) {
+        DifficultyRetarget retarget = this.Retarget(); // Get rule
+
+        if (retarget.Window == 1 || block.Hash == null) { // Check parent only
+            return new long[] { block.Timestamp }; // Return window
+        }
+
+        ByteKey key = new ByteKey(block.Hash); // Get block key
+
+        synchronized (this.windows) {
+            long[] window = this.windows.get(key); // Get cached window
+
+            if (window != null) { // Check cached
+                return window; // Return window
+            }
+
+            long[] parentWindow = block.ParentHash == null ? null : this.windows.get(new ByteKey(block.ParentHash)); // Get cached parent window
+
+            window = parentWindow != null ? retarget.Push(parentWindow, block.Timestamp) : this.readWindow(block); // Make window
+
+            this.windows.put(key, window); // Cache window
+
+            return window; // Return window
+        }
+    }
+
+    /**
+     * Read the timestamp window ending at a given block from the block db.
+     *
+     * @param block block ending the window
+     * @return timestamp window
+     */
+    private long[] readWindow(Block block) {
+        int size = this.Retarget().Window; // Get window size
+
+        long[] window = new long[size]; // Init window
+        int count = 0; // Init timestamp count
+
+        for (Block current = block; current != null && count < size;) { // Walk back through ancestors
+            window[size - 1 - count] = current.Timestamp; // Add timestamp
+            count++; // Count timestamp
+
+            current = current.ParentHash == null || current.ParentHash.length == 0 || this.BlockDB == null ? null
+                    : this.GetBlockByHash(current.ParentHash); // Move to parent
+        }
+
+        return java.util.Arrays.copyOfRange(window, size - count, size); // Return filled window
     }
 
     /**
@@ -235,40 +1141,43 @@ public class Blockchain {
     }
 
     /**
-     * Write blockchain db header to persistent memory.
+     * Write blockchain db header to persistent memory. The block db stays open:
+     * committed blocks are flushed to disk, then the header is written to a
+     * temporary file and moved over the old one, so a crash leaves either the old
+     * or the new header.
      * 
      * @return whether the operation was successful
      */
     public boolean WriteToMemory() {
-        try {
-            this.BlockDB.close(); // Close block db
-
-            this.BlockDB = null; // Reset block db
-        } catch (IOException e) {
-            if (!CommonIO.StdoutSilenced) { // Check can print
-                e.printStackTrace(); // Print stack trace
-            }
+        if (this.BlockDB != null && !this.Flush()) { // Flush committed blocks
+            return false; // Failed
         }
 
         Gson gson = new GsonBuilder().setPrettyPrinting().create(); // Init gson
 
         CommonIO.MakeDirIfNotExist(CommonIO.DbPath + "/" + this.Config.Chain); // Make db header path
 
+        File dbHeaderFile = new File(CommonIO.DbPath + "/" + this.Config.Chain + "/db_header.json"); // Init file
+        File tempFile = new File(dbHeaderFile.getPath() + ".tmp"); // Init temporary file
+
         try {
-            FileWriter writer = new FileWriter(CommonIO.DbPath + "/" + this.Config.Chain + "/db_header.json"); // Init writer
+            FileWriter writer = new FileWriter(tempFile); // Init writer
 
-            gson.toJson(this, writer); // Write gson
+            try {
+                gson.toJson(this, writer); // Write gson
+            } finally {
+                writer.close(); // Close writer
+            }
 
-            writer.close(); // Close writer
+            Files.move(tempFile.toPath(), dbHeaderFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE); // Replace header
         } catch (IOException e) { // Catch
             if (!CommonIO.StdoutSilenced) { // Check can print
                 e.printStackTrace(); // Log stack trace
-
-                return false; // Failed
             }
-        }
 
-        this.OpenBlockDB(); // Open block db
+            return false; // Failed
+        }
 
         return true; // Success
     }
@@ -297,19 +1206,86 @@ public class Blockchain {
 
         Block genesisBlock = new Block(transactions, new byte[0], CommonCoin.MinerCoinbase, chainConfig.Difficulty, 0); // Create block
 
-        Block difficultySpawnBlock = new Block(new Transaction[0], new byte[0], new byte[0], chainConfig.Difficulty, 0); // Create chain difficulty spawn block
+        genesisBlock.StateRoot = StateDB.GenesisRoot(transactions); // Set state root
 
-        while (!Blockchain.VerifyBlockNonce(genesisBlock)) { // Calculate nonce
-            genesisBlock.Nonce++; // Increment nonce
-            genesisBlock.Timestamp = System.currentTimeMillis() / 1000; // Set timestamp
-            genesisBlock.Difficulty = Blockchain.CalculateDifficulty(difficultySpawnBlock, genesisBlock.Timestamp); // Set difficulty
-        }
+        genesisBlock.Difficulty = new DifficultyRetarget(chainConfig).Next(chainConfig.Difficulty,
+                new long[] { genesisBlock.Timestamp }, genesisBlock.Timestamp); // Retarget from the configured difficulty
+
+        Miner miner = new Miner(Runtime.getRuntime().availableProcessors()); // Init miner
 
-        genesisBlock.Hash = Sha.Sha3(genesisBlock.Bytes()); // Hash
+        miner.Mine(genesisBlock); // Calculate nonce
+
+        miner.Shutdown(); // Stop miner
 
         return genesisBlock; // Return initialized genesis block
     }
 
+    /**
+     * Verify that a given header extends a given parent under the default,
+     * parent-only retarget rule (see VerifyHeader).
+     *
+     * @param parent parent block (or header)
+     * @param header header to check
+     * @return whether the header extends the parent
+     */
+    public static boolean VerifyHeader(Block parent, Block header) {
+        return VerifyHeader(DifficultyRetarget.Default, new long[] { parent.Timestamp }, parent, header); // Verify
+    }
+
+    /**
+     * Verify that a given header extends a given parent: it must link to the
+     * parent's hash, be timestamped after the median timestamp of the window,
+     * carry the difficulty retargeted from the parent for its timestamp, and have
+     * a valid proof of work. Transactions aren't checked, so this works on
+     * headers downloaded without their bodies.
+     *
+     * @param retarget chain retarget rule
+     * @param window   timestamp window ending at the parent (see TimestampWindow)
+     * @param parent   parent block (or header)
+     * @param header   header to check
+     * @return whether the header extends the parent
+     */
+    public static boolean VerifyHeader(DifficultyRetarget retarget, long[] window, Block parent, Block header) {
+        if (header.Difficulty == null || !java.util.Arrays.equals(header.ParentHash, parent.Hash)) { // Check doesn't link to parent
+            return false; // Invalid
+        }
+
+        if (header.Timestamp <= DifficultyRetarget.MedianTime(window)) { // Check not past window median
+            return false; // Invalid
+        }
+
+        if (Float.compare(header.Difficulty, retarget.Next(parent.Difficulty, window, header.Timestamp)) != 0) { // Check wrong difficulty
+            return false; // Invalid
+        }
+
+        return VerifyBlockNonce(header); // Verify proof of work
+    }
+
+    /**
+     * Verify that a given block's hash is the hash of its contents, and that each
+     * of its transactions' hashes (which its merkle root and proof of work commit
+     * to) is the hash of that transaction's contents. Blocks are stored and
+     * indexed by this hash, so it must not be taken on trust.
+     *
+     * @param block block to check
+     * @return whether the block hash is valid
+     */
+    public static boolean VerifyBlockHash(Block block) {
+        if (block.Hash == null || !java.util.Arrays.equals(block.Hash, Sha.Sha3(block.BytesHashSafe()))) { // Check invalid block hash
+            return false; // Invalid
+        }
+
+        if (block.Transactions != null) { // Check has transactions
+            for (Transaction transaction : block.Transactions) { // Iterate through transactions
+                if (!Transaction.VerifyTransactionHash(transaction)) { // Check invalid transaction hash
+                    return false; // Invalid
+                }
+            }
+        }
+
+        return true; // Valid
+    }
+
     /**
      * Verify block difficulty matches current block nonce.
      * 
@@ -317,45 +1293,105 @@ public class Blockchain {
      * @return validity of block hash
      */
     public static boolean VerifyBlockNonce(Block block) {
-        if (Float.isInfinite(block.Difficulty)) { // Check invalid difficulty
+        return VerifyNonce(block.HeaderDigest(), block.Nonce, CalculateTarget(block.Difficulty)); // Verify
+    }
+
+    /**
+     * Verify a nonce against a precomputed header digest and target. Allocation-free:
+     * hashes a fixed-size per-thread buffer, then compares against the target.
+     *
+     * @param headerDigest nonce-free header digest (see Block.HeaderDigest)
+     * @param nonce        nonce to check
+     * @param target       target hash (see CalculateTarget)
+     * @return whether the nonce is valid
+     */
+    public static boolean VerifyNonce(byte[] headerDigest, long nonce, byte[] target) {
+        NonceHasher hasher = nonceHashers.get(); // Get working thread's hasher
+
+        return CommonByteCmp.compareTo(hasher.Hash(headerDigest, nonce), 0, 32, target, 0, 32) < 0; // Compare
+    }
+
+    /**
+     * Calculate the 32 byte target hash a block of a given difficulty must fall under.
+     * Targets are cached per difficulty; the returned array must not be modified.
+     *
+     * @param difficulty block difficulty
+     * @return target hash
+     */
+    public static byte[] CalculateTarget(Float difficulty) {
+        if (Float.isInfinite(difficulty)) { // Check invalid difficulty
             throw new RuntimeException("block difficulty overflow--block difficulty is infinite"); // Panic
         }
 
-        BigInteger max = BigInteger.valueOf(2).pow(255); // Get max difficulty
-        byte[] target = BigIntegers.asUnsignedByteArray(32, max.divide(new BigInteger(1, Long.toHexString(block.Difficulty.longValue()).getBytes()))); // Calculate target difficulty hash
+        long targetDifficulty = difficulty.longValue(); // Targets only depend on the integer difficulty
 
-        byte[] blockHash = Sha.Sha3(block.BytesWithoutNonce()); // Get block hash
+        byte[] target = targetCache.get(targetDifficulty); // Get cached target
 
-        byte[] concatenated = Arrays.concatenate(blockHash, ByteBuffer.allocate(4).putFloat(block.Nonce).array()); // Get concatenated
+        if (target != null) { // Check cached
+            return target; // Return target
+        }
+
+        target = BigIntegers.asUnsignedByteArray(32, MaxTarget.divide(new BigInteger(1, Long.toHexString(targetDifficulty).getBytes()))); // Calculate target difficulty hash
+
+        if (targetCache.size() >= TargetCacheSize) { // Check cache full
+            targetCache.clear(); // Reset cache
+        }
 
-        byte[] hash = Sha.Sha3(concatenated); // Calculate hash
+        targetCache.put(targetDifficulty, target); // Cache target
 
-        return (CommonByteCmp.compareTo(hash, 0, 32, target, 0, 32) < 0);
+        return target; // Return target
     }
 
     /**
-     * Calculate the difficulty of a new block, given a parent block, parent.
-     * 
-     * @param parent working block to calculate from
-     * @return calculated difficulty
+     * NonceHasher holds the reusable buffers for hashing a header digest with a nonce.
      */
-    public static float CalculateDifficulty(Block parent, long blockTime) {
-        BigInteger x = BigInteger.valueOf(0l); // Init x
-        BigDecimal y = BigDecimal.valueOf(0l); // Init y
+    private static class NonceHasher {
+        /* Reusable sha3 digest */
+        private final SHA3Digest digest = new SHA3Digest(512);
+
+        /* Reusable digest || nonce input */
+        private final byte[] input = new byte[64 + 4];
+
+        /* Reusable hash output */
+        private final byte[] output = new byte[64];
+
+        /**
+         * Hash a header digest with a nonce (encoded as a big-endian float).
+         *
+         * @param headerDigest nonce-free header digest
+         * @param nonce        nonce
+         * @return hash (reused across calls on the same thread)
+         */
+        byte[] Hash(byte[] headerDigest, long nonce) {
+            int bits = Float.floatToIntBits(nonce); // Get nonce bits
+
+            System.arraycopy(headerDigest, 0, this.input, 0, 64); // Copy digest
 
-        x = BigInteger.valueOf(Math.round(blockTime - parent.Timestamp)); // Calculate block time difference
-        x = x.divide(BigInteger.valueOf(10l)); // Weird mem allocations
-        x = BigInteger.valueOf(1l).subtract(x); // More weird mem allocations
+            this.input[64] = (byte) (bits >>> 24); // Write nonce
+            this.input[65] = (byte) (bits >>> 16);
+            this.input[66] = (byte) (bits >>> 8);
+            this.input[67] = (byte) bits;
 
-        if (x.compareTo(BigInteger.valueOf(-99l)) < 0) {
-            x = BigInteger.valueOf(-99l); // max(1 - (block_timestamp - parent_timestamp) // 10, -99)
+            this.digest.update(this.input, 0, this.input.length); // Hash
+            this.digest.doFinal(this.output, 0);
+
+            return this.output; // Return hash
         }
+    }
 
-        y = BigDecimal.valueOf(parent.Difficulty / 2048); // parent_diff // 2048
-        
-        BigDecimal finalX = y.multiply(BigDecimal.valueOf(x.floatValue())); // Multiply
-        finalX = finalX.add(BigDecimal.valueOf(parent.Difficulty)); // Add parent_diff
+    /**
+     * Calculate the difficulty of a new block, given a parent block, parent, under
+     * the default, parent-only retarget rule (see NextDifficulty for a chain's
+     * own rule).
+     * 
+     * @param parent    working block to calculate from
+     * @param blockTime time of the new block
+     * @return calculated difficulty
+     */
+    public static float CalculateDifficulty(Block parent, long blockTime) {
+        DifficultyRetarget retarget = DifficultyRetarget.Default; // Get rule
 
-        return finalX.floatValue(); // Return calculated difficulty
+        return DifficultyRetarget.ToFloat(retarget.Next(DifficultyRetarget.ToFixed(parent.Difficulty), parent.Timestamp, 1,
+                blockTime)); // Return calculated difficulty
     }
 }
\ No newline at end of file
@@ -0,0 +1,214 @@
+package com.dowlandaiello.gitchain.types;
+
+import com.dowlandaiello.gitchain.config.ChainConfig;
+
+/**
+ * DifficultyRetarget derives the difficulty of a new block from its parent's
+ * difficulty and the timestamps of its most recent ancestors.
+ *
+ * The step follows the homestead rule: difficulty moves by parent_diff // 2048
+ * per block, up when blocks come faster than the block interval and down (by
+ * up to 99 steps) when they come slower. Instead of the parent's timestamp
+ * alone, block time is measured from the median timestamp of the last Window
+ * blocks, so a single miner skewing its timestamp can't swing the difficulty.
+ * A window of one is the original parent-only rule.
+ *
+ * Difficulties are computed in fixed point (Q47.16 longs, see One) with
+ * primitive arithmetic only, saturating at MaxDifficulty instead of
+ * overflowing. Block headers carry difficulty as a float; ToFixed and ToFloat
+ * convert between the two deterministically.
+ */
+public class DifficultyRetarget {
+    /* Number of fractional bits in a fixed point difficulty */
+    public static final int FractionBits = 16;
+
+    /* Fixed point difficulty 1 */
+    public static final long One = 1L << FractionBits;
+
+    /* Log2 of the fraction of the parent difficulty moved per step */
+    public static final int StepBits = 11;
+
+    /* Smallest fixed point difficulty (the smallest that still moves a step) */
+    public static final long MinDifficulty = 1L << StepBits;
+
+    /* Largest fixed point difficulty */
+    public static final long MaxDifficulty = Long.MAX_VALUE;
+
+    /* Max number of steps difficulty drops by in one block */
+    public static final long MaxDecrease = 99;
+
+    /* Block interval used when a chain config doesn't set one */
+    public static final int DefaultBlockInterval = 10;
+
+    /* Window used when a chain config doesn't set one (the parent only) */
+    public static final int DefaultWindow = 1;
+
+    /* Parent-only retarget at the default block interval */
+    public static final DifficultyRetarget Default = new DifficultyRetarget(DefaultBlockInterval, DefaultWindow);
+
+    /* Targeted time in seconds between blocks */
+    public final int BlockInterval;
+
+    /* Number of most recent block timestamps block time is measured from */
+    public final int Window;
+
+    /**
+     * Initialize a new retarget from a given chain config, falling back to the
+     * defaults for unset fields.
+     *
+     * @param chainConfig chain config
+     */
+    public DifficultyRetarget(ChainConfig chainConfig) {
+        this(chainConfig.BlockInterval > 0 ? chainConfig.BlockInterval : DefaultBlockInterval,
+                chainConfig.RetargetWindow > 0 ? chainConfig.RetargetWindow : DefaultWindow); // Init retarget
+    }
+
+    /**
+     * Initialize a new retarget.
+     *
+     * @param blockInterval targeted time in seconds between blocks
+     * @param window        number of most recent block timestamps to measure from
+     */
+    public DifficultyRetarget(int blockInterval, int window) {
+        if (blockInterval < 1 || window < 1) { // Check invalid config
+            throw new IllegalArgumentException("block interval and retarget window must be positive"); // Panic
+        }
+
+        this.BlockInterval = blockInterval; // Set block interval
+        this.Window = window; // Set window
+    }
+
+    /**
+     * Calculate the difficulty of a new block.
+     *
+     * @param parentDifficulty difficulty of the parent block
+     * @param window           timestamps of the parent and its ancestors, oldest
+     *                         first (see Push)
+     * @param blockTime        time of the new block
+     * @return difficulty of the new block
+     */
+    public float Next(Float parentDifficulty, long[] window, long blockTime) {
+        return ToFloat(this.Next(ToFixed(parentDifficulty), MedianTime(window), window.length, blockTime)); // Calculate difficulty
+    }
+
+    /**
+     * Calculate the fixed point difficulty of a new block.
+     *
+     * @param parentDifficulty fixed point difficulty of the parent block
+     * @param medianTime       median timestamp of the window
+     * @param count            number of timestamps in the window
+     * @param blockTime        time of the new block
+     * @return fixed point difficulty of the new block
+     */
+    public long Next(long parentDifficulty, long medianTime, int count, long blockTime) {
+        long difficulty = Math.max(parentDifficulty, MinDifficulty); // Clamp parent difficulty
+        long step = difficulty >> StepBits; // parent_diff // 2048
+
+        long elapsed = blockTime > medianTime ? blockTime - medianTime : 0; // Get time since median
+        if (elapsed < 0) { // Check overflowed
+            elapsed = Long.MAX_VALUE; // Saturate
+        }
+
+        long blocks = Math.max(1, count - (count - 1) / 2); // Get blocks since median
+        long intervals = elapsed / (blocks * this.BlockInterval); // Get elapsed block intervals per block
+
+        if (intervals == 0) { // Check faster than interval
+            return difficulty > MaxDifficulty - step ? MaxDifficulty : difficulty + step; // Step up (saturating)
+        }
+
+        long steps = Math.min(intervals - 1, MaxDecrease); // max(1 - intervals, -99), negated
+
+        return Math.max(difficulty - step * steps, MinDifficulty); // Step down
+    }
+
+    /**
+     * Append a block timestamp to a window, dropping the oldest timestamp once
+     * the window is full.
+     *
+     * @param window    window to append to (not modified)
+     * @param timestamp timestamp of the next block
+     * @return new window
+     */
+    public long[] Push(long[] window, long timestamp) {
+        int kept = Math.min(window.length, this.Window - 1); // Get kept timestamps
+
+        long[] next = new long[kept + 1]; // Init window
+
+        System.arraycopy(window, window.length - kept, next, 0, kept); // Copy newest timestamps
+        next[kept] = timestamp; // Append timestamp
+
+        return next; // Return window
+    }
+
+    /**
+     * Get the median of a given set of timestamps (the lower median for an even
+     * count). Allocation-free.
+     *
+     * @param timestamps timestamps (not modified)
+     * @return median timestamp
+     */
+    public static long MedianTime(long[] timestamps) {
+        if (timestamps.length == 0) { // Check empty window
+            throw new IllegalArgumentException("retarget window must not be empty"); // Panic
+        }
+
+        int rank = (timestamps.length - 1) / 2; // Get median rank
+
+        for (long candidate : timestamps) { // Iterate through candidates
+            int below = 0; // Init smaller timestamps
+            int equal = 0; // Init equal timestamps
+
+            for (long timestamp : timestamps) { // Iterate through timestamps
+                if (timestamp < candidate) { // Check smaller
+                    below++; // Count smaller
+                } else if (timestamp == candidate) { // Check equal
+                    equal++; // Count equal
+                }
+            }
+
+            if (below <= rank && rank < below + equal) { // Check candidate has median rank
+                return candidate; // Return median
+            }
+        }
+
+        throw new IllegalStateException("no median"); // Unreachable
+    }
+
+    /**
+     * Convert a header difficulty to fixed point, saturating at MaxDifficulty.
+     *
+     * @param difficulty header difficulty
+     * @return fixed point difficulty (0 if unset, negative, or NaN)
+     */
+    public static long ToFixed(Float difficulty) {
+        if (difficulty == null || !(difficulty > 0)) { // Check unset, negative, NaN
+            return 0; // No difficulty
+        }
+
+        return Math.round((double) difficulty * One); // Convert (Math.round saturates)
+    }
+
+    /**
+     * Convert a fixed point difficulty to a header difficulty.
+     *
+     * @param difficulty fixed point difficulty
+     * @return header difficulty
+     */
+    public static float ToFloat(long difficulty) {
+        return (float) ((double) difficulty / One); // Convert
+    }
+
+    /**
+     * Add the difficulty of a block to a fixed point total difficulty, saturating
+     * instead of overflowing.
+     *
+     * @param totalDifficulty fixed point total difficulty
+     * @param difficulty      header difficulty of the block
+     * @return new fixed point total difficulty
+     */
+    public static long AddWork(long totalDifficulty, Float difficulty) {
+        long work = ToFixed(difficulty); // Get block work
+
+        return totalDifficulty > Long.MAX_VALUE - work ? Long.MAX_VALUE : totalDifficulty + work; // Add work (saturating)
+    }
+}
@@ -0,0 +1,479 @@
+package com.dowlandaiello.gitchain.types;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ImportPipeline imports a stream of blocks (e.g. bodies downloaded during
+ * sync) in stages connected by bounded queues, so consecutive blocks are in
+ * different stages at once:
+ *
+ * 1. decode: a single thread decodes each block and hands it to the checkers;
+ * 2. stateless checks: a pool of checkers verifies each block's hash, proof of
+ *    work, merkle root, transaction hashes, and (if a verifier is given)
+ *    transaction signatures in parallel;
+ * 3. contextual checks and state: a single importer takes checked blocks in
+ *    submission order, checks each against its parent (retargeted difficulty
+ *    and timestamp, see Blockchain.VerifyHeader), and applies every block
+ *    already checked (up to MaxBatch) on top of the chain head;
+ * 4. commit: each such run of blocks is committed in a single batch.
+ *
+ * Stages 3 and 4 run on the importer, since a run can only be applied once the
+ * state of the run before it is current; decoding and checking later blocks
+ * overlap with both. Submitters block while the queues are full.
+ *
+ * The pipeline stops at the first block that fails a check or can't be added;
+ * later blocks are dropped.
+ */
+public class ImportPipeline {
+    /* Default max number of blocks waiting between two stages */
+    public static final int DefaultQueueSize = 256;
+
+    /* Default max number of blocks committed in a single batch */
+    public static final int DefaultMaxBatch = 64;
+
+    /* Chain blocks are imported into */
+    public final Blockchain Chain;
+
+    /* Max number of blocks committed in a single batch */
+    public final int MaxBatch;
+
+    /* Marks the end of the submitted blocks */
+    private static final Item End = new Item(null, null);
+
+    /* Verifier transaction signatures are checked with (null if unchecked) */
+    private final SignatureVerifier verifier;
+
+    /* Pool stateless checks run on */
+    private final ExecutorService checkers;
+
+    /* Blocks waiting to be decoded */
+    private final BlockingQueue<Item> decodeQueue;
+
+    /* Blocks being checked, in submission order */
+    private final BlockingQueue<Item> checkQueue;
+
+    /* Decoding thread */
+    private final Thread decoder;
+
+    /* Importing thread */
+    private final Thread importer;
+
+    /* Number of blocks added */
+    private final AtomicLong added = new AtomicLong();
+
+    /* Whether a block was rejected (later blocks are dropped) */
+    private volatile boolean stopped;
+
+    /* Whether the end of the submitted blocks was marked */
+    private boolean finished;
+
+    /* Last block that passed contextual checks (importer only) */
+    private Block previous;
+
+    /* Timestamps of the last block that passed contextual checks and its ancestors (importer only) */
+    private long[] window;
+
+    /**
+     * Initialize a new import pipeline with a checker per core, default queue
+     * and batch sizes, and signatures checked through the chain's verifier.
+     *
+     * @param chain chain to import into
+     */
+    public ImportPipeline(Blockchain chain) {
+        this(chain, chain.Verifier, Runtime.getRuntime().availableProcessors(), DefaultQueueSize, DefaultMaxBatch); // Init pipeline
+    }
+
+    /**
+     * Initialize and start a new import pipeline.
+     *
+     * @param chain     chain to import into
+     * @param verifier  verifier to check transaction signatures with (null to skip)
+     * @param checkers  number of stateless checking threads
+     * @param queueSize max number of blocks waiting between two stages
+     * @param maxBatch  max number of blocks committed in a single batch
+     */
+    public ImportPipeline(Blockchain chain, SignatureVerifier verifier, int checkers, int queueSize, int maxBatch) {
+        if (checkers < 1 || queueSize < 1 || maxBatch < 1) { // Check invalid config
+            throw new IllegalArgumentException("import pipeline checkers, queue size, and batch size must be positive"); // Panic
+        }
+
+        this.Chain = chain; // Set chain
+        this.MaxBatch = maxBatch; // Set max batch
+        this.verifier = verifier; // Set verifier
+        this.checkers = Executors.newFixedThreadPool(checkers, daemonThreads("import-check")); // Init checkers
+        this.decodeQueue = new ArrayBlockingQueue<Item>(queueSize); // Init decode queue
+        this.checkQueue = new ArrayBlockingQueue<Item>(queueSize); // Init check queue
+
+        this.decoder = daemonThreads("import-decode").newThread(new Runnable() {
+            @Override
+            public void run() {
+                decode(); // Run decode stage
+            }
+        }); // Init decoder
+        this.importer = daemonThreads("import-apply").newThread(new Runnable() {
+            @Override
+            public void run() {
+                importBlocks(); // Run import stage
+            }
+        }); // Init importer
+
+        this.decoder.start(); // Start decoder
+        this.importer.start(); // Start importer
+    }
+
+    /**
+     * Submit an encoded block, waiting while the pipeline is full.
+     *
+     * @param rawBlock encoded block
+     * @return whether the block was queued (false once the pipeline stopped)
+     */
+    public boolean Submit(byte[] rawBlock) {
+        return this.submit(new Item(rawBlock, null)); // Queue block
+    }
+
+    /**
+     * Submit a decoded block, waiting while the pipeline is full.
+     *
+     * @param block block
+     * @return whether the block was queued (false once the pipeline stopped)
+     */
+    public boolean Submit(Block block) {
+        return this.submit(new Item(null, block)); // Queue block
+    }
+
+    /**
+     * Mark the end of the submitted blocks, wait for every queued block to be
+     * imported (or dropped), and stop the pipeline.
+     *
+     * @return number of blocks added
+     */
+    public long Finish() {
+        synchronized (this) {
+            if (!this.finished) { // Check not marked yet
+                this.finished = true; // Mark finished
+
+                this.put(this.decodeQueue, End); // Mark end
+            }
+        }
+
+        try {
+            this.importer.join(); // Wait for importer
+        } catch (InterruptedException e) { // Catch
+            Thread.currentThread().interrupt(); // Restore interrupt
+        }
+
+        this.checkers.shutdown(); // Stop checkers
+
+        return this.added.get(); // Return added blocks
+    }
+
+    /**
+     * Get the number of blocks added so far.
+     *
+     * @return number of blocks added
+     */
+    public long Added() {
+        return this.added.get(); // Return added blocks
+    }
+
+    /**
+     * Check whether the pipeline stopped at a rejected block.
+     *
+     * @return whether a block was rejected
+     */
+    public boolean Stopped() {
+        return this.stopped; // Return stopped
+    }
+
+    /**
+     * Check a block without any chain context: its hash and its transactions'
+     * hashes must match their contents, its proof of work its difficulty, and its
+     * merkle root its transactions.
+     * Signatures are checked for every transaction with a sender (mints have none)
+     * if a verifier is given.
+     *
+     * @param block    block to check
+     * @param verifier verifier to check transaction signatures with (null to skip)
+     * @return whether the block is valid on its own
+     */
+    public static boolean CheckStateless(Block block, SignatureVerifier verifier) {
+        if (block == null || block.Hash == null || block.ParentHash == null || block.Transactions == null) { // Check incomplete
+            return false; // Invalid
+        }
+
+        if (!Blockchain.VerifyBlockHash(block) || !Blockchain.VerifyBlockNonce(block)) { // Check hashes, proof of work
+            return false; // Invalid
+        }
+
+        if (!Arrays.equals(block.MerkleRoot, Block.HashTransactionSum(block.Transactions))) { // Check merkle root
+            return false; // Invalid
+        }
+
+        return verifier == null || verifier.VerifyBlock(block); // Check signatures
+    }
+
+    /**
+     * Queue a submitted block for decoding.
+     *
+     * @param item submitted block
+     * @return whether the block was queued
+     */
+    private synchronized boolean submit(Item item) {
+        if (this.stopped || this.finished) { // Check stopped
+            return false; // Dropped
+        }
+
+        return this.put(this.decodeQueue, item); // Queue block
+    }
+
+    /**
+     * Run the decode stage: decode each submitted block and start its checks.
+     */
+    private void decode() {
+        while (true) { // Decode until done
+            Item item = this.take(this.decodeQueue); // Get next block
+
+            if (item == null || item == End) { // Check interrupted or done
+                this.put(this.checkQueue, End); // Pass end on
+
+                return; // Done
+            }
+
+            final Block block = this.stopped ? null : decodeBlock(item); // Decode block (unless dropped)
+
+            item.Checked = this.checkers.submit(new Callable<Block>() {
+                @Override
+                public Block call() {
+                    return !stopped && CheckStateless(block, verifier) ? block : null; // Check block
+                }
+            }); // Start checks
+
+            if (!this.put(this.checkQueue, item)) { // Pass block on
+                return; // Interrupted
+            }
+        }
+    }
+
+    /**
+     * Run the contextual check, state, and commit stages: take checked blocks in
+     * order, and add every run of blocks already checked in a single batch.
+     */
+    private void importBlocks() {
+        List<Block> batch = new ArrayList<Block>(this.MaxBatch); // Init batch
+
+        while (true) { // Import until done
+            Item next = this.checkQueue.peek(); // Get next block
+
+            if (!batch.isEmpty() && (next == null || next == End || !next.Checked.isDone() || batch.size() >= this.MaxBatch)) { // Check next block not ready
+                this.add(batch); // Commit run
+            }
+
+            next = this.take(this.checkQueue); // Wait for next block
+
+            if (next == null || next == End) { // Check interrupted or done
+                this.add(batch); // Commit rest
+
+                return; // Done
+            }
+
+            Block block = this.await(next.Checked); // Get checked block
+
+            if (block != null && !this.stopped && !this.checkContext(block)) { // Check doesn't follow its parent
+                block = null; // Rejected
+            }
+
+            if (block == null) { // Check rejected
+                this.add(batch); // Commit blocks before it
+
+                this.stopped = true; // Drop later blocks
+            } else if (!this.stopped) { // Check not dropped
+                batch.add(block); // Add to run
+            }
+        }
+    }
+
+    /**
+     * Check a block against its parent: the block imported just before it, or a
+     * block already in the chain. Blocks whose parent is neither are left to the
+     * chain to reject.
+     *
+     * @param block block passing stateless checks
+     * @return whether the block follows its parent
+     */
+    private boolean checkContext(Block block) {
+        DifficultyRetarget retarget = this.Chain.Retarget(); // Get retarget rule
+
+        Block parent = this.previous; // Init parent
+        long[] parentWindow = this.window; // Init parent timestamps
+
+        if (parent == null || !Arrays.equals(block.ParentHash, parent.Hash)) { // Check doesn't follow the last block
+            parent = this.Chain.GetBlockByHash(block.ParentHash); // Get parent from chain
+
+            if (parent == null) { // Check unknown parent
+                return true; // Leave to chain
+            }
+
+            parentWindow = this.Chain.TimestampWindow(parent); // Get parent timestamps
+        }
+
+        if (!Blockchain.VerifyHeader(retarget, parentWindow, parent, block)) { // Check invalid header
+            return false; // Invalid
+        }
+
+        this.previous = block; // Set last block
+        this.window = retarget.Push(parentWindow, block.Timestamp); // Move window
+
+        return true; // Valid
+    }
+
+    /**
+     * Add a run of checked blocks to the chain, stopping the pipeline if any of
+     * them can't be added.
+     *
+     * @param batch checked blocks (cleared)
+     */
+    private void add(List<Block> batch) {
+        if (batch.isEmpty()) { // Check nothing to add
+            return; // Done
+        }
+
+        int count = this.Chain.addVerified(batch); // Add blocks
+
+        this.added.addAndGet(count); // Count blocks
+
+        if (count < batch.size()) { // Check block rejected
+            this.stopped = true; // Drop later blocks
+        }
+
+        batch.clear(); // Reset batch
+    }
+
+    /**
+     * Decode a submitted block.
+     *
+     * @param item submitted block
+     * @return decoded block (null if malformed)
+     */
+    private static Block decodeBlock(Item item) {
+        if (item.Block != null) { // Check already decoded
+            return item.Block; // Return block
+        }
+
+        try {
+            return new Block(item.Raw); // Decode block
+        } catch (RuntimeException e) { // Catch malformed block
+            return null; // Malformed
+        }
+    }
+
+    /**
+     * Wait for a given block's checks.
+     *
+     * @param checked pending checks
+     * @return checked block (null if rejected)
+     */
+    private Block await(Future<Block> checked) {
+        try {
+            return checked.get(); // Wait for checks
+        } catch (InterruptedException e) { // Catch
+            Thread.currentThread().interrupt(); // Restore interrupt
+
+            return null; // Failed
+        } catch (ExecutionException e) { // Catch
+            return null; // Failed
+        }
+    }
+
+    /**
+     * Put an item into a given queue, waiting while it is full.
+     *
+     * @param queue queue to put into
+     * @param item  item to put
+     * @return whether the item was queued (false if interrupted)
+     */
+    private boolean put(BlockingQueue<Item> queue, Item item) {
+        try {
+            queue.put(item); // Put item
+
+            return true; // Queued
+        } catch (InterruptedException e) { // Catch
+            Thread.currentThread().interrupt(); // Restore interrupt
+
+            return false; // Failed
+        }
+    }
+
+    /**
+     * Take the next item from a given queue, waiting while it is empty.
+     *
+     * @param queue queue to take from
+     * @return next item (null if interrupted)
+     */
+    private Item take(BlockingQueue<Item> queue) {
+        try {
+            return queue.take(); // Take item
+        } catch (InterruptedException e) { // Catch
+            Thread.currentThread().interrupt(); // Restore interrupt
+
+            return null; // Failed
+        }
+    }
+
+    /**
+     * Get a thread factory making named daemon threads.
+     *
+     * @param name thread name prefix
+     * @return thread factory
+     */
+    private static ThreadFactory daemonThreads(final String name) {
+        return new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger(); // Thread counter
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name + "-" + this.count.getAndIncrement()); // Init thread
+
+                thread.setDaemon(true); // Don't block shutdown
+
+                return thread; // Return thread
+            }
+        };
+    }
+
+    /**
+     * Item is a block moving through the pipeline.
+     */
+    private static final class Item {
+        /* Encoded block (null if submitted decoded) */
+        final byte[] Raw;
+
+        /* Decoded block (null until decoded) */
+        final Block Block;
+
+        /* Pending stateless checks (null until decoded) */
+        volatile Future<Block> Checked;
+
+        /**
+         * Initialize a new pipeline item.
+         *
+         * @param raw   encoded block (null if decoded)
+         * @param block decoded block (null if encoded)
+         */
+        Item(byte[] raw, Block block) {
+            this.Raw = raw; // Set encoded block
+            this.Block = block; // Set decoded block
+        }
+    }
+}
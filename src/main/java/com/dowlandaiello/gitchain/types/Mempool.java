@@ -2,13 +2,25 @@ package com.dowlandaiello.gitchain.types;
 
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.locks.ReentrantLock;
 
+import com.dowlandaiello.gitchain.common.ByteKey;
 import com.dowlandaiello.gitchain.common.CommonIO;
 
 /**
  * Mempool is a list of pending transactions, that of which have not yet been included in a block.
- * 
+ *
+ * Transactions are indexed by hash, queued per sender by account nonce, and
+ * ranked by value. Submissions and removals are serialized by a short write
+ * lock; lookups and block selection run against the concurrent indexes without
+ * taking it, so selecting a block never blocks submitters.
+ *
  * @author Dowland Aiello
  * @since 16.02.2019
  */
@@ -16,60 +28,516 @@ public class Mempool implements Serializable {
     /* lol serialization */
     static final long serialVersionUID = CommonIO.SerialVersionUID;
 
-    /* Pending transactions */
-    public ArrayList<Transaction> TransactionList;
+    /* Default max number of pending transactions */
+    public static final int DefaultCapacity = 4096;
+
+    /* Max number of pending transactions */
+    public final int Capacity;
+
+    /* Pending transactions by hash */
+    private final ConcurrentHashMap<ByteKey, Entry> transactions = new ConcurrentHashMap<ByteKey, Entry>();
+
+    /* Pending transactions by sender, ordered by account nonce */
+    private final ConcurrentHashMap<ByteKey, ConcurrentSkipListMap<Integer, Entry>> senders = new ConcurrentHashMap<ByteKey, ConcurrentSkipListMap<Integer, Entry>>();
+
+    /* Pending transactions, best first */
+    private final ConcurrentSkipListSet<Entry> priority = new ConcurrentSkipListSet<Entry>(new EntryOrder());
+
+    /* Serializes submissions and removals */
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    /* Arrival number of the next transaction (guarded by writeLock) */
+    private long nextSequence;
+
+    /* Listener notified of added and removed transactions (null if none) */
+    private transient volatile Listener listener;
+
+    /* Cache transaction signatures are verified through (null once deserialized) */
+    private final transient SignatureCache signatures;
+
+    /**
+     * Listener follows the contents of a mempool (e.g. to keep a block template up
+     * to date). Callbacks run while the mempool's write lock is held, in the order
+     * changes are made, so they must be quick and must not modify the mempool.
+     */
+    public static interface Listener {
+        /**
+         * Handle a transaction added to the mempool.
+         *
+         * @param transaction added transaction
+         */
+        void Added(Transaction transaction);
+
+        /**
+         * Handle a transaction removed from the mempool (included, replaced, or
+         * evicted).
+         *
+         * @param transaction removed transaction
+         */
+        void Removed(Transaction transaction);
+    }
 
     /**
      * Initialize a new memPool with a single transaction, genesisTx (not necessarily the entire blockchain root).
-     * 
+     * The genesis transaction is admitted directly, without AddTransaction's signature
+     * check, so an unsigned genesis or mint transaction is still held.
+     *
      * @param genesisTransaction first transaction in the mempool
      */
     public Mempool(Transaction genesisTransaction) {
-        this.TransactionList = new ArrayList<Transaction>(); // Set mempool
-        this.TransactionList.add(genesisTransaction); // Set genesis
+        this(DefaultCapacity); // Init mempool
+
+        if (genesisTransaction == null || genesisTransaction.Hash == null) { // Check invalid transaction
+            throw new IllegalArgumentException("genesis transaction must have a hash"); // Panic
+        }
+
+        this.writeLock.lock(); // Lock
+
+        try {
+            this.insert(new Entry(genesisTransaction, this.nextSequence)); // Set genesis
+            this.nextSequence++; // Increment sequence
+        } finally {
+            this.writeLock.unlock(); // Unlock
+        }
+    }
+
+    /**
+     * Initialize a new empty mempool holding at most a given number of transactions.
+     *
+     * @param capacity max number of pending transactions
+     */
+    public Mempool(int capacity) {
+        this(capacity, new SignatureCache()); // Init mempool
     }
 
     /**
-     * Add a given transaction, transaction to the mempool.
-     * 
+     * Initialize a new empty mempool holding at most a given number of
+     * transactions, recording verified signatures in a given cache (e.g. the
+     * chain's, so included transactions aren't verified again on import).
+     *
+     * @param capacity   max number of pending transactions
+     * @param signatures verified signature cache
+     */
+    public Mempool(int capacity, SignatureCache signatures) {
+        if (capacity < 1 || signatures == null) { // Check invalid capacity, no cache
+            throw new IllegalArgumentException("mempool capacity must be positive and a signature cache must be given"); // Panic
+        }
+
+        this.Capacity = capacity; // Set capacity
+        this.signatures = signatures; // Set signature cache
+    }
+
+    /**
+     * Add a given transaction, transaction to the mempool. A transaction with the same
+     * sender and nonce as a pending transaction replaces it only if it carries a greater
+     * value. When the mempool is full, the lowest-value transaction (and its sender's
+     * later transactions, which can no longer execute) is evicted to make room, unless
+     * the new transaction would rank below it. Only transactions with a valid
+     * signature are accepted; the signature is verified before the write lock is
+     * taken and recorded in the mempool's signature cache.
+     *
      * @param transaction transaction to add to mempool
      * @return transaction was added successfully
      */
     public boolean AddTransaction(Transaction transaction) {
-        return this.TransactionList.add(transaction); // Add tx
+        if (transaction == null || transaction.Hash == null) { // Check invalid transaction
+            return false; // Failed
+        }
+
+        SignatureCache signatures = this.signatures; // Get signature cache
+
+        if (signatures != null ? !signatures.Verify(transaction) : !Transaction.VerifyTransactionSignature(transaction)) { // Check invalid signature
+            return false; // Failed
+        }
+
+        this.writeLock.lock(); // Lock
+
+        try {
+            if (this.transactions.containsKey(new ByteKey(transaction.Hash))) { // Check already pending
+                return false; // Failed
+            }
+
+            Entry entry = new Entry(transaction, this.nextSequence); // Init entry
+
+            ConcurrentSkipListMap<Integer, Entry> queue = this.senders.get(entry.SenderKey); // Get sender queue
+            Entry existing = queue == null ? null : queue.get(transaction.AccountNonce); // Get same-nonce transaction
+
+            if (existing != null) { // Check replacement
+                if (transaction.Value <= existing.Transaction.Value) { // Check doesn't outbid
+                    return false; // Failed
+                }
+
+                this.remove(existing); // Remove replaced transaction
+            } else if (this.transactions.size() >= this.Capacity) { // Check full
+                Entry worst = this.priority.last(); // Get lowest ranked transaction
+
+                if (this.priority.comparator().compare(entry, worst) >= 0) { // Check ranks below everything
+                    return false; // Failed
+                }
+
+                this.evict(worst); // Make room
+            }
+
+            this.insert(entry); // Insert
+            this.nextSequence++; // Increment sequence
+
+            return true; // Success
+        } finally {
+            this.writeLock.unlock(); // Unlock
+        }
     }
 
     /**
-     * Search through the working mempool, returning the index of a transaction w/ matching hash.
-     * 
+     * Set the listener notified of added and removed transactions.
+     *
+     * @param listener listener (null to remove)
+     */
+    public void SetListener(Listener listener) {
+        this.listener = listener; // Set listener
+    }
+
+    /**
+     * Search through the working mempool, returning the arrival number of a transaction
+     * w/ matching hash (0 for the first transaction added).
+     *
      * @param hash hash to query
-     * @return index of found transaction
+     * @return arrival number of found transaction (-1 if not found)
      */
     public int QueryTransaction(byte[] hash) {
-        for (Transaction transaction: this.TransactionList) { // Iterate through transactions
-            if (Arrays.equals(transaction.Hash, hash)) { // Check matching hash
-                return this.TransactionList.indexOf(transaction); // Return index
-            }
+        Entry entry = hash == null ? null : this.transactions.get(new ByteKey(hash)); // Get entry
+
+        if (entry == null) { // Check not found
+            return -1; // No matching transaction
         }
 
-        return -1; // No matching transaction
+        return (int) Math.min(entry.Sequence, Integer.MAX_VALUE); // Return arrival number
+    }
+
+    /**
+     * Get the pending transaction with a given hash.
+     *
+     * @param hash hash to query
+     * @return found transaction (null if not found)
+     */
+    public Transaction GetTransaction(byte[] hash) {
+        Entry entry = hash == null ? null : this.transactions.get(new ByteKey(hash)); // Get entry
+
+        return entry == null ? null : entry.Transaction; // Return transaction
+    }
+
+    /**
+     * Get the pending transaction of a given sender with a given account nonce.
+     *
+     * @param sender sender to query
+     * @param nonce  account nonce to query
+     * @return found transaction (null if not found)
+     */
+    public Transaction GetTransaction(byte[] sender, int nonce) {
+        ConcurrentSkipListMap<Integer, Entry> queue = sender == null ? null : this.senders.get(new ByteKey(sender)); // Get sender queue
+        Entry entry = queue == null ? null : queue.get(nonce); // Get entry
+
+        return entry == null ? null : entry.Transaction; // Return transaction
     }
 
     /**
      * Remove a given transaction, transaction from the mempool.
-     * 
-     * @param transaction transaction to remove from mempool
+     *
+     * @param hash hash of transaction to remove from mempool
      * @return whether the operation was successful
      */
     public boolean RemoveTransaction(byte[] hash) {
-        int txIndex = QueryTransaction(hash); // Get tx index
-
-        if (txIndex == -1) { // Check non-existent
+        if (hash == null) { // Check invalid hash
             return false; // Failed
         }
 
-        this.TransactionList.remove(txIndex); // Remove transaction
+        this.writeLock.lock(); // Lock
+
+        try {
+            Entry entry = this.transactions.get(new ByteKey(hash)); // Get entry
+
+            if (entry == null) { // Check non-existent
+                return false; // Failed
+            }
+
+            this.remove(entry); // Remove transaction
+
+            return true; // Success
+        } finally {
+            this.writeLock.unlock(); // Unlock
+        }
+    }
+
+    /**
+     * Get the number of pending transactions.
+     *
+     * @return number of pending transactions
+     */
+    public int Size() {
+        return this.transactions.size(); // Return size
+    }
+
+    /**
+     * Get a snapshot of every pending transaction, highest value first.
+     *
+     * @return pending transactions
+     */
+    public Transaction[] Transactions() {
+        ArrayList<Transaction> snapshot = new ArrayList<Transaction>(this.priority.size()); // Init buffer
+
+        for (Entry entry : this.priority) { // Iterate through transactions
+            snapshot.add(entry.Transaction); // Add transaction
+        }
+
+        return snapshot.toArray(new Transaction[0]); // Return snapshot
+    }
+
+    /**
+     * Select the highest-value set of executable transactions fitting in a given number
+     * of encoded bytes. A sender's transactions are only selected in consecutive nonce
+     * order starting from its lowest pending nonce. Selection reads a weakly consistent
+     * view of the mempool, so transactions submitted or removed during selection may or
+     * may not be reflected.
+     *
+     * @param maxBytes max total encoded size of selected transactions
+     * @return selected transactions, in inclusion order
+     */
+    public Transaction[] SelectForBlock(int maxBytes) {
+        return this.SelectForBlock(maxBytes, null); // Select
+    }
+
+    /**
+     * Select the highest-value set of executable transactions fitting in a given number
+     * of encoded bytes, on top of a given state. A sender's transactions are only
+     * selected in consecutive nonce order starting from its next nonce in the state (or
+     * its lowest pending nonce without a state), and only while its balance in the state
+     * covers them. Transactions whose nonce was already spent in the state are removed.
+     * Selection reads a weakly consistent view of the mempool, so transactions submitted
+     * or removed during selection may or may not be reflected.
+     *
+     * @param maxBytes max total encoded size of selected transactions
+     * @param state    state the transactions will be applied to (null if unknown)
+     * @return selected transactions, in inclusion order
+     */
+    public Transaction[] SelectForBlock(int maxBytes, StateDB state) {
+        PriorityQueue<Entry> candidates = new PriorityQueue<Entry>(Math.max(1, this.senders.size()), new EntryOrder()); // Init candidates
+        HashMap<ByteKey, double[]> balances = new HashMap<ByteKey, double[]>(); // Init remaining sender balances
+        ArrayList<Entry> stale = new ArrayList<Entry>(); // Init transactions with spent nonces
+
+        for (java.util.Map.Entry<ByteKey, ConcurrentSkipListMap<Integer, Entry>> sender : this.senders.entrySet()) { // Iterate through senders
+            ConcurrentSkipListMap<Integer, Entry> queue = sender.getValue(); // Get sender queue
+
+            if (state == null) { // Check no state
+                java.util.Map.Entry<Integer, Entry> first = queue.firstEntry(); // Get lowest nonce
+
+                if (first != null) { // Check not emptied concurrently
+                    candidates.add(first.getValue()); // Add candidate
+                }
+
+                continue; // Next sender
+            }
+
+            long nextNonce = state.NextNonce(sender.getKey().Bytes); // Get sender's next nonce
+
+            if (nextNonce > Integer.MAX_VALUE) { // Check no transaction can follow
+                stale.addAll(queue.values()); // Every nonce spent
+
+                continue; // Next sender
+            }
+
+            stale.addAll(queue.headMap((int) nextNonce).values()); // Collect spent nonces
+
+            Entry first = queue.get((int) nextNonce); // Get sender's next transaction
+
+            if (first != null) { // Check executable
+                balances.put(sender.getKey(), new double[] { state.Balance(sender.getKey().Bytes) }); // Read balance
+                candidates.add(first); // Add candidate
+            }
+        }
+
+        ArrayList<Transaction> selected = new ArrayList<Transaction>(); // Init buffer
+        long size = 0; // Init size
+
+        while (!candidates.isEmpty()) { // Select until out of candidates
+            Entry candidate = candidates.poll(); // Get best candidate
+
+            if (size + candidate.Size > maxBytes) { // Check doesn't fit
+                continue; // Skip sender (its later transactions depend on this one)
+            }
+
+            double[] balance = balances.get(candidate.SenderKey); // Get sender's remaining balance
+
+            if (balance != null) { // Check has state
+                if (balance[0] < candidate.Transaction.Value) { // Check overdraws
+                    continue; // Skip sender (its later transactions depend on this one)
+                }
+
+                balance[0] -= candidate.Transaction.Value; // Spend value
+            }
+
+            selected.add(candidate.Transaction); // Select
+            size += candidate.Size; // Add size
+
+            ConcurrentSkipListMap<Integer, Entry> queue = this.senders.get(candidate.SenderKey); // Get sender queue
+            Entry next = queue == null || candidate.Transaction.AccountNonce == Integer.MAX_VALUE ? null
+                    : queue.get(candidate.Transaction.AccountNonce + 1); // Get sender's next transaction
+
+            if (next != null) { // Check has next
+                candidates.add(next); // Add candidate
+            }
+        }
+
+        this.removeStale(stale); // Remove transactions with spent nonces
+
+        return selected.toArray(new Transaction[0]); // Return selected
+    }
+
+    /**
+     * Remove the given entries if they are still pending.
+     *
+     * @param entries entries to remove
+     */
+    private void removeStale(ArrayList<Entry> entries) {
+        if (entries.isEmpty()) { // Check nothing to remove
+            return; // Done
+        }
+
+        this.writeLock.lock(); // Lock
+
+        try {
+            for (Entry entry : entries) { // Iterate through entries
+                if (this.transactions.get(entry.HashKey) == entry) { // Check still pending
+                    this.remove(entry); // Remove transaction
+                }
+            }
+        } finally {
+            this.writeLock.unlock(); // Unlock
+        }
+    }
+
+    /**
+     * Index a given entry. Must hold writeLock.
+     *
+     * @param entry entry to index
+     */
+    private void insert(Entry entry) {
+        ConcurrentSkipListMap<Integer, Entry> queue = this.senders.get(entry.SenderKey); // Get sender queue
+
+        if (queue == null) { // Check new sender
+            queue = new ConcurrentSkipListMap<Integer, Entry>(); // Init queue
+
+            this.senders.put(entry.SenderKey, queue); // Put queue
+        }
+
+        queue.put(entry.Transaction.AccountNonce, entry); // Queue
+        this.priority.add(entry); // Rank
+        this.transactions.put(entry.HashKey, entry); // Index
+
+        Listener listener = this.listener; // Get listener
+
+        if (listener != null) { // Check has listener
+            listener.Added(entry.Transaction); // Notify listener
+        }
+    }
+
+    /**
+     * Unindex a given entry. Must hold writeLock.
+     *
+     * @param entry entry to unindex
+     */
+    private void remove(Entry entry) {
+        this.transactions.remove(entry.HashKey); // Unindex
+        this.priority.remove(entry); // Unrank
+
+        ConcurrentSkipListMap<Integer, Entry> queue = this.senders.get(entry.SenderKey); // Get sender queue
+
+        if (queue != null) { // Check has queue
+            queue.remove(entry.Transaction.AccountNonce, entry); // Dequeue
+
+            if (queue.isEmpty()) { // Check emptied
+                this.senders.remove(entry.SenderKey, queue); // Remove queue
+            }
+        }
+
+        Listener listener = this.listener; // Get listener
+
+        if (listener != null) { // Check has listener
+            listener.Removed(entry.Transaction); // Notify listener
+        }
+    }
+
+    /**
+     * Evict a given entry along with its sender's later transactions. Must hold writeLock.
+     *
+     * @param entry entry to evict
+     */
+    private void evict(Entry entry) {
+        ConcurrentSkipListMap<Integer, Entry> queue = this.senders.get(entry.SenderKey); // Get sender queue
+
+        if (queue != null) { // Check has queue
+            for (Entry dependent : new ArrayList<Entry>(queue.tailMap(entry.Transaction.AccountNonce, false).values())) { // Iterate through later transactions
+                this.remove(dependent); // Remove dependent
+            }
+        }
+
+        this.remove(entry); // Remove entry
+    }
+
+    /**
+     * Entry is a pending transaction and its index keys.
+     */
+    private static class Entry implements Serializable {
+        /* lol serialization */
+        static final long serialVersionUID = CommonIO.SerialVersionUID;
+
+        /* Pending transaction */
+        final Transaction Transaction;
+
+        /* Transaction hash key */
+        final ByteKey HashKey;
+
+        /* Transaction sender key */
+        final ByteKey SenderKey;
+
+        /* Arrival number */
+        final long Sequence;
+
+        /* Encoded transaction size */
+        final int Size;
+
+        /**
+         * Initialize a new entry.
+         *
+         * @param transaction pending transaction
+         * @param sequence    arrival number
+         */
+        Entry(Transaction transaction, long sequence) {
+            this.Transaction = transaction; // Set transaction
+            this.HashKey = new ByteKey(transaction.Hash); // Set hash key
+            this.SenderKey = new ByteKey(transaction.Sender); // Set sender key
+            this.Sequence = sequence; // Set sequence
+            this.Size = transaction.EncodedSize(); // Set size
+        }
+    }
+
+    /**
+     * EntryOrder ranks entries by value (highest first), then by arrival (earliest first).
+     */
+    private static class EntryOrder implements Comparator<Entry>, Serializable {
+        /* lol serialization */
+        static final long serialVersionUID = CommonIO.SerialVersionUID;
 
-        return true; // Success
+        /**
+         * Compare two entries.
+         *
+         * @param a first entry
+         * @param b second entry
+         * @return comparison result
+         */
+        @Override
+        public int compare(Entry a, Entry b) {
+            int byValue = Float.compare(b.Transaction.Value, a.Transaction.Value); // Compare values
+
+            return byValue != 0 ? byValue : Long.compare(a.Sequence, b.Sequence); // Compare arrival
+        }
     }
-}
\ No newline at end of file
+}
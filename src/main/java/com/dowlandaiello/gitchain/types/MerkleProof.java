@@ -0,0 +1,110 @@
+package com.dowlandaiello.gitchain.types;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import com.dowlandaiello.gitchain.common.CommonCodec;
+
+/**
+ * MerkleProof is a proof that a given leaf is included in a merkle tree with a
+ * given root, verifiable without the rest of the tree's leaves.
+ */
+public class MerkleProof {
+    /* Index of proven leaf */
+    public final int Index;
+
+    /* Number of leaves in tree */
+    public final int LeafCount;
+
+    /* Sibling hashes from the leaf level up (levels where the node was promoted are skipped) */
+    public final byte[][] Siblings;
+
+    /**
+     * Initialize a new merkle proof.
+     *
+     * @param index     index of proven leaf
+     * @param leafCount number of leaves in tree
+     * @param siblings  sibling hashes, leaf level first
+     */
+    public MerkleProof(int index, int leafCount, byte[][] siblings) {
+        this.Index = index; // Set index
+        this.LeafCount = leafCount; // Set leaf count
+        this.Siblings = siblings; // Set siblings
+    }
+
+    /**
+     * Deserialize a merkle proof from a given byte array.
+     *
+     * @param rawBytes raw data to deserialize
+     */
+    public MerkleProof(byte[] rawBytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(rawBytes); // Wrap input
+
+        CommonCodec.ReadHeader(buffer, CommonCodec.MerkleProofTag); // Read header
+        CommonCodec.Require(buffer, 8); // Check has index and leaf count
+
+        this.Index = buffer.getInt(); // Read index
+        this.LeafCount = buffer.getInt(); // Read leaf count
+        this.Siblings = CommonCodec.ReadBytesArray(buffer); // Read siblings
+
+        if (this.Index < 0 || this.Index >= this.LeafCount || this.Siblings == null) { // Check invalid proof
+            throw new IllegalArgumentException("invalid merkle proof"); // Panic
+        }
+    }
+
+    /**
+     * Serialize the proof to a byte array.
+     *
+     * @return serialized proof
+     */
+    public byte[] Bytes() {
+        ByteBuffer buffer = CommonCodec.GetBuffer(CommonCodec.HeaderSize + 8 + CommonCodec.SizeOf(this.Siblings)); // Get buffer
+
+        CommonCodec.WriteHeader(buffer, CommonCodec.MerkleProofTag); // Write header
+        buffer.putInt(this.Index); // Write index
+        buffer.putInt(this.LeafCount); // Write leaf count
+        CommonCodec.WriteBytesArray(buffer, this.Siblings); // Write siblings
+
+        return CommonCodec.ToArray(buffer); // Return encoded
+    }
+
+    /**
+     * Check that a given leaf is included at the proof's index in a tree with a given root.
+     *
+     * @param leaf leaf to check (e.g. a transaction hash)
+     * @param root merkle root to check against
+     * @return whether the proof is valid
+     */
+    public boolean Verify(byte[] leaf, byte[] root) {
+        if (leaf == null || root == null || this.Index < 0 || this.Index >= this.LeafCount) { // Check invalid input
+            return false; // Invalid
+        }
+
+        byte[] hash = MerkleTree.HashLeaf(leaf); // Hash leaf
+
+        int position = this.Index; // Init position
+        int width = this.LeafCount; // Init level width
+        int sibling = 0; // Init sibling index
+
+        while (width > 1) { // Walk up tree
+            boolean isRight = (position & 1) == 1; // Check is right child
+
+            if (isRight || position + 1 < width) { // Check has sibling
+                if (sibling == this.Siblings.length || this.Siblings[sibling] == null
+                        || this.Siblings[sibling].length != MerkleTree.HashSize) { // Check missing sibling
+                    return false; // Invalid
+                }
+
+                hash = isRight ? MerkleTree.HashNode(this.Siblings[sibling], hash)
+                        : MerkleTree.HashNode(hash, this.Siblings[sibling]); // Hash with sibling
+
+                sibling++; // Next sibling
+            }
+
+            position /= 2; // Move to parent
+            width = (width + 1) / 2; // Move to parent level
+        }
+
+        return sibling == this.Siblings.length && Arrays.equals(hash, root); // Check root
+    }
+}
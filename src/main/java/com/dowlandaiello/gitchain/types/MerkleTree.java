@@ -0,0 +1,274 @@
+package com.dowlandaiello.gitchain.types;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+import com.dowlandaiello.gitchain.crypto.Sha;
+
+import org.bouncycastle.crypto.digests.SHA3Digest;
+
+/**
+ * MerkleTree is a binary merkle tree over a list of leaves (usually transaction hashes).
+ *
+ * Leaves are hashed as sha3(0x00 || leaf) and interior nodes as
+ * sha3(0x01 || left || right), so a leaf can never be passed off as an
+ * interior node. A node without a sibling is promoted to the next level
+ * unchanged rather than paired with itself. Each level is kept in a single
+ * contiguous byte array, and wide levels are hashed in parallel.
+ */
+public class MerkleTree {
+    /* Size of a tree node */
+    public static final int HashSize = 64;
+
+    /* Level width from which nodes are hashed in parallel */
+    public static final int ParallelThreshold = 1024;
+
+    /* Leaf hash domain separator */
+    private static final byte LeafPrefix = 0;
+
+    /* Interior node hash domain separator */
+    private static final byte NodePrefix = 1;
+
+    /* Per-thread reusable digests */
+    private static final ThreadLocal<SHA3Digest> digests = new ThreadLocal<SHA3Digest>() {
+        @Override
+        protected SHA3Digest initialValue() {
+            return new SHA3Digest(HashSize * 8); // Init digest
+        }
+    };
+
+    /* Tree levels, leaves first; level i holds widths[i] contiguous nodes */
+    private final byte[][] levels;
+
+    /* Number of nodes in each level */
+    private final int[] widths;
+
+    /**
+     * Build a merkle tree over a given set of transactions.
+     *
+     * @param transactions transactions to build over
+     */
+    public MerkleTree(Transaction[] transactions) {
+        this(TransactionHashes(transactions)); // Build tree
+    }
+
+    /**
+     * Build a merkle tree over a given set of leaves.
+     *
+     * @param leaves leaves to build over
+     */
+    public MerkleTree(byte[][] leaves) {
+        int depth = 1; // Init depth
+
+        for (int width = leaves.length; width > 1; width = (width + 1) / 2) { // Count levels
+            depth++; // Add level
+        }
+
+        this.levels = new byte[depth][]; // Init levels
+        this.widths = new int[depth]; // Init widths
+
+        this.widths[0] = leaves.length; // Set leaf count
+        this.levels[0] = new byte[leaves.length * HashSize]; // Init leaf level
+
+        hashLeaves(leaves, this.levels[0]); // Hash leaves
+
+        for (int level = 1; level < depth; level++) { // Build upper levels
+            this.widths[level] = (this.widths[level - 1] + 1) / 2; // Set width
+            this.levels[level] = new byte[this.widths[level] * HashSize]; // Init level
+
+            hashLevel(this.levels[level - 1], this.widths[level - 1], this.levels[level]); // Hash level
+        }
+    }
+
+    /**
+     * Get the root of the tree. The root of an empty tree is sha3 of the empty string.
+     *
+     * @return merkle root
+     */
+    public byte[] Root() {
+        if (this.widths[0] == 0) { // Check empty tree
+            return Sha.Sha3(new byte[0]); // Return empty root
+        }
+
+        return Arrays.copyOfRange(this.levels[this.levels.length - 1], 0, HashSize); // Return root
+    }
+
+    /**
+     * Get the number of leaves in the tree.
+     *
+     * @return leaf count
+     */
+    public int LeafCount() {
+        return this.widths[0]; // Return leaf count
+    }
+
+    /**
+     * Generate an inclusion proof for the leaf at a given index.
+     *
+     * @param index leaf index
+     * @return inclusion proof
+     */
+    public MerkleProof Proof(int index) {
+        if (index < 0 || index >= this.widths[0]) { // Check out of range
+            throw new IndexOutOfBoundsException("no leaf at index " + index); // Panic
+        }
+
+        byte[][] siblings = new byte[this.levels.length][]; // Init sibling buffer
+        int siblingCount = 0; // Init sibling counter
+
+        int position = index; // Init position
+
+        for (int level = 0; level < this.levels.length - 1; level++) { // Walk up tree
+            int sibling = position ^ 1; // Get sibling position
+
+            if (sibling < this.widths[level]) { // Check has sibling
+                siblings[siblingCount++] = Arrays.copyOfRange(this.levels[level], sibling * HashSize,
+                        (sibling + 1) * HashSize); // Add sibling
+            }
+
+            position /= 2; // Move to parent
+        }
+
+        return new MerkleProof(index, this.widths[0], Arrays.copyOf(siblings, siblingCount)); // Return proof
+    }
+
+    /**
+     * Hash a leaf.
+     *
+     * @param leaf leaf to hash
+     * @return leaf hash
+     */
+    public static byte[] HashLeaf(byte[] leaf) {
+        byte[] hash = new byte[HashSize]; // Init output
+
+        hashLeaf(digests.get(), leaf, hash, 0); // Hash
+
+        return hash; // Return hash
+    }
+
+    /**
+     * Hash two child nodes into their parent.
+     *
+     * @param left  left child
+     * @param right right child
+     * @return parent hash
+     */
+    public static byte[] HashNode(byte[] left, byte[] right) {
+        byte[] hash = new byte[HashSize]; // Init output
+
+        hashNode(digests.get(), left, 0, right, 0, hash, 0); // Hash
+
+        return hash; // Return hash
+    }
+
+    /**
+     * Get the hashes of a given set of transactions.
+     *
+     * @param transactions transactions
+     * @return transaction hashes
+     */
+    private static byte[][] TransactionHashes(Transaction[] transactions) {
+        byte[][] hashes = new byte[transactions.length][]; // Init buffer
+
+        for (int i = 0; i < transactions.length; i++) { // Iterate through transactions
+            hashes[i] = transactions[i].Hash; // Set hash
+        }
+
+        return hashes; // Return hashes
+    }
+
+    /**
+     * Hash every leaf into a contiguous level buffer.
+     *
+     * @param leaves leaves to hash
+     * @param out    level buffer
+     */
+    private static void hashLeaves(final byte[][] leaves, final byte[] out) {
+        if (leaves.length < ParallelThreshold) { // Check small level
+            SHA3Digest digest = digests.get(); // Get digest
+
+            for (int i = 0; i < leaves.length; i++) { // Hash leaves
+                hashLeaf(digest, leaves[i], out, i * HashSize); // Hash leaf
+            }
+
+            return; // Done
+        }
+
+        IntStream.range(0, leaves.length).parallel().forEach(new IntConsumer() {
+            @Override
+            public void accept(int i) {
+                hashLeaf(digests.get(), leaves[i], out, i * HashSize); // Hash leaf
+            }
+        }); // Hash leaves in parallel
+    }
+
+    /**
+     * Hash every pair in a level into the level above it.
+     *
+     * @param level  level to hash
+     * @param width  number of nodes in level
+     * @param parent parent level buffer
+     */
+    private static void hashLevel(final byte[] level, final int width, final byte[] parent) {
+        int parents = (width + 1) / 2; // Get parent count
+
+        if (width < ParallelThreshold) { // Check small level
+            SHA3Digest digest = digests.get(); // Get digest
+
+            for (int i = 0; i < parents; i++) { // Hash pairs
+                hashPair(digest, level, width, i, parent); // Hash pair
+            }
+
+            return; // Done
+        }
+
+        IntStream.range(0, parents).parallel().forEach(new IntConsumer() {
+            @Override
+            public void accept(int i) {
+                hashPair(digests.get(), level, width, i, parent); // Hash pair
+            }
+        }); // Hash pairs in parallel
+    }
+
+    /**
+     * Hash the children of a given parent, or promote a lone child.
+     *
+     * @param digest digest to use
+     * @param level  child level
+     * @param width  number of nodes in child level
+     * @param i      parent index
+     * @param parent parent level buffer
+     */
+    private static void hashPair(SHA3Digest digest, byte[] level, int width, int i, byte[] parent) {
+        int left = 2 * i; // Get left child
+
+        if (left + 1 == width) { // Check lone child
+            System.arraycopy(level, left * HashSize, parent, i * HashSize, HashSize); // Promote
+
+            return; // Done
+        }
+
+        hashNode(digest, level, left * HashSize, level, (left + 1) * HashSize, parent, i * HashSize); // Hash pair
+    }
+
+    /**
+     * Hash a leaf into a given output buffer.
+     */
+    private static void hashLeaf(SHA3Digest digest, byte[] leaf, byte[] out, int outOffset) {
+        digest.update(LeafPrefix); // Write prefix
+        digest.update(leaf, 0, leaf.length); // Write leaf
+        digest.doFinal(out, outOffset); // Hash
+    }
+
+    /**
+     * Hash two nodes into a given output buffer.
+     */
+    private static void hashNode(SHA3Digest digest, byte[] left, int leftOffset, byte[] right, int rightOffset,
+            byte[] out, int outOffset) {
+        digest.update(NodePrefix); // Write prefix
+        digest.update(left, leftOffset, HashSize); // Write left
+        digest.update(right, rightOffset, HashSize); // Write right
+        digest.doFinal(out, outOffset); // Hash
+    }
+}
@@ -0,0 +1,295 @@
+package com.dowlandaiello.gitchain.types;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import com.dowlandaiello.gitchain.common.ByteKey;
+
+/**
+ * OrphanPool holds blocks that arrive before their parents, indexed by the
+ * hash of the missing parent. Once a parent is added to the chain, every
+ * pooled descendant is added after it, recursively, so blocks delivered out of
+ * order (e.g. by parallel downloads or gossip) never need to be fetched again.
+ *
+ * The pool is bounded: once full, the oldest orphan is evicted. Only blocks
+ * with a valid proof of work and merkle root are pooled, so filling the pool
+ * costs an attacker real work. Each missing parent is requested once through
+ * the parent requester (if any), when the first orphan waiting on it arrives.
+ */
+public class OrphanPool {
+    /* Default max number of pooled blocks */
+    public static final int DefaultCapacity = 1024;
+
+    /* Max number of pooled blocks */
+    public final int Capacity;
+
+    /* Chain orphans are connected to */
+    public final Blockchain Chain;
+
+    /* Requester missing parents are fetched through (null if none) */
+    private final ParentRequester requester;
+
+    /* Pooled blocks by hash, oldest first */
+    private final LinkedHashMap<ByteKey, Block> orphans = new LinkedHashMap<ByteKey, Block>();
+
+    /* Pooled blocks by parent hash */
+    private final HashMap<ByteKey, List<Block>> children = new HashMap<ByteKey, List<Block>>();
+
+    /**
+     * ParentRequester fetches missing parents, e.g. from the peer that sent the
+     * orphan. Fetched blocks should be submitted back to the pool.
+     */
+    public static interface ParentRequester {
+        /**
+         * Request the block with a given hash.
+         *
+         * @param hash   hash of the missing block
+         * @param orphan pooled block waiting on it
+         */
+        void RequestParent(byte[] hash, Block orphan);
+    }
+
+    /**
+     * Initialize a new orphan pool with the default capacity and no parent
+     * requester.
+     *
+     * @param chain chain to connect orphans to
+     */
+    public OrphanPool(Blockchain chain) {
+        this(chain, DefaultCapacity, null); // Init pool
+    }
+
+    /**
+     * Initialize a new orphan pool.
+     *
+     * @param chain     chain to connect orphans to
+     * @param capacity  max number of pooled blocks
+     * @param requester requester to fetch missing parents through (null if none)
+     */
+    public OrphanPool(Blockchain chain, int capacity, ParentRequester requester) {
+        if (capacity < 1) { // Check invalid capacity
+            throw new IllegalArgumentException("orphan pool capacity must be positive"); // Panic
+        }
+
+        this.Chain = chain; // Set chain
+        this.Capacity = capacity; // Set capacity
+        this.requester = requester; // Set requester
+    }
+
+    /**
+     * Submit a received block: add it to the chain if its parent is known (along
+     * with every pooled descendant), otherwise pool it and request its missing
+     * parent.
+     *
+     * @param block received block
+     * @return number of blocks added to the chain (0 if pooled, -1 if rejected or
+     *         already known)
+     */
+    public int Submit(Block block) {
+        if (block == null || block.Hash == null || block.ParentHash == null || !Blockchain.VerifyBlockNonce(block)
+                || !Arrays.equals(block.MerkleRoot, Block.HashTransactionSum(block.Transactions))) { // Check invalid block
+            return -1; // Rejected
+        }
+
+        byte[] missing = null; // Init parent to request
+        int added; // Declare added blocks
+
+        synchronized (this) {
+            if (this.orphans.containsKey(new ByteKey(block.Hash))) { // Check already pooled
+                return 0; // Pooled
+            }
+
+            if (this.Chain.HasBlock(block.Hash)) { // Check already known
+                return -1; // Rejected
+            }
+
+            if (!this.Chain.HasBlock(block.ParentHash)) { // Check missing parent
+                this.pool(block); // Pool block
+
+                missing = this.missingParent(block); // Get parent to request
+
+                added = 0; // Pooled
+            } else {
+                added = this.connect(block); // Add block and descendants
+            }
+        }
+
+        if (missing != null && this.requester != null) { // Check must fetch parent
+            this.requester.RequestParent(missing, block); // Request parent
+        }
+
+        return added; // Return added blocks
+    }
+
+    /**
+     * Check whether a block with a given hash is pooled.
+     *
+     * @param hash hash of the block
+     * @return whether the block is pooled
+     */
+    public synchronized boolean Contains(byte[] hash) {
+        return hash != null && this.orphans.containsKey(new ByteKey(hash)); // Check pooled
+    }
+
+    /**
+     * Get the number of pooled blocks.
+     *
+     * @return number of pooled blocks
+     */
+    public synchronized int Size() {
+        return this.orphans.size(); // Return size
+    }
+
+    /**
+     * Get the hashes of the missing blocks pooled blocks are waiting on (e.g. to
+     * request them again from another peer).
+     *
+     * @return missing block hashes
+     */
+    public synchronized List<byte[]> MissingParents() {
+        List<byte[]> missing = new ArrayList<byte[]>(); // Init missing hashes
+
+        for (ByteKey parent : this.children.keySet()) { // Iterate through awaited parents
+            if (!this.orphans.containsKey(parent)) { // Check not pooled itself
+                missing.add(parent.Bytes); // Add missing hash
+            }
+        }
+
+        return missing; // Return missing hashes
+    }
+
+    /**
+     * Add a block with a known parent to the chain, then every pooled descendant
+     * whose parent was added. Descendants of rejected blocks are dropped.
+     *
+     * @param block block with a known parent
+     * @return number of blocks added (-1 if the given block was rejected)
+     */
+    private int connect(Block block) {
+        Deque<Block> queue = new ArrayDeque<Block>(); // Init blocks to add
+        int added = 0; // Init added blocks
+
+        queue.add(block); // Add block first
+
+        while (!queue.isEmpty()) { // Add until done
+            Block next = queue.poll(); // Get next block
+            List<Block> waiting = this.children.remove(new ByteKey(next.Hash)); // Get pooled children
+
+            if (next != block) { // Check pooled
+                this.orphans.remove(new ByteKey(next.Hash)); // Unpool
+            }
+
+            if (!this.Chain.AddBlock(next)) { // Add block
+                this.drop(waiting); // Drop descendants
+
+                if (next == block) { // Check submitted block rejected
+                    return -1; // Rejected
+                }
+
+                continue; // Skip
+            }
+
+            added++; // Count block
+
+            if (waiting != null) { // Check has pooled children
+                queue.addAll(waiting); // Add children next
+            }
+        }
+
+        return added; // Return added blocks
+    }
+
+    /**
+     * Pool a given block, evicting the oldest orphan if the pool is full.
+     *
+     * @param block block with a missing parent
+     */
+    private void pool(Block block) {
+        if (this.orphans.size() >= this.Capacity) { // Check full
+            this.unpool(this.orphans.values().iterator().next()); // Evict oldest
+        }
+
+        this.orphans.put(new ByteKey(block.Hash), block); // Index by hash
+
+        ByteKey parent = new ByteKey(block.ParentHash); // Get parent key
+        List<Block> siblings = this.children.get(parent); // Get blocks waiting on parent
+
+        if (siblings == null) { // Check first
+            siblings = new ArrayList<Block>(1); // Init siblings
+            this.children.put(parent, siblings); // Index by parent
+        }
+
+        siblings.add(block); // Add block
+    }
+
+    /**
+     * Remove a given pooled block from both indexes.
+     *
+     * @param block pooled block
+     */
+    private void unpool(Block block) {
+        this.orphans.remove(new ByteKey(block.Hash)); // Remove from hash index
+
+        ByteKey parent = new ByteKey(block.ParentHash); // Get parent key
+        List<Block> siblings = this.children.get(parent); // Get blocks waiting on parent
+
+        if (siblings == null) { // Check not indexed
+            return; // Done
+        }
+
+        for (Iterator<Block> iterator = siblings.iterator(); iterator.hasNext();) { // Iterate through siblings
+            if (iterator.next() == block) { // Check block
+                iterator.remove(); // Remove
+            }
+        }
+
+        if (siblings.isEmpty()) { // Check no blocks waiting
+            this.children.remove(parent); // Remove from parent index
+        }
+    }
+
+    /**
+     * Drop the given pooled blocks and all of their pooled descendants.
+     *
+     * @param blocks pooled blocks (null if none)
+     */
+    private void drop(List<Block> blocks) {
+        Deque<Block> queue = blocks == null ? new ArrayDeque<Block>() : new ArrayDeque<Block>(blocks); // Init blocks to drop
+
+        while (!queue.isEmpty()) { // Drop until done
+            Block next = queue.poll(); // Get next block
+
+            this.orphans.remove(new ByteKey(next.Hash)); // Unpool
+
+            List<Block> waiting = this.children.remove(new ByteKey(next.Hash)); // Get pooled children
+
+            if (waiting != null) { // Check has pooled children
+                queue.addAll(waiting); // Drop children next
+            }
+        }
+    }
+
+    /**
+     * Get the missing parent of a newly pooled block, unless it is already
+     * awaited: pooled itself (so its own missing ancestor was requested), or
+     * awaited by another orphan.
+     *
+     * @param block pooled block
+     * @return hash of the missing parent (null if already awaited)
+     */
+    private byte[] missingParent(Block block) {
+        ByteKey parent = new ByteKey(block.ParentHash); // Get parent key
+
+        if (this.orphans.containsKey(parent) || this.children.get(parent).size() > 1) { // Check already awaited
+            return null; // Awaited
+        }
+
+        return block.ParentHash; // Return missing parent
+    }
+}
@@ -36,13 +36,26 @@ public class Signature implements Serializable {
 
         ECKeyPair keyPair = new ECKeyPair(privateKey, publicKey); // Get key pair
 
-        Sign.SignatureData signature = Sign.signMessage(transaction.Bytes(), keyPair, true); // Sign tx
+        Sign.SignatureData signature = Sign.signMessage(transaction.SigningBytes(), keyPair, true); // Sign tx
 
         this.V = signature.getV(); // Set v
         this.R = signature.getR(); // Set r
         this.S = signature.getS(); // Set s
     }
 
+    /**
+     * Initialize a transaction signature from its raw values.
+     *
+     * @param v recovery id
+     * @param r signature r value
+     * @param s signature s value
+     */
+    public Signature(byte v, byte[] r, byte[] s) {
+        this.V = v; // Set v
+        this.R = r; // Set r
+        this.S = s; // Set s
+    }
+
     /**
      * Marshal the given transaction to a string.
      * 
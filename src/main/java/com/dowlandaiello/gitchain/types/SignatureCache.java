@@ -0,0 +1,208 @@
+package com.dowlandaiello.gitchain.types;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.dowlandaiello.gitchain.common.ByteKey;
+
+import org.bouncycastle.crypto.digests.SHA3Digest;
+
+/**
+ * SignatureCache is a bounded, concurrent set of transactions whose signatures have
+ * already been verified, so that a transaction seen first in the mempool and then
+ * again in a block is only recovered once.
+ *
+ * Entries are keyed by Transaction.Hash, but since a hash is just a field a peer
+ * can set, each entry also stores a fingerprint of the signed contents and the
+ * signature; a lookup only hits if the fingerprint matches too. Only successful
+ * verifications are cached. The oldest entry is evicted once the cache is full.
+ */
+public class SignatureCache {
+    /* Default max number of cached transactions */
+    public static final int DefaultCapacity = 65536;
+
+    /* Max number of cached transactions */
+    public final int Capacity;
+
+    /* Fingerprints of verified transactions by hash */
+    private final ConcurrentHashMap<ByteKey, byte[]> verified = new ConcurrentHashMap<ByteKey, byte[]>();
+
+    /* Cached hashes, oldest first */
+    private final ConcurrentLinkedQueue<ByteKey> insertionOrder = new ConcurrentLinkedQueue<ByteKey>();
+
+    /* Number of lookups that skipped verification */
+    private final AtomicLong hits = new AtomicLong();
+
+    /* Number of lookups that required verification */
+    private final AtomicLong misses = new AtomicLong();
+
+    /* Per-thread reusable fingerprint digests */
+    private static final ThreadLocal<SHA3Digest> digests = new ThreadLocal<SHA3Digest>() {
+        @Override
+        protected SHA3Digest initialValue() {
+            return new SHA3Digest(256); // Init digest
+        }
+    };
+
+    /**
+     * Initialize a new signature cache with the default capacity.
+     */
+    public SignatureCache() {
+        this(DefaultCapacity); // Init cache
+    }
+
+    /**
+     * Initialize a new signature cache holding at most a given number of transactions.
+     *
+     * @param capacity max number of cached transactions
+     */
+    public SignatureCache(int capacity) {
+        if (capacity < 1) { // Check invalid capacity
+            throw new IllegalArgumentException("signature cache capacity must be positive"); // Panic
+        }
+
+        this.Capacity = capacity; // Set capacity
+    }
+
+    /**
+     * Verify the signature of a given transaction, skipping verification if it has
+     * already passed.
+     *
+     * @param transaction transaction to verify
+     * @return whether the transaction's signature is valid
+     */
+    public boolean Verify(Transaction transaction) {
+        if (this.Contains(transaction)) { // Check already verified
+            this.hits.incrementAndGet(); // Count hit
+
+            return true; // Valid
+        }
+
+        this.misses.incrementAndGet(); // Count miss
+
+        if (!Transaction.VerifyTransactionSignature(transaction)) { // Check invalid
+            return false; // Invalid
+        }
+
+        this.Add(transaction); // Cache
+
+        return true; // Valid
+    }
+
+    /**
+     * Check whether a given transaction has already been verified. Doesn't update the
+     * hit and miss counters.
+     *
+     * @param transaction transaction to check
+     * @return whether the transaction has already been verified
+     */
+    public boolean Contains(Transaction transaction) {
+        if (transaction == null || transaction.Hash == null || transaction.Signature == null) { // Check can't be cached
+            return false; // Not cached
+        }
+
+        byte[] fingerprint = this.verified.get(new ByteKey(transaction.Hash)); // Get fingerprint
+
+        return fingerprint != null && Arrays.equals(fingerprint, Fingerprint(transaction)); // Check same contents
+    }
+
+    /**
+     * Record a given transaction as having a valid signature. Callers must have
+     * verified it already.
+     *
+     * @param transaction verified transaction
+     */
+    public void Add(Transaction transaction) {
+        if (transaction == null || transaction.Hash == null || transaction.Signature == null) { // Check can't be cached
+            return; // Nothing to cache
+        }
+
+        ByteKey key = new ByteKey(transaction.Hash); // Init key
+
+        if (this.verified.put(key, Fingerprint(transaction)) == null) { // Check new entry
+            this.insertionOrder.add(key); // Track age
+        }
+
+        while (this.verified.size() > this.Capacity) { // Evict until within capacity
+            ByteKey oldest = this.insertionOrder.poll(); // Get oldest entry
+
+            if (oldest == null) { // Check raced with another evictor
+                break; // Done
+            }
+
+            this.verified.remove(oldest); // Evict
+        }
+    }
+
+    /**
+     * Get the number of lookups that skipped verification.
+     *
+     * @return number of hits
+     */
+    public long Hits() {
+        return this.hits.get(); // Return hits
+    }
+
+    /**
+     * Get the number of lookups that required verification.
+     *
+     * @return number of misses
+     */
+    public long Misses() {
+        return this.misses.get(); // Return misses
+    }
+
+    /**
+     * Get the number of cached transactions.
+     *
+     * @return number of cached transactions
+     */
+    public int Size() {
+        return this.verified.size(); // Return size
+    }
+
+    /**
+     * Calculate the fingerprint of a transaction's signed contents and signature.
+     *
+     * @param transaction transaction to fingerprint
+     * @return fingerprint
+     */
+    private static byte[] Fingerprint(Transaction transaction) {
+        SHA3Digest digest = digests.get(); // Get digest
+
+        byte[] preimage = transaction.SigningBytes(); // Get signed contents
+
+        digest.update(preimage, 0, preimage.length); // Write signed contents
+        digest.update(transaction.Signature.V); // Write v
+
+        update(digest, transaction.Signature.R); // Write r
+        update(digest, transaction.Signature.S); // Write s
+
+        byte[] fingerprint = new byte[digest.getDigestSize()]; // Init output
+
+        digest.doFinal(fingerprint, 0); // Hash
+
+        return fingerprint; // Return fingerprint
+    }
+
+    /**
+     * Write a length-prefixed byte array to a given digest.
+     *
+     * @param digest digest to write to
+     * @param b      byte array to write (may be null)
+     */
+    private static void update(SHA3Digest digest, byte[] b) {
+        int length = b == null ? -1 : b.length; // Get length
+
+        digest.update((byte) (length >>> 24)); // Write length
+        digest.update((byte) (length >>> 16)); // Write length
+        digest.update((byte) (length >>> 8)); // Write length
+        digest.update((byte) length); // Write length
+
+        if (b != null) { // Check has contents
+            digest.update(b, 0, b.length); // Write contents
+        }
+    }
+}
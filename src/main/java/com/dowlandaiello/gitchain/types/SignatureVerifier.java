@@ -0,0 +1,213 @@
+package com.dowlandaiello.gitchain.types;
+
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * SignatureVerifier checks the signatures of a batch of transactions (e.g. a block
+ * or a mempool batch) in parallel on a fork/join pool.
+ */
+public class SignatureVerifier {
+    /* Number of transactions below which a batch is verified on the calling thread */
+    public static final int SequentialThreshold = 8;
+
+    /* Pool verification tasks run on */
+    private final ForkJoinPool pool;
+
+    /* Whether the pool was created by (and should be shut down with) the verifier */
+    private final boolean ownsPool;
+
+    /* Cache of already verified transactions (null if uncached) */
+    private final SignatureCache cache;
+
+    /**
+     * Initialize a new signature verifier running on the common fork/join pool.
+     */
+    public SignatureVerifier() {
+        this((SignatureCache) null); // Init verifier
+    }
+
+    /**
+     * Initialize a new signature verifier running on the common fork/join pool, which
+     * skips transactions already present in a given cache and caches new successes.
+     *
+     * @param cache verified signature cache
+     */
+    public SignatureVerifier(SignatureCache cache) {
+        this.pool = ForkJoinPool.commonPool(); // Set pool
+        this.ownsPool = false; // Shared pool
+        this.cache = cache; // Set cache
+    }
+
+    /**
+     * Initialize a new signature verifier running on a dedicated pool with a given
+     * number of threads.
+     *
+     * @param parallelism number of verification threads
+     */
+    public SignatureVerifier(int parallelism) {
+        this(parallelism, null); // Init verifier
+    }
+
+    /**
+     * Initialize a new signature verifier running on a dedicated pool with a given
+     * number of threads, which skips transactions already present in a given cache
+     * and caches new successes.
+     *
+     * @param parallelism number of verification threads
+     * @param cache       verified signature cache (null if uncached)
+     */
+    public SignatureVerifier(int parallelism, SignatureCache cache) {
+        this.pool = new ForkJoinPool(Math.max(1, parallelism)); // Init pool
+        this.ownsPool = true; // Dedicated pool
+        this.cache = cache; // Set cache
+    }
+
+    /**
+     * Verify the signature of every transaction in a given block.
+     *
+     * @param block block to verify
+     * @return set of indexes of transactions with a valid signature
+     */
+    public BitSet Verify(Block block) {
+        return this.Verify(block.Transactions); // Verify transactions
+    }
+
+    /**
+     * Verify the signature of every transaction in a given batch.
+     *
+     * @param transactions transactions to verify
+     * @return set of indexes of transactions with a valid signature
+     */
+    public BitSet Verify(Transaction[] transactions) {
+        boolean[] valid = new boolean[transactions.length]; // Init results
+
+        if (transactions.length <= SequentialThreshold) { // Check small batch
+            new VerifyTask(transactions, valid, this.cache, 0, transactions.length).compute(); // Verify on calling thread
+        } else {
+            this.pool.invoke(new VerifyTask(transactions, valid, this.cache, 0, transactions.length)); // Verify in parallel
+        }
+
+        BitSet results = new BitSet(transactions.length); // Init bitmap
+
+        for (int i = 0; i < valid.length; i++) { // Iterate through results
+            if (valid[i]) { // Check valid
+                results.set(i); // Set valid
+            }
+        }
+
+        return results; // Return results
+    }
+
+    /**
+     * Check that every transaction in a given batch has a valid signature.
+     *
+     * @param transactions transactions to verify
+     * @return whether every signature is valid
+     */
+    public boolean VerifyAll(Transaction[] transactions) {
+        return this.Verify(transactions).cardinality() == transactions.length; // Check all valid
+    }
+
+    /**
+     * Check that every transaction in a given block with a sender has a valid
+     * signature. Mints (transactions without a sender) carry no signature.
+     *
+     * @param block block to verify
+     * @return whether every signature is valid
+     */
+    public boolean VerifyBlock(Block block) {
+        if (block.Transactions == null) { // Check no transactions
+            return true; // Nothing to verify
+        }
+
+        BitSet valid = this.Verify(block.Transactions); // Verify transactions
+
+        for (int i = valid.nextClearBit(0); i < block.Transactions.length; i = valid.nextClearBit(i + 1)) { // Iterate through invalid transactions
+            Transaction transaction = block.Transactions[i]; // Get transaction
+
+            if (transaction == null || (transaction.Sender != null && transaction.Sender.length != 0)) { // Check missing, not a mint
+                return false; // Invalid
+            }
+        }
+
+        return true; // Valid
+    }
+
+    /**
+     * Stop the verifier's dedicated pool, if it has one.
+     */
+    public void Shutdown() {
+        if (this.ownsPool) { // Check dedicated pool
+            this.pool.shutdown(); // Stop pool
+        }
+    }
+
+    /**
+     * VerifyTask verifies a range of a batch, splitting it in half until it is small
+     * enough to verify directly.
+     */
+    private static class VerifyTask extends RecursiveAction {
+        /* lol serialization */
+        static final long serialVersionUID = 1L;
+
+        /* Batch being verified */
+        private final Transaction[] transactions;
+
+        /* Per-transaction results */
+        private final boolean[] valid;
+
+        /* Verified signature cache (null if uncached) */
+        private final SignatureCache cache;
+
+        /* First index of range */
+        private final int start;
+
+        /* Last index of range (exclusive) */
+        private final int end;
+
+        /**
+         * Initialize a new verification task.
+         *
+         * @param transactions batch being verified
+         * @param valid        per-transaction results
+         * @param cache        verified signature cache (null if uncached)
+         * @param start        first index of range
+         * @param end          last index of range (exclusive)
+         */
+        VerifyTask(Transaction[] transactions, boolean[] valid, SignatureCache cache, int start, int end) {
+            this.transactions = transactions; // Set transactions
+            this.valid = valid; // Set results
+            this.cache = cache; // Set cache
+            this.start = start; // Set start
+            this.end = end; // Set end
+        }
+
+        /**
+         * Verify the task's range.
+         */
+        @Override
+        protected void compute() {
+            if (this.end - this.start <= SequentialThreshold) { // Check small enough
+                for (int i = this.start; i < this.end; i++) { // Iterate through range
+                    Transaction transaction = this.transactions[i]; // Get transaction
+
+                    if (transaction == null) { // Check missing transaction
+                        continue; // Invalid
+                    }
+
+                    this.valid[i] = this.cache != null ? this.cache.Verify(transaction)
+                            : Transaction.VerifyTransactionSignature(transaction); // Verify
+                }
+
+                return; // Done
+            }
+
+            int middle = (this.start + this.end) >>> 1; // Split range
+
+            invokeAll(new VerifyTask(this.transactions, this.valid, this.cache, this.start, middle),
+                    new VerifyTask(this.transactions, this.valid, this.cache, middle, this.end)); // Verify halves
+        }
+    }
+}
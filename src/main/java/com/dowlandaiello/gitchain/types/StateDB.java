@@ -0,0 +1,707 @@
+package com.dowlandaiello.gitchain.types;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.dowlandaiello.gitchain.common.ByteKey;
+import com.dowlandaiello.gitchain.common.CommonCodec;
+import com.dowlandaiello.gitchain.common.CommonCoin;
+import com.dowlandaiello.gitchain.common.CommonDB;
+import com.dowlandaiello.gitchain.common.CommonIO;
+
+import org.iq80.leveldb.WriteBatch;
+import org.iq80.leveldb.WriteOptions;
+
+/**
+ * StateDB is the balance and next nonce of every account, kept up to date by
+ * block import. Changes are written back: accounts touched by recent blocks are
+ * held in memory and flushed into the block db together with a later block's
+ * batch (every FlushInterval blocks, or once too many accounts are dirty),
+ * along with the height of that block. Accounts read from the db are kept in
+ * a bounded LRU cache, so lookups for mempool admission and block validation
+ * are hash map lookups in the common case.
+ *
+ * Every account is also committed to by a state trie, whose root after each
+ * block must match the block's StateRoot. Trie nodes are flushed along with
+ * the accounts. When several blocks share a batch (a reorganization or a
+ * batched import), the flush is written once and each later block in the batch
+ * only adds the accounts and trie nodes it changed.
+ *
+ * Since flushes are written in the same batch as a block, the flushed state
+ * always matches a block on the canonical chain; blocks added after the last
+ * flush are replayed when the state db is opened again. Each block's batch also
+ * holds the prior states of the accounts it changes, so the block can be
+ * reverted if the chain reorganizes. A reorganization reverting a flushed
+ * block always flushes.
+ *
+ * A transaction with an empty sender mints its value to its recipient. The
+ * genesis block may hold any number of mints (its allocations); any later block
+ * holds at most one, its miner's reward, of at most CommonCoin.BlockReward. Any
+ * other transaction must carry a valid signature by its sender (checked before
+ * the sender is debited), the sender's next nonce, and a value covered by the
+ * sender's balance.
+ */
+public class StateDB implements Blockchain.StateTransition {
+    /* Default number of blocks between flushes */
+    public static final int DefaultFlushInterval = 64;
+
+    /* Default max number of clean accounts cached */
+    public static final int DefaultCacheSize = 65536;
+
+    /* Max number of dirty accounts held before flushing early */
+    public static final int MaxDirty = 16384;
+
+    /* Max number of dirty state trie nodes held before flushing early */
+    public static final int MaxDirtyNodes = 262144;
+
+    /* Number of blocks between flushes */
+    public final int FlushInterval;
+
+    /* Max number of clean accounts cached */
+    public final int CacheSize;
+
+    /* Chain the state is derived from (null if memory only) */
+    private final Blockchain chain;
+
+    /* Trie committing to every account */
+    private final StateTrie trie;
+
+    /* Accounts changed by the blocks being staged */
+    private final HashMap<ByteKey, AccountState> overlay = new HashMap<ByteKey, AccountState>();
+
+    /* States before the block being staged of the accounts it changes */
+    private final HashMap<ByteKey, AccountState> undo = new HashMap<ByteKey, AccountState>();
+
+    /* Accounts changed since the last flush */
+    private final HashMap<ByteKey, AccountState> dirty = new HashMap<ByteKey, AccountState>();
+
+    /* Accounts matching the db, least recently used first */
+    private final LinkedHashMap<ByteKey, AccountState> clean;
+
+    /* Whether the staged blocks' batch flushes the dirty accounts */
+    private boolean flushPending;
+
+    /* Whether the staged blocks' batch already holds a full flush */
+    private boolean flushWritten;
+
+    /* Height of the staged block */
+    private long stagedHeight;
+
+    /* Trie root before the staged blocks (null if nothing is staged) */
+    private byte[] stagedFrom;
+
+    /* Height of the last block whose state was flushed (-1 if none) */
+    private long flushedHeight;
+
+    /**
+     * Open the account state of a given chain with the default flush interval and
+     * cache size, and attach it to the chain.
+     *
+     * @param chain chain to derive state from
+     */
+    public StateDB(Blockchain chain) {
+        this(chain, DefaultFlushInterval, DefaultCacheSize); // Open state
+    }
+
+    /**
+     * Open the account state of a given chain, replaying any blocks added since the
+     * last flush, and attach it to the chain.
+     *
+     * @param chain         chain to derive state from
+     * @param flushInterval number of blocks between flushes
+     * @param cacheSize     max number of clean accounts cached
+     */
+    public StateDB(Blockchain chain, int flushInterval, final int cacheSize) {
+        if (flushInterval < 1 || cacheSize < 1) { // Check invalid config
+            throw new IllegalArgumentException("state db flush interval and cache size must be positive"); // Panic
+        }
+
+        this.FlushInterval = flushInterval; // Set flush interval
+        this.CacheSize = cacheSize; // Set cache size
+        this.chain = chain; // Set chain
+        this.clean = makeCache(cacheSize); // Init cache
+
+        synchronized (chain) {
+            byte[] rawHeight = chain.BlockDB.get(CommonDB.StateHeightKey); // Get flushed height
+            byte[] root = chain.BlockDB.get(CommonDB.StateRootKey); // Get flushed root
+
+            this.flushedHeight = rawHeight == null ? -1 : CommonDB.DecodeLong(rawHeight, 0); // Set flushed height
+            this.trie = new StateTrie(chain.BlockDB, root == null ? StateTrie.EmptyRoot : root, StateTrie.DefaultCacheSize); // Open trie
+
+            this.replay(this.flushedHeight + 1, chain.Height); // Catch up to head
+
+            if (!this.Flush()) { // Persist replayed state
+                throw new IllegalStateException("failed to flush replayed state"); // Panic
+            }
+
+            chain.State = this; // Attach to chain
+        }
+    }
+
+    /**
+     * Initialize an empty account state held in memory.
+     */
+    private StateDB() {
+        this.FlushInterval = Integer.MAX_VALUE; // Never flush
+        this.CacheSize = 1; // Nothing to cache
+        this.chain = null; // No chain
+        this.clean = makeCache(1); // Init cache
+        this.trie = new StateTrie(); // Init trie
+        this.flushedHeight = -1; // Nothing flushed
+    }
+
+    /**
+     * Calculate the state root of a genesis block holding a given set of
+     * transactions.
+     *
+     * @param transactions genesis transactions
+     * @return state root (null if the transactions aren't valid)
+     */
+    public static byte[] GenesisRoot(Transaction[] transactions) {
+        return new StateDB().RootAfter(transactions); // Return root
+    }
+
+    /**
+     * Stage a given block on top of the current state, writing a flush into the
+     * block's batch if one is due.
+     *
+     * @param batch  batch to write state changes to
+     * @param block  block being committed
+     * @param height height of the block
+     * @return whether every transaction in the block is valid, and the block's
+     *         state root matches
+     */
+    @Override
+    public synchronized boolean Apply(WriteBatch batch, Block block, long height) {
+        this.stagedHeight = height; // Set staged height
+
+        if (this.stagedFrom == null) { // Check first staged block
+            this.stagedFrom = this.trie.Root(); // Remember root
+        }
+
+        if (!this.stage(block.Transactions, height) || !Arrays.equals(this.trie.Root(), block.StateRoot)) { // Apply block
+            return false; // Invalid
+        }
+
+        batch.put(CommonDB.UndoKey(block.Hash), encodeUndo(this.undo)); // Write undo record
+
+        this.flushPending = this.flushPending || height - this.flushedHeight >= this.FlushInterval
+                || this.dirty.size() + this.overlay.size() > MaxDirty || this.trie.Dirty() > MaxDirtyNodes; // Check flush due
+
+        if (this.flushPending) { // Check flush due
+            if (this.flushWritten) { // Check earlier staged block flushed into the batch
+                for (ByteKey account : this.undo.keySet()) { // Iterate through changed accounts
+                    this.write(batch, account, this.overlay.get(account)); // Write block's changes
+                }
+            } else {
+                this.write(batch, this.dirty); // Write earlier blocks
+                this.write(batch, this.overlay); // Write staged blocks
+
+                this.flushWritten = true; // Later staged blocks only write their changes
+            }
+
+            this.trie.Commit(batch); // Write new trie nodes
+
+            batch.put(CommonDB.StateRootKey, this.trie.Root()); // Write flushed root
+            batch.put(CommonDB.StateHeightKey, CommonDB.EncodeLong(height)); // Write flushed height
+        }
+
+        return true; // Valid
+    }
+
+    /**
+     * Stage undoing a given block, restoring the accounts it changed from its undo
+     * record.
+     *
+     * @param batch  batch to write state changes to
+     * @param block  block being detached
+     * @param height height of the block
+     * @return whether the block's undo record was found
+     */
+    @Override
+    public synchronized boolean Revert(WriteBatch batch, Block block, long height) {
+        byte[] rawUndo = this.chain == null ? null : this.chain.BlockDB.get(CommonDB.UndoKey(block.Hash)); // Get undo record
+
+        if (rawUndo == null) { // Check can't undo
+            return false; // Failed
+        }
+
+        if (this.stagedFrom == null) { // Check first staged block
+            this.stagedFrom = this.trie.Root(); // Remember root
+        }
+
+        byte[][] entries = decodeUndo(rawUndo); // Decode undo record
+
+        for (int i = 0; i < entries.length; i += 2) { // Iterate through changed accounts
+            AccountState prior = entries[i + 1] == null ? AccountState.Empty : new AccountState(entries[i + 1]); // Get prior state
+
+            this.overlay.put(new ByteKey(entries[i]), prior); // Restore state
+            this.trie.Put(entries[i], entries[i + 1]); // Restore trie entry
+        }
+
+        batch.delete(CommonDB.UndoKey(block.Hash)); // Remove undo record
+
+        this.stagedHeight = height - 1; // Set staged height
+
+        if (height <= this.flushedHeight) { // Check flushed state is being detached
+            this.flushPending = true; // Flush with the new branch
+        }
+
+        return true; // Success
+    }
+
+    /**
+     * Make the staged blocks' changes current.
+     */
+    @Override
+    public synchronized void Commit() {
+        this.dirty.putAll(this.overlay); // Keep changes
+        this.overlay.clear(); // Reset staged block
+        this.stagedFrom = null; // Nothing staged
+        this.flushWritten = false; // Reset flush
+
+        if (this.flushPending) { // Check changes were flushed
+            this.clean.putAll(this.dirty); // Cache flushed accounts
+            this.dirty.clear(); // Reset dirty accounts
+            this.trie.Committed(); // Forget flushed trie nodes
+
+            this.flushedHeight = this.stagedHeight; // Set flushed height
+            this.flushPending = false; // Reset flush
+        }
+    }
+
+    /**
+     * Drop the staged blocks' changes.
+     */
+    @Override
+    public synchronized void Discard() {
+        if (this.stagedFrom != null) { // Check staged
+            this.trie.Reset(this.stagedFrom); // Reset trie
+        }
+
+        this.overlay.clear(); // Reset staged block
+        this.stagedFrom = null; // Nothing staged
+        this.flushPending = false; // Reset flush
+        this.flushWritten = false; // Reset flush
+    }
+
+    /**
+     * Calculate the state root a block holding a given set of transactions would
+     * need on top of the current state (as the next block of the chain, or as
+     * the genesis block of a memory only state), without changing it.
+     *
+     * @param transactions block transactions
+     * @return state root (null if the transactions aren't valid)
+     */
+    public byte[] RootAfter(Transaction[] transactions) {
+        if (this.chain == null) { // Check memory only
+            return this.rootAfter(transactions); // Return root
+        }
+
+        synchronized (this.chain) {
+            return this.rootAfter(transactions); // Return root
+        }
+    }
+
+    /**
+     * Get the current state root.
+     *
+     * @return state root
+     */
+    public synchronized byte[] Root() {
+        return this.trie.Root(); // Return root
+    }
+
+    /**
+     * Prove the state of a given account against the current state root. The
+     * proven value is the account's encoded AccountState (absent if the account
+     * was never seen).
+     *
+     * @param account account address
+     * @return proof
+     */
+    public synchronized StateProof Prove(byte[] account) {
+        return this.trie.Prove(account); // Return proof
+    }
+
+    /**
+     * Get the balance of a given account.
+     *
+     * @param account account address
+     * @return account balance
+     */
+    public synchronized double Balance(byte[] account) {
+        return this.get(new ByteKey(account), false).Balance; // Return balance
+    }
+
+    /**
+     * Get the nonce the next transaction from a given account must carry.
+     *
+     * @param account account address
+     * @return next nonce
+     */
+    public synchronized long NextNonce(byte[] account) {
+        return this.get(new ByteKey(account), false).Nonce; // Return nonce
+    }
+
+    /**
+     * Check whether a given transaction could be included in a later block: its
+     * nonce mustn't have been used yet, and its sender must be able to cover it.
+     *
+     * @param transaction transaction to check
+     * @return whether the transaction is admissible
+     */
+    public synchronized boolean Admissible(Transaction transaction) {
+        if (transaction.Sender == null || transaction.Sender.length == 0 || !(transaction.Value >= 0)) { // Check mint or invalid value
+            return false; // Not admissible
+        }
+
+        AccountState sender = this.get(new ByteKey(transaction.Sender), false); // Get sender state
+
+        return transaction.AccountNonce >= sender.Nonce && sender.Balance >= transaction.Value; // Check nonce unused, balance sufficient
+    }
+
+    /**
+     * Write every dirty account and state trie node into the block db.
+     *
+     * @return whether the state was flushed
+     */
+    public boolean Flush() {
+        if (this.chain == null) { // Check memory only
+            return false; // Nothing to flush to
+        }
+
+        synchronized (this.chain) {
+            synchronized (this) {
+                if (this.dirty.isEmpty() && this.trie.Dirty() == 0) { // Check nothing to flush
+                    return true; // Success
+                }
+
+                WriteBatch batch = this.chain.BlockDB.createWriteBatch(); // Init batch
+
+                try {
+                    this.write(batch, this.dirty); // Write dirty accounts
+                    this.trie.Commit(batch); // Write trie nodes
+
+                    batch.put(CommonDB.StateRootKey, this.trie.Root()); // Write flushed root
+                    batch.put(CommonDB.StateHeightKey, CommonDB.EncodeLong(this.chain.Height)); // Write flushed height
+
+                    this.chain.BlockDB.write(batch, new WriteOptions().sync(this.chain.SyncOnCommit)); // Write batch
+                } catch (RuntimeException e) { // Catch
+                    if (!CommonIO.StdoutSilenced) { // Check can print
+                        e.printStackTrace(); // Print stack trace
+                    }
+
+                    return false; // Failed
+                } finally {
+                    try {
+                        batch.close(); // Close batch
+                    } catch (IOException e) { // Catch
+                        if (!CommonIO.StdoutSilenced) { // Check can print
+                            e.printStackTrace(); // Print stack trace
+                        }
+                    }
+                }
+
+                this.clean.putAll(this.dirty); // Cache flushed accounts
+                this.dirty.clear(); // Reset dirty accounts
+                this.trie.Committed(); // Forget flushed trie nodes
+
+                this.flushedHeight = this.chain.Height; // Set flushed height
+
+                return true; // Success
+            }
+        }
+    }
+
+    /**
+     * Get the number of accounts changed since the last flush.
+     *
+     * @return number of dirty accounts
+     */
+    public synchronized int Dirty() {
+        return this.dirty.size(); // Return dirty count
+    }
+
+    /**
+     * Get the height of the last block whose state was flushed.
+     *
+     * @return flushed height (-1 if none)
+     */
+    public synchronized long FlushedHeight() {
+        return this.flushedHeight; // Return flushed height
+    }
+
+    /**
+     * Calculate the state root after a given set of transactions without changing
+     * the state.
+     *
+     * @param transactions block transactions
+     * @return state root (null if the transactions aren't valid)
+     */
+    private synchronized byte[] rootAfter(Transaction[] transactions) {
+        byte[] from = this.trie.Root(); // Remember root
+
+        long height = this.chain == null ? 0 : this.chain.Height + 1; // Get height of the next block
+
+        byte[] root = this.stage(transactions, height) ? this.trie.Root() : null; // Stage transactions
+
+        this.trie.Reset(from); // Reset trie
+        this.overlay.clear(); // Reset staged block
+
+        return root; // Return root
+    }
+
+    /**
+     * Apply a given set of transactions to the staged block and the trie. Nothing
+     * is staged if any transaction is invalid.
+     *
+     * @param transactions transactions to apply (null if none)
+     * @param height       height of the block holding the transactions
+     * @return whether every transaction is valid
+     */
+    private boolean stage(Transaction[] transactions, long height) {
+        this.undo.clear(); // Reset prior states
+
+        if (transactions != null) { // Check has transactions
+            boolean minted = false; // Init reward minted
+
+            for (Transaction transaction : transactions) { // Iterate through transactions
+                if (height != 0 && (transaction.Sender == null || transaction.Sender.length == 0)) { // Check mint after genesis
+                    if (minted || !(transaction.Value <= CommonCoin.BlockReward)) { // Check second mint, mint above reward
+                        return false; // Invalid (caller drops the staged blocks)
+                    }
+
+                    minted = true; // Reward minted
+                }
+
+                if (!this.stage(transaction)) { // Apply transaction
+                    return false; // Invalid (caller drops the staged blocks)
+                }
+            }
+        }
+
+        for (ByteKey account : this.undo.keySet()) { // Iterate through changed accounts
+            this.trie.Put(account.Bytes, this.overlay.get(account).Bytes()); // Update trie
+        }
+
+        return true; // Valid
+    }
+
+    /**
+     * Apply a given transaction to the staged block.
+     *
+     * @param transaction transaction to apply
+     * @return whether the transaction is valid
+     */
+    private boolean stage(Transaction transaction) {
+        if (!(transaction.Value >= 0) || transaction.Recipient == null) { // Check invalid value, no recipient
+            return false; // Invalid
+        }
+
+        if (transaction.Sender != null && transaction.Sender.length != 0) { // Check not a mint
+            if (!this.verify(transaction)) { // Check invalid signature
+                return false; // Invalid
+            }
+
+            ByteKey senderKey = new ByteKey(transaction.Sender); // Get sender key
+
+            AccountState sender = this.get(senderKey, true); // Get sender state
+
+            if (transaction.AccountNonce != sender.Nonce || sender.Balance < transaction.Value) { // Check wrong nonce, insufficient balance
+                return false; // Invalid
+            }
+
+            this.change(senderKey, sender, sender.Debit(transaction.Value)); // Debit sender
+        }
+
+        ByteKey recipientKey = new ByteKey(transaction.Recipient); // Get recipient key
+        AccountState recipient = this.get(recipientKey, true); // Get recipient state
+
+        this.change(recipientKey, recipient, recipient.Credit(transaction.Value)); // Credit recipient
+
+        return true; // Valid
+    }
+
+    /**
+     * Verify the signature of a given transaction, through the chain's signature
+     * cache if the state has a chain (transactions of an added block were
+     * already verified by it).
+     *
+     * @param transaction transaction to verify
+     * @return whether the signature is valid
+     */
+    private boolean verify(Transaction transaction) {
+        return this.chain != null ? this.chain.Signatures.Verify(transaction) : Transaction.VerifyTransactionSignature(transaction); // Verify
+    }
+
+    /**
+     * Stage a change to a given account, remembering its state before the block.
+     *
+     * @param key   account key
+     * @param prior current state of the account
+     * @param state new state of the account
+     */
+    private void change(ByteKey key, AccountState prior, AccountState state) {
+        if (!this.undo.containsKey(key)) { // Check first change in block
+            this.undo.put(key, prior); // Remember prior state
+        }
+
+        this.overlay.put(key, state); // Stage state
+    }
+
+    /**
+     * Get the state of a given account, looking through the staged blocks, dirty
+     * accounts, cached accounts, and the block db in order.
+     *
+     * @param key    account key
+     * @param staged whether to see the staged block
+     * @return account state (empty if never seen)
+     */
+    private AccountState get(ByteKey key, boolean staged) {
+        AccountState state = staged ? this.overlay.get(key) : null; // Get staged state
+
+        if (state == null) { // Check not staged
+            state = this.dirty.get(key); // Get dirty state
+        }
+
+        if (state == null) { // Check not dirty
+            state = this.clean.get(key); // Get cached state
+        }
+
+        if (state != null) { // Check found
+            return state; // Return state
+        }
+
+        byte[] rawState = this.chain == null ? null : this.chain.BlockDB.get(CommonDB.AccountKey(key.Bytes)); // Read state
+
+        state = rawState == null ? AccountState.Empty : new AccountState(rawState); // Decode state
+
+        this.clean.put(key, state); // Cache state
+
+        return state; // Return state
+    }
+
+    /**
+     * Write a given set of accounts to a batch.
+     *
+     * @param batch    batch to write to
+     * @param accounts accounts to write
+     */
+    private void write(WriteBatch batch, Map<ByteKey, AccountState> accounts) {
+        for (Map.Entry<ByteKey, AccountState> account : accounts.entrySet()) { // Iterate through accounts
+            this.write(batch, account.getKey(), account.getValue()); // Write account
+        }
+    }
+
+    /**
+     * Write the state of a given account to a given batch.
+     *
+     * @param batch   batch to write to
+     * @param account account key
+     * @param state   account state (AccountState.Empty removes the account)
+     */
+    private void write(WriteBatch batch, ByteKey account, AccountState state) {
+        if (state == AccountState.Empty) { // Check account no longer exists (reverted)
+            batch.delete(CommonDB.AccountKey(account.Bytes)); // Remove account
+        } else {
+            batch.put(CommonDB.AccountKey(account.Bytes), state.Bytes()); // Write account
+        }
+    }
+
+    /**
+     * Encode the prior states of the accounts a block changes. Accounts that didn't
+     * exist before the block are encoded as null.
+     *
+     * @param undo prior states by account
+     * @return encoded undo record
+     */
+    private static byte[] encodeUndo(Map<ByteKey, AccountState> undo) {
+        byte[][] entries = new byte[2 * undo.size()][]; // Init entries
+
+        int i = 0; // Init index
+
+        for (Map.Entry<ByteKey, AccountState> account : undo.entrySet()) { // Iterate through accounts
+            entries[i++] = account.getKey().Bytes; // Set account
+            entries[i++] = account.getValue() == AccountState.Empty ? null : account.getValue().Bytes(); // Set prior state
+        }
+
+        ByteBuffer buffer = CommonCodec.GetBuffer(CommonCodec.SizeOf(entries)); // Get buffer
+
+        CommonCodec.WriteBytesArray(buffer, entries); // Write entries
+
+        return CommonCodec.ToArray(buffer); // Return encoded
+    }
+
+    /**
+     * Decode an undo record into alternating accounts and prior states.
+     *
+     * @param rawUndo encoded undo record
+     * @return accounts and prior states (null if the account didn't exist)
+     */
+    private static byte[][] decodeUndo(byte[] rawUndo) {
+        byte[][] entries = CommonCodec.ReadBytesArray(ByteBuffer.wrap(rawUndo)); // Read entries
+
+        if (entries == null || entries.length % 2 != 0) { // Check malformed
+            throw new IllegalStateException("malformed state undo record"); // Panic
+        }
+
+        return entries; // Return entries
+    }
+
+    /**
+     * Replay the canonical blocks in a given height range on top of the state.
+     *
+     * @param startHeight first height to replay
+     * @param endHeight   last height to replay (inclusive)
+     */
+    private void replay(long startHeight, long endHeight) {
+        if (startHeight > endHeight) { // Check nothing to replay
+            return; // Caught up
+        }
+
+        BlockIterator iterator = this.chain.IterateBlocks(startHeight, endHeight); // Get iterator
+
+        try {
+            for (long height = startHeight; iterator.hasNext(); height++) { // Iterate through blocks
+                Block block = iterator.next(); // Get block
+
+                if (!this.stage(block.Transactions, height) || !Arrays.equals(this.trie.Root(), block.StateRoot)) { // Apply block
+                    throw new IllegalStateException("canonical block has an invalid state transition"); // Panic
+                }
+
+                this.dirty.putAll(this.overlay); // Keep changes
+                this.overlay.clear(); // Reset staged block
+            }
+        } finally {
+            try {
+                iterator.close(); // Close iterator
+            } catch (IOException e) { // Catch
+                if (!CommonIO.StdoutSilenced) { // Check can print
+                    e.printStackTrace(); // Print stack trace
+                }
+            }
+        }
+    }
+
+    /**
+     * Make a bounded LRU account cache.
+     *
+     * @param cacheSize max number of accounts cached
+     * @return account cache
+     */
+    private static LinkedHashMap<ByteKey, AccountState> makeCache(final int cacheSize) {
+        return new LinkedHashMap<ByteKey, AccountState>(16, 0.75f, true) {
+            static final long serialVersionUID = CommonIO.SerialVersionUID;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteKey, AccountState> eldest) {
+                return this.size() > cacheSize; // Evict least recently used
+            }
+        }; // Return cache
+    }
+}
@@ -0,0 +1,125 @@
+package com.dowlandaiello.gitchain.types;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import com.dowlandaiello.gitchain.common.CommonCodec;
+import com.dowlandaiello.gitchain.crypto.Sha;
+
+/**
+ * StateProof is a proof of the value stored under a single key of a state
+ * trie with a given root (or of the key's absence), verifiable without the
+ * rest of the trie.
+ *
+ * A proof is the path from the root down to where the key would be: the
+ * sibling of every branch on the way, and the leaf found at the end (if any).
+ * If that leaf belongs to another key, the key is absent.
+ */
+public class StateProof {
+    /* Sibling hashes from the root down */
+    public final byte[][] Siblings;
+
+    /* Path of the leaf the proof ends at (null if it ends at an empty subtree) */
+    public final byte[] LeafPath;
+
+    /* Value of the leaf the proof ends at (null if it ends at an empty subtree) */
+    public final byte[] LeafValue;
+
+    /**
+     * Initialize a new state proof.
+     *
+     * @param siblings  sibling hashes, root level first
+     * @param leafPath  path of the leaf found (null if none)
+     * @param leafValue value of the leaf found (null if none)
+     */
+    public StateProof(byte[][] siblings, byte[] leafPath, byte[] leafValue) {
+        this.Siblings = siblings; // Set siblings
+        this.LeafPath = leafPath; // Set leaf path
+        this.LeafValue = leafValue; // Set leaf value
+    }
+
+    /**
+     * Deserialize a state proof from a given byte array.
+     *
+     * @param rawBytes raw data to deserialize
+     */
+    public StateProof(byte[] rawBytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(rawBytes); // Wrap input
+
+        CommonCodec.ReadHeader(buffer, CommonCodec.StateProofTag); // Read header
+
+        this.Siblings = CommonCodec.ReadBytesArray(buffer); // Read siblings
+        this.LeafPath = CommonCodec.ReadBytes(buffer); // Read leaf path
+        this.LeafValue = CommonCodec.ReadBytes(buffer); // Read leaf value
+
+        if (this.Siblings == null || (this.LeafPath == null) != (this.LeafValue == null)) { // Check invalid proof
+            throw new IllegalArgumentException("invalid state proof"); // Panic
+        }
+    }
+
+    /**
+     * Serialize the proof to a byte array.
+     *
+     * @return serialized proof
+     */
+    public byte[] Bytes() {
+        ByteBuffer buffer = CommonCodec.GetBuffer(CommonCodec.HeaderSize + CommonCodec.SizeOf(this.Siblings)
+                + CommonCodec.SizeOf(this.LeafPath) + CommonCodec.SizeOf(this.LeafValue)); // Get buffer
+
+        CommonCodec.WriteHeader(buffer, CommonCodec.StateProofTag); // Write header
+        CommonCodec.WriteBytesArray(buffer, this.Siblings); // Write siblings
+        CommonCodec.WriteBytes(buffer, this.LeafPath); // Write leaf path
+        CommonCodec.WriteBytes(buffer, this.LeafValue); // Write leaf value
+
+        return CommonCodec.ToArray(buffer); // Return encoded
+    }
+
+    /**
+     * Check that a given key holds a given value in a trie with a given root.
+     *
+     * @param key   key to check
+     * @param value expected value (null to check the key is absent)
+     * @param root  trie root to check against
+     * @return whether the proof is valid
+     */
+    public boolean Verify(byte[] key, byte[] value, byte[] root) {
+        if (key == null || root == null || this.Siblings.length >= MerkleTree.HashSize * 8) { // Check invalid input
+            return false; // Invalid
+        }
+
+        byte[] path = Sha.Sha3(key); // Get path
+        byte[] hash = StateTrie.EmptyRoot; // Init terminal hash
+
+        if (this.LeafPath != null) { // Check ends at leaf
+            if (this.LeafPath.length != path.length || this.LeafValue == null) { // Check malformed leaf
+                return false; // Invalid
+            }
+
+            for (int i = 0; i < this.Siblings.length; i++) { // Iterate through levels
+                if (StateTrie.bit(this.LeafPath, i) != StateTrie.bit(path, i)) { // Check leaf elsewhere in trie
+                    return false; // Invalid
+                }
+            }
+
+            hash = StateTrie.hashLeaf(this.LeafPath, this.LeafValue); // Hash leaf
+        }
+
+        boolean found = this.LeafPath != null && Arrays.equals(this.LeafPath, path); // Check leaf is key's
+
+        if (value == null ? found : !found || !Arrays.equals(this.LeafValue, value)) { // Check wrong value
+            return false; // Invalid
+        }
+
+        for (int depth = this.Siblings.length - 1; depth >= 0; depth--) { // Walk up trie
+            byte[] sibling = this.Siblings[depth]; // Get sibling
+
+            if (sibling == null || sibling.length != MerkleTree.HashSize) { // Check malformed sibling
+                return false; // Invalid
+            }
+
+            hash = StateTrie.bit(path, depth) ? MerkleTree.HashNode(sibling, hash) : MerkleTree.HashNode(hash, sibling); // Hash with sibling
+        }
+
+        return Arrays.equals(hash, root); // Check root
+    }
+}
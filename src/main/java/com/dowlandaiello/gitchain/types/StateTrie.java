@@ -0,0 +1,480 @@
+package com.dowlandaiello.gitchain.types;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.dowlandaiello.gitchain.common.ByteKey;
+import com.dowlandaiello.gitchain.common.CommonDB;
+import com.dowlandaiello.gitchain.common.CommonIO;
+import com.dowlandaiello.gitchain.crypto.Sha;
+
+import org.iq80.leveldb.DB;
+import org.iq80.leveldb.WriteBatch;
+
+/**
+ * StateTrie is an authenticated key-value map: a binary merkle trie over the
+ * sha3 of each key, whose root commits to every entry.
+ *
+ * A subtree holding a single entry is stored as just that entry's leaf, so a
+ * lookup only walks as deep as the keys actually diverge (about log2 of the
+ * number of entries). The shape of the trie only depends on the set of keys,
+ * so equal contents always give equal roots. Leaves are hashed as
+ * sha3(0x00 || path || value) and branches as sha3(0x01 || left || right)
+ * (see MerkleTree); an empty subtree hashes to EmptyRoot.
+ *
+ * Nodes are immutable and stored by hash. New nodes are held in memory until
+ * Commit writes the ones still reachable from the root into a batch, so nodes
+ * made obsolete by later changes before a commit are never written. Nodes read
+ * from the db are kept in a bounded LRU cache. A trie isn't thread safe.
+ */
+public class StateTrie {
+    /* Root of an empty trie */
+    public static final byte[] EmptyRoot = new byte[MerkleTree.HashSize];
+
+    /* Default max number of clean nodes cached */
+    public static final int DefaultCacheSize = 65536;
+
+    /* Leaf node tag */
+    private static final byte LeafTag = 0;
+
+    /* Branch node tag */
+    private static final byte BranchTag = 1;
+
+    /* Database nodes are stored in (null if memory only) */
+    private final DB db;
+
+    /* Nodes made since the last commit */
+    private final HashMap<ByteKey, Node> dirty = new HashMap<ByteKey, Node>();
+
+    /* Nodes written since the last Committed, until their batch is written */
+    private final HashMap<ByteKey, Node> pending = new HashMap<ByteKey, Node>();
+
+    /* Nodes read from the db, least recently used first */
+    private final LinkedHashMap<ByteKey, Node> clean;
+
+    /* Current root */
+    private byte[] root;
+
+    /**
+     * Initialize an empty trie held in memory.
+     */
+    public StateTrie() {
+        this(null, EmptyRoot, DefaultCacheSize); // Init trie
+    }
+
+    /**
+     * Open the trie with a given root stored in a given database.
+     *
+     * @param db        database to read and commit nodes (null if memory only)
+     * @param root      trie root
+     * @param cacheSize max number of clean nodes cached
+     */
+    public StateTrie(DB db, byte[] root, final int cacheSize) {
+        if (cacheSize < 1 || root == null || root.length != MerkleTree.HashSize) { // Check invalid config
+            throw new IllegalArgumentException("invalid state trie root or cache size"); // Panic
+        }
+
+        this.db = db; // Set db
+        this.root = root; // Set root
+
+        this.clean = new LinkedHashMap<ByteKey, Node>(16, 0.75f, true) {
+            static final long serialVersionUID = CommonIO.SerialVersionUID;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteKey, Node> eldest) {
+                return this.size() > cacheSize; // Evict least recently used
+            }
+        }; // Init cache
+    }
+
+    /**
+     * Get the current root.
+     *
+     * @return trie root
+     */
+    public byte[] Root() {
+        return this.root; // Return root
+    }
+
+    /**
+     * Move the trie to a given root (e.g. to drop changes made after it), and
+     * forget the nodes written since the last Committed (their batch was dropped).
+     * Nodes of the root must be committed or still held in memory.
+     *
+     * @param root trie root
+     */
+    public void Reset(byte[] root) {
+        this.root = root; // Set root
+        this.pending.clear(); // Reset written nodes
+    }
+
+    /**
+     * Get the number of nodes made since the last commit.
+     *
+     * @return number of dirty nodes
+     */
+    public int Dirty() {
+        return this.dirty.size(); // Return dirty count
+    }
+
+    /**
+     * Get the value stored under a given key.
+     *
+     * @param key key to look up
+     * @return stored value (null if absent)
+     */
+    public byte[] Get(byte[] key) {
+        byte[] path = Sha.Sha3(key); // Get path
+        byte[] hash = this.root; // Start at root
+
+        for (int depth = 0; !Arrays.equals(hash, EmptyRoot); depth++) { // Walk down
+            Node node = this.load(hash); // Load node
+
+            if (node.Path != null) { // Check leaf
+                return Arrays.equals(node.Path, path) ? node.Value : null; // Return value
+            }
+
+            hash = bit(path, depth) ? node.Right : node.Left; // Move to child
+        }
+
+        return null; // Absent
+    }
+
+    /**
+     * Store a value under a given key.
+     *
+     * @param key   key to store under
+     * @param value value to store (null removes the key)
+     */
+    public void Put(byte[] key, byte[] value) {
+        this.root = this.put(this.root, 0, Sha.Sha3(key), value); // Update root
+    }
+
+    /**
+     * Prove the value (or absence) of a given key against the current root.
+     *
+     * @param key key to prove
+     * @return proof
+     */
+    public StateProof Prove(byte[] key) {
+        byte[] path = Sha.Sha3(key); // Get path
+        byte[] hash = this.root; // Start at root
+
+        List<byte[]> siblings = new ArrayList<byte[]>(); // Init siblings
+
+        for (int depth = 0; !Arrays.equals(hash, EmptyRoot); depth++) { // Walk down
+            Node node = this.load(hash); // Load node
+
+            if (node.Path != null) { // Check leaf
+                return new StateProof(siblings.toArray(new byte[0][]), node.Path, node.Value); // Return proof
+            }
+
+            boolean right = bit(path, depth); // Get direction
+
+            siblings.add(right ? node.Left : node.Right); // Add sibling
+
+            hash = right ? node.Right : node.Left; // Move to child
+        }
+
+        return new StateProof(siblings.toArray(new byte[0][]), null, null); // Return proof of empty subtree
+    }
+
+    /**
+     * Write every node made since the last commit that's reachable from the current
+     * root into a given batch. Dirty nodes are kept until Committed is called.
+     * Nodes already written since then are skipped, so committing again into the
+     * same batch after more changes only writes the new nodes.
+     *
+     * @param batch batch to write nodes to
+     */
+    public void Commit(WriteBatch batch) {
+        if (this.db == null) { // Check memory only
+            return; // Keep nodes in memory
+        }
+
+        this.write(batch, this.root); // Write reachable nodes
+    }
+
+    /**
+     * Forget every dirty node once the batch of the last commit was written.
+     * Earlier roots that weren't committed can't be reset to afterwards.
+     */
+    public void Committed() {
+        if (this.db == null) { // Check memory only
+            return; // Keep nodes in memory
+        }
+
+        for (Map.Entry<ByteKey, Node> node : this.pending.entrySet()) { // Iterate through written nodes
+            this.clean.put(node.getKey(), node.getValue()); // Cache node
+        }
+
+        this.pending.clear(); // Reset written nodes
+        this.dirty.clear(); // Reset dirty nodes
+    }
+
+    /**
+     * Check whether a given bit of a key path is set.
+     *
+     * @param path  key path
+     * @param index bit index (0 is the most significant bit)
+     * @return whether the bit is set
+     */
+    static boolean bit(byte[] path, int index) {
+        return (path[index >>> 3] & (0x80 >>> (index & 7))) != 0; // Check bit
+    }
+
+    /**
+     * Hash a leaf.
+     *
+     * @param path  key path
+     * @param value stored value
+     * @return leaf hash
+     */
+    static byte[] hashLeaf(byte[] path, byte[] value) {
+        return MerkleTree.HashLeaf(ByteBuffer.allocate(path.length + value.length).put(path).put(value).array()); // Return hash
+    }
+
+    /**
+     * Store a value under a given path in the subtree with a given root.
+     *
+     * @param hash  subtree root
+     * @param depth subtree depth
+     * @param path  key path
+     * @param value value to store (null removes the key)
+     * @return new subtree root
+     */
+    private byte[] put(byte[] hash, int depth, byte[] path, byte[] value) {
+        if (Arrays.equals(hash, EmptyRoot)) { // Check empty subtree
+            return value == null ? EmptyRoot : this.store(Node.Leaf(path, value)); // Return new leaf
+        }
+
+        Node node = this.load(hash); // Load node
+
+        if (node.Path != null) { // Check leaf
+            if (Arrays.equals(node.Path, path)) { // Check same key
+                return value == null ? EmptyRoot : this.store(Node.Leaf(path, value)); // Return replaced leaf
+            }
+
+            return value == null ? hash : this.split(hash, node.Path, this.store(Node.Leaf(path, value)), path, depth); // Return split subtree
+        }
+
+        boolean right = bit(path, depth); // Get direction
+
+        byte[] child = right ? node.Right : node.Left; // Get child
+        byte[] newChild = this.put(child, depth + 1, path, value); // Update child
+
+        if (Arrays.equals(child, newChild)) { // Check unchanged
+            return hash; // Return subtree
+        }
+
+        byte[] left = right ? node.Left : newChild; // Get left child
+        byte[] rightChild = right ? newChild : node.Right; // Get right child
+
+        if (Arrays.equals(left, EmptyRoot) && this.isLeafOrEmpty(rightChild)) { // Check lone right leaf
+            return rightChild; // Collapse
+        }
+
+        if (Arrays.equals(rightChild, EmptyRoot) && this.isLeafOrEmpty(left)) { // Check lone left leaf
+            return left; // Collapse
+        }
+
+        return this.store(Node.Branch(left, rightChild)); // Return new branch
+    }
+
+    /**
+     * Make the smallest subtree holding two leaves with different paths.
+     *
+     * @param a     first leaf hash
+     * @param aPath first leaf path
+     * @param b     second leaf hash
+     * @param bPath second leaf path
+     * @param depth subtree depth
+     * @return subtree root
+     */
+    private byte[] split(byte[] a, byte[] aPath, byte[] b, byte[] bPath, int depth) {
+        boolean aRight = bit(aPath, depth); // Get first direction
+
+        if (aRight != bit(bPath, depth)) { // Check paths diverge
+            return this.store(aRight ? Node.Branch(b, a) : Node.Branch(a, b)); // Return branch
+        }
+
+        byte[] child = this.split(a, aPath, b, bPath, depth + 1); // Split further down
+
+        return this.store(aRight ? Node.Branch(EmptyRoot, child) : Node.Branch(child, EmptyRoot)); // Return branch
+    }
+
+    /**
+     * Check whether a given subtree is empty or a single leaf.
+     *
+     * @param hash subtree root
+     * @return whether the subtree holds at most one entry
+     */
+    private boolean isLeafOrEmpty(byte[] hash) {
+        return Arrays.equals(hash, EmptyRoot) || this.load(hash).Path != null; // Check leaf or empty
+    }
+
+    /**
+     * Hold a new node in memory until the next commit.
+     *
+     * @param node node to store
+     * @return node hash
+     */
+    private byte[] store(Node node) {
+        this.dirty.put(new ByteKey(node.Hash), node); // Hold node
+
+        return node.Hash; // Return hash
+    }
+
+    /**
+     * Get the node with a given hash.
+     *
+     * @param hash node hash
+     * @return node
+     */
+    private Node load(byte[] hash) {
+        ByteKey key = new ByteKey(hash); // Get key
+
+        Node node = this.dirty.get(key); // Get dirty node
+
+        if (node == null) { // Check not dirty
+            node = this.clean.get(key); // Get cached node
+        }
+
+        if (node != null) { // Check found
+            return node; // Return node
+        }
+
+        byte[] rawNode = this.db == null ? null : this.db.get(CommonDB.TrieNodeKey(hash)); // Read node
+
+        if (rawNode == null) { // Check missing
+            throw new IllegalStateException("missing state trie node"); // Panic
+        }
+
+        node = Node.Decode(rawNode); // Decode node
+
+        this.clean.put(key, node); // Cache node
+
+        return node; // Return node
+    }
+
+    /**
+     * Write the dirty nodes of the subtree with a given root into a batch.
+     *
+     * @param batch batch to write to
+     * @param hash  subtree root
+     */
+    private void write(WriteBatch batch, byte[] hash) {
+        ByteKey key = new ByteKey(hash); // Get node key
+        Node node = this.dirty.get(key); // Get dirty node
+
+        if (node == null || this.pending.containsKey(key)) { // Check already committed, written (with its subtree), or empty
+            return; // Done
+        }
+
+        batch.put(CommonDB.TrieNodeKey(hash), node.Bytes()); // Write node
+
+        this.pending.put(key, node); // Remember written node
+
+        if (node.Path == null) { // Check branch
+            this.write(batch, node.Left); // Write left subtree
+            this.write(batch, node.Right); // Write right subtree
+        }
+    }
+
+    /**
+     * Node is a single leaf or branch of the trie.
+     */
+    static final class Node {
+        /* Key path (null for branches) */
+        final byte[] Path;
+
+        /* Stored value (null for branches) */
+        final byte[] Value;
+
+        /* Left child hash (null for leaves) */
+        final byte[] Left;
+
+        /* Right child hash (null for leaves) */
+        final byte[] Right;
+
+        /* Node hash */
+        final byte[] Hash;
+
+        /**
+         * Initialize a new node.
+         *
+         * @param path  key path (null for branches)
+         * @param value stored value (null for branches)
+         * @param left  left child hash (null for leaves)
+         * @param right right child hash (null for leaves)
+         */
+        private Node(byte[] path, byte[] value, byte[] left, byte[] right) {
+            this.Path = path; // Set path
+            this.Value = value; // Set value
+            this.Left = left; // Set left child
+            this.Right = right; // Set right child
+            this.Hash = path != null ? hashLeaf(path, value) : MerkleTree.HashNode(left, right); // Set hash
+        }
+
+        /**
+         * Make a new leaf.
+         *
+         * @param path  key path
+         * @param value stored value
+         * @return leaf
+         */
+        static Node Leaf(byte[] path, byte[] value) {
+            return new Node(path, value, null, null); // Return leaf
+        }
+
+        /**
+         * Make a new branch.
+         *
+         * @param left  left child hash
+         * @param right right child hash
+         * @return branch
+         */
+        static Node Branch(byte[] left, byte[] right) {
+            return new Node(null, null, left, right); // Return branch
+        }
+
+        /**
+         * Encode the node.
+         *
+         * @return encoded node
+         */
+        byte[] Bytes() {
+            if (this.Path != null) { // Check leaf
+                return ByteBuffer.allocate(1 + this.Path.length + this.Value.length).put(LeafTag).put(this.Path)
+                        .put(this.Value).array(); // Encode leaf
+            }
+
+            return ByteBuffer.allocate(1 + 2 * MerkleTree.HashSize).put(BranchTag).put(this.Left).put(this.Right).array(); // Encode branch
+        }
+
+        /**
+         * Decode a node.
+         *
+         * @param rawNode encoded node
+         * @return decoded node
+         */
+        static Node Decode(byte[] rawNode) {
+            if (rawNode.length >= 1 + MerkleTree.HashSize && rawNode[0] == LeafTag) { // Check leaf
+                return Leaf(Arrays.copyOfRange(rawNode, 1, 1 + MerkleTree.HashSize),
+                        Arrays.copyOfRange(rawNode, 1 + MerkleTree.HashSize, rawNode.length)); // Decode leaf
+            }
+
+            if (rawNode.length == 1 + 2 * MerkleTree.HashSize && rawNode[0] == BranchTag) { // Check branch
+                return Branch(Arrays.copyOfRange(rawNode, 1, 1 + MerkleTree.HashSize),
+                        Arrays.copyOfRange(rawNode, 1 + MerkleTree.HashSize, rawNode.length)); // Decode branch
+            }
+
+            throw new IllegalArgumentException("malformed state trie node"); // Panic
+        }
+    }
+}
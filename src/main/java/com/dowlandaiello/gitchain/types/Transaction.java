@@ -2,15 +2,16 @@ package com.dowlandaiello.gitchain.types;
 
 import java.io.Serializable;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.security.SignatureException;
 import java.util.Arrays;
 
+import com.dowlandaiello.gitchain.common.CommonCodec;
 import com.dowlandaiello.gitchain.common.CommonIO;
 import com.dowlandaiello.gitchain.crypto.Sha;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 
-import org.apache.commons.lang3.SerializationUtils;
 import org.web3j.crypto.Sign;
 
 /**
@@ -48,6 +49,9 @@ public class Transaction implements Serializable {
     /* Transaction hash */
     public byte[] Hash;
 
+    /* Cached signing preimage (the transaction encoded without its signature) */
+    private transient volatile byte[] signingPreimage;
+
     /**
      * Initialize a new transaction.
      * 
@@ -65,7 +69,7 @@ public class Transaction implements Serializable {
         this.Value = value; // Set value
         this.Operation = operation; // Set operation
         this.Payload = payload; // Set payload
-        this.Hash = Sha.Sha3(this.Bytes()); // Set hash
+        this.Hash = this.CalculateHash(); // Set hash
     }
 
     /**
@@ -74,7 +78,7 @@ public class Transaction implements Serializable {
      * @param rawData data set to decode
      */
     public Transaction(byte[] rawData) {
-        Transaction decodedTx = SerializationUtils.deserialize(rawData); // Deserialize
+        Transaction decodedTx = Decode(ByteBuffer.wrap(rawData)); // Decode
 
         this.AccountNonce = decodedTx.AccountNonce; // Set nonce
         this.Sender = decodedTx.Sender; // Set sender
@@ -83,6 +87,13 @@ public class Transaction implements Serializable {
         this.Value = decodedTx.Value; // Set value
         this.Operation = decodedTx.Operation; // Set operation
         this.Payload = decodedTx.Payload; // Set payload
+        this.Hash = decodedTx.Hash; // Set hash
+    }
+
+    /**
+     * Initialize an empty transaction to decode into.
+     */
+    private Transaction() {
     }
 
     /**
@@ -104,6 +115,32 @@ public class Transaction implements Serializable {
         return true; // Return success
     }
 
+    /**
+     * Calculate the hash of the working transaction's contents: the transaction
+     * encoded without its signature or hash.
+     *
+     * @return content hash
+     */
+    public byte[] CalculateHash() {
+        ByteBuffer buffer = CommonCodec.GetBuffer(this.encodedSize(false, false)); // Get buffer
+
+        this.encode(buffer, false, false); // Encode contents
+
+        return Sha.Sha3(CommonCodec.ToArray(buffer)); // Hash contents
+    }
+
+    /**
+     * Verify that a given transaction's hash is the hash of its contents. Blocks
+     * commit to their transactions through these hashes (see Block.MerkleRoot),
+     * so a hash read from a peer must not be taken on trust.
+     *
+     * @param transaction transaction to check
+     * @return whether the transaction hash is valid
+     */
+    public static boolean VerifyTransactionHash(Transaction transaction) {
+        return transaction != null && transaction.Hash != null && Arrays.equals(transaction.Hash, transaction.CalculateHash()); // Verify
+    }
+
     /**
      * Verify the integrity of a given transaction's signature.
      * 
@@ -117,12 +154,12 @@ public class Transaction implements Serializable {
         
         BigInteger recoveredPublicKey; // Init buffer
 
-        Transaction unchangedSignatureTx = new Transaction(transaction.AccountNonce, transaction.Sender, transaction.Recipient, transaction.Value, transaction.Operation, transaction.Payload);
-
         try {
-            recoveredPublicKey = Sign.signedMessageToKey(unchangedSignatureTx.Bytes(), new Sign.SignatureData(transaction.Signature.V, transaction.Signature.R, transaction.Signature.S)); // Recover public key
+            recoveredPublicKey = Sign.signedMessageToKey(transaction.SigningBytes(), new Sign.SignatureData(transaction.Signature.V, transaction.Signature.R, transaction.Signature.S)); // Recover public key
         } catch (SignatureException e) {
             return false; // Err
+        } catch (RuntimeException e) {
+            return false; // Malformed signature
         }
 
         if (!Arrays.equals(transaction.Sender, recoveredPublicKey.toByteArray())) { // Check invalid
@@ -138,7 +175,135 @@ public class Transaction implements Serializable {
      * @return the serialized transaction
      */
     public byte[] Bytes() {
-        return(SerializationUtils.serialize(this)); // Serialize
+        ByteBuffer buffer = CommonCodec.GetBuffer(this.EncodedSize()); // Get buffer
+
+        this.Encode(buffer); // Encode
+
+        return CommonCodec.ToArray(buffer); // Return encoded
+    }
+
+    /**
+     * Get the bytes a transaction signature is computed over: the working transaction
+     * encoded without its signature. The preimage is computed once and cached, so a
+     * transaction must not be modified once it has been signed or verified.
+     *
+     * @return signing preimage
+     */
+    public byte[] SigningBytes() {
+        byte[] preimage = this.signingPreimage; // Get cached preimage
+
+        if (preimage == null) { // Check not cached
+            ByteBuffer buffer = CommonCodec.GetBuffer(this.encodedSize(false, true)); // Get buffer
+
+            this.encode(buffer, false, true); // Encode without signature
+
+            preimage = CommonCodec.ToArray(buffer); // Copy preimage
+            this.signingPreimage = preimage; // Cache preimage
+        }
+
+        return preimage; // Return preimage
+    }
+
+    /**
+     * Get the size of the working transaction once encoded.
+     *
+     * @return encoded size
+     */
+    public int EncodedSize() {
+        return this.encodedSize(true, true); // Return size
+    }
+
+    /**
+     * Encode the working transaction into a given buffer.
+     *
+     * @param buffer buffer to encode into
+     */
+    public void Encode(ByteBuffer buffer) {
+        this.encode(buffer, true, true); // Encode
+    }
+
+    /**
+     * Get the size of the working transaction once encoded.
+     *
+     * @param withSignature whether to include the signature
+     * @param withHash      whether to include the hash
+     * @return encoded size
+     */
+    private int encodedSize(boolean withSignature, boolean withHash) {
+        int size = CommonCodec.HeaderSize + 4 + CommonCodec.SizeOf(this.Sender) + CommonCodec.SizeOf(this.Recipient) + 1
+                + 4 + 4 + CommonCodec.SizeOf(this.Payload) + CommonCodec.SizeOf(withHash ? this.Hash : null); // Get fixed size
+
+        if (withSignature && this.Signature != null) { // Check has signature
+            size += 1 + CommonCodec.SizeOf(this.Signature.R) + CommonCodec.SizeOf(this.Signature.S); // Add signature size
+        }
+
+        return size; // Return size
+    }
+
+    /**
+     * Encode the working transaction into a given buffer.
+     *
+     * @param buffer        buffer to encode into
+     * @param withSignature whether to include the signature
+     * @param withHash      whether to include the hash
+     */
+    private void encode(ByteBuffer buffer, boolean withSignature, boolean withHash) {
+        CommonCodec.WriteHeader(buffer, CommonCodec.TransactionTag); // Write header
+
+        buffer.putInt(this.AccountNonce); // Write nonce
+        CommonCodec.WriteBytes(buffer, this.Sender); // Write sender
+        CommonCodec.WriteBytes(buffer, this.Recipient); // Write recipient
+
+        if (!withSignature || this.Signature == null) { // Check unsigned
+            buffer.put((byte) 0); // Write no signature
+        } else {
+            buffer.put((byte) 1); // Write has signature
+            buffer.put(this.Signature.V); // Write v
+            CommonCodec.WriteBytes(buffer, this.Signature.R); // Write r
+            CommonCodec.WriteBytes(buffer, this.Signature.S); // Write s
+        }
+
+        buffer.putFloat(this.Value); // Write value
+        buffer.putInt(this.Operation); // Write operation
+        CommonCodec.WriteBytes(buffer, this.Payload); // Write payload
+        CommonCodec.WriteBytes(buffer, withHash ? this.Hash : null); // Write hash
+    }
+
+    /**
+     * Decode a transaction from a given buffer.
+     *
+     * @param buffer buffer to decode from
+     * @return decoded transaction
+     */
+    public static Transaction Decode(ByteBuffer buffer) {
+        CommonCodec.ReadHeader(buffer, CommonCodec.TransactionTag); // Read header
+
+        Transaction transaction = new Transaction(); // Init transaction
+
+        CommonCodec.Require(buffer, 4); // Check has nonce
+        transaction.AccountNonce = buffer.getInt(); // Read nonce
+        transaction.Sender = CommonCodec.ReadBytes(buffer); // Read sender
+        transaction.Recipient = CommonCodec.ReadBytes(buffer); // Read recipient
+
+        CommonCodec.Require(buffer, 1); // Check has signature flag
+
+        if (buffer.get() != 0) { // Check signed
+            CommonCodec.Require(buffer, 1); // Check has v
+
+            byte v = buffer.get(); // Read v
+            byte[] r = CommonCodec.ReadBytes(buffer); // Read r
+            byte[] s = CommonCodec.ReadBytes(buffer); // Read s
+
+            transaction.Signature = new Signature(v, r, s); // Set signature
+        }
+
+        CommonCodec.Require(buffer, 8); // Check has value, operation
+        transaction.Value = buffer.getFloat(); // Read value
+        transaction.Operation = buffer.getInt(); // Read operation
+        transaction.Payload = CommonCodec.ReadBytes(buffer); // Read payload
+        transaction.Hash = CommonCodec.ReadBytes(buffer); // Read hash
+
+        return transaction; // Return transaction
     }
 
     /**
@@ -0,0 +1,107 @@
+package com.dowlandaiello.gitchain.miner;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.dowlandaiello.gitchain.common.CommonCoin;
+import com.dowlandaiello.gitchain.common.CommonIO;
+import com.dowlandaiello.gitchain.config.ChainConfig;
+import com.dowlandaiello.gitchain.types.Block;
+import com.dowlandaiello.gitchain.types.Blockchain;
+import com.dowlandaiello.gitchain.types.Transaction;
+
+import org.junit.Test;
+
+/**
+ * MinerTest is the main miner testing file.
+ */
+public class MinerTest {
+    /**
+     * Test nonce search.
+     */
+    @Test
+    public void TestMine() {
+        Miner miner = new Miner(4); // Init miner
+
+        Block template = new Block(new Transaction[0], new byte[64], new byte[0], 255.9f, 0l); // Init template
+
+        Block block = miner.Mine(template); // Mine
+
+        assertTrue("mined block must not be null", block != null); // Ensure solved
+        assertTrue("mined block must have valid nonce", Blockchain.VerifyBlockNonce(block)); // Ensure valid nonce
+        assertTrue("mined block must be hashed", block.Hash != null); // Ensure hashed
+        assertTrue("miner must report hashes", miner.Hashes() > 0 && miner.HashRate() > 0); // Ensure hash rate
+
+        miner.Shutdown(); // Stop miner
+    }
+
+    /**
+     * Test search cancellation on a new parent.
+     */
+    @Test
+    public void TestNewParent() throws InterruptedException {
+        final Miner miner = new Miner(2); // Init miner
+
+        final Block template = new Block(new Transaction[0], new byte[64], new byte[0], 1e15f, 0l); // Init unsolvable template
+        final Block[] result = new Block[] { template }; // Init result buffer
+
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                result[0] = miner.Mine(template); // Mine
+            }
+        }); // Init mining thread
+
+        thread.start(); // Start mining
+
+        Thread.sleep(200); // Let workers start
+
+        Block parent = new Block(new Transaction[0], new byte[0], new byte[0], 1f, 0l); // Init new parent
+        parent.Hash = new byte[] { 1 }; // Set hash
+
+        assertTrue("stale template must be cancelled", miner.NewParent(parent)); // Notify new parent
+
+        thread.join(5000); // Wait for miner
+
+        assertTrue("cancelled search must stop", !thread.isAlive()); // Ensure stopped
+        assertTrue("cancelled search must not return a block", result[0] == null); // Ensure cancelled
+
+        miner.Shutdown(); // Stop miner
+    }
+
+    /**
+     * Test mining a template for a chain: the solved block must be accepted by
+     * the chain.
+     */
+    @Test
+    public void TestMineForChain() {
+        Map<BigInteger, Float> alloc = new HashMap<BigInteger, Float>(); // Init alloc
+
+        alloc.put(BigInteger.ONE, 1000f); // Set alloc
+
+        ChainConfig chainConfig = new ChainConfig(alloc, 0, "test_chain_miner", 10, 1f); // Init chain config
+
+        CommonIO.DeleteRecursively(new File(CommonIO.DbPath + "/test_chain_miner")); // Remove stale chain
+
+        Blockchain blockchain = new Blockchain(chainConfig); // Make chain
+        Miner miner = new Miner(2); // Init miner
+
+        try {
+            Block template = blockchain.CreateNewBlock(blockchain.GetLastBlock(), new Transaction[] {
+                    new Transaction(0, new byte[0], CommonCoin.MinerCoinbase, CommonCoin.BlockReward, 0, new byte[0]) }, 0); // Init template
+
+            Block block = miner.Mine(template, blockchain); // Mine
+
+            assertTrue("mined block must extend chain", block != null && blockchain.AddBlock(block)); // Ensure accepted
+        } finally {
+            miner.Shutdown(); // Stop miner
+            blockchain.CloseBlockDB(); // Close block db
+
+            CommonIO.DeleteRecursively(new File(CommonIO.DbPath + "/test_chain_miner")); // Remove chain
+        }
+    }
+}
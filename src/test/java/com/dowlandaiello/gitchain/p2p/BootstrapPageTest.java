@@ -0,0 +1,42 @@
+package com.dowlandaiello.gitchain.p2p;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+/**
+ * BootstrapPageTest is the main BootstrapPage testing file.
+ */
+public class BootstrapPageTest {
+    /**
+     * Test encoding pages as response events.
+     */
+    @Test
+    public void TestEvent() {
+        byte[][] keys = new byte[][] { "a".getBytes(), "b".getBytes() }; // Init keys
+        byte[][] values = new byte[][] { "1".getBytes(), "2".getBytes() }; // Init values
+
+        BootstrapPage page = new BootstrapPage(keys, values, BootstrapPage.ResumeAfter(keys[1])); // Init page
+
+        BootstrapPage decoded = new BootstrapPage(new ConnectionEvent(page.Event().Bytes())); // Round trip
+
+        assertTrue("decoded page must keep entries", decoded.Size() == 2); // Ensure size
+        assertArrayEquals("decoded page must keep keys", keys[1], decoded.Keys[1]); // Ensure keys
+        assertArrayEquals("decoded page must keep values", values[0], decoded.Values[0]); // Ensure values
+        assertTrue("page with token must not be last", !decoded.Done()); // Ensure not done
+        assertArrayEquals("token must resume after last key", keys[1], BootstrapPage.LastKey(decoded.Token)); // Ensure token
+
+        assertTrue("page without token must be last", new BootstrapPage(new byte[0][], new byte[0][], new byte[0]).Done()); // Ensure done
+        assertTrue("scan start must have no last key", BootstrapPage.LastKey(BootstrapPage.ScanStart).length == 0); // Ensure scan start
+
+        try {
+            new BootstrapPage(new ConnectionEvent(ConnectionEvent.ConnectionEventType.Response, new byte[][] { new byte[0], keys[0] })); // Decode key without value
+
+            fail("page with a key but no value must be rejected"); // Panic
+        } catch (IllegalArgumentException e) { // Catch
+            return; // Rejected
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.dowlandaiello.gitchain.p2p;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.dowlandaiello.gitchain.types.Blockchain;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * ChainSyncBenchmark times syncing a long chain from several local peers, each
+ * answering after a fixed latency, with one window in flight (sequential body
+ * download) against several.
+ *
+ * Run with:
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.dowlandaiello.gitchain.p2p.ChainSyncBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ChainSyncBenchmark {
+    /* Number of blocks in the synced chain */
+    public static final int ChainLength = 2000;
+
+    /* Simulated request latency in milliseconds */
+    public static final long Latency = 5;
+
+    /* Number of peers to sync from */
+    @Param({ "1", "4" })
+    public int Peers;
+
+    /* Number of body download windows in flight */
+    @Param({ "1", "8" })
+    public int WindowsInFlight;
+
+    /* Chain served by peers */
+    private Blockchain source;
+
+    /* Chain being synced */
+    private Blockchain target;
+
+    /* Simulated peers */
+    private ChainSyncHarness harness;
+
+    /* Download executor */
+    private ExecutorService executor;
+
+    /**
+     * Mine the chain served by peers.
+     */
+    @Setup(Level.Trial)
+    public void Setup() {
+        this.source = ChainSyncHarness.MakeChain("bench_chain_sync_source", null); // Make source chain
+
+        ChainSyncHarness.Mine(this.source, ChainLength); // Mine source chain
+
+        this.harness = new ChainSyncHarness(this.source, Latency); // Init peers
+        this.executor = Executors.newFixedThreadPool(Math.max(this.Peers, this.WindowsInFlight)); // Init executor
+    }
+
+    /**
+     * Make an empty chain to sync into.
+     */
+    @Setup(Level.Invocation)
+    public void SetupTarget() {
+        this.target = ChainSyncHarness.MakeChain("bench_chain_sync_target", this.source.GenesisBlock); // Make target chain
+    }
+
+    /**
+     * Sync the whole chain.
+     */
+    @Benchmark
+    public long Sync() {
+        long added = new ChainSync(this.target, this.harness, ChainSyncTest.peers(this.Peers), ChainSync.DefaultWindowSize,
+                this.WindowsInFlight).Sync(this.executor); // Sync
+
+        if (added != ChainLength) { // Check incomplete
+            throw new IllegalStateException("sync added " + added + " of " + ChainLength + " blocks"); // Panic
+        }
+
+        return added; // Return added blocks
+    }
+
+    /**
+     * Remove the synced chain.
+     */
+    @TearDown(Level.Invocation)
+    public void TearDownTarget() {
+        ChainSyncHarness.Remove(this.target); // Remove target chain
+    }
+
+    /**
+     * Remove the source chain and stop downloading.
+     */
+    @TearDown(Level.Trial)
+    public void TearDown() {
+        this.executor.shutdownNow(); // Stop executor
+
+        ChainSyncHarness.Remove(this.source); // Remove source chain
+    }
+
+    /**
+     * Run the sync benchmarks.
+     */
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ChainSyncBenchmark.class.getSimpleName()).build()).run(); // Run
+    }
+}
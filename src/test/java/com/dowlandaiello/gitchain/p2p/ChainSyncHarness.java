@@ -0,0 +1,182 @@
+package com.dowlandaiello.gitchain.p2p;
+
+import java.io.File;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.dowlandaiello.gitchain.common.CommonCoin;
+import com.dowlandaiello.gitchain.common.CommonIO;
+import com.dowlandaiello.gitchain.config.ChainConfig;
+import com.dowlandaiello.gitchain.crypto.Sha;
+import com.dowlandaiello.gitchain.types.Block;
+import com.dowlandaiello.gitchain.types.Blockchain;
+import com.dowlandaiello.gitchain.types.Transaction;
+
+/**
+ * ChainSyncHarness serves a local chain to ChainSync as if from a set of
+ * remote peers, each answering after a fixed latency. Peers can be marked
+ * corrupt, in which case they answer block requests with tampered bodies.
+ */
+public class ChainSyncHarness implements ChainSync.Source {
+    /* Chain served by every peer */
+    public final Blockchain Chain;
+
+    /* Request latency in milliseconds */
+    private final long latency;
+
+    /* Addresses of peers serving tampered bodies */
+    private final Set<String> corrupt = ConcurrentHashMap.newKeySet();
+
+    /* Number of requests served */
+    private final AtomicLong requests = new AtomicLong();
+
+    /**
+     * Initialize a new harness serving a given chain.
+     *
+     * @param chain   chain to serve
+     * @param latency request latency in milliseconds
+     */
+    public ChainSyncHarness(Blockchain chain, long latency) {
+        this.Chain = chain; // Set chain
+        this.latency = latency; // Set latency
+    }
+
+    /**
+     * Make a given peer answer block requests with tampered bodies.
+     *
+     * @param peer peer to corrupt
+     */
+    public void Corrupt(Peer peer) {
+        this.corrupt.add(peer.ConnectionAddr); // Corrupt peer
+    }
+
+    /**
+     * Get the number of requests served.
+     *
+     * @return number of requests
+     */
+    public long Requests() {
+        return this.requests.get(); // Return requests
+    }
+
+    @Override
+    public List<Block> GetHeaders(Peer peer, long startHeight, int count) {
+        this.await(); // Simulate round trip
+
+        List<Block> headers = new ArrayList<Block>(); // Init headers
+
+        for (Block block : this.Chain.GetBlocksInRange(startHeight, startHeight + count - 1)) { // Iterate through blocks
+            headers.add(block.Header()); // Add header
+        }
+
+        return headers; // Return headers
+    }
+
+    @Override
+    public List<Block> GetBlocks(Peer peer, List<byte[]> hashes) {
+        this.await(); // Simulate round trip
+
+        List<Block> blocks = new ArrayList<Block>(); // Init blocks
+
+        for (byte[] hash : hashes) { // Iterate through hashes
+            Block block = this.Chain.GetBlockByHash(hash); // Get block
+
+            if (block == null) { // Check not found
+                break; // Done
+            }
+
+            if (this.corrupt.contains(peer.ConnectionAddr)) { // Check corrupt
+                block.Transactions = new Transaction[0]; // Tamper with body
+            }
+
+            blocks.add(block); // Add block
+        }
+
+        return blocks; // Return blocks
+    }
+
+    /**
+     * Count a request and wait out the request latency.
+     */
+    private void await() {
+        this.requests.incrementAndGet(); // Count request
+
+        if (this.latency == 0) { // Check no latency
+            return; // Done
+        }
+
+        try {
+            Thread.sleep(this.latency); // Wait
+        } catch (InterruptedException e) { // Catch
+            Thread.currentThread().interrupt(); // Restore interrupt
+        }
+    }
+
+    /**
+     * Make a fresh chain with a given name, starting from a given genesis block
+     * (or a newly mined one if null).
+     *
+     * @param name    chain name
+     * @param genesis genesis block (null to mine one)
+     * @return chain
+     */
+    public static Blockchain MakeChain(String name, Block genesis) {
+        Map<BigInteger, Float> alloc = new HashMap<BigInteger, Float>(); // Init alloc
+
+        alloc.put(BigInteger.ONE, 1000000f); // Set alloc
+
+        ChainConfig chainConfig = new ChainConfig(alloc, 0, name, 10, 1f); // Init chain config
+
+        CommonIO.DeleteRecursively(new File(CommonIO.DbPath + "/" + name)); // Remove stale chain
+
+        return genesis == null ? new Blockchain(chainConfig) : new Blockchain(chainConfig, genesis); // Make chain
+    }
+
+    /**
+     * Mine a given number of blocks on top of a given chain.
+     *
+     * @param chain chain to extend
+     * @param count number of blocks to mine
+     */
+    public static void Mine(Blockchain chain, int count) {
+        Block parent = chain.GetLastBlock(); // Get head
+
+        for (int i = 0; i < count; i++) { // Mine blocks
+            Transaction[] transactions = new Transaction[] {
+                    new Transaction(i, new byte[0], CommonCoin.MinerCoinbase, 50, 0, new byte[0]) }; // Init txs
+
+            Block block = chain.CreateNewBlock(parent, transactions, 0); // Make block
+
+            block.Difficulty = chain.NextDifficulty(parent, Math.max(block.Timestamp, parent.Timestamp + 1)); // Set difficulty
+
+            while (!Blockchain.VerifyBlockNonce(block)) { // Check invalid nonce
+                block.Nonce++; // Increment nonce
+            }
+
+            block.Hash = Sha.Sha3(block.BytesHashSafe()); // Hash
+
+            if (!chain.AddBlock(block)) { // Add block
+                throw new RuntimeException("mined block must extend chain"); // Panic
+            }
+
+            parent = block; // Move to block
+        }
+    }
+
+    /**
+     * Close and remove a given chain.
+     *
+     * @param chain chain to remove
+     */
+    public static void Remove(Blockchain chain) {
+        chain.CloseBlockDB(); // Close block db
+
+        CommonIO.DeleteRecursively(new File(CommonIO.DbPath + "/" + chain.ChainID)); // Remove chain
+    }
+}
@@ -0,0 +1,168 @@
+package com.dowlandaiello.gitchain.p2p;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.dowlandaiello.gitchain.common.CommonNet;
+import com.dowlandaiello.gitchain.types.Block;
+import com.dowlandaiello.gitchain.types.Blockchain;
+
+import org.junit.Test;
+
+/**
+ * ChainSyncTest is the main ChainSync testing file.
+ */
+public class ChainSyncTest {
+    /**
+     * Test syncing from several peers, one of which serves tampered bodies.
+     */
+    @Test
+    public void TestSync() {
+        Blockchain source = ChainSyncHarness.MakeChain("test_chain_sync_source", null); // Make source chain
+        Blockchain target = ChainSyncHarness.MakeChain("test_chain_sync_target", source.GenesisBlock); // Make target chain
+
+        ExecutorService executor = Executors.newFixedThreadPool(4); // Init executor
+
+        try {
+            ChainSyncHarness.Mine(source, 40); // Mine source chain
+
+            ChainSyncHarness harness = new ChainSyncHarness(source, 0); // Init peers
+
+            List<Peer> peers = peers(3); // Init peers
+
+            harness.Corrupt(peers.get(1)); // Corrupt a peer
+
+            ChainSync sync = new ChainSync(target, harness, peers, 4, 3); // Init sync
+
+            assertTrue("every block must be added", sync.Sync(executor) == 40); // Sync
+            assertArrayEquals("heads must match", source.GetLastBlock().Hash, target.GetLastBlock().Hash); // Ensure synced
+            assertTrue("corrupt peer must be caught", sync.Failures() > 0); // Ensure tampered bodies rejected
+
+            assertTrue("synced chain must have nothing to add", sync.Sync(executor) == 0); // Sync again
+        } finally {
+            executor.shutdownNow(); // Stop executor
+
+            ChainSyncHarness.Remove(source); // Remove source chain
+            ChainSyncHarness.Remove(target); // Remove target chain
+        }
+    }
+
+    /**
+     * Test that header chains are cut off at their first invalid header, and that
+     * the chain with the most work wins.
+     */
+    @Test
+    public void TestInvalidHeaders() {
+        Blockchain source = ChainSyncHarness.MakeChain("test_chain_sync_source", null); // Make source chain
+        Blockchain target = ChainSyncHarness.MakeChain("test_chain_sync_target", source.GenesisBlock); // Make target chain
+
+        ExecutorService executor = Executors.newFixedThreadPool(4); // Init executor
+
+        try {
+            ChainSyncHarness.Mine(source, 10); // Mine source chain
+
+            final ChainSyncHarness harness = new ChainSyncHarness(source, 0); // Init honest peers
+
+            ChainSync.Source lying = new ChainSync.Source() {
+                @Override
+                public List<Block> GetHeaders(Peer peer, long startHeight, int count) {
+                    List<Block> headers = harness.GetHeaders(peer, startHeight, count); // Get headers
+
+                    for (Block header : headers) { // Iterate through headers
+                        if (harness.Chain.GetBlockHeight(header.Hash) == 6) { // Check tampered height
+                            header.ParentHash = new byte[64]; // Break link
+                        }
+                    }
+
+                    return headers; // Return headers
+                }
+
+                @Override
+                public List<Block> GetBlocks(Peer peer, List<byte[]> hashes) {
+                    return harness.GetBlocks(peer, hashes); // Get blocks
+                }
+            }; // Init lying peer
+
+            List<Block> headers = new ChainSync(target, lying, peers(1)).DownloadHeaders(executor); // Download headers
+
+            assertTrue("headers must be cut off at the broken link", headers.size() == 5); // Ensure cut off
+
+            for (Block header : headers) { // Iterate through headers
+                assertTrue("headers must not carry bodies", header.IsHeader()); // Ensure headers
+            }
+
+            List<Block> best = new ChainSync(target, harness, peers(2)).DownloadHeaders(executor); // Download honest headers
+
+            assertTrue("honest chain must be complete", best.size() == 10); // Ensure complete
+            assertTrue("bad body must not match header",
+                    !ChainSync.MatchesHeader(best.get(0), source.GetBlockByHeight(2))); // Ensure checked
+
+            assertTrue("valid prefix must be synced", new ChainSync(target, lying, peers(1)).Sync(executor) == 5); // Sync prefix
+            assertTrue("target must stop at the broken link", target.GetBlockHeight(target.GetLastBlock().Hash) == 5); // Ensure height
+        } finally {
+            executor.shutdownNow(); // Stop executor
+
+            ChainSyncHarness.Remove(source); // Remove source chain
+            ChainSyncHarness.Remove(target); // Remove target chain
+        }
+    }
+
+    /**
+     * Test syncing from a DHT server over sockets.
+     */
+    @Test
+    public void TestNetworkSync() {
+        Blockchain source = ChainSyncHarness.MakeChain("test_chain_sync_source", null); // Make source chain
+        Blockchain target = ChainSyncHarness.MakeChain("test_chain_sync_target", source.GenesisBlock); // Make target chain
+
+        int port = CommonNet.GetFreePort(3110); // Get free port
+
+        DhtServer server = new DhtServer(new Peer("/ipv4/127.0.0.1/tcp/" + port, BigInteger.ONE)); // Init server
+
+        ExecutorService executor = Executors.newFixedThreadPool(4); // Init executor
+
+        try {
+            ChainSyncHarness.Mine(source, 12); // Mine source chain
+
+            server.Chain = source; // Serve source chain
+
+            assertTrue("server must bind", server.Bind()); // Bind
+
+            new Thread(server).start(); // Start serving
+
+            ChainSync sync = new ChainSync(target, new ChainSync.NetworkSource(2000), Arrays.asList(server.PeerIdentity), 5, 2); // Init sync
+
+            assertTrue("every block must be added", sync.Sync(executor) == 12); // Sync
+            assertArrayEquals("heads must match", source.GetLastBlock().Hash, target.GetLastBlock().Hash); // Ensure synced
+        } finally {
+            executor.shutdownNow(); // Stop executor
+            server.StopServing(); // Stop server
+
+            ChainSyncHarness.Remove(source); // Remove source chain
+            ChainSyncHarness.Remove(target); // Remove target chain
+        }
+    }
+
+    /**
+     * Make a given number of test peers.
+     *
+     * @param count number of peers
+     * @return peers
+     */
+    static List<Peer> peers(int count) {
+        List<Peer> peers = new ArrayList<Peer>(); // Init peers
+
+        for (int i = 0; i < count; i++) { // Make peers
+            peers.add(new Peer("/ipv4/10.0.2." + i + "/tcp/3000", BigInteger.valueOf(i + 1))); // Add peer
+        }
+
+        return peers; // Return peers
+    }
+}
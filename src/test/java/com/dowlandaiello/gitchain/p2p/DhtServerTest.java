@@ -0,0 +1,116 @@
+package com.dowlandaiello.gitchain.p2p;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.Socket;
+
+import com.dowlandaiello.gitchain.common.CommonNet;
+
+import org.junit.Test;
+
+/**
+ * DhtServerTest is the main DhtServer testing file.
+ */
+public class DhtServerTest {
+    /**
+     * Test DHT server connection limits and shutdown.
+     */
+    @Test
+    public void TestConnectionLimit() {
+        int port = CommonNet.GetFreePort(3060); // Get free port
+
+        DhtServer server = new DhtServer(new Peer("/ipv4/127.0.0.1/tcp/" + port), 1, 1); // Init server
+
+        assertTrue("server must bind", server.Bind()); // Bind
+
+        Thread thread = new Thread(server); // Init server thread
+
+        thread.start(); // Start serving
+
+        try {
+            Socket idle = new Socket("127.0.0.1", port); // Occupy the only slot
+
+            for (int i = 0; i < 100 && server.ActiveConnections() == 0; i++) { // Wait for connection to be handled
+                Thread.sleep(10); // Wait
+            }
+
+            assertTrue("connection must be active", server.ActiveConnections() == 1); // Ensure active
+
+            Socket rejected = new Socket("127.0.0.1", port); // Connect past limit
+
+            rejected.setSoTimeout(5000); // Don't hang if not rejected
+
+            assertTrue("connection past limit must be closed", rejected.getInputStream().read() == -1); // Ensure shed
+            assertTrue("rejection must be counted", server.RejectedConnections() == 1); // Ensure counted
+
+            rejected.close(); // Close rejected connection
+            idle.close(); // Release slot
+
+            server.StopServing(); // Stop server
+
+            thread.join(5000); // Wait for accept loop to exit
+
+            assertFalse("accept loop must exit", thread.isAlive()); // Ensure stopped
+            assertTrue("port must be released", CommonNet.Available(port)); // Ensure socket closed
+        } catch (Exception e) { // Catch
+            server.StopServing(); // Stop server
+
+            fail(e.getLocalizedMessage()); // Panic
+        }
+    }
+
+    /**
+     * Test that idle pooled connections from more peers than there are workers don't
+     * keep a new request from being answered.
+     */
+    @Test
+    public void TestIdlePooledConnections() {
+        int port = CommonNet.GetFreePort(3070); // Get free port
+
+        Peer serverPeer = new Peer("/ipv4/127.0.0.1/tcp/" + port); // Init server peer
+
+        DhtServer server = new DhtServer(serverPeer, 2, 64); // Init server with two workers
+
+        assertTrue("server must bind", server.Bind()); // Bind
+
+        Thread thread = new Thread(server); // Init server thread
+
+        thread.start(); // Start serving
+
+        PeerConnectionPool[] pools = new PeerConnectionPool[server.Workers * 3]; // Init one pool per idle client
+
+        try {
+            for (int i = 0; i < pools.length; i++) { // Open idle pooled connections
+                pools[i] = new PeerConnectionPool(); // Init pool
+
+                Connection ping = new Connection(Connection.ConnectionType.Ping, new byte[][] { new byte[0] },
+                        new Peer(null, null, null), serverPeer); // Init ping
+
+                assertTrue("pooled send must succeed", pools[i].Send(serverPeer, ping)); // Send and keep connection open
+            }
+
+            for (int i = 0; i < 100 && server.ActiveConnections() < pools.length; i++) { // Wait for connections to be handled
+                Thread.sleep(10); // Wait
+            }
+
+            assertTrue("pooled connections must stay open", server.ActiveConnections() == pools.length); // Ensure idle connections kept
+
+            long start = System.currentTimeMillis(); // Get start time
+
+            assertTrue("new request must be answered", Dht.Ping(serverPeer, 2000)); // Ensure answered
+            assertTrue("new request must not wait for idle connections", System.currentTimeMillis() - start < 2000); // Ensure prompt
+        } catch (Exception e) { // Catch
+            fail(e.getLocalizedMessage()); // Panic
+        } finally {
+            for (PeerConnectionPool pool : pools) { // Iterate through pools
+                if (pool != null) { // Check opened
+                    pool.Close(); // Close pooled connections
+                }
+            }
+
+            server.StopServing(); // Stop server
+        }
+    }
+}
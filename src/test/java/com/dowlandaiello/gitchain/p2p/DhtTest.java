@@ -5,13 +5,17 @@ import static org.junit.Assert.fail;
 
 import java.io.IOException;
 import java.math.BigInteger;
+import java.net.ServerSocket;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
 import com.dowlandaiello.gitchain.common.CommonIO;
+import com.dowlandaiello.gitchain.common.CommonNet;
 import com.dowlandaiello.gitchain.config.ChainConfig;
+import com.dowlandaiello.gitchain.crypto.Sha;
 
+import org.apache.commons.lang3.SerializationUtils;
 import org.junit.Test;
 import org.web3j.crypto.ECKeyPair;
 import org.web3j.crypto.Keys;
@@ -48,6 +52,35 @@ public class DhtTest {
         assertTrue("dht must not be null", dht != null); // Ensure DHT is not null
     }
 
+    /**
+     * Test the DHT header sent to bootstrapping peers.
+     */
+    @Test
+    public void TestHeader() {
+        Map<BigInteger, Float> alloc = new HashMap<BigInteger, Float>(); // Init hash map
+
+        alloc.put(BigInteger.valueOf(42), 1000000f); // Set alloc
+
+        ChainConfig chainConfig = new ChainConfig(alloc, 7, "test_chain", 10, 2f, 4); // Initialize chain config
+
+        Dht dht = new Dht(chainConfig, new Peer("/ipv4/127.0.0.1/tcp/3000")); // Initialize DHT
+
+        Dht header = Dht.FromHeader(dht.Header()); // Round trip header
+
+        assertTrue("header must keep chain", "test_chain".equals(header.Config.Chain)); // Ensure chain
+        assertTrue("header must keep network", header.Config.Network == 7); // Ensure network
+        assertTrue("header must keep difficulty", header.Config.Difficulty == 2f); // Ensure difficulty
+        assertTrue("header must keep retarget window", header.Config.RetargetWindow == 4); // Ensure window
+        assertTrue("header must keep alloc", alloc.equals(header.Config.Alloc)); // Ensure alloc
+
+        try {
+            Dht.FromHeader(SerializationUtils.serialize(dht)); // Decode Java serialized header
+
+            fail("java serialized header must be rejected"); // Panic
+        } catch (IllegalArgumentException e) { // Catch
+        }
+    }
+
     /**
      * Test DHT bootstrap helper.
      */
@@ -161,4 +194,127 @@ public class DhtTest {
         assertTrue("must remove test cache",
                 CommonIO.DeleteDirectoryContents(new java.io.File(CommonIO.DHTPath + "/" + "test_chain"))); // Delete
     }
-}
\ No newline at end of file
+
+    /**
+     * Test DHT join fan-out summary.
+     */
+    @Test
+    public void TestJoinNetworkSummary() {
+        if (Dht.WorkingNodeDB != null) { // Check node db already existent
+            try {
+                Dht.WorkingNodeDB.close(); // Close node db
+                Dht.WorkingNodeDB = null; // Remove node db
+            } catch (IOException e) { // Catch
+                fail(e.getLocalizedMessage()); // Panic
+            }
+        }
+
+        CommonIO.MakeDirIfNotExist(CommonIO.DHTPath + "/" + "test_chain_join"); // Make test cache
+
+        assertTrue("must remove test cache",
+                CommonIO.DeleteDirectoryContents(new java.io.File(CommonIO.DHTPath + "/" + "test_chain_join"))); // Delete
+
+        ChainConfig chainConfig = new ChainConfig(new HashMap<BigInteger, Float>(), 0, "test_chain_join", 10, 1f); // Initialize chain config
+
+        int reachablePort = CommonNet.GetFreePort(3090); // Get listening port
+
+        try (ServerSocket reachable = new ServerSocket(reachablePort)) {
+            int unreachablePort = CommonNet.GetFreePort(reachablePort + 1); // Get port nothing listens on
+
+            Dht dht = new Dht(chainConfig, new Peer("/ipv4/127.0.0.1/tcp/" + reachablePort,
+                    Keys.createEcKeyPair().getPublicKey())); // Initialize DHT
+
+            Peer unreachablePeer = new Peer("/ipv4/127.0.0.1/tcp/" + unreachablePort, Keys.createEcKeyPair().getPublicKey()); // Init unreachable peer
+
+            assertTrue("must add peer", Dht.AddPeer(unreachablePeer)); // Add unreachable peer
+            assertTrue("routing table must hold both peers", Dht.Table.Size() == 2); // Ensure routed
+
+            Peer joiningPeer = new Peer("/ipv4/127.0.0.1/tcp/" + CommonNet.GetFreePort(unreachablePort + 1),
+                    Keys.createEcKeyPair().getPublicKey()); // Init joining peer
+
+            JoinSummary summary = dht.JoinNetwork(joiningPeer, 4, 2000); // Join
+
+            assertTrue("join must complete", summary != null); // Ensure completed
+            assertTrue("must reach listening peer", summary.Reached == 1); // Ensure reached
+            assertTrue("must fail unreachable peer", summary.Failed + summary.TimedOut == 1); // Ensure failed
+
+            assertTrue("joined peer must be recorded", dht.JoinNetwork(joiningPeer, 4, 2000).Total() == 0); // Ensure not announced twice
+
+            assertTrue("must close db", dht.CloseNodeDB()); // Close db
+        } catch (Exception e) { // Catch
+            fail(e.getLocalizedMessage()); // Panic
+        }
+
+        assertTrue("must remove test cache",
+                CommonIO.DeleteDirectoryContents(new java.io.File(CommonIO.DHTPath + "/" + "test_chain_join"))); // Delete
+    }
+
+    /**
+     * Test paged, resumable DHT bootstrap.
+     */
+    @Test
+    public void TestPagedBootstrap() {
+        if (Dht.WorkingNodeDB != null) { // Check node db already existent
+            try {
+                Dht.WorkingNodeDB.close(); // Close node db
+                Dht.WorkingNodeDB = null; // Remove node db
+            } catch (IOException e) { // Catch
+                fail(e.getLocalizedMessage()); // Panic
+            }
+        }
+
+        CommonIO.MakeDirIfNotExist(CommonIO.DHTPath + "/" + "test_chain_paged"); // Make test cache
+
+        assertTrue("must remove test cache",
+                CommonIO.DeleteDirectoryContents(new java.io.File(CommonIO.DHTPath + "/" + "test_chain_paged"))); // Delete
+
+        Map<BigInteger, Float> alloc = new HashMap<BigInteger, Float>(); // Init hash map
+
+        alloc.put(BigInteger.ONE, 1000000f); // Set alloc
+
+        ChainConfig chainConfig = new ChainConfig(alloc, 0, "test_chain_paged", 10, 1f); // Initialize chain config
+
+        Peer bootstrapPeer = new Peer("/ipv4/127.0.0.1/tcp/3048"); // Init peer
+
+        Dht dht = new Dht(chainConfig, bootstrapPeer); // Initialize DHT
+
+        for (int i = 0; i < 2 * Dht.BootstrapPageSize + 88; i++) { // Add nodes past two pages
+            Peer peer = new Peer("/ipv4/10.1." + (i / 250) + "." + (i % 250) + "/tcp/3000", BigInteger.valueOf(i + 1)); // Init peer
+
+            Dht.WorkingNodeDB.put(Sha.Sha3(peer.ConnectionAddr.getBytes()), peer.Bytes()); // Add node
+        }
+
+        dht.WriteToMemory(); // Write DHT to persistent memory
+
+        dht.StartServing(); // Start DHT server
+
+        try {
+            Dht bootstrappedDht = Dht.Bootstrap(bootstrapPeer.ConnectionAddr, "test_chain_paged", 1, Dht.BootstrapTimeout); // Get first page only
+
+            assertTrue("dht must not be null", bootstrappedDht != null); // Ensure DHT is not null
+            assertTrue("bootstrap must stop at page limit", bootstrappedDht.BootstrapToken() != null); // Ensure bounded
+
+            int resumes = 0; // Init resumed pages
+
+            while (bootstrappedDht.BootstrapToken() != null) { // Resume until done
+                assertTrue("must resume bootstrap", bootstrappedDht.ResumeBootstrap(bootstrapPeer.ConnectionAddr, 1,
+                        Dht.BootstrapTimeout)); // Resume one page
+
+                assertTrue("bootstrap must end", ++resumes <= 3); // Ensure terminates
+            }
+
+            assertTrue("scan must take three pages", resumes == 3); // Ensure paged
+
+            Dht completeDht = Dht.Bootstrap(bootstrapPeer.ConnectionAddr, "test_chain_paged"); // Bootstrap fully
+
+            assertTrue("full bootstrap must finish", completeDht != null && completeDht.BootstrapToken() == null); // Ensure finished
+        } finally {
+            dht.StopServing(); // Stop DHT server
+        }
+
+        assertTrue("must close db", dht.CloseNodeDB()); // Close db
+
+        assertTrue("must remove test cache",
+                CommonIO.DeleteDirectoryContents(new java.io.File(CommonIO.DHTPath + "/" + "test_chain_paged"))); // Delete
+    }
+}
@@ -0,0 +1,143 @@
+package com.dowlandaiello.gitchain.p2p;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.Test;
+
+/**
+ * FrameTest is the main Frame testing file.
+ */
+public class FrameTest {
+    /**
+     * Test frame round trip over a stream delivering one byte per read.
+     */
+    @Test
+    public void TestReadWrite() {
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(); // Init buffer
+            DataOutputStream out = new DataOutputStream(buffer); // Init writer
+
+            ConnectionEvent event = new ConnectionEvent(ConnectionEvent.ConnectionEventType.Response,
+                    new byte[][] { new byte[2000], "value".getBytes() }); // Init event larger than a legacy read buffer
+
+            Frame.Write(out, Frame.ConnectionEventFrame, event.Bytes()); // Write event
+            Frame.Write(out, Frame.DhtHeaderFrame, new byte[0]); // Write empty frame
+
+            DataInputStream in = new DataInputStream(new TrickleInputStream(buffer.toByteArray())); // Init fragmented reader
+
+            Frame frame = Frame.Read(in); // Read event
+
+            assertTrue("frame type must match", frame.Type == Frame.ConnectionEventFrame); // Ensure type
+            assertArrayEquals("frame payload must match", event.Bytes(), frame.Payload); // Ensure payload
+
+            assertTrue("empty frame must be read", Frame.ReadExpected(in, Frame.DhtHeaderFrame).length == 0); // Ensure empty frame
+            assertTrue("end of stream must return null", Frame.Read(in) == null); // Ensure end
+        } catch (IOException e) { // Catch
+            fail(e.getLocalizedMessage()); // Panic
+        }
+    }
+
+    /**
+     * Test rejection of corrupt, truncated, and oversized frames.
+     */
+    @Test
+    public void TestInvalidFrames() {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(); // Init buffer
+
+        try {
+            Frame.Write(new DataOutputStream(buffer), Frame.ConnectionFrame, "payload".getBytes()); // Write frame
+        } catch (IOException e) { // Catch
+            fail(e.getLocalizedMessage()); // Panic
+        }
+
+        byte[] corrupt = buffer.toByteArray(); // Get frame
+
+        corrupt[6] ^= 1; // Flip a payload bit
+
+        byte[] truncated = new byte[buffer.size() - 2]; // Init truncated frame
+
+        System.arraycopy(buffer.toByteArray(), 0, truncated, 0, truncated.length); // Truncate
+
+        byte[] oversized = new byte[] { (byte) 0x7F, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 1 }; // Claim a 2GB frame
+
+        for (byte[] invalid : new byte[][] { corrupt, truncated, oversized }) { // Iterate through invalid frames
+            try {
+                Frame.Read(new DataInputStream(new ByteArrayInputStream(invalid))); // Read
+
+                fail("invalid frame must be rejected"); // Panic
+            } catch (IOException e) { // Catch
+                continue; // Rejected
+            }
+        }
+    }
+
+    /**
+     * Test frames spanning several read chunks, and a max size claim backed by a few bytes.
+     */
+    @Test
+    public void TestLargeFrames() {
+        byte[] payload = new byte[3 * Frame.ChunkSize + 7]; // Init payload
+
+        for (int i = 0; i < payload.length; i++) { // Fill payload
+            payload[i] = (byte) i; // Set byte
+        }
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(); // Init buffer
+
+        try {
+            Frame.Write(new DataOutputStream(buffer), Frame.ConnectionFrame, payload); // Write frame
+
+            Frame frame = Frame.Read(new DataInputStream(new ByteArrayInputStream(buffer.toByteArray()))); // Read frame
+
+            assertArrayEquals("multi-chunk payload must match", payload, frame.Payload); // Ensure payload
+        } catch (IOException e) { // Catch
+            fail(e.getLocalizedMessage()); // Panic
+        }
+
+        byte[] claimed = new byte[] { (byte) 0x01, (byte) 0x00, (byte) 0x00, (byte) 0x00, 1, 1, 2, 3 }; // Claim a 16MB frame
+
+        try {
+            Frame.Read(new DataInputStream(new ByteArrayInputStream(claimed))); // Read
+
+            fail("truncated max size frame must be rejected"); // Panic
+        } catch (IOException e) { // Catch
+        }
+    }
+
+    /**
+     * TrickleInputStream returns at most one byte per read, like a stream split across
+     * many TCP segments.
+     */
+    private static class TrickleInputStream extends InputStream {
+        /* Underlying stream */
+        private final ByteArrayInputStream in;
+
+        /**
+         * Initialize a new trickle stream over a given byte array.
+         *
+         * @param b bytes to read
+         */
+        TrickleInputStream(byte[] b) {
+            this.in = new ByteArrayInputStream(b); // Set stream
+        }
+
+        @Override
+        public int read() {
+            return this.in.read(); // Read byte
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            return this.in.read(b, off, Math.min(len, 1)); // Read at most one byte
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.dowlandaiello.gitchain.p2p;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.dowlandaiello.gitchain.types.Block;
+import com.dowlandaiello.gitchain.types.Blockchain;
+
+import org.junit.Test;
+
+/**
+ * GossipEngineTest is the main GossipEngine testing file.
+ */
+public class GossipEngineTest {
+    /**
+     * Test propagation latency and deduplication across an in-process network.
+     */
+    @Test
+    public void TestPropagation() {
+        GossipHarness harness = new GossipHarness(64, 3, GossipEngine.DefaultFanout, 5, 42); // Init network
+
+        try {
+            assertTrue("every node must receive the object", harness.Propagate(0, "warmup".getBytes(), 10000) >= 0); // Propagate once to warm up
+
+            long latency = harness.Propagate(5, "transaction".getBytes(), 10000); // Propagate
+
+            assertTrue("every node must receive the object", latency >= 0); // Ensure propagated
+            assertTrue("propagation must take fewer hops than there are nodes",
+                    latency < (harness.Nodes.length - 1) * 3 * 5); // Ensure faster than a chain of announce, request, and data legs
+
+            for (int i = 0; i < harness.Nodes.length; i++) { // Iterate through nodes
+                assertTrue("each node must download each object at most once", harness.Deliveries[i] <= 2); // Ensure deduplicated
+            }
+        } catch (InterruptedException e) { // Catch
+            fail(e.getLocalizedMessage()); // Panic
+        } finally {
+            harness.Close(); // Stop network
+        }
+    }
+
+    /**
+     * Test per-peer rate limits.
+     */
+    @Test
+    public void TestRateLimit() {
+        final List<Connection> sent = new ArrayList<Connection>(); // Init sent messages
+
+        Peer local = new Peer("/ipv4/10.0.1.1/tcp/3000", BigInteger.ONE); // Init local peer
+        Peer remote = new Peer("/ipv4/10.0.1.2/tcp/3000", BigInteger.TEN); // Init remote peer
+
+        GossipEngine engine = new GossipEngine(local, new GossipEngine.Transport() {
+            @Override
+            public boolean Send(Peer peer, Connection connection) {
+                sent.add(connection); // Record message
+
+                return true; // Sent
+            }
+
+            @Override
+            public List<Peer> Peers() {
+                return new ArrayList<Peer>(); // No peers
+            }
+        }, new GossipEngine.Listener() {
+            @Override
+            public boolean Deliver(byte kind, byte[] payload) {
+                return true; // Accept
+            }
+        }, GossipEngine.DefaultFanout, 0, 2, GossipEngine.DefaultSeenCapacity); // Init engine allowing two messages
+
+        for (int i = 0; i < 5; i++) { // Send past limit
+            byte[] item = new byte[GossipEngine.InventoryItemSize]; // Init item
+
+            item[0] = GossipEngine.TransactionInventory; // Set kind
+            item[1] = (byte) i; // Set hash
+
+            boolean handled = engine.Handle(new Connection(Connection.ConnectionType.InventoryAnnounce,
+                    new byte[][] { remote.Bytes(), item }, remote, local)); // Announce
+
+            assertTrue("only messages within the limit may be handled", handled == i < 2); // Ensure limited
+        }
+
+        assertTrue("dropped messages must be counted", engine.Dropped() == 3); // Ensure counted
+        assertTrue("each handled announcement must be requested", sent.size() == 2); // Ensure requested
+
+        byte[] droppedHash = new byte[64]; // Init hash of last dropped announcement
+
+        droppedHash[0] = 4; // Set hash
+
+        assertFalse("dropped announcement must not be seen", engine.Seen(droppedHash)); // Ensure not seen
+    }
+
+    /**
+     * Test that a chain listener adds valid gossiped blocks (holding those ahead
+     * of their parents) and rejects invalid ones.
+     */
+    @Test
+    public void TestChainListener() {
+        Blockchain source = ChainSyncHarness.MakeChain("test_chain_gossip_source", null); // Make source chain
+        Blockchain target = ChainSyncHarness.MakeChain("test_chain_gossip_target", source.GenesisBlock); // Make target chain
+
+        try {
+            ChainSyncHarness.Mine(source, 3); // Mine source chain
+
+            GossipEngine.ChainListener listener = new GossipEngine.ChainListener(target, null); // Init listener
+
+            assertTrue("block ahead of its parent must be held",
+                    listener.Deliver(GossipEngine.BlockInventory, source.GetBlockByHeight(2).Bytes())); // Deliver child first
+            assertTrue("held block must not be added", target.Height == 0 && listener.Orphans.Size() == 1); // Ensure held
+            assertTrue("parent must be added",
+                    listener.Deliver(GossipEngine.BlockInventory, source.GetBlockByHeight(1).Bytes())); // Deliver parent
+            assertTrue("held block must be added after its parent", target.Height == 2 && listener.Orphans.Size() == 0); // Ensure connected
+
+            Block tampered = source.GetBlockByHeight(3); // Get block
+
+            tampered.Nonce++; // Break hash
+
+            assertFalse("tampered block must be rejected", listener.Deliver(GossipEngine.BlockInventory, tampered.Bytes())); // Deliver tampered
+            assertFalse("malformed block must be rejected", listener.Deliver(GossipEngine.BlockInventory, new byte[] { 1, 2, 3 })); // Deliver garbage
+            assertFalse("transaction without mempool must be dropped", listener.Deliver(GossipEngine.TransactionInventory, new byte[0])); // Deliver tx
+            assertTrue("rejected blocks must not be added", target.Height == 2); // Ensure head unchanged
+        } finally {
+            ChainSyncHarness.Remove(source); // Remove source chain
+            ChainSyncHarness.Remove(target); // Remove target chain
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.dowlandaiello.gitchain.p2p;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * GossipHarness runs a network of gossip engines in a single process. Messages
+ * are encoded, delayed by a fixed link latency, and decoded on delivery, so
+ * propagation behaves (and can be timed) as it would over sockets.
+ */
+public class GossipHarness {
+    /* Nodes */
+    public final GossipEngine[] Nodes;
+
+    /* Time each node first received the current object, in nanoseconds (0 if not yet) */
+    public final long[] ReceivedAt;
+
+    /* Number of times each node was delivered an object */
+    public final int[] Deliveries;
+
+    /* Node peers */
+    private final Peer[] peers;
+
+    /* Node indexes by address */
+    private final Map<String, Integer> indexes = new HashMap<String, Integer>();
+
+    /* Node neighbours */
+    private final List<List<Peer>> neighbours = new ArrayList<List<Peer>>();
+
+    /* Link latency in milliseconds */
+    private final long latency;
+
+    /* Message delivery scheduler */
+    private final ScheduledExecutorService links;
+
+    /* Number of messages sent */
+    private final AtomicLong messages = new AtomicLong();
+
+    /* Nodes still waiting for the current object */
+    private volatile CountDownLatch pending = new CountDownLatch(0);
+
+    /**
+     * Initialize a new network of a given number of nodes, each linked to degree
+     * random others.
+     *
+     * @param size    number of nodes
+     * @param degree  number of random links per node
+     * @param fanout  gossip fanout
+     * @param latency link latency in milliseconds
+     * @param seed    topology random seed
+     */
+    public GossipHarness(int size, int degree, int fanout, long latency, long seed) {
+        this.Nodes = new GossipEngine[size]; // Init nodes
+        this.ReceivedAt = new long[size]; // Init receive times
+        this.Deliveries = new int[size]; // Init delivery counts
+        this.peers = new Peer[size]; // Init peers
+        this.latency = latency; // Set latency
+        this.links = Executors.newScheduledThreadPool(4); // Init links
+
+        for (int i = 0; i < size; i++) { // Init peers
+            this.peers[i] = new Peer("/ipv4/10.0.0." + i + "/tcp/3000", BigInteger.valueOf(i + 1)); // Init peer
+            this.indexes.put(this.peers[i].ConnectionAddr, i); // Index peer
+            this.neighbours.add(new ArrayList<Peer>()); // Init neighbours
+        }
+
+        Random random = new Random(seed); // Init random source
+
+        for (int i = 0; i < size; i++) { // Link nodes
+            this.link(i, (i + 1) % size); // Link ring (keeps the network connected)
+
+            for (int j = 1; j < degree; j++) { // Add random links
+                this.link(i, random.nextInt(size)); // Link
+            }
+        }
+
+        for (int i = 0; i < size; i++) { // Init nodes
+            final int index = i; // Get index
+
+            this.Nodes[i] = new GossipEngine(this.peers[i], new GossipEngine.Transport() {
+                @Override
+                public boolean Send(Peer peer, Connection connection) {
+                    return deliver(peer, connection); // Send over in-process link
+                }
+
+                @Override
+                public List<Peer> Peers() {
+                    return neighbours.get(index); // Return neighbours
+                }
+            }, new GossipEngine.Listener() {
+                @Override
+                public boolean Deliver(byte kind, byte[] payload) {
+                    received(index); // Record delivery
+
+                    return true; // Accept
+                }
+            }, fanout, GossipEngine.DefaultRate, GossipEngine.DefaultBurst, GossipEngine.DefaultSeenCapacity); // Init node
+        }
+    }
+
+    /**
+     * Publish an object from a given node and wait until every other node has
+     * received it.
+     *
+     * @param origin  publishing node
+     * @param payload encoded object
+     * @param timeout max time to wait in milliseconds
+     * @return time until the last node received the object in milliseconds (-1 if
+     *         not every node received it in time)
+     */
+    public long Propagate(int origin, byte[] payload, long timeout) throws InterruptedException {
+        Arrays.fill(this.ReceivedAt, 0); // Reset receive times
+
+        this.pending = new CountDownLatch(this.Nodes.length - 1); // Wait for every other node
+
+        long start = System.nanoTime(); // Get start time
+
+        this.ReceivedAt[origin] = start; // Origin has the object
+
+        this.Nodes[origin].Publish(GossipEngine.TransactionInventory, payload); // Publish
+
+        if (!this.pending.await(timeout, TimeUnit.MILLISECONDS)) { // Wait for propagation
+            return -1; // Timed out
+        }
+
+        long last = start; // Init last receive time
+
+        for (long receivedAt : this.ReceivedAt) { // Iterate through receive times
+            last = Math.max(last, receivedAt); // Get latest
+        }
+
+        return TimeUnit.NANOSECONDS.toMillis(last - start); // Return propagation time
+    }
+
+    /**
+     * Get the number of messages sent.
+     *
+     * @return number of messages
+     */
+    public long Messages() {
+        return this.messages.get(); // Return messages
+    }
+
+    /**
+     * Stop delivering messages.
+     */
+    public void Close() {
+        this.links.shutdownNow(); // Stop links
+    }
+
+    /**
+     * Link two nodes.
+     *
+     * @param a first node
+     * @param b second node
+     */
+    private void link(int a, int b) {
+        if (a == b || this.neighbours.get(a).contains(this.peers[b])) { // Check self or linked
+            return; // Nothing to do
+        }
+
+        this.neighbours.get(a).add(this.peers[b]); // Link a to b
+        this.neighbours.get(b).add(this.peers[a]); // Link b to a
+    }
+
+    /**
+     * Deliver a message to a given peer after the link latency.
+     *
+     * @param peer       recipient
+     * @param connection message
+     * @return whether the recipient exists
+     */
+    private boolean deliver(Peer peer, Connection connection) {
+        final Integer index = this.indexes.get(peer.ConnectionAddr); // Get recipient
+
+        if (index == null) { // Check unknown
+            return false; // Failed
+        }
+
+        final byte[] encoded = connection.Bytes(); // Encode
+
+        this.messages.incrementAndGet(); // Count message
+
+        this.links.schedule(new Runnable() {
+            @Override
+            public void run() {
+                Nodes[index].Handle(new Connection(encoded)); // Decode and handle
+            }
+        }, this.latency, TimeUnit.MILLISECONDS); // Deliver after latency
+
+        return true; // Sent
+    }
+
+    /**
+     * Record that a given node was delivered the current object.
+     *
+     * @param index node index
+     */
+    private synchronized void received(int index) {
+        this.Deliveries[index]++; // Count delivery
+
+        if (this.ReceivedAt[index] == 0) { // Check first delivery
+            this.ReceivedAt[index] = System.nanoTime(); // Record time
+
+            this.pending.countDown(); // Mark received
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.dowlandaiello.gitchain.p2p;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.dowlandaiello.gitchain.common.CommonNet;
+import com.dowlandaiello.gitchain.crypto.Sha;
+
+import org.junit.Test;
+
+/**
+ * NodeLookupTest is the main NodeLookup testing file.
+ */
+public class NodeLookupTest {
+    /**
+     * Test iterative node and value lookups across a chain of nodes, each of which
+     * only knows the next.
+     */
+    @Test
+    public void TestLookup() {
+        int port = CommonNet.GetFreePort(3100); // Get free port
+
+        ExecutorService executor = Executors.newFixedThreadPool(NodeLookup.Alpha); // Init executor
+
+        StubNode[] nodes = new StubNode[3]; // Init nodes
+
+        try {
+            Peer[] peers = new Peer[nodes.length]; // Init peers
+
+            for (int i = 0; i < peers.length; i++) { // Init peers
+                port = CommonNet.GetFreePort(port + 1); // Get free port
+
+                peers[i] = new Peer("/ipv4/127.0.0.1/tcp/" + port, BigInteger.valueOf(5000 + i)); // Init peer
+            }
+
+            for (int i = 0; i < nodes.length; i++) { // Start nodes
+                byte[][] next = i + 1 < peers.length ? new byte[][] { peers[i + 1].Bytes() } : new byte[0][]; // Only know the next node
+
+                nodes[i] = new StubNode(CommonNet.ParseConnectionAddress(peers[i].ConnectionAddr).Port, next,
+                        i == nodes.length - 1 ? "value".getBytes() : null); // Init node
+            }
+
+            RoutingTable table = new RoutingTable(Sha.Sha3("local".getBytes())); // Init table
+
+            table.Seen(peers[0]); // Only know the first node
+
+            List<Peer> found = new NodeLookup(table, RoutingTable.NodeId(peers[2]), null, null, 2000).Run(executor); // Find last node
+
+            assertTrue("must find every node", found.size() == 3); // Ensure found
+            assertArrayEquals("target must be closest", RoutingTable.NodeId(peers[2]), RoutingTable.NodeId(found.get(0))); // Ensure order
+
+            NodeLookup valueLookup = new NodeLookup(table, Sha.Sha3("key".getBytes()), "key".getBytes(), null, 2000); // Init value lookup
+
+            valueLookup.Run(executor); // Find value
+
+            assertArrayEquals("must find value", "value".getBytes(), valueLookup.Value); // Ensure found
+        } catch (IOException e) { // Catch
+            fail(e.getLocalizedMessage()); // Panic
+        } finally {
+            executor.shutdownNow(); // Stop executor
+
+            for (StubNode node : nodes) { // Iterate through nodes
+                if (node != null) { // Check started
+                    node.Close(); // Stop node
+                }
+            }
+        }
+    }
+
+    /**
+     * StubNode answers every lookup with a fixed node list, or a fixed value.
+     */
+    private static class StubNode implements Runnable {
+        /* Listening socket */
+        private final ServerSocket serverSocket;
+
+        /* Nodes to answer with */
+        private final byte[][] nodes;
+
+        /* Value to answer value lookups with (null if none) */
+        private final byte[] value;
+
+        /**
+         * Initialize and start a new stub node.
+         *
+         * @param port  port to listen on
+         * @param nodes nodes to answer with
+         * @param value value to answer value lookups with
+         */
+        StubNode(int port, byte[][] nodes, byte[] value) throws IOException {
+            this.serverSocket = new ServerSocket(port); // Listen
+            this.nodes = nodes; // Set nodes
+            this.value = value; // Set value
+
+            Thread thread = new Thread(this); // Init thread
+
+            thread.setDaemon(true); // Don't block shutdown
+            thread.start(); // Start serving
+        }
+
+        @Override
+        public void run() {
+            while (true) { // Serve until closed
+                try (Socket socket = this.serverSocket.accept()) {
+                    DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream())); // Init reader
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream())); // Init writer
+
+                    Connection request = new Connection(Frame.ReadExpected(in, Frame.ConnectionFrame)); // Read request
+
+                    ConnectionEvent answer = request.Type == Connection.ConnectionType.FindValue && this.value != null
+                            ? new ConnectionEvent(ConnectionEvent.ConnectionEventType.Value, new byte[][] { this.value })
+                            : new ConnectionEvent(ConnectionEvent.ConnectionEventType.Nodes, this.nodes); // Init answer
+
+                    Frame.Write(out, Frame.ConnectionEventFrame, answer.Bytes()); // Write answer
+                    out.flush(); // Send answer
+                } catch (IOException e) { // Catch
+                    if (this.serverSocket.isClosed()) { // Check stopped
+                        return; // Done
+                    }
+                }
+            }
+        }
+
+        /**
+         * Stop the node.
+         */
+        void Close() {
+            try {
+                this.serverSocket.close(); // Close socket
+            } catch (IOException e) { // Catch
+                return; // Nothing to do
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.dowlandaiello.gitchain.p2p;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.dowlandaiello.gitchain.common.CommonNet;
+
+import org.junit.Test;
+
+/**
+ * PeerConnectionPoolTest is the main PeerConnectionPool testing file.
+ */
+public class PeerConnectionPoolTest {
+    /**
+     * Test pipelining many messages over a single pooled connection.
+     */
+    @Test
+    public void TestSend() {
+        int port = CommonNet.GetFreePort(3070); // Get free port
+
+        final AtomicInteger accepted = new AtomicInteger(); // Init accept counter
+        final AtomicInteger received = new AtomicInteger(); // Init frame counter
+
+        PeerConnectionPool pool = new PeerConnectionPool(200); // Init pool
+
+        try (final ServerSocket serverSocket = new ServerSocket(port)) {
+            Thread server = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (true) { // Accept until closed
+                            final Socket socket = serverSocket.accept(); // Accept
+
+                            accepted.incrementAndGet(); // Count connection
+
+                            new Thread(new Runnable() {
+                                @Override
+                                public void run() {
+                                    try {
+                                        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream())); // Init reader
+
+                                        while (Frame.Read(in) != null) { // Read frames until closed
+                                            received.incrementAndGet(); // Count frame
+                                        }
+                                    } catch (IOException e) { // Catch
+                                        return; // Done
+                                    }
+                                }
+                            }).start(); // Read connection
+                        }
+                    } catch (IOException e) { // Catch
+                        return; // Closed
+                    }
+                }
+            }); // Init stub server
+
+            server.setDaemon(true); // Don't block shutdown
+            server.start(); // Start stub server
+
+            Peer sender = new Peer("/ipv4/127.0.0.1/tcp/3000"); // Init sender
+            Peer recipient = new Peer("/ipv4/127.0.0.1/tcp/" + port); // Init recipient
+
+            for (int i = 0; i < 10; i++) { // Send several messages
+                assertTrue("must send", pool.Send(recipient,
+                        new Connection(Connection.ConnectionType.PeerJoinRequest, sender, recipient))); // Send
+            }
+
+            assertTrue("must pipeline", pool.SendAll(recipient, new Connection[] {
+                    new Connection(Connection.ConnectionType.PeerJoinRequest, sender, recipient),
+                    new Connection(Connection.ConnectionType.PeerJoinRequest, sender, recipient) })); // Pipeline
+
+            for (int i = 0; i < 100 && received.get() < 12; i++) { // Wait for frames
+                Thread.sleep(10); // Wait
+            }
+
+            assertTrue("all frames must arrive", received.get() == 12); // Ensure received
+            assertTrue("must reuse one connection", accepted.get() == 1); // Ensure pooled
+            assertTrue("pool must hold connection", pool.Size() == 1); // Ensure pooled
+
+            for (int i = 0; i < 100 && pool.Size() > 0; i++) { // Wait for idle eviction
+                Thread.sleep(10); // Wait
+            }
+
+            assertTrue("idle connection must be evicted", pool.Size() == 0); // Ensure evicted
+        } catch (Exception e) { // Catch
+            fail(e.getLocalizedMessage()); // Panic
+        } finally {
+            pool.Close(); // Close pool
+        }
+    }
+
+    /**
+     * Test backing off unreachable peers.
+     */
+    @Test
+    public void TestBackoff() {
+        PeerConnectionPool pool = new PeerConnectionPool(); // Init pool
+
+        try {
+            int port = CommonNet.GetFreePort(3080); // Get a port nothing listens on
+
+            Peer sender = new Peer("/ipv4/127.0.0.1/tcp/3000"); // Init sender
+            Peer unreachable = new Peer("/ipv4/127.0.0.1/tcp/" + port); // Init unreachable peer
+
+            Connection connection = new Connection(Connection.ConnectionType.PeerJoinRequest, sender, unreachable); // Init connection
+
+            assertFalse("must not reach peer", pool.Send(unreachable, connection)); // Send
+            assertTrue("unreachable peer must be backed off", pool.InBackoff(unreachable.ConnectionAddr)); // Ensure backed off
+            assertFalse("backed off peer must not be dialed", pool.Send(unreachable, connection)); // Send again
+        } finally {
+            pool.Close(); // Close pool
+        }
+    }
+}
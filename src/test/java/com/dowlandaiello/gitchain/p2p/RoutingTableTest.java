@@ -0,0 +1,125 @@
+package com.dowlandaiello.gitchain.p2p;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.dowlandaiello.gitchain.crypto.Sha;
+
+import org.junit.Test;
+
+/**
+ * RoutingTableTest is the main RoutingTable testing file.
+ */
+public class RoutingTableTest {
+    /**
+     * Test bucket placement by XOR distance.
+     */
+    @Test
+    public void TestBucketIndex() {
+        byte[] localId = new byte[RoutingTable.IdBits / 8]; // Init local id
+
+        RoutingTable table = new RoutingTable(localId); // Init table
+
+        assertTrue("own id must have no bucket", table.BucketIndex(localId) == -1); // Ensure self
+
+        byte[] id = new byte[localId.length]; // Init id
+
+        id[id.length - 1] = 1; // Differ in lowest bit
+
+        assertTrue("lowest bit must map to first bucket", table.BucketIndex(id) == 0); // Ensure lowest bucket
+
+        id[0] = (byte) 0x80; // Differ in highest bit
+
+        assertTrue("highest bit must map to last bucket", table.BucketIndex(id) == RoutingTable.IdBits - 1); // Ensure highest bucket
+
+        Random random = new Random(1); // Init random source
+
+        for (int index : new int[] { 0, 7, 8, 100, RoutingTable.IdBits - 1 }) { // Iterate through buckets
+            assertTrue("random id must belong in bucket", table.BucketIndex(table.RandomId(index, random)) == index); // Ensure in bucket
+        }
+    }
+
+    /**
+     * Test closest peer ordering.
+     */
+    @Test
+    public void TestClosest() {
+        RoutingTable table = new RoutingTable(Sha.Sha3("local".getBytes())); // Init table
+
+        List<Peer> peers = new ArrayList<Peer>(); // Init peers
+
+        for (int i = 0; i < 50; i++) { // Add peers
+            Peer peer = peer(i); // Init peer
+
+            peers.add(peer); // Track peer
+            table.Seen(peer); // Add peer
+        }
+
+        byte[] target = RoutingTable.NodeId(peers.get(7)); // Get target
+
+        List<Peer> closest = table.Closest(target, 5); // Get closest
+
+        assertTrue("must return count", closest.size() == 5); // Ensure count
+        assertArrayEquals("closest must be target", target, RoutingTable.NodeId(closest.get(0))); // Ensure exact match first
+
+        for (int i = 1; i < closest.size(); i++) { // Iterate through closest
+            assertTrue("closest must be sorted",
+                    RoutingTable.ByDistance(target).compare(closest.get(i - 1), closest.get(i)) < 0); // Ensure sorted
+        }
+    }
+
+    /**
+     * Test full buckets and liveness-based replacement.
+     */
+    @Test
+    public void TestReplacement() {
+        byte[] localId = new byte[RoutingTable.IdBits / 8]; // Init local id
+
+        RoutingTable table = new RoutingTable(localId, 2); // Init table with tiny buckets
+
+        List<Peer> farPeers = new ArrayList<Peer>(); // Init peers in the highest bucket
+
+        for (int i = 0; farPeers.size() < 3; i++) { // Find peers in the highest bucket
+            Peer peer = peer(i); // Init peer
+
+            if (table.BucketIndex(RoutingTable.NodeId(peer)) == RoutingTable.IdBits - 1) { // Check highest bucket
+                farPeers.add(peer); // Add peer
+            }
+        }
+
+        assertTrue("first peer must be added", table.Seen(farPeers.get(0)) == null); // Add
+        assertTrue("second peer must be added", table.Seen(farPeers.get(1)) == null); // Add
+
+        Peer stale = table.Seen(farPeers.get(2)); // Add past capacity
+
+        assertTrue("full bucket must return least-recently seen peer", stale == farPeers.get(0)); // Ensure ping candidate
+        assertFalse("new peer must wait for room", table.Contains(farPeers.get(2))); // Ensure waiting
+
+        assertTrue("stale peer must be dropped with a replacement waiting", table.Failed(stale)); // Fail
+        assertTrue("replacement must be promoted", table.Contains(farPeers.get(2))); // Ensure promoted
+        assertFalse("stale peer must be gone", table.Contains(stale)); // Ensure dropped
+
+        for (int i = 1; i < RoutingTable.MaxFailures; i++) { // Fail without replacement
+            assertFalse("peer must survive transient failures", table.Failed(farPeers.get(1))); // Fail
+        }
+
+        assertTrue("peer must be dropped after max failures", table.Failed(farPeers.get(1))); // Fail
+        assertTrue("table must shrink", table.Size() == 1); // Ensure size
+    }
+
+    /**
+     * Make a test peer with a deterministic key.
+     *
+     * @param i peer number
+     * @return peer
+     */
+    private static Peer peer(int i) {
+        return new Peer("/ipv4/127.0.0.1/tcp/" + (4000 + i), BigInteger.valueOf(1000 + i)); // Return peer
+    }
+}
@@ -0,0 +1,165 @@
+package com.dowlandaiello.gitchain.types;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.dowlandaiello.gitchain.crypto.Sha;
+
+import org.junit.Test;
+import org.web3j.crypto.ECKeyPair;
+
+/**
+ * BlockTemplateBuilderTest is the main BlockTemplateBuilder testing file.
+ */
+public class BlockTemplateBuilderTest {
+    /* Key of the account holding the genesis allocation */
+    private static final ECKeyPair aliceKey = ChainFixtures.AliceKey;
+
+    /* Account holding the genesis allocation */
+    private static final byte[] alice = ChainFixtures.Alice;
+
+    /* Account without funds */
+    private static final byte[] bob = BigInteger.valueOf(2).toByteArray();
+
+    /**
+     * Test that the template follows the mempool in nonce order, stays within its
+     * limits, and drops included transactions once built on a new parent.
+     */
+    @Test
+    public void TestTemplate() {
+        Blockchain blockchain = ChainFixtures.MakeChain("test_chain_template"); // Make chain
+
+        try {
+            StateDB state = new StateDB(blockchain, 4, 16); // Open state
+            Mempool pool = new Mempool(Mempool.DefaultCapacity, blockchain.Signatures); // Init mempool sharing the chain's signature cache
+
+            BlockTemplateBuilder builder = new BlockTemplateBuilder(blockchain, pool, BlockTemplateBuilder.DefaultMaxBytes, 3); // Init builder
+
+            Transaction[] transactions = new Transaction[5]; // Init transactions
+
+            for (int i = 0; i < transactions.length; i++) { // Make transfers
+                transactions[i] = ChainFixtures.Transfer(i, aliceKey, bob, 10); // Make transfer
+            }
+
+            pool.AddTransaction(transactions[2]); // Add gapped transaction
+
+            assertTrue("gapped transaction must not be included", builder.Size() == 0); // Ensure not included
+
+            pool.AddTransaction(transactions[0]); // Add first transaction
+            pool.AddTransaction(transactions[1]); // Add second transaction (unblocks gapped transaction)
+            pool.AddTransaction(transactions[3]); // Add transaction past limit
+            pool.AddTransaction(transactions[4]); // Add transaction past limit
+
+            Block template = builder.Template(blockchain.GetLastBlock()); // Get template
+
+            assertTrue("template must fill up in nonce order", template.Transactions.length == 3
+                    && template.Transactions[0] == transactions[0] && template.Transactions[2] == transactions[2]); // Ensure order
+            assertArrayEquals("merkle root must match transactions", Block.HashTransactionSum(template.Transactions), template.MerkleRoot); // Ensure merkle root
+            assertArrayEquals("state root must match transactions", state.RootAfter(template.Transactions), template.StateRoot); // Ensure state root
+            long misses = blockchain.Signatures.Misses(); // Get verifications so far
+
+            assertTrue("template must be added", ChainFixtures.Add(blockchain, template)); // Add template
+            assertTrue("signatures verified by the mempool must not be verified again",
+                    blockchain.Signatures.Misses() == misses && blockchain.Signatures.Hits() >= 3); // Ensure cached
+
+            template = builder.Template(blockchain.GetLastBlock()); // Get template on new parent
+
+            assertTrue("included transactions must be dropped", template.Transactions.length == 2
+                    && template.Transactions[0] == transactions[3] && template.Transactions[1] == transactions[4]); // Ensure dropped
+
+            assertTrue("must remove transaction", pool.RemoveTransaction(transactions[3].Hash)); // Remove transaction
+
+            template = builder.Template(blockchain.GetLastBlock()); // Get template
+
+            assertTrue("dependent transactions must be dropped", template.Transactions.length == 0); // Ensure dropped
+            assertArrayEquals("empty template must have empty root", Sha.Sha3(new byte[0]), template.MerkleRoot); // Ensure empty root
+
+            pool.AddTransaction(transactions[3]); // Add transaction again
+
+            template = builder.Template(blockchain.GetLastBlock()); // Get template
+
+            assertTrue("dependent transactions must be included again", template.Transactions.length == 2); // Ensure included
+            assertTrue("template must be added", ChainFixtures.Add(blockchain, template)); // Add template
+            assertTrue("state must reflect both templates", state.NextNonce(alice) == 5 && state.Balance(bob) == 50); // Ensure state
+        } finally {
+            ChainFixtures.RemoveChain(blockchain); // Remove chain
+        }
+    }
+
+    /**
+     * Test that the incrementally maintained merkle root matches a freshly built
+     * tree as transactions are added, replaced, and removed, and that the size
+     * limit holds.
+     */
+    @Test
+    public void TestIncrementalMerkleRoot() {
+        Blockchain blockchain = ChainFixtures.MakeChain("test_chain_template_merkle"); // Make chain
+
+        try {
+            Mempool pool = new Mempool(Mempool.DefaultCapacity); // Init mempool
+            List<Transaction> pending = new ArrayList<Transaction>(); // Init pending transactions
+            List<ECKeyPair> senders = new ArrayList<ECKeyPair>(); // Init sender keys
+
+            for (int seed = 1000; pending.size() < 60; seed++) { // Make transactions
+                ECKeyPair sender = ECKeyPair.create(BigInteger.valueOf(seed)); // Make sender
+                Transaction transaction = ChainFixtures.Transfer(0, sender, bob, pending.size()); // Make transaction
+
+                if (pending.isEmpty() || transaction.EncodedSize() == pending.get(0).EncodedSize()) { // Check same size (addresses vary in length)
+                    senders.add(sender); // Add sender
+                    pending.add(transaction); // Add transaction
+                }
+            }
+
+            int maxBytes = 40 * pending.get(0).EncodedSize(); // Fit 40 transactions
+
+            BlockTemplateBuilder builder = new BlockTemplateBuilder(blockchain, pool, maxBytes, BlockTemplateBuilder.DefaultMaxTransactions); // Init builder
+
+            for (Transaction transaction : pending) { // Iterate through transactions
+                pool.AddTransaction(transaction); // Add transaction
+
+                assertMerkleRoot(builder, blockchain); // Ensure root
+            }
+
+            assertTrue("template must stay within its size limit", builder.Size() == 40 && builder.Bytes() <= maxBytes); // Ensure limit
+
+            Transaction replacement = ChainFixtures.Transfer(0, senders.get(5), bob, 100); // Outbid transaction
+
+            assertTrue("must replace transaction", pool.AddTransaction(replacement)); // Replace transaction
+
+            pending.remove(5); // Forget replaced transaction
+            pending.add(replacement); // Remember replacement
+
+            assertMerkleRoot(builder, blockchain); // Ensure root
+
+            Random random = new Random(7); // Init random
+
+            while (!pending.isEmpty()) { // Remove every transaction
+                Transaction removed = pending.remove(random.nextInt(pending.size())); // Pick transaction
+
+                assertTrue("must remove transaction", pool.RemoveTransaction(removed.Hash)); // Remove transaction
+
+                assertMerkleRoot(builder, blockchain); // Ensure root
+                assertTrue("template must refill", builder.Size() == Math.min(40, pending.size())); // Ensure refilled
+            }
+        } finally {
+            ChainFixtures.RemoveChain(blockchain); // Remove chain
+        }
+    }
+
+    /**
+     * Assert that a builder's template has the merkle root of its transactions.
+     *
+     * @param builder    builder to check
+     * @param blockchain chain the builder builds for
+     */
+    private static void assertMerkleRoot(BlockTemplateBuilder builder, Blockchain blockchain) {
+        Block template = builder.Template(blockchain.GetLastBlock()); // Get template
+
+        assertArrayEquals("merkle root must match transactions", Block.HashTransactionSum(template.Transactions), template.MerkleRoot); // Ensure merkle root
+    }
+}
@@ -3,6 +3,12 @@ package com.dowlandaiello.gitchain.types;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.Arrays;
+
+import com.dowlandaiello.gitchain.common.CommonCodec;
+import com.dowlandaiello.gitchain.crypto.Sha;
+
+import org.apache.commons.lang3.SerializationUtils;
 import org.junit.Test;
 import org.web3j.crypto.ECKeyPair;
 import org.web3j.crypto.Keys;
@@ -66,6 +72,69 @@ public class BlockTest {
         assertTrue("block bytes must not be null", block.Bytes() != null); // Ensure not null
     }
 
+    /**
+     * Test block decoding from raw data.
+     */
+    @Test
+    public void TestBlockFromBytes() {
+        Transaction[] txArr = new Transaction[1]; // Has a tx
+
+        try {
+            ECKeyPair keyPair = Keys.createEcKeyPair(); // Generate a new key pair
+
+            txArr[0] = new Transaction(0, keyPair.getPublicKey().toByteArray(), keyPair.getPublicKey().toByteArray(), 0f, 0, keyPair.getPublicKey().toByteArray()); // Initialize transaction
+        } catch (Exception e) {
+            fail(e.getLocalizedMessage()); // Panic
+        }
+
+        Block block = new Block(txArr, new byte[0], new byte[0], 1f, 42l); // Initialize block
+        block.Hash = Sha.Sha3(block.BytesHashSafe()); // Hash
+
+        Block decodedBlock = new Block(block.Bytes()); // Decode
+
+        assertTrue("decoded block must be equivalent", Arrays.equals(block.Bytes(), decodedBlock.Bytes())); // Ensure equivalent
+        assertTrue("decoded block must keep transactions", Arrays.equals(txArr[0].Hash, decodedBlock.Transactions[0].Hash)); // Ensure txs decoded
+
+        Block legacyBlock = Block.ReadStored(SerializationUtils.serialize(block)); // Read java serialized block
+
+        assertTrue("legacy block must be equivalent", Arrays.equals(block.Bytes(), legacyBlock.Bytes())); // Ensure migrated
+        assertTrue("stored block must be equivalent", Arrays.equals(block.Bytes(), Block.ReadStored(block.Bytes()).Bytes())); // Ensure readable
+
+        try {
+            new Block(SerializationUtils.serialize(block)); // Decode java serialized block from peer
+
+            fail("java serialized block must only be read from storage"); // Panic
+        } catch (IllegalArgumentException e) { // Catch
+        }
+
+        byte[] encoded = block.Bytes(); // Encode block (no state root)
+        int stateRootOffset = CommonCodec.HeaderSize + CommonCodec.LengthSize + txArr[0].EncodedSize()
+                + CommonCodec.SizeOf(block.MerkleRoot); // Get state root offset
+
+        byte[] v1 = new byte[encoded.length - CommonCodec.LengthSize]; // Init version 1 encoding
+
+        System.arraycopy(encoded, 0, v1, 0, stateRootOffset); // Copy fields before state root
+        System.arraycopy(encoded, stateRootOffset + CommonCodec.LengthSize, v1, stateRootOffset,
+                encoded.length - stateRootOffset - CommonCodec.LengthSize); // Copy fields after state root
+
+        v1[1] = 1; // Set block version
+        v1[CommonCodec.HeaderSize + CommonCodec.LengthSize + 1] = 1; // Set transaction version
+
+        Block v1Block = Block.ReadStored(v1); // Read version 1 block
+
+        assertTrue("version 1 block must not have a state root", v1Block.StateRoot == null); // Ensure no state root
+        assertTrue("version 1 block must be equivalent", Arrays.equals(encoded, v1Block.Bytes())); // Ensure re-encoded
+
+        v1[1] = CommonCodec.Version + 1; // Set unknown version
+
+        try {
+            new Block(v1); // Decode unknown version
+
+            fail("unknown codec version must be rejected"); // Panic
+        } catch (IllegalArgumentException e) { // Catch
+        }
+    }
+
     /**
      * Test hash safe block bytes serialization.
      */
@@ -116,4 +185,34 @@ public class BlockTest {
         assertTrue("hash sum most not be null", Block.HashTransactionSum(txArr) != null); // Ensure not null
         assertTrue("merkle root must not be null", block.MerkleRoot != null); // Ensure not null
     }
-}
\ No newline at end of file
+
+    /**
+     * Test header extraction.
+     */
+    @Test
+    public void TestHeader() {
+        Transaction[] txArr = new Transaction[] { new Transaction(0, new byte[0], new byte[0], 50, 0, new byte[0]) }; // Init txs
+
+        Block block = new Block(txArr, new byte[64], new byte[0], 1f, 7l); // Initialize block
+        block.Hash = new byte[64]; // Set hash
+        block.StateRoot = StateDB.GenesisRoot(txArr); // Set state root
+
+        Block header = block.Header(); // Get header
+
+        assertTrue("header must not carry transactions", header.IsHeader() && !block.IsHeader()); // Ensure no body
+        assertTrue("header must keep proof of work", header.Nonce == block.Nonce
+                && java.util.Arrays.equals(header.HeaderDigest(), block.HeaderDigest())); // Ensure same digest
+
+        Block decoded = new Block(header.Bytes()); // Round trip header
+
+        assertTrue("decoded header must not carry transactions", decoded.IsHeader()); // Ensure no body
+        assertTrue("decoded header must keep merkle root", java.util.Arrays.equals(decoded.MerkleRoot, block.MerkleRoot)); // Ensure root
+        assertTrue("decoded header must keep state root", java.util.Arrays.equals(decoded.StateRoot, block.StateRoot)); // Ensure state root
+
+        byte[] digest = block.HeaderDigest(); // Get digest
+
+        block.StateRoot = StateTrie.EmptyRoot; // Change state root
+
+        assertTrue("proof of work must commit to state root", !java.util.Arrays.equals(digest, block.HeaderDigest())); // Ensure committed
+    }
+}
@@ -1,5 +1,6 @@
 package com.dowlandaiello.gitchain.types;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -11,6 +12,7 @@ import com.dowlandaiello.gitchain.common.CommonCoin;
 import com.dowlandaiello.gitchain.common.CommonIO;
 import com.dowlandaiello.gitchain.config.ChainConfig;
 import com.dowlandaiello.gitchain.crypto.Sha;
+import com.google.gson.Gson;
 
 import org.junit.Test;
 import org.web3j.crypto.ECKeyPair;
@@ -215,14 +217,14 @@ public class BlockchainTest {
             transactions[0] = new Transaction(0, new byte[0], CommonCoin.MinerCoinbase, 50, 0, new byte[0]); // Set tx
 
             Block newBlock = blockchain.CreateNewBlock(lastBlock, transactions, 0); // Generate new block
-            newBlock.Difficulty = Blockchain.CalculateDifficulty(lastBlock, newBlock.Timestamp); // Set difficulty
+            newBlock.Difficulty = blockchain.NextDifficulty(lastBlock, newBlock.Timestamp); // Set difficulty
 
             assertTrue("block must not be null", newBlock != null); // Ensure block not null
 
             while (!Blockchain.VerifyBlockNonce(newBlock)) { // Check invalid hash
                 newBlock.Nonce++; // Increment nonce
-                newBlock.Timestamp = System.currentTimeMillis() / 1000; // Set timestamp
-                newBlock.Difficulty = Blockchain.CalculateDifficulty(lastBlock, newBlock.Timestamp); // Set difficulty
+                newBlock.Timestamp = Math.max(System.currentTimeMillis() / 1000, lastBlock.Timestamp + 1); // Set timestamp
+                newBlock.Difficulty = blockchain.NextDifficulty(lastBlock, newBlock.Timestamp); // Set difficulty
             }
 
             newBlock.Hash = Sha.Sha3(newBlock.BytesHashSafe()); // Hash
@@ -253,4 +255,498 @@ public class BlockchainTest {
                 + (System.currentTimeMillis() / 1000 - blockchain.GenesisBlock.Timestamp) + " seconds."); // Log test
                                                                                                           // finished
     }
-}
\ No newline at end of file
+
+    /**
+     * Test chain head lookup.
+     */
+    @Test
+    public void TestGetLastBlock() {
+        ECKeyPair keyPair = null; // Init buffer
+
+        try {
+            keyPair = Keys.createEcKeyPair(); // Generate a new key pair
+        } catch (Exception e) { // Catch
+            fail(e.getLocalizedMessage()); // Panic
+        }
+
+        Map<BigInteger, Float> alloc = new HashMap<BigInteger, Float>(); // Init hash map
+
+        alloc.put(keyPair.getPublicKey(), 1000000f); // Set alloc
+
+        ChainConfig chainConfig = new ChainConfig(alloc, 0, "test_chain_head", 10, 1f); // Initialize chain config
+
+        CommonIO.MakeDirIfNotExist(CommonIO.DbPath + "/" + chainConfig.Chain); // Make test cache
+
+        assertTrue("must remove test cache",
+                CommonIO.DeleteDirectoryContents(new java.io.File(CommonIO.DbPath + "/" + chainConfig.Chain))); // Delete
+                                                                                                                // test
+                                                                                                                // cache
+
+        Blockchain blockchain = new Blockchain(chainConfig); // Make new blockchain
+
+        assertTrue("genesis block must be chain head",
+                java.util.Arrays.equals(blockchain.GetLastBlock().Hash, blockchain.GenesisBlock.Hash)); // Ensure genesis is head
+        assertTrue("genesis height must be 0", blockchain.Height == 0); // Ensure genesis height
+
+        Block lastBlock = blockchain.GenesisBlock; // Set parent
+
+        for (int x = 1; x != 4; x++) { // Make all blocks
+            Transaction[] transactions = new Transaction[1]; // Init tx arr
+            transactions[0] = new Transaction(0, new byte[0], CommonCoin.MinerCoinbase, 50, 0, new byte[0]); // Set tx
+
+            Block newBlock = blockchain.CreateNewBlock(lastBlock, transactions, 0); // Generate new block
+
+            while (!Blockchain.VerifyBlockNonce(newBlock)) { // Check invalid hash
+                newBlock.Nonce++; // Increment nonce
+            }
+
+            newBlock.Hash = Sha.Sha3(newBlock.BytesHashSafe()); // Hash
+
+            assertTrue("must add to chain", blockchain.AddBlock(newBlock)); // Add new block to chain
+            assertTrue("new block must be chain head",
+                    java.util.Arrays.equals(blockchain.GetLastBlock().Hash, newBlock.Hash)); // Ensure new block is head
+            assertTrue("chain height must match block count", blockchain.Height == x); // Ensure height
+
+            lastBlock = newBlock; // Set last block
+        }
+
+        assertTrue("must not add stale block", !blockchain.AddBlock(lastBlock)); // Ensure stale block rejected
+
+        Block forged = mineFork(blockchain, lastBlock, 2); // Mine block on head
+
+        forged.Hash = Sha.Sha3(forged.Hash); // Forge hash
+
+        assertTrue("block with forged hash must be rejected", !blockchain.AddBlock(forged)
+                && !blockchain.HasBlock(forged.Hash) && blockchain.Height == 3); // Ensure rejected
+
+        float totalDifficulty = blockchain.TotalDifficulty; // Store total difficulty
+
+        assertTrue("must close block db", blockchain.CloseBlockDB()); // Close block db
+        assertTrue("must open block db", blockchain.OpenBlockDB()); // Re-open block db
+
+        assertTrue("chain head must persist", java.util.Arrays.equals(blockchain.GetLastBlock().Hash, lastBlock.Hash)); // Ensure head persisted
+        assertTrue("chain height must persist", blockchain.Height == 3); // Ensure height persisted
+        assertTrue("total difficulty must persist", blockchain.TotalDifficulty == totalDifficulty); // Ensure difficulty persisted
+
+        blockchain.CloseBlockDB(); // Close block db
+
+        assertTrue("must remove test cache",
+                CommonIO.DeleteDirectoryContents(new java.io.File(CommonIO.DbPath + "/" + chainConfig.Chain))); // Delete
+                                                                                                                // test
+                                                                                                                // cache
+    }
+
+    /**
+     * Test height and hash indexed block lookups.
+     */
+    @Test
+    public void TestGetBlockByHeight() {
+        ECKeyPair keyPair = null; // Init buffer
+
+        try {
+            keyPair = Keys.createEcKeyPair(); // Generate a new key pair
+        } catch (Exception e) { // Catch
+            fail(e.getLocalizedMessage()); // Panic
+        }
+
+        Map<BigInteger, Float> alloc = new HashMap<BigInteger, Float>(); // Init hash map
+
+        alloc.put(keyPair.getPublicKey(), 1000000f); // Set alloc
+
+        ChainConfig chainConfig = new ChainConfig(alloc, 0, "test_chain_index", 10, 1f); // Initialize chain config
+
+        CommonIO.MakeDirIfNotExist(CommonIO.DbPath + "/" + chainConfig.Chain); // Make test cache
+
+        assertTrue("must remove test cache",
+                CommonIO.DeleteDirectoryContents(new java.io.File(CommonIO.DbPath + "/" + chainConfig.Chain))); // Delete
+                                                                                                                // test
+                                                                                                                // cache
+
+        Blockchain blockchain = new Blockchain(chainConfig); // Make new blockchain
+
+        Block[] blocks = new Block[5]; // Init block buffer
+        blocks[0] = blockchain.GenesisBlock; // Set genesis
+
+        for (int x = 1; x != blocks.length; x++) { // Make all blocks
+            Transaction[] transactions = new Transaction[1]; // Init tx arr
+            transactions[0] = new Transaction(0, new byte[0], CommonCoin.MinerCoinbase, 50, 0, new byte[0]); // Set tx
+
+            Block newBlock = blockchain.CreateNewBlock(blocks[x - 1], transactions, 0); // Generate new block
+
+            while (!Blockchain.VerifyBlockNonce(newBlock)) { // Check invalid hash
+                newBlock.Nonce++; // Increment nonce
+            }
+
+            newBlock.Hash = Sha.Sha3(newBlock.BytesHashSafe()); // Hash
+
+            assertTrue("must add to chain", blockchain.AddBlock(newBlock)); // Add new block to chain
+
+            blocks[x] = newBlock; // Set block
+        }
+
+        for (int x = 0; x != blocks.length; x++) { // Check all blocks
+            assertTrue("block at height must match",
+                    java.util.Arrays.equals(blockchain.GetBlockByHeight(x).Hash, blocks[x].Hash)); // Ensure height index
+            assertTrue("block with hash must match",
+                    java.util.Arrays.equals(blockchain.GetBlockByHash(blocks[x].Hash).Hash, blocks[x].Hash)); // Ensure body
+            assertTrue("block height must match", blockchain.GetBlockHeight(blocks[x].Hash) == x); // Ensure hash index
+        }
+
+        assertTrue("block past head must be null", blockchain.GetBlockByHeight(blocks.length) == null); // Ensure not found
+        assertTrue("unknown block height must be -1", blockchain.GetBlockHeight(new byte[64]) == -1); // Ensure not found
+
+        java.util.List<Block> range = blockchain.GetBlocksInRange(1, 3); // Get range
+
+        assertTrue("range must contain 3 blocks", range.size() == 3); // Ensure range size
+
+        for (int x = 0; x != range.size(); x++) { // Check range
+            assertTrue("range must be in height order",
+                    java.util.Arrays.equals(range.get(x).Hash, blocks[x + 1].Hash)); // Ensure ordered
+        }
+
+        assertTrue("open-ended range must stop at head",
+                blockchain.GetBlocksInRange(2, Long.MAX_VALUE).size() == blocks.length - 2); // Ensure bounded
+
+        blockchain.CloseBlockDB(); // Close block db
+
+        assertTrue("must remove test cache",
+                CommonIO.DeleteDirectoryContents(new java.io.File(CommonIO.DbPath + "/" + chainConfig.Chain))); // Delete
+                                                                                                                // test
+                                                                                                                // cache
+    }
+
+    /**
+     * Test precomputed digest nonce verification.
+     */
+    @Test
+    public void TestVerifyNonce() {
+        Transaction[] transactions = new Transaction[1]; // Init tx arr
+        transactions[0] = new Transaction(0, new byte[0], new byte[0], 50, 0, new byte[0]); // Set tx
+
+        Block block = new Block(transactions, new byte[64], new byte[0], 255.9f, 0l); // Init block
+
+        byte[] headerDigest = block.HeaderDigest(); // Get digest
+        byte[] target = Blockchain.CalculateTarget(block.Difficulty); // Get target
+
+        assertTrue("targets must be cached per difficulty", target == Blockchain.CalculateTarget(255.1f)); // Ensure cached
+
+        block.Nonce = 42l; // Set nonce
+        block.Hash = new byte[64]; // Set hash
+
+        assertTrue("header digest must not depend on nonce or hash",
+                java.util.Arrays.equals(headerDigest, block.HeaderDigest())); // Ensure nonce-free
+        assertTrue("header digest must not mutate block", block.Nonce == 42l && block.Hash.length == 64); // Ensure unchanged
+
+        for (long nonce = 0; nonce < 2048; nonce++) { // Check nonces
+            block.Nonce = nonce; // Set nonce
+
+            assertTrue("precomputed verification must match block verification",
+                    Blockchain.VerifyNonce(headerDigest, nonce, target) == Blockchain.VerifyBlockNonce(block)); // Ensure equivalent
+        }
+    }
+
+    /**
+     * Test header chain verification.
+     */
+    @Test
+    public void TestVerifyHeader() {
+        Block parent = new Block(new Transaction[0], new byte[0], new byte[0], 1f, 0l); // Init parent
+        parent.Hash = new byte[64]; // Set hash
+
+        Block header = new Block(new Transaction[0], parent.Hash, new byte[0], 1f, 0l); // Init child
+
+        header.Timestamp = parent.Timestamp + 1; // Set timestamp past parent
+        header.Difficulty = Blockchain.CalculateDifficulty(parent, header.Timestamp); // Set difficulty
+
+        while (!Blockchain.VerifyBlockNonce(header)) { // Check invalid nonce
+            header.Nonce++; // Increment nonce
+        }
+
+        header = header.Header(); // Drop body
+
+        assertTrue("valid header must extend parent", Blockchain.VerifyHeader(parent, header)); // Ensure valid
+
+        header.ParentHash = new byte[] { 1 }; // Break link
+
+        assertTrue("header must link to parent", !Blockchain.VerifyHeader(parent, header)); // Ensure linked
+
+        header.ParentHash = parent.Hash; // Fix link
+        header.Difficulty = header.Difficulty * 2; // Change difficulty
+
+        assertTrue("header must carry retargeted difficulty", !Blockchain.VerifyHeader(parent, header)); // Ensure retargeted
+
+        header.Difficulty = header.Difficulty / 2; // Restore difficulty
+        header.Timestamp = parent.Timestamp; // Move timestamp back to parent
+
+        while (!Blockchain.VerifyBlockNonce(header)) { // Check invalid nonce
+            header.Nonce++; // Increment nonce
+        }
+
+        assertTrue("header must be timestamped past the window median", !Blockchain.VerifyHeader(parent, header)); // Ensure timestamped
+    }
+
+    /**
+     * Test that blocks and derived state are committed together, and that
+     * checkpoints don't close the block db.
+     */
+    @Test
+    public void TestAtomicCommit() {
+        Map<BigInteger, Float> alloc = new HashMap<BigInteger, Float>(); // Init hash map
+
+        alloc.put(BigInteger.ONE, 1000000f); // Set alloc
+
+        ChainConfig chainConfig = new ChainConfig(alloc, 0, "test_chain_commit", 10, 1f); // Initialize chain config
+
+        CommonIO.MakeDirIfNotExist(CommonIO.DbPath + "/" + chainConfig.Chain); // Make test cache
+
+        assertTrue("must remove test cache",
+                CommonIO.DeleteDirectoryContents(new java.io.File(CommonIO.DbPath + "/" + chainConfig.Chain))); // Delete test cache
+
+        final byte[] stateKey = "test_state".getBytes(); // Init derived state key
+        final boolean[] accept = new boolean[] { false }; // Init state verdict
+
+        Blockchain blockchain = new Blockchain(chainConfig); // Make new blockchain
+
+        blockchain.SyncOnCommit = true; // Sync each commit
+        blockchain.State = new Blockchain.StateTransition() {
+            @Override
+            public boolean Apply(org.iq80.leveldb.WriteBatch batch, Block block, long height) {
+                batch.put(stateKey, com.dowlandaiello.gitchain.common.CommonDB.EncodeLong(height)); // Record height
+
+                return accept[0]; // Return verdict
+            }
+
+            @Override
+            public boolean Revert(org.iq80.leveldb.WriteBatch batch, Block block, long height) {
+                return true; // Nothing to undo
+            }
+
+            @Override
+            public void Commit() {
+                return; // Nothing cached
+            }
+
+            @Override
+            public void Discard() {
+                return; // Nothing cached
+            }
+        }; // Init derived state
+
+        Transaction[] transactions = new Transaction[] { new Transaction(0, new byte[0], CommonCoin.MinerCoinbase, 50, 0, new byte[0]) }; // Init txs
+
+        Block newBlock = blockchain.CreateNewBlock(blockchain.GetLastBlock(), transactions, 0); // Generate new block
+
+        while (!Blockchain.VerifyBlockNonce(newBlock)) { // Check invalid hash
+            newBlock.Nonce++; // Increment nonce
+        }
+
+        newBlock.Hash = Sha.Sha3(newBlock.BytesHashSafe()); // Hash
+
+        assertTrue("block rejected by state must not be added", !blockchain.AddBlock(newBlock)); // Reject
+        assertTrue("rejected block must not be stored", blockchain.GetBlockByHash(newBlock.Hash) == null); // Ensure not stored
+        assertTrue("rejected state must not be stored", blockchain.BlockDB.get(stateKey) == null); // Ensure not stored
+        assertTrue("head must not move", blockchain.Height == 0); // Ensure head unchanged
+
+        accept[0] = true; // Accept blocks
+
+        assertTrue("must add to chain", blockchain.AddBlock(newBlock)); // Add new block to chain
+        assertTrue("state must be committed with block",
+                com.dowlandaiello.gitchain.common.CommonDB.DecodeLong(blockchain.BlockDB.get(stateKey), 0) == 1); // Ensure state
+
+        assertTrue("must write db header", blockchain.WriteToMemory()); // Checkpoint
+        assertTrue("checkpoint must not close block db", blockchain.BlockDB != null
+                && java.util.Arrays.equals(blockchain.GetLastBlock().Hash, newBlock.Hash)); // Ensure open
+
+        Blockchain header = Blockchain.ReadFromMemory(chainConfig.Chain); // Read db header
+
+        assertTrue("db header must hold head", header.Height == 1 && java.util.Arrays.equals(header.HeadHash, newBlock.Hash)); // Ensure header
+        assertTrue("db header must hold total difficulty", header.TotalDifficulty == blockchain.TotalDifficulty); // Ensure difficulty
+
+        String legacyHeader = new Gson().toJson(header).replaceAll("\"TotalDifficulty\":\\d+", "\"TotalDifficulty\":2.5"); // Write total difficulty as a legacy float
+
+        assertTrue("legacy float total difficulty must be converted",
+                legacyHeader.contains("\"TotalDifficulty\":2.5")
+                        && new Blockchain(legacyHeader.getBytes()).TotalDifficulty == DifficultyRetarget.ToFixed(2.5f)); // Ensure converted
+
+        blockchain.CloseBlockDB(); // Close block db
+
+        assertTrue("must remove test cache",
+                CommonIO.DeleteDirectoryContents(new java.io.File(CommonIO.DbPath + "/" + chainConfig.Chain))); // Delete test cache
+    }
+
+    /**
+     * Test that heavier side chains become canonical, and that lighter side blocks
+     * are stored without moving the head.
+     */
+    @Test
+    public void TestForkChoice() {
+        Map<BigInteger, Float> alloc = new HashMap<BigInteger, Float>(); // Init hash map
+
+        alloc.put(BigInteger.ONE, 1000000f); // Set alloc
+
+        ChainConfig chainConfig = new ChainConfig(alloc, 0, "test_chain_fork", 10, 1f); // Initialize chain config
+
+        CommonIO.MakeDirIfNotExist(CommonIO.DbPath + "/" + chainConfig.Chain); // Make test cache
+
+        assertTrue("must remove test cache",
+                CommonIO.DeleteDirectoryContents(new java.io.File(CommonIO.DbPath + "/" + chainConfig.Chain))); // Delete test cache
+
+        Blockchain blockchain = new Blockchain(chainConfig); // Make new blockchain
+
+        Block a1 = mineFork(blockchain, blockchain.GenesisBlock, 1); // Mine canonical block
+        Block a2 = mineFork(blockchain, a1, 1); // Mine canonical block
+
+        assertTrue("must add canonical blocks", blockchain.AddBlock(a1) && blockchain.AddBlock(a2)); // Add canonical blocks
+
+        Block b1 = mineFork(blockchain, blockchain.GenesisBlock, 2); // Mine side block
+
+        assertTrue("must store side block", blockchain.AddBlock(b1)); // Add side block
+        assertTrue("known block must not be added again", !blockchain.AddBlock(b1)); // Add again
+        assertTrue("lighter side block must not move head",
+                blockchain.Height == 2 && java.util.Arrays.equals(blockchain.HeadHash, a2.Hash)); // Ensure head unchanged
+        assertTrue("side block must be stored", blockchain.HasBlock(b1.Hash) && blockchain.GetBlockByHash(b1.Hash) != null); // Ensure stored
+        assertTrue("side block must not be canonical", blockchain.GetBlockHeight(b1.Hash) == -1); // Ensure not indexed
+
+        Block head = b1; // Init side head
+
+        while (!(blockchain.GetTotalDifficulty(head.Hash) > blockchain.GetTotalDifficulty(a2.Hash))) { // Extend side chain until heavier
+            head = mineFork(blockchain, head, 2); // Mine side block
+
+            assertTrue("must add side block", blockchain.AddBlock(head)); // Add side block
+        }
+
+        assertTrue("heavier side chain must become canonical", java.util.Arrays.equals(blockchain.HeadHash, head.Hash)
+                && blockchain.TotalDifficulty == blockchain.GetTotalDifficulty(head.Hash)); // Ensure reorganized
+        assertTrue("side chain must be indexed", java.util.Arrays.equals(blockchain.GetBlockByHeight(1).Hash, b1.Hash)
+                && blockchain.GetBlockHeight(head.Hash) == blockchain.Height); // Ensure indexed
+        assertTrue("detached blocks must not be canonical", blockchain.GetBlockHeight(a1.Hash) == -1
+                && blockchain.GetBlockHeight(a2.Hash) == -1 && blockchain.HasBlock(a2.Hash)); // Ensure detached
+
+        Block a3 = a2; // Init old head
+
+        while (!(blockchain.GetTotalDifficulty(a3.Hash) > blockchain.GetTotalDifficulty(head.Hash))) { // Extend old chain until heavier
+            a3 = mineFork(blockchain, a3, 1); // Mine block on old chain
+
+            assertTrue("must add block", blockchain.AddBlock(a3)); // Add block
+        }
+
+        assertTrue("must switch back to old chain", java.util.Arrays.equals(blockchain.HeadHash, a3.Hash)
+                && java.util.Arrays.equals(blockchain.GetBlockByHeight(1).Hash, a1.Hash)
+                && blockchain.GetBlockHeight(b1.Hash) == -1); // Ensure switched back
+
+        assertTrue("unknown block must have no total difficulty", blockchain.GetTotalDifficulty(new byte[64]) == -1); // Ensure unknown
+
+        Block inflatedSide = mineFork(blockchain, b1, 3, 4f); // Mine side block claiming extra work
+        Block inflatedHead = mineFork(blockchain, a3, 3, 4f); // Mine head block claiming extra work
+
+        assertTrue("side block claiming extra work must be rejected", !blockchain.AddBlock(inflatedSide)
+                && !blockchain.HasBlock(inflatedSide.Hash)); // Ensure rejected
+        assertTrue("head block claiming extra work must be rejected",
+                blockchain.addVerified(java.util.Arrays.asList(inflatedHead)) == 0 && !blockchain.HasBlock(inflatedHead.Hash)
+                        && java.util.Arrays.equals(blockchain.HeadHash, a3.Hash)); // Ensure rejected
+
+        blockchain.CloseBlockDB(); // Close block db
+
+        assertTrue("must remove test cache",
+                CommonIO.DeleteDirectoryContents(new java.io.File(CommonIO.DbPath + "/" + chainConfig.Chain))); // Delete test cache
+    }
+
+    /**
+     * Test that a chain with a retarget window derives each block's difficulty
+     * from the timestamps of its ancestors, and that windows read back from the
+     * block db match the cached ones.
+     */
+    @Test
+    public void TestRetargetWindow() {
+        Map<BigInteger, Float> alloc = new HashMap<BigInteger, Float>(); // Init hash map
+
+        alloc.put(BigInteger.ONE, 1000000f); // Set alloc
+
+        ChainConfig chainConfig = new ChainConfig(alloc, 0, "test_chain_retarget", 10, 1f, 3); // Initialize chain config
+
+        CommonIO.MakeDirIfNotExist(CommonIO.DbPath + "/" + chainConfig.Chain); // Make test cache
+
+        assertTrue("must remove test cache",
+                CommonIO.DeleteDirectoryContents(new java.io.File(CommonIO.DbPath + "/" + chainConfig.Chain))); // Delete test cache
+
+        Blockchain blockchain = new Blockchain(chainConfig); // Make new blockchain
+
+        Block[] blocks = new Block[6]; // Init blocks
+
+        blocks[0] = blockchain.GenesisBlock; // Set genesis
+
+        for (int i = 1; i < blocks.length; i++) { // Mine chain
+            blocks[i] = mineFork(blockchain, blocks[i - 1], 1); // Mine block
+
+            assertTrue("header must carry the windowed difficulty", Blockchain.VerifyHeader(blockchain.Retarget(),
+                    blockchain.TimestampWindow(blocks[i - 1]), blocks[i - 1], blocks[i])); // Ensure retargeted
+            assertTrue("must add block", blockchain.AddBlock(blocks[i])); // Add block
+        }
+
+        long[] window = blockchain.TimestampWindow(blocks[5]); // Get head window
+
+        assertArrayEquals("window must hold the last three timestamps",
+                new long[] { blocks[3].Timestamp, blocks[4].Timestamp, blocks[5].Timestamp }, window); // Ensure window
+        assertTrue("genesis window must hold genesis only", blockchain.TimestampWindow(blocks[0]).length == 1); // Ensure short window
+
+        long totalDifficulty = 0; // Init total difficulty
+
+        for (Block block : blocks) { // Iterate through blocks
+            totalDifficulty += DifficultyRetarget.ToFixed(block.Difficulty); // Add difficulty
+        }
+
+        assertTrue("total difficulty must be exact", blockchain.TotalDifficulty == totalDifficulty); // Ensure exact
+        assertTrue("must write db header", blockchain.WriteToMemory()); // Write header
+        assertTrue("must close block db", blockchain.CloseBlockDB()); // Close block db
+
+        Blockchain reopened = Blockchain.ReadFromMemory(chainConfig.Chain); // Read chain (empty window cache)
+
+        assertTrue("must open block db", reopened.OpenBlockDB()); // Open block db
+        assertArrayEquals("window read from the block db must match", window, reopened.TimestampWindow(blocks[5])); // Ensure read window
+        assertTrue("reopened chain must keep its rule", reopened.Retarget().Window == 3); // Ensure rule
+
+        reopened.CloseBlockDB(); // Close block db
+
+        assertTrue("must remove test cache",
+                CommonIO.DeleteDirectoryContents(new java.io.File(CommonIO.DbPath + "/" + chainConfig.Chain))); // Delete test cache
+    }
+
+    /**
+     * Mine a block on top of a given parent, minting to a given account.
+     *
+     * @param blockchain chain to mine for
+     * @param parent     parent block
+     * @param recipient  account to mint to (distinguishes branches)
+     * @return mined block
+     */
+    private static Block mineFork(Blockchain blockchain, Block parent, int recipient) {
+        return mineFork(blockchain, parent, recipient, 1f); // Mine block
+    }
+
+    /**
+     * Mine a block on top of a given parent, minting to a given account, with its
+     * retargeted difficulty scaled by a given factor.
+     *
+     * @param blockchain chain to mine for
+     * @param parent     parent block
+     * @param recipient  account to mint to (distinguishes branches)
+     * @param scale      factor to scale the difficulty by
+     * @return mined block
+     */
+    private static Block mineFork(Blockchain blockchain, Block parent, int recipient, float scale) {
+        Transaction[] transactions = new Transaction[] {
+                new Transaction(0, new byte[0], BigInteger.valueOf(recipient).toByteArray(), 50, 0, new byte[0]) }; // Init txs
+
+        Block newBlock = blockchain.CreateNewBlock(parent, transactions, 0); // Generate new block
+
+        newBlock.Difficulty = newBlock.Difficulty * scale; // Scale difficulty
+
+        while (!Blockchain.VerifyBlockNonce(newBlock)) { // Check invalid hash
+            newBlock.Nonce++; // Increment nonce
+        }
+
+        newBlock.Hash = Sha.Sha3(newBlock.BytesHashSafe()); // Hash
+
+        return newBlock; // Return mined block
+    }
+}
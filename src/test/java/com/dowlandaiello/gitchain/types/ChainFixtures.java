@@ -0,0 +1,124 @@
+package com.dowlandaiello.gitchain.types;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.dowlandaiello.gitchain.common.CommonIO;
+import com.dowlandaiello.gitchain.config.ChainConfig;
+import com.dowlandaiello.gitchain.crypto.Sha;
+
+import org.web3j.crypto.ECKeyPair;
+
+/**
+ * ChainFixtures makes, mines and removes the throwaway chains shared by the
+ * types tests. Every chain it makes allocates its supply to alice.
+ */
+class ChainFixtures {
+    /* Funded account key */
+    static final ECKeyPair AliceKey = ECKeyPair.create(BigInteger.ONE);
+
+    /* Funded account address */
+    static final byte[] Alice = AliceKey.getPublicKey().toByteArray();
+
+    /**
+     * Make a test chain allocating funds to alice.
+     *
+     * @param name chain name
+     * @return chain
+     */
+    static Blockchain MakeChain(String name) {
+        return MakeChain(name, null); // Make chain
+    }
+
+    /**
+     * Make a test chain allocating funds to alice.
+     *
+     * @param name    chain name
+     * @param genesis genesis block to share (null to make one)
+     * @return chain
+     */
+    static Blockchain MakeChain(String name, Block genesis) {
+        Map<BigInteger, Float> alloc = new HashMap<BigInteger, Float>(); // Init hash map
+
+        alloc.put(new BigInteger(Alice), 1000000f); // Set alloc
+
+        ChainConfig chainConfig = new ChainConfig(alloc, 0, name, 10, 1f); // Initialize chain config
+
+        CommonIO.MakeDirIfNotExist(CommonIO.DbPath + "/" + name); // Make test cache
+
+        assertTrue("must remove test cache", CommonIO.DeleteDirectoryContents(new File(CommonIO.DbPath + "/" + name))); // Delete test cache
+
+        return genesis == null ? new Blockchain(chainConfig) : new Blockchain(chainConfig, genesis); // Make chain
+    }
+
+    /**
+     * Close and delete a test chain.
+     *
+     * @param blockchain chain to remove
+     */
+    static void RemoveChain(Blockchain blockchain) {
+        blockchain.CloseBlockDB(); // Close block db
+
+        assertTrue("must remove test cache",
+                CommonIO.DeleteDirectoryContents(new File(CommonIO.DbPath + "/" + blockchain.ChainID))); // Delete test cache
+    }
+
+    /**
+     * Find a valid nonce for a given block and set its hash.
+     *
+     * @param newBlock block to seal
+     * @return sealed block
+     */
+    static Block Seal(Block newBlock) {
+        while (!Blockchain.VerifyBlockNonce(newBlock)) { // Check invalid hash
+            newBlock.Nonce++; // Increment nonce
+        }
+
+        newBlock.Hash = Sha.Sha3(newBlock.BytesHashSafe()); // Hash
+
+        return newBlock; // Return sealed block
+    }
+
+    /**
+     * Seal a given block and add it to a chain.
+     *
+     * @param blockchain chain to add to
+     * @param newBlock   block to seal
+     * @return whether the block was added
+     */
+    static boolean Add(Blockchain blockchain, Block newBlock) {
+        return blockchain.AddBlock(Seal(newBlock)); // Add block
+    }
+
+    /**
+     * Mine a block holding a given transaction on top of a chain's head, and add it.
+     *
+     * @param blockchain  chain to add to
+     * @param transaction transaction to include
+     * @return whether the block was added
+     */
+    static boolean Mine(Blockchain blockchain, Transaction transaction) {
+        return Add(blockchain, blockchain.CreateNewBlock(blockchain.GetLastBlock(), new Transaction[] { transaction }, 0)); // Generate and add block
+    }
+
+    /**
+     * Make a transfer signed by its sender.
+     *
+     * @param nonce     sender nonce
+     * @param sender    sender key
+     * @param recipient recipient address
+     * @param value     transfer value
+     * @return signed transfer
+     */
+    static Transaction Transfer(int nonce, ECKeyPair sender, byte[] recipient, float value) {
+        Transaction transaction = new Transaction(nonce, sender.getPublicKey().toByteArray(), recipient, value, 0, new byte[0]); // Init transfer
+
+        assertTrue("must sign transfer", Transaction.SignTransaction(transaction, sender.getPrivateKey())); // Sign transfer
+
+        return transaction; // Return signed transfer
+    }
+}
@@ -0,0 +1,121 @@
+package com.dowlandaiello.gitchain.types;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.SerializationUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.web3j.crypto.ECKeyPair;
+import org.web3j.crypto.Keys;
+
+/**
+ * CodecBenchmark compares the binary block codec against Java serialization.
+ *
+ * Run with:
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.dowlandaiello.gitchain.types.CodecBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+    /* Number of transactions in benchmarked block */
+    @Param({ "1", "100", "1000" })
+    public int TransactionCount;
+
+    /* Benchmarked block */
+    private Block block;
+
+    /* Binary encoded block */
+    private byte[] encodedBlock;
+
+    /* Java serialized block */
+    private byte[] serializedBlock;
+
+    /* Reusable encoding buffer */
+    private ByteBuffer buffer;
+
+    /**
+     * Build a block of signed transactions.
+     */
+    @Setup
+    public void Setup() throws Exception {
+        ECKeyPair keyPair = Keys.createEcKeyPair(); // Generate a new key pair
+
+        Transaction[] transactions = new Transaction[this.TransactionCount]; // Init tx buffer
+
+        for (int i = 0; i < transactions.length; i++) { // Make txs
+            transactions[i] = new Transaction(i, keyPair.getPublicKey().toByteArray(), keyPair.getPublicKey().toByteArray(), 1f, 0, new byte[32]); // Init tx
+
+            Transaction.SignTransaction(transactions[i], keyPair.getPrivateKey()); // Sign tx
+        }
+
+        this.block = new Block(transactions, new byte[64], new byte[64], 1f, 0l); // Init block
+        this.block.Hash = new byte[64]; // Set hash
+
+        this.encodedBlock = this.block.Bytes(); // Encode
+        this.serializedBlock = SerializationUtils.serialize(this.block); // Serialize
+        this.buffer = ByteBuffer.allocate(this.block.EncodedSize()); // Init buffer
+
+        System.out.println("\ncodec size: " + this.encodedBlock.length + " bytes, java serialization size: "
+                + this.serializedBlock.length + " bytes"); // Log sizes
+    }
+
+    /**
+     * Encode with the binary codec into a reused buffer.
+     */
+    @Benchmark
+    public ByteBuffer EncodeCodec() {
+        this.buffer.clear(); // Reset buffer
+
+        this.block.Encode(this.buffer); // Encode
+
+        return this.buffer; // Return buffer
+    }
+
+    /**
+     * Encode with Java serialization.
+     */
+    @Benchmark
+    public byte[] EncodeJavaSerialization() {
+        return SerializationUtils.serialize(this.block); // Serialize
+    }
+
+    /**
+     * Decode with the binary codec.
+     */
+    @Benchmark
+    public Block DecodeCodec() {
+        return new Block(this.encodedBlock); // Decode
+    }
+
+    /**
+     * Decode with Java serialization.
+     */
+    @Benchmark
+    public Block DecodeJavaSerialization() {
+        return SerializationUtils.deserialize(this.serializedBlock); // Deserialize
+    }
+
+    /**
+     * Run the codec benchmarks.
+     */
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(CodecBenchmark.class.getSimpleName()).build()).run(); // Run
+    }
+}
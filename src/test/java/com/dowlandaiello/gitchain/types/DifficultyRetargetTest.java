@@ -0,0 +1,181 @@
+package com.dowlandaiello.gitchain.types;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Random;
+
+import com.dowlandaiello.gitchain.config.ChainConfig;
+
+import org.junit.Test;
+
+/**
+ * DifficultyRetargetTest is the main DifficultyRetarget testing file.
+ */
+public class DifficultyRetargetTest {
+    /**
+     * Test the parent-only rule: one step up for fast blocks, none within an
+     * interval, and up to 99 steps down for slow blocks.
+     */
+    @Test
+    public void TestParentOnly() {
+        DifficultyRetarget retarget = new DifficultyRetarget(10, 1); // Init parent-only rule
+
+        long parent = 1000 * DifficultyRetarget.One; // Init parent difficulty
+        long step = parent >> DifficultyRetarget.StepBits; // Get step
+
+        assertTrue("fast block must step up", retarget.Next(parent, 100, 1, 103) == parent + step); // Ensure up
+        assertTrue("block within interval must keep difficulty", retarget.Next(parent, 100, 1, 115) == parent); // Ensure kept
+        assertTrue("slow block must step down", retarget.Next(parent, 100, 1, 135) == parent - 2 * step); // Ensure down
+        assertTrue("drop must be bounded", retarget.Next(parent, 100, 1, 100000) == parent - 99 * step); // Ensure bounded
+
+        Block block = new Block(new Transaction[0], new byte[0], new byte[0], 1f, 0l); // Init parent block
+
+        assertTrue("static rule must match default rule", Blockchain.CalculateDifficulty(block, block.Timestamp + 3)
+                == DifficultyRetarget.Default.Next(1f, new long[] { block.Timestamp }, block.Timestamp + 3)); // Ensure default
+        assertTrue("difficulty 1 must step up by 1/2048", Blockchain.CalculateDifficulty(block, block.Timestamp + 3) == 1f + 1f / 2048); // Ensure step
+    }
+
+    /**
+     * Test that the block interval is the retarget's target.
+     */
+    @Test
+    public void TestBlockInterval() {
+        long parent = 1000 * DifficultyRetarget.One; // Init parent difficulty
+
+        assertTrue("30s blocks must be fast for a 60s interval",
+                new DifficultyRetarget(60, 1).Next(parent, 0, 1, 30) > parent); // Ensure up
+        assertTrue("30s blocks must be slow for a 10s interval",
+                new DifficultyRetarget(10, 1).Next(parent, 0, 1, 30) < parent); // Ensure down
+    }
+
+    /**
+     * Test that block time is measured from the median timestamp of the window,
+     * so a single skewed timestamp doesn't move the difficulty.
+     */
+    @Test
+    public void TestMedianWindow() {
+        DifficultyRetarget retarget = new DifficultyRetarget(10, 5); // Init windowed rule
+
+        long[] honest = new long[] { 0, 10, 20, 30, 40 }; // Init honest timestamps
+        long[] skewed = new long[] { 0, 10, 20, 30, 1000000 }; // Init timestamps with a skewed parent
+        long[] backdated = new long[] { 0, 10, 20, -1000000, 40 }; // Init timestamps with a backdated ancestor
+
+        float honestDifficulty = retarget.Next(1000f, honest, 50); // Retarget honest window
+
+        assertTrue("skewed parent must not move difficulty", retarget.Next(1000f, skewed, 50) == honestDifficulty); // Ensure robust
+        assertTrue("backdated ancestor must not move difficulty", retarget.Next(1000f, backdated, 50) == honestDifficulty); // Ensure robust
+        assertTrue("on-interval window must keep difficulty", honestDifficulty == 1000f); // Ensure on target
+        assertTrue("fast window must step up", retarget.Next(1000f, new long[] { 0, 1, 2, 3, 4 }, 5) > 1000f); // Ensure up
+
+        assertTrue("median must be the middle timestamp", DifficultyRetarget.MedianTime(new long[] { 5, 1, 3 }) == 3); // Ensure odd
+        assertTrue("median must be the lower middle timestamp", DifficultyRetarget.MedianTime(new long[] { 4, 1, 3, 2 }) == 2); // Ensure even
+        assertTrue("median must handle duplicates", DifficultyRetarget.MedianTime(new long[] { 7, 7, 1, 7 }) == 7); // Ensure duplicates
+
+        long[] window = new long[0]; // Init window
+
+        for (long timestamp = 1; timestamp <= 7; timestamp++) { // Push timestamps
+            window = retarget.Push(window, timestamp); // Push timestamp
+        }
+
+        assertArrayEquals("window must keep the newest timestamps", new long[] { 3, 4, 5, 6, 7 }, window); // Ensure window
+    }
+
+    /**
+     * Test that retargeting never overflows: for arbitrary inputs, the result
+     * stays within bounds, faster blocks never lower the difficulty, and later
+     * blocks never raise it.
+     */
+    @Test
+    public void TestOverflow() {
+        Random random = new Random(25); // Init random
+        long[] edges = new long[] { 0, 1, -1, Long.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE - 1, Long.MIN_VALUE + 1 }; // Init edge values
+
+        for (int i = 0; i < 100000; i++) { // Iterate through random inputs
+            DifficultyRetarget retarget = new DifficultyRetarget(1 + random.nextInt(Integer.MAX_VALUE), 1 + random.nextInt(64)); // Init rule
+
+            long parent = random.nextInt(4) == 0 ? edges[random.nextInt(edges.length)] : random.nextLong() >>> random.nextInt(64); // Get parent
+            long median = random.nextInt(4) == 0 ? edges[random.nextInt(edges.length)] : random.nextLong(); // Get median
+            long time = random.nextInt(4) == 0 ? edges[random.nextInt(edges.length)] : random.nextLong(); // Get block time
+            long later = random.nextInt(4) == 0 ? Long.MAX_VALUE : time + (random.nextLong() >>> 1); // Get later block time
+
+            if (later < time) { // Check overflowed
+                later = Long.MAX_VALUE; // Saturate
+            }
+
+            int count = 1 + random.nextInt(retarget.Window); // Get window length
+
+            long next = retarget.Next(parent, median, count, time); // Retarget
+
+            assertTrue("difficulty must stay in bounds",
+                    next >= DifficultyRetarget.MinDifficulty && next <= DifficultyRetarget.MaxDifficulty); // Ensure bounded
+            assertTrue("later blocks must not raise difficulty", retarget.Next(parent, median, count, later) <= next); // Ensure monotonic
+            assertTrue("fast blocks must not lower difficulty",
+                    retarget.Next(parent, median, count, median) >= Math.max(parent, DifficultyRetarget.MinDifficulty)); // Ensure up
+            assertTrue("difficulty must not drop more than 99 steps",
+                    next >= Math.max(parent, DifficultyRetarget.MinDifficulty)
+                            - 99 * (Math.max(parent, DifficultyRetarget.MinDifficulty) >> DifficultyRetarget.StepBits)); // Ensure bounded drop
+
+            long total = random.nextInt(4) == 0 ? Long.MAX_VALUE - random.nextInt(1 << 20) : random.nextLong() >>> 1; // Get total difficulty
+            long added = DifficultyRetarget.AddWork(total, DifficultyRetarget.ToFloat(next)); // Add work
+
+            assertTrue("total difficulty must not overflow", added >= total); // Ensure saturated
+        }
+
+        assertTrue("difficulty must saturate at the max",
+                DifficultyRetarget.Default.Next(Long.MAX_VALUE, 0, 1, 0) == DifficultyRetarget.MaxDifficulty); // Ensure saturated
+        assertTrue("total difficulty must saturate at the max",
+                DifficultyRetarget.AddWork(Long.MAX_VALUE - 1, 1f) == Long.MAX_VALUE); // Ensure saturated
+    }
+
+    /**
+     * Test conversion between header and fixed point difficulties.
+     */
+    @Test
+    public void TestFixedPoint() {
+        assertTrue("unset difficulty must be zero", DifficultyRetarget.ToFixed(null) == 0
+                && DifficultyRetarget.ToFixed(Float.NaN) == 0 && DifficultyRetarget.ToFixed(-1f) == 0); // Ensure zero
+        assertTrue("huge difficulty must saturate", DifficultyRetarget.ToFixed(Float.MAX_VALUE) == Long.MAX_VALUE
+                && DifficultyRetarget.ToFixed(Float.POSITIVE_INFINITY) == Long.MAX_VALUE); // Ensure saturated
+        assertTrue("difficulty 1 must be One", DifficultyRetarget.ToFixed(1f) == DifficultyRetarget.One); // Ensure one
+
+        Random random = new Random(7); // Init random
+
+        for (int i = 0; i < 10000; i++) { // Iterate through random difficulties
+            long difficulty = random.nextInt(1 << 24); // Get difficulty representable as a float
+
+            assertTrue("fixed point difficulty must round trip",
+                    DifficultyRetarget.ToFixed(DifficultyRetarget.ToFloat(difficulty)) == difficulty); // Ensure exact
+        }
+
+        assertTrue("sums must not lose small difficulties",
+                DifficultyRetarget.AddWork(1L << 50, 1f) == (1L << 50) + DifficultyRetarget.One); // Ensure exact
+        assertTrue("invalid config must be rejected", rejects(0, 1) && rejects(10, 0)); // Ensure validated
+
+        DifficultyRetarget unset = new DifficultyRetarget(new ChainConfig(new HashMap<BigInteger, Float>(), 0, "test", 0, 1f)); // Init rule from unset config
+        DifficultyRetarget windowed = new DifficultyRetarget(new ChainConfig(new HashMap<BigInteger, Float>(), 0, "test", 30, 1f, 11)); // Init rule from windowed config
+
+        assertTrue("unset config fields must fall back to defaults", unset.BlockInterval == DifficultyRetarget.DefaultBlockInterval
+                && unset.Window == DifficultyRetarget.DefaultWindow); // Ensure defaults
+        assertTrue("config must set the rule", windowed.BlockInterval == 30 && windowed.Window == 11); // Ensure configured
+    }
+
+    /**
+     * Check whether a retarget config is rejected.
+     *
+     * @param blockInterval block interval
+     * @param window        window
+     * @return whether the config is rejected
+     */
+    private static boolean rejects(int blockInterval, int window) {
+        try {
+            new DifficultyRetarget(blockInterval, window); // Init rule
+
+            return false; // Accepted
+        } catch (IllegalArgumentException e) {
+            return true; // Rejected
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.dowlandaiello.gitchain.types;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+import com.dowlandaiello.gitchain.common.CommonCoin;
+import com.dowlandaiello.gitchain.crypto.Sha;
+
+import org.junit.Test;
+import org.web3j.crypto.ECKeyPair;
+
+/**
+ * ImportPipelineTest is the main ImportPipeline testing file.
+ */
+public class ImportPipelineTest {
+    /* Key of the account holding the genesis allocation */
+    private static final ECKeyPair aliceKey = ChainFixtures.AliceKey;
+
+    /* Account holding the genesis allocation */
+    private static final byte[] alice = ChainFixtures.Alice;
+
+    /* Account without funds */
+    private static final byte[] bob = BigInteger.valueOf(2).toByteArray();
+
+    /**
+     * Test that a stream of encoded blocks is imported in batches, with the same
+     * resulting chain and state as importing them one at a time.
+     */
+    @Test
+    public void TestImportPipeline() {
+        Blockchain source = ChainFixtures.MakeChain("test_chain_import_source"); // Make source chain
+        Blockchain target = ChainFixtures.MakeChain("test_chain_import_target", source.GenesisBlock); // Make target chain
+
+        try {
+            StateDB sourceState = new StateDB(source, 4, 16); // Open source state
+            StateDB targetState = new StateDB(target, 3, 16); // Open target state (flushed mid batch)
+
+            for (int i = 0; i < 20; i++) { // Mine source chain
+                assertTrue("must add transfer", ChainFixtures.Mine(source, ChainFixtures.Transfer(i, aliceKey, bob, 10))); // Add transfer
+            }
+
+            ImportPipeline pipeline = new ImportPipeline(target, null, 4, 4, 8); // Init pipeline
+
+            for (long height = 1; height <= source.Height; height++) { // Iterate through source blocks
+                assertTrue("must queue block", pipeline.Submit(source.GetBlockByHeight(height).Bytes())); // Submit encoded block
+            }
+
+            assertTrue("every block must be added", pipeline.Finish() == 20 && !pipeline.Stopped()); // Finish
+            assertArrayEquals("target must reach source head", source.HeadHash, target.HeadHash); // Ensure head
+            assertTrue("target must have source height", target.Height == 20 && target.TotalDifficulty == source.TotalDifficulty); // Ensure height
+            assertArrayEquals("state must match head", target.GetLastBlock().StateRoot, targetState.Root()); // Ensure root
+            assertTrue("state must match source", targetState.Balance(bob) == sourceState.Balance(bob)
+                    && targetState.NextNonce(alice) == 20); // Ensure state
+
+            target.State = null; // Drop state
+            target.CloseBlockDB(); // Close block db
+
+            assertTrue("must reopen block db", target.OpenBlockDB()); // Reopen block db
+
+            StateDB reopened = new StateDB(target, 3, 16); // Reopen state (replays unflushed blocks)
+
+            assertTrue("flushed state must be consistent", reopened.Balance(bob) == 200 && reopened.NextNonce(alice) == 20); // Ensure consistent
+        } finally {
+            ChainFixtures.RemoveChain(source); // Remove source chain
+            ChainFixtures.RemoveChain(target); // Remove target chain
+        }
+    }
+
+    /**
+     * Test that the pipeline stops at the first invalid block, keeping the blocks
+     * before it.
+     */
+    @Test
+    public void TestRejectBlock() {
+        Blockchain source = ChainFixtures.MakeChain("test_chain_import_source"); // Make source chain
+        Blockchain target = ChainFixtures.MakeChain("test_chain_import_target", source.GenesisBlock); // Make target chain
+
+        try {
+            new StateDB(source, 4, 16); // Open source state
+            new StateDB(target, 4, 16); // Open target state
+
+            for (int i = 0; i < 10; i++) { // Mine source chain
+                assertTrue("must add transfer", ChainFixtures.Mine(source, ChainFixtures.Transfer(i, aliceKey, bob, 10))); // Add transfer
+            }
+
+            ImportPipeline pipeline = new ImportPipeline(target, null, 2, 4, 4); // Init pipeline
+
+            for (long height = 1; height <= source.Height; height++) { // Iterate through source blocks
+                Block block = source.GetBlockByHeight(height); // Get block
+
+                if (height == 6) { // Check block to corrupt
+                    block.Transactions = new Transaction[0]; // Break merkle root
+                }
+
+                pipeline.Submit(block); // Submit block (dropped once stopped)
+            }
+
+            assertTrue("blocks before the invalid block must be added", pipeline.Finish() == 5 && pipeline.Stopped()); // Finish
+            assertTrue("head must stop before the invalid block", target.Height == 5); // Ensure head
+            assertTrue("finished pipeline must not queue blocks", !pipeline.Submit(source.GetBlockByHeight(6))); // Submit after finish
+
+            Block replayed = source.GetBlockByHeight(3); // Get already added block
+
+            assertTrue("stateless checks must pass for valid block", ImportPipeline.CheckStateless(replayed, null)); // Check valid
+
+            replayed.Nonce++; // Break hash
+
+            assertTrue("stateless checks must fail for tampered block", !ImportPipeline.CheckStateless(replayed, null)); // Check tampered
+        } finally {
+            ChainFixtures.RemoveChain(source); // Remove source chain
+            ChainFixtures.RemoveChain(target); // Remove target chain
+        }
+    }
+
+    /**
+     * Test that the pipeline checks each block against its parent and verifies
+     * signatures through the chain's verifier.
+     */
+    @Test
+    public void TestContextualChecks() {
+        Blockchain source = ChainFixtures.MakeChain("test_chain_import_source"); // Make source chain
+        Blockchain target = ChainFixtures.MakeChain("test_chain_import_target", source.GenesisBlock); // Make target chain
+
+        try {
+            for (int i = 0; i < 3; i++) { // Mine source chain
+                assertTrue("must add transfer", ChainFixtures.Mine(source, ChainFixtures.Transfer(i, aliceKey, bob, 10))); // Add transfer
+            }
+
+            Block inflated = source.CreateNewBlock(source.GetLastBlock(), new Transaction[] { ChainFixtures.Transfer(3, aliceKey, bob, 10) }, 0); // Generate block
+
+            inflated.Difficulty *= 2; // Claim more work than retargeted
+
+            while (!Blockchain.VerifyBlockNonce(inflated)) { // Check invalid hash
+                inflated.Nonce++; // Increment nonce
+            }
+
+            inflated.Hash = Sha.Sha3(inflated.BytesHashSafe()); // Hash
+
+            assertTrue("inflated block must pass stateless checks", ImportPipeline.CheckStateless(inflated, target.Verifier)); // Check stateless
+
+            ImportPipeline pipeline = new ImportPipeline(target); // Init pipeline with chain verifier
+
+            for (long height = 1; height <= source.Height; height++) { // Iterate through source blocks
+                pipeline.Submit(source.GetBlockByHeight(height)); // Submit block
+            }
+
+            pipeline.Submit(inflated); // Submit inflated block
+
+            assertTrue("blocks before the inflated block must be added", pipeline.Finish() == 3 && pipeline.Stopped()); // Finish
+            assertTrue("signatures must be verified through the chain", target.Signatures.Size() == 4); // Ensure cached
+        } finally {
+            ChainFixtures.RemoveChain(source); // Remove source chain
+            ChainFixtures.RemoveChain(target); // Remove target chain
+        }
+    }
+
+    /**
+     * Test that a block whose transaction was changed after mining is rejected,
+     * even though its merkle root (built from the claimed transaction hashes) and
+     * proof of work still match.
+     */
+    @Test
+    public void TestForgedTransaction() {
+        Blockchain blockchain = ChainFixtures.MakeChain("test_chain_import_target"); // Make chain
+
+        try {
+            Block block = blockchain.CreateNewBlock(blockchain.GetLastBlock(), new Transaction[] {
+                    new Transaction(0, new byte[0], alice, CommonCoin.BlockReward, 0, new byte[0]) }, 0); // Generate block minting to alice
+
+            while (!Blockchain.VerifyBlockNonce(block)) { // Check invalid hash
+                block.Nonce++; // Increment nonce
+            }
+
+            block.Hash = Sha.Sha3(block.BytesHashSafe()); // Hash
+
+            Block forged = new Block(block.Bytes()); // Copy block
+
+            forged.Transactions[0].Recipient = bob; // Redirect reward
+            forged.Hash = Sha.Sha3(forged.BytesHashSafe()); // Recompute block hash only
+
+            assertTrue("forged block must keep proof of work and merkle root", Blockchain.VerifyBlockNonce(forged)
+                    && Arrays.equals(forged.MerkleRoot, Block.HashTransactionSum(forged.Transactions))); // Ensure forgery is cheap
+            assertTrue("forged block must fail stateless checks", !ImportPipeline.CheckStateless(forged, blockchain.Verifier)); // Check forged
+            assertTrue("forged block must not be added", !blockchain.AddBlock(forged)); // Add forged
+            assertTrue("original block must be added", blockchain.AddBlock(block)); // Add original
+        } finally {
+            ChainFixtures.RemoveChain(blockchain); // Remove chain
+        }
+    }
+}
@@ -1,8 +1,19 @@
 package com.dowlandaiello.gitchain.types;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.File;
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.dowlandaiello.gitchain.common.CommonIO;
+import com.dowlandaiello.gitchain.config.ChainConfig;
+import com.dowlandaiello.gitchain.crypto.Sha;
+
 import org.junit.Test;
 import org.web3j.crypto.ECKeyPair;
 import org.web3j.crypto.Keys;
@@ -19,11 +30,16 @@ public class MempoolTest {
         try {
             ECKeyPair keyPair = Keys.createEcKeyPair(); // Generate a new key pair
 
-            Transaction transaction = new Transaction(0, keyPair.getPublicKey().toByteArray(), keyPair.getPublicKey().toByteArray(), 0f, 0, keyPair.getPublicKey().toByteArray()); // Initialize transaction
+            Transaction transaction = sign(new Transaction(0, keyPair.getPublicKey().toByteArray(), keyPair.getPublicKey().toByteArray(), 0f, 0, keyPair.getPublicKey().toByteArray()), keyPair); // Initialize transaction
 
             Mempool mempool = new Mempool(transaction); // Initialize mempool
 
             assertTrue("mempool must not be nil", mempool != null); // Ensure signature exists
+            assertTrue("mempool must hold genesis", mempool.GetTransaction(transaction.Hash) == transaction); // Ensure genesis held
+
+            Transaction mint = new Transaction(0, new byte[0], keyPair.getPublicKey().toByteArray(), 10f, 0, new byte[0]); // Initialize unsigned mint
+
+            assertTrue("mempool must hold unsigned genesis", new Mempool(mint).Size() == 1); // Ensure mint held
         } catch (Exception e) {
             fail(e.getLocalizedMessage()); // Panic
         }
@@ -37,14 +53,27 @@ public class MempoolTest {
         try {
             ECKeyPair keyPair = Keys.createEcKeyPair(); // Generate a new key pair
 
-            Transaction transaction = new Transaction(0, keyPair.getPublicKey().toByteArray(), keyPair.getPublicKey().toByteArray(), 0f, 0, keyPair.getPublicKey().toByteArray()); // Initialize transaction
+            Transaction transaction = sign(new Transaction(0, keyPair.getPublicKey().toByteArray(), keyPair.getPublicKey().toByteArray(), 0f, 0, keyPair.getPublicKey().toByteArray()), keyPair); // Initialize transaction
+
+            Transaction nextTransaction = sign(new Transaction(1, keyPair.getPublicKey().toByteArray(), keyPair.getPublicKey().toByteArray(), 0f, 0, keyPair.getPublicKey().toByteArray()), keyPair); // Initialize next transaction
 
             Mempool mempool = new Mempool(transaction); // Initialize mempool
 
-            mempool.AddTransaction(transaction); // Add tx
+            assertTrue("must be able to add transaction", mempool.AddTransaction(nextTransaction)); // Add tx
+            assertFalse("must not be able to add duplicate transaction", mempool.AddTransaction(transaction)); // Add duplicate tx
 
             assertTrue("mempool must not be nil", mempool != null); // Ensure signature exists
-            assertTrue("mempool length must be 2", mempool.TransactionList.size() == 2); // Ensure 2 txs in mempool
+            assertTrue("mempool length must be 2", mempool.Size() == 2); // Ensure 2 txs in mempool
+            assertTrue("must be able to get transaction", mempool.GetTransaction(nextTransaction.Hash) == nextTransaction); // Ensure indexed
+
+            SignatureCache cache = new SignatureCache(); // Initialize signature cache
+
+            mempool = new Mempool(Mempool.DefaultCapacity, cache); // Initialize mempool sharing cache
+
+            assertFalse("must not be able to add unsigned transaction", mempool.AddTransaction(new Transaction(2,
+                    keyPair.getPublicKey().toByteArray(), keyPair.getPublicKey().toByteArray(), 0f, 0, new byte[0]))); // Add unsigned tx
+            assertTrue("must be able to add signed transaction", mempool.AddTransaction(transaction)); // Add tx
+            assertTrue("verified signature must be cached", cache.Contains(transaction) && cache.Size() == 1); // Ensure cached
         } catch (Exception e) {
             fail(e.getLocalizedMessage()); // Panic
         }
@@ -58,7 +87,7 @@ public class MempoolTest {
         try {
             ECKeyPair keyPair = Keys.createEcKeyPair(); // Generate a new key pair
 
-            Transaction transaction = new Transaction(0, keyPair.getPublicKey().toByteArray(), keyPair.getPublicKey().toByteArray(), 0f, 0, keyPair.getPublicKey().toByteArray()); // Initialize transaction
+            Transaction transaction = sign(new Transaction(0, keyPair.getPublicKey().toByteArray(), keyPair.getPublicKey().toByteArray(), 0f, 0, keyPair.getPublicKey().toByteArray()), keyPair); // Initialize transaction
 
             Mempool mempool = new Mempool(transaction); // Initialize mempool
 
@@ -80,7 +109,7 @@ public class MempoolTest {
         try {
             ECKeyPair keyPair = Keys.createEcKeyPair(); // Generate a new key pair
 
-            Transaction transaction = new Transaction(0, keyPair.getPublicKey().toByteArray(), keyPair.getPublicKey().toByteArray(), 0f, 0, keyPair.getPublicKey().toByteArray()); // Initialize transaction
+            Transaction transaction = sign(new Transaction(0, keyPair.getPublicKey().toByteArray(), keyPair.getPublicKey().toByteArray(), 0f, 0, keyPair.getPublicKey().toByteArray()), keyPair); // Initialize transaction
 
             Mempool mempool = new Mempool(transaction); // Initialize mempool
 
@@ -91,4 +120,145 @@ public class MempoolTest {
             fail(e.getLocalizedMessage()); // Panic
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Test mempool block selection.
+     */
+    @Test
+    public void TestSelectForBlock() {
+        try {
+            ECKeyPair aliceKey = Keys.createEcKeyPair(); // Generate a sender
+            byte[] alice = aliceKey.getPublicKey().toByteArray(); // Get alice address
+            ECKeyPair bobKey = Keys.createEcKeyPair(); // Generate another sender
+            byte[] bob = bobKey.getPublicKey().toByteArray(); // Get bob address
+
+            Transaction aliceFirst = sign(new Transaction(0, alice, bob, 1f, 0, new byte[0]), aliceKey); // Initialize low value transaction
+            Transaction aliceSecond = sign(new Transaction(1, alice, bob, 10f, 0, new byte[0]), aliceKey); // Initialize dependent high value transaction
+            Transaction bobFirst = sign(new Transaction(0, bob, alice, 5f, 0, new byte[0]), bobKey); // Initialize transaction
+            Transaction bobGap = sign(new Transaction(2, bob, alice, 50f, 0, new byte[0]), bobKey); // Initialize non-executable transaction
+
+            Mempool mempool = new Mempool(16); // Initialize mempool
+
+            mempool.AddTransaction(aliceSecond); // Add tx
+            mempool.AddTransaction(bobGap); // Add tx
+            mempool.AddTransaction(aliceFirst); // Add tx
+            mempool.AddTransaction(bobFirst); // Add tx
+
+            Transaction[] selected = mempool.SelectForBlock(Integer.MAX_VALUE); // Select
+
+            assertArrayEquals("must select executable transactions in nonce and value order",
+                    new Transaction[] { bobFirst, aliceFirst, aliceSecond }, selected); // Ensure order
+
+            selected = mempool.SelectForBlock(bobFirst.EncodedSize()); // Select a single transaction
+
+            assertArrayEquals("must respect size limit", new Transaction[] { bobFirst }, selected); // Ensure size limit
+
+            Transaction bobReplacement = sign(new Transaction(0, bob, alice, 6f, 0, new byte[0]), bobKey); // Initialize replacement
+
+            assertTrue("must be able to replace transaction", mempool.AddTransaction(bobReplacement)); // Replace
+            assertTrue("replaced transaction must be removed", mempool.QueryTransaction(bobFirst.Hash) == -1); // Ensure replaced
+        } catch (Exception e) {
+            fail(e.getLocalizedMessage()); // Panic
+        }
+    }
+
+    /**
+     * Test block selection on top of a state: senders start at their state nonce
+     * and stop at their balance, and transactions with spent nonces are removed.
+     */
+    @Test
+    public void TestSelectForState() {
+        ECKeyPair aliceKey = ECKeyPair.create(BigInteger.ONE); // Init funded sender
+        byte[] alice = aliceKey.getPublicKey().toByteArray(); // Get alice address
+        byte[] bob = BigInteger.valueOf(2).toByteArray(); // Init recipient
+        ECKeyPair carolKey = ECKeyPair.create(BigInteger.valueOf(3)); // Init sender without funds
+        byte[] carol = carolKey.getPublicKey().toByteArray(); // Get carol address
+
+        Map<BigInteger, Float> alloc = new HashMap<BigInteger, Float>(); // Init alloc
+
+        alloc.put(new BigInteger(alice), 100f); // Set alloc
+
+        CommonIO.DeleteRecursively(new File(CommonIO.DbPath + "/test_chain_mempool")); // Remove stale chain
+
+        Blockchain blockchain = new Blockchain(new ChainConfig(alloc, 0, "test_chain_mempool", 10, 1f)); // Make chain
+
+        try {
+            StateDB state = new StateDB(blockchain, 4, 16); // Open state
+
+            Block block = blockchain.CreateNewBlock(blockchain.GetLastBlock(),
+                    new Transaction[] { sign(new Transaction(0, alice, bob, 10f, 0, new byte[0]), aliceKey) }, 0); // Generate block spending nonce 0
+
+            while (!Blockchain.VerifyBlockNonce(block)) { // Check invalid hash
+                block.Nonce++; // Increment nonce
+            }
+
+            block.Hash = Sha.Sha3(block.BytesHashSafe()); // Hash
+
+            assertTrue("must add block", blockchain.AddBlock(block)); // Add block
+
+            Transaction aliceSpent = sign(new Transaction(0, alice, bob, 5f, 0, new byte[0]), aliceKey); // Initialize transaction with spent nonce
+            Transaction aliceNext = sign(new Transaction(1, alice, bob, 50f, 0, new byte[0]), aliceKey); // Initialize executable transaction
+            Transaction aliceOverdraw = sign(new Transaction(2, alice, bob, 50f, 0, new byte[0]), aliceKey); // Initialize overdrawing transaction
+            Transaction carolUnfunded = sign(new Transaction(0, carol, alice, 1f, 0, new byte[0]), carolKey); // Initialize unfunded transaction
+
+            Mempool mempool = new Mempool(16); // Initialize mempool
+
+            mempool.AddTransaction(aliceSpent); // Add tx
+            mempool.AddTransaction(aliceNext); // Add tx
+            mempool.AddTransaction(aliceOverdraw); // Add tx
+            mempool.AddTransaction(carolUnfunded); // Add tx
+
+            assertArrayEquals("must select from state nonce within balance", new Transaction[] { aliceNext },
+                    mempool.SelectForBlock(Integer.MAX_VALUE, state)); // Select
+            assertTrue("spent nonce must be removed", mempool.QueryTransaction(aliceSpent.Hash) == -1 && mempool.Size() == 3); // Ensure removed
+        } finally {
+            blockchain.CloseBlockDB(); // Close block db
+
+            CommonIO.DeleteRecursively(new File(CommonIO.DbPath + "/test_chain_mempool")); // Remove chain
+        }
+    }
+
+    /**
+     * Test mempool eviction.
+     */
+    @Test
+    public void TestEviction() {
+        try {
+            ECKeyPair aliceKey = Keys.createEcKeyPair(); // Generate a sender
+            byte[] alice = aliceKey.getPublicKey().toByteArray(); // Get alice address
+            ECKeyPair bobKey = Keys.createEcKeyPair(); // Generate another sender
+            byte[] bob = bobKey.getPublicKey().toByteArray(); // Get bob address
+
+            Transaction aliceFirst = sign(new Transaction(0, alice, bob, 1f, 0, new byte[0]), aliceKey); // Initialize lowest value transaction
+            Transaction aliceSecond = sign(new Transaction(1, alice, bob, 20f, 0, new byte[0]), aliceKey); // Initialize dependent transaction
+            Transaction bobFirst = sign(new Transaction(0, bob, alice, 5f, 0, new byte[0]), bobKey); // Initialize transaction
+
+            Mempool mempool = new Mempool(2); // Initialize mempool
+
+            mempool.AddTransaction(aliceFirst); // Add tx
+            mempool.AddTransaction(aliceSecond); // Add tx
+
+            assertFalse("must not evict for a lower ranked transaction",
+                    mempool.AddTransaction(sign(new Transaction(0, bob, alice, 0.5f, 0, new byte[0]), bobKey))); // Add low value tx
+            assertTrue("must evict for a higher ranked transaction", mempool.AddTransaction(bobFirst)); // Add tx
+
+            assertTrue("mempool must not exceed capacity", mempool.Size() == 1); // Ensure dependent evicted too
+            assertTrue("evicted transaction must be removed", mempool.QueryTransaction(aliceSecond.Hash) == -1); // Ensure evicted
+        } catch (Exception e) {
+            fail(e.getLocalizedMessage()); // Panic
+        }
+    }
+
+    /**
+     * Sign a given transaction.
+     *
+     * @param transaction transaction to sign
+     * @param keyPair     sender key pair
+     * @return signed transaction
+     */
+    private static Transaction sign(Transaction transaction, ECKeyPair keyPair) {
+        assertTrue("must sign successfully", Transaction.SignTransaction(transaction, keyPair.getPrivateKey())); // Sign transaction
+
+        return transaction; // Return signed transaction
+    }
+}
@@ -0,0 +1,114 @@
+package com.dowlandaiello.gitchain.types;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import com.dowlandaiello.gitchain.crypto.Sha;
+
+import org.junit.Test;
+
+/**
+ * MerkleTreeTest is the main MerkleTree testing file.
+ */
+public class MerkleTreeTest {
+    /**
+     * Test merkle root calculation.
+     */
+    @Test
+    public void TestRoot() {
+        assertArrayEquals("empty root must be sha3 of nothing", Sha.Sha3(new byte[0]),
+                new MerkleTree(new byte[0][]).Root()); // Ensure empty root unchanged
+
+        byte[][] leaves = makeLeaves(3); // Make leaves
+
+        byte[] expected = MerkleTree.HashNode(
+                MerkleTree.HashNode(MerkleTree.HashLeaf(leaves[0]), MerkleTree.HashLeaf(leaves[1])),
+                MerkleTree.HashLeaf(leaves[2])); // Calculate root by hand
+
+        assertArrayEquals("root must match", expected, new MerkleTree(leaves).Root()); // Ensure root matches
+
+        byte[][] tampered = makeLeaves(3); // Make leaves
+
+        tampered[2][0] ^= 1; // Tamper with leaf
+
+        assertFalse("root must commit to every leaf",
+                Arrays.equals(expected, new MerkleTree(tampered).Root())); // Ensure tampering detected
+    }
+
+    /**
+     * Test that wide trees hashed in parallel match trees hashed sequentially.
+     */
+    @Test
+    public void TestParallelRoot() {
+        int count = MerkleTree.ParallelThreshold * 4 + 3; // Wide enough to hash in parallel
+
+        byte[][] leaves = makeLeaves(count); // Make leaves
+
+        byte[][] level = new byte[count][]; // Init level
+
+        for (int i = 0; i < count; i++) { // Hash leaves
+            level[i] = MerkleTree.HashLeaf(leaves[i]); // Hash leaf
+        }
+
+        while (level.length > 1) { // Hash levels sequentially
+            byte[][] parent = new byte[(level.length + 1) / 2][]; // Init parent level
+
+            for (int i = 0; i < parent.length; i++) { // Hash pairs
+                parent[i] = 2 * i + 1 < level.length ? MerkleTree.HashNode(level[2 * i], level[2 * i + 1])
+                        : level[2 * i]; // Hash or promote
+            }
+
+            level = parent; // Move up
+        }
+
+        assertArrayEquals("parallel root must match sequential root", level[0],
+                new MerkleTree(leaves).Root()); // Ensure roots match
+    }
+
+    /**
+     * Test merkle inclusion proofs.
+     */
+    @Test
+    public void TestProof() {
+        for (int count = 1; count <= 17; count++) { // Try several tree shapes
+            byte[][] leaves = makeLeaves(count); // Make leaves
+
+            MerkleTree tree = new MerkleTree(leaves); // Build tree
+            byte[] root = tree.Root(); // Get root
+
+            for (int i = 0; i < count; i++) { // Prove every leaf
+                MerkleProof proof = new MerkleProof(tree.Proof(i).Bytes()); // Prove leaf, round trip
+
+                assertTrue("proof must verify", proof.Verify(leaves[i], root)); // Ensure valid
+                assertFalse("proof must not verify another leaf",
+                        count > 1 && proof.Verify(leaves[(i + 1) % count], root)); // Ensure bound to leaf
+            }
+        }
+
+        byte[][] leaves = makeLeaves(5); // Make leaves
+
+        MerkleProof proof = new MerkleTree(leaves).Proof(4); // Prove last leaf
+
+        assertFalse("proof must not verify against another root",
+                proof.Verify(leaves[4], new MerkleTree(makeLeaves(6)).Root())); // Ensure bound to root
+    }
+
+    /**
+     * Make a given number of distinct 64-byte leaves.
+     *
+     * @param count number of leaves
+     * @return leaves
+     */
+    private static byte[][] makeLeaves(int count) {
+        byte[][] leaves = new byte[count][]; // Init leaves
+
+        for (int i = 0; i < count; i++) { // Make leaves
+            leaves[i] = Sha.Sha3(Integer.toString(i).getBytes()); // Make leaf
+        }
+
+        return leaves; // Return leaves
+    }
+}
@@ -0,0 +1,115 @@
+package com.dowlandaiello.gitchain.types;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.dowlandaiello.gitchain.common.CommonCoin;
+
+import org.junit.Test;
+
+/**
+ * OrphanPoolTest is the main OrphanPool testing file.
+ */
+public class OrphanPoolTest {
+    /**
+     * Test that out of order blocks are held until their parent lands, then
+     * connected recursively, and that each missing parent is requested once.
+     */
+    @Test
+    public void TestOrphanPool() {
+        Blockchain blockchain = ChainFixtures.MakeChain("test_chain_orphans"); // Make chain
+
+        try {
+            final List<byte[]> requested = new ArrayList<byte[]>(); // Init requested parents
+
+            OrphanPool pool = new OrphanPool(blockchain, 16, new OrphanPool.ParentRequester() {
+                @Override
+                public void RequestParent(byte[] hash, Block orphan) {
+                    requested.add(hash); // Record request
+                }
+            }); // Init pool
+
+            Block[] blocks = new Block[5]; // Init blocks
+
+            blocks[0] = blockchain.GenesisBlock; // Set genesis
+
+            for (int i = 1; i < blocks.length; i++) { // Mine chain without adding it
+                blocks[i] = mine(blockchain, blocks[i - 1], 0); // Mine block
+            }
+
+            Block fork = mine(blockchain, blocks[2], 1); // Mine sibling of block 3
+
+            assertTrue("orphan must be pooled", pool.Submit(blocks[4]) == 0); // Submit block 4
+            assertTrue("orphan must be pooled", pool.Submit(blocks[2]) == 0); // Submit block 2
+            assertTrue("orphan must be pooled", pool.Submit(blocks[3]) == 0 && pool.Submit(fork) == 0); // Submit block 3, fork
+            assertTrue("pooled block must not be pooled twice", pool.Submit(blocks[3]) == 0 && pool.Size() == 4); // Submit again
+
+            assertTrue("each missing parent must be requested once", requested.size() == 2); // Ensure requested
+            assertArrayEquals("missing parent must be requested", blocks[3].Hash, requested.get(0)); // Ensure block 3 requested
+            assertArrayEquals("missing parent must be requested", blocks[1].Hash, requested.get(1)); // Ensure block 1 requested
+            assertTrue("only block 1 must still be missing", pool.MissingParents().size() == 1); // Ensure block 3 arrived
+
+            assertTrue("parent must connect every descendant", pool.Submit(blocks[1]) == 5); // Submit block 1
+            assertTrue("connected blocks must leave the pool", pool.Size() == 0 && !pool.Contains(blocks[4].Hash)); // Ensure empty
+            assertArrayEquals("chain must reach the last orphan", blocks[4].Hash, blockchain.HeadHash); // Ensure head
+            assertTrue("sibling must be stored", blockchain.HasBlock(fork.Hash)); // Ensure side block stored
+
+            assertTrue("known block must be rejected", pool.Submit(blocks[4]) == -1); // Submit again
+
+            Block invalid = mine(blockchain, blocks[4], 0); // Mine block
+
+            invalid.Transactions = new Transaction[0]; // Break merkle root
+
+            assertTrue("invalid block must not be pooled", pool.Submit(invalid) == -1 && pool.Size() == 0); // Submit invalid
+        } finally {
+            ChainFixtures.RemoveChain(blockchain); // Remove chain
+        }
+    }
+
+    /**
+     * Test that the pool evicts its oldest orphan once full.
+     */
+    @Test
+    public void TestCapacity() {
+        Blockchain blockchain = ChainFixtures.MakeChain("test_chain_orphans_capacity"); // Make chain
+
+        try {
+            OrphanPool pool = new OrphanPool(blockchain, 2, null); // Init pool
+
+            Block parent = mine(blockchain, blockchain.GenesisBlock, 0); // Mine missing parent
+            Block[] orphans = new Block[3]; // Init orphans
+
+            for (int i = 0; i < orphans.length; i++) { // Mine orphans
+                orphans[i] = mine(blockchain, parent, i); // Mine sibling
+
+                assertTrue("orphan must be pooled", pool.Submit(orphans[i]) == 0); // Submit orphan
+            }
+
+            assertTrue("pool must stay bounded", pool.Size() == 2); // Ensure bounded
+            assertTrue("oldest orphan must be evicted", !pool.Contains(orphans[0].Hash) && pool.Contains(orphans[2].Hash)); // Ensure evicted
+
+            assertTrue("parent must connect remaining orphans", pool.Submit(parent) == 3 && pool.Size() == 0); // Submit parent
+            assertTrue("evicted orphan must not be added", !blockchain.HasBlock(orphans[0].Hash)); // Ensure not added
+        } finally {
+            ChainFixtures.RemoveChain(blockchain); // Remove chain
+        }
+    }
+
+    /**
+     * Mine a block on top of a given parent without adding it.
+     *
+     * @param blockchain chain to mine for
+     * @param parent     parent block
+     * @param value      value held back from the reward (distinguishes siblings)
+     * @return mined block
+     */
+    private static Block mine(Blockchain blockchain, Block parent, int value) {
+        Transaction[] transactions = new Transaction[] {
+                new Transaction(0, new byte[0], CommonCoin.MinerCoinbase, CommonCoin.BlockReward - value, 0, new byte[0]) }; // Init txs
+
+        return ChainFixtures.Seal(blockchain.CreateNewBlock(parent, transactions, 0)); // Generate and seal block
+    }
+}
@@ -0,0 +1,57 @@
+package com.dowlandaiello.gitchain.types;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+import org.web3j.crypto.ECKeyPair;
+import org.web3j.crypto.Keys;
+
+/**
+ * SignatureCacheTest is the main SignatureCache testing file.
+ */
+public class SignatureCacheTest {
+    /**
+     * Test cached signature verification.
+     */
+    @Test
+    public void TestVerify() {
+        try {
+            ECKeyPair keyPair = Keys.createEcKeyPair(); // Generate a new key pair
+            byte[] publicKey = keyPair.getPublicKey().toByteArray(); // Get public key
+
+            Transaction transaction = new Transaction(0, publicKey, publicKey, 1f, 0, new byte[0]); // Initialize transaction
+
+            assertTrue("must sign successfully", Transaction.SignTransaction(transaction, keyPair.getPrivateKey())); // Sign transaction
+
+            SignatureCache cache = new SignatureCache(2); // Initialize cache
+
+            assertTrue("signature must be valid", cache.Verify(transaction)); // Verify (miss)
+            assertTrue("signature must be valid", cache.Verify(new Transaction(transaction.Bytes()))); // Verify decoded copy (hit)
+
+            assertTrue("must count hit", cache.Hits() == 1); // Ensure hit counted
+            assertTrue("must count miss", cache.Misses() == 1); // Ensure miss counted
+
+            Transaction forged = new Transaction(0, publicKey, publicKey, 1000f, 0, new byte[0]); // Initialize forged transaction
+
+            forged.Hash = transaction.Hash; // Claim a verified hash
+            forged.Signature = transaction.Signature; // Reuse a verified signature
+
+            assertFalse("forged transaction must not hit cache", cache.Verify(forged)); // Ensure fingerprint checked
+
+            for (int i = 1; i <= 2; i++) { // Fill cache past capacity
+                Transaction next = new Transaction(i, publicKey, publicKey, 1f, 0, new byte[0]); // Initialize transaction
+
+                Transaction.SignTransaction(next, keyPair.getPrivateKey()); // Sign transaction
+
+                assertTrue("signature must be valid", cache.Verify(next)); // Verify
+            }
+
+            assertTrue("cache must not exceed capacity", cache.Size() == 2); // Ensure bounded
+            assertFalse("oldest transaction must be evicted", cache.Contains(transaction)); // Ensure evicted
+        } catch (Exception e) {
+            fail(e.getLocalizedMessage()); // Panic
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.dowlandaiello.gitchain.types;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.BitSet;
+
+import org.junit.Test;
+import org.web3j.crypto.ECKeyPair;
+import org.web3j.crypto.Keys;
+
+/**
+ * SignatureVerifierTest is the main SignatureVerifier testing file.
+ */
+public class SignatureVerifierTest {
+    /**
+     * Test parallel batch signature verification.
+     */
+    @Test
+    public void TestVerify() {
+        SignatureVerifier verifier = new SignatureVerifier(4); // Initialize verifier
+
+        try {
+            ECKeyPair keyPair = Keys.createEcKeyPair(); // Generate a new key pair
+            byte[] publicKey = keyPair.getPublicKey().toByteArray(); // Get public key
+
+            Transaction[] transactions = new Transaction[4 * SignatureVerifier.SequentialThreshold + 3]; // Init batch
+
+            for (int i = 0; i < transactions.length; i++) { // Make transactions
+                transactions[i] = new Transaction(i, publicKey, publicKey, i, 0, new byte[0]); // Initialize transaction
+
+                assertTrue("must sign successfully", Transaction.SignTransaction(transactions[i], keyPair.getPrivateKey())); // Sign transaction
+            }
+
+            Transaction forged = new Transaction(5, publicKey, publicKey, 1000f, 0, new byte[0]); // Initialize forged transaction
+
+            forged.Signature = transactions[5].Signature; // Reuse another transaction's signature
+
+            transactions[5] = forged; // Insert forged transaction
+            transactions[9] = new Transaction(9, publicKey, publicKey, 9f, 0, new byte[0]); // Insert unsigned transaction
+
+            BitSet results = verifier.Verify(transactions); // Verify batch
+
+            for (int i = 0; i < transactions.length; i++) { // Check results
+                assertTrue("result must match single verification",
+                        results.get(i) == (i != 5 && i != 9)); // Ensure matches
+            }
+
+            assertFalse("batch with invalid signatures must not verify", verifier.VerifyAll(transactions)); // Ensure rejected
+            assertTrue("empty batch must verify", verifier.VerifyAll(new Transaction[0])); // Ensure empty batch valid
+
+            Transaction mint = new Transaction(0, new byte[0], publicKey, 50f, 0, new byte[0]); // Initialize mint
+
+            assertTrue("block with signed transfers and a mint must verify", verifier.VerifyBlock(new Block(
+                    new Transaction[] { mint, transactions[0], transactions[1] }, new byte[0], new byte[0], 1f, 0l))); // Ensure valid
+            assertFalse("block with an unsigned transfer must not verify", verifier.VerifyBlock(new Block(
+                    new Transaction[] { mint, transactions[0], transactions[9] }, new byte[0], new byte[0], 1f, 0l))); // Ensure rejected
+        } catch (Exception e) {
+            fail(e.getLocalizedMessage()); // Panic
+        } finally {
+            verifier.Shutdown(); // Stop verifier
+        }
+    }
+}
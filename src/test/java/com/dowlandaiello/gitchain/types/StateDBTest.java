@@ -0,0 +1,211 @@
+package com.dowlandaiello.gitchain.types;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.util.HashMap;
+
+import com.dowlandaiello.gitchain.common.CommonCoin;
+import com.dowlandaiello.gitchain.common.CommonDB;
+import com.dowlandaiello.gitchain.common.CommonIO;
+import com.dowlandaiello.gitchain.config.ChainConfig;
+
+import org.junit.Test;
+import org.web3j.crypto.ECKeyPair;
+
+/**
+ * StateDBTest is the main StateDB testing file.
+ */
+public class StateDBTest {
+    /* Key of the account holding the genesis allocation */
+    private static final ECKeyPair aliceKey = ChainFixtures.AliceKey;
+
+    /* Account holding the genesis allocation */
+    private static final byte[] alice = ChainFixtures.Alice;
+
+    /* Key of an account without funds */
+    private static final ECKeyPair bobKey = ECKeyPair.create(BigInteger.valueOf(2));
+
+    /* Account without funds */
+    private static final byte[] bob = bobKey.getPublicKey().toByteArray();
+
+    /* Account without funds */
+    private static final byte[] carol = BigInteger.valueOf(3).toByteArray();
+
+    /**
+     * Test balances and nonces across valid and invalid blocks.
+     */
+    @Test
+    public void TestStateDB() {
+        Blockchain blockchain = ChainFixtures.MakeChain("test_chain_state"); // Make chain
+
+        try {
+            StateDB state = new StateDB(blockchain, 2, 16); // Open state
+
+            assertTrue("genesis allocation must be applied", state.Balance(alice) == 1000000); // Ensure allocated
+            assertTrue("unknown account must be empty", state.Balance(bob) == 0 && state.NextNonce(bob) == 0); // Ensure empty
+
+            Transaction transfer = ChainFixtures.Transfer(0, aliceKey, bob, 100); // Init transfer
+
+            assertTrue("transfer must be admissible", state.Admissible(transfer)); // Check admissible
+            assertTrue("unfunded transfer must not be admissible",
+                    !state.Admissible(ChainFixtures.Transfer(0, bobKey, alice, 1))); // Check not admissible
+
+            assertTrue("must add transfer", ChainFixtures.Mine(blockchain, transfer)); // Add transfer
+            assertTrue("sender must be debited", state.Balance(alice) == 1000000 - 100 && state.NextNonce(alice) == 1); // Ensure debited
+            assertTrue("recipient must be credited", state.Balance(bob) == 100 && state.NextNonce(bob) == 0); // Ensure credited
+            assertTrue("spent nonce must not be admissible", !state.Admissible(transfer)); // Check replay
+
+            assertTrue("replayed nonce must be rejected", !ChainFixtures.Mine(blockchain, transfer)); // Replay transfer
+            assertTrue("overdraft must be rejected", !ChainFixtures.Mine(blockchain, ChainFixtures.Transfer(0, bobKey, alice, 101))); // Overdraw
+            assertTrue("unsigned transfer must be rejected", !ChainFixtures.Mine(blockchain, new Transaction(1, alice, bob, 1, 0, new byte[0]))); // Skip signature
+            assertTrue("rejected blocks must not be added", blockchain.Height == 1); // Ensure head unchanged
+            assertTrue("rejected blocks must not change state", state.Balance(bob) == 100 && state.NextNonce(alice) == 1); // Ensure unchanged
+
+            assertTrue("must add spend", ChainFixtures.Mine(blockchain, ChainFixtures.Transfer(0, bobKey, alice, 40))); // Spend
+            assertTrue("state must be flushed with block", state.FlushedHeight() == 2 && state.Dirty() == 0); // Ensure flushed
+            assertTrue("flushed state must be stored",
+                    new AccountState(blockchain.BlockDB.get(CommonDB.AccountKey(bob))).Balance == 60); // Ensure stored
+
+            Transaction reward = new Transaction(0, new byte[0], carol, CommonCoin.BlockReward, 0, new byte[0]); // Init reward mint
+
+            assertTrue("unsigned transfer must not have a state root",
+                    state.RootAfter(new Transaction[] { new Transaction(1, alice, bob, 1, 0, new byte[0]) }) == null); // Skip signature
+            assertTrue("second mint must not have a state root", state.RootAfter(new Transaction[] { reward,
+                    new Transaction(0, new byte[0], carol, 1, 0, new byte[0]) }) == null); // Mint twice
+            assertTrue("mint above the reward must be rejected",
+                    !ChainFixtures.Mine(blockchain, new Transaction(0, new byte[0], carol, CommonCoin.BlockReward + 1, 0, new byte[0]))); // Mint above reward
+            assertTrue("must add reward", ChainFixtures.Mine(blockchain, reward)); // Mint reward
+            assertTrue("reward must be credited", state.Balance(carol) == CommonCoin.BlockReward); // Ensure credited
+        } finally {
+            ChainFixtures.RemoveChain(blockchain); // Remove chain
+        }
+    }
+
+    /**
+     * Test that blocks must commit to the state after them, and that account state
+     * can be proven against a block's state root.
+     */
+    @Test
+    public void TestStateRoot() {
+        Blockchain blockchain = ChainFixtures.MakeChain("test_chain_state_root"); // Make chain
+
+        try {
+            StateDB state = new StateDB(blockchain, 2, 16); // Open state
+
+            assertArrayEquals("genesis must commit to allocations", blockchain.GenesisBlock.StateRoot, state.Root()); // Ensure genesis root
+
+            Transaction transfer = ChainFixtures.Transfer(0, aliceKey, bob, 100); // Init transfer
+
+            Block forged = blockchain.CreateNewBlock(blockchain.GetLastBlock(), new Transaction[] { transfer }, 0); // Generate block
+
+            forged.StateRoot = state.RootAfter(new Transaction[] { ChainFixtures.Transfer(0, aliceKey, bob, 99) }); // Commit to other state
+
+            assertTrue("block with wrong state root must be rejected", !ChainFixtures.Add(blockchain, forged)); // Add forged block
+            assertArrayEquals("rejected block must not change root", blockchain.GenesisBlock.StateRoot, state.Root()); // Ensure unchanged
+
+            for (int i = 0; i < 3; i++) { // Add transfers (flushed every other block)
+                assertTrue("must add transfer", ChainFixtures.Mine(blockchain, ChainFixtures.Transfer(i, aliceKey, bob, 100))); // Add transfer
+            }
+
+            byte[] root = blockchain.GetLastBlock().StateRoot; // Get head state root
+
+            assertArrayEquals("state must match head", root, state.Root()); // Ensure root
+            assertTrue("account state must be provable", state.Prove(bob).Verify(bob, new AccountState(300, 0).Bytes(), root)); // Verify
+            assertTrue("unknown account must be provably absent",
+                    state.Prove(BigInteger.TEN.toByteArray()).Verify(BigInteger.TEN.toByteArray(), null, root)); // Verify absent
+        } finally {
+            ChainFixtures.RemoveChain(blockchain); // Remove chain
+        }
+    }
+
+    /**
+     * Test that blocks added after the last flush are replayed when the state db is
+     * opened again.
+     */
+    @Test
+    public void TestStateDBReplay() {
+        Blockchain blockchain = ChainFixtures.MakeChain("test_chain_state_replay"); // Make chain
+
+        try {
+            StateDB state = new StateDB(blockchain, 100, 16); // Open state
+
+            for (int i = 0; i < 3; i++) { // Add transfers
+                assertTrue("must add transfer", ChainFixtures.Mine(blockchain, ChainFixtures.Transfer(i, aliceKey, bob, 10))); // Add transfer
+            }
+
+            assertTrue("transfers must not be flushed yet", state.FlushedHeight() == 0 && state.Dirty() == 2); // Ensure dirty
+            assertTrue("unflushed state must not be stored", blockchain.BlockDB.get(CommonDB.AccountKey(bob)) == null); // Ensure not stored
+
+            blockchain.State = null; // Drop state without flushing
+            blockchain.CloseBlockDB(); // Close block db
+
+            assertTrue("must reopen block db", blockchain.OpenBlockDB()); // Reopen block db
+
+            StateDB reopened = new StateDB(blockchain, 100, 16); // Reopen state
+
+            assertTrue("unflushed blocks must be replayed", reopened.Balance(bob) == 30 && reopened.NextNonce(alice) == 3); // Ensure replayed
+            assertTrue("replayed state must be flushed", reopened.FlushedHeight() == 3); // Ensure flushed
+            assertTrue("reopened state must be attached", ChainFixtures.Mine(blockchain, ChainFixtures.Transfer(3, aliceKey, bob, 10))
+                    && reopened.Balance(bob) == 40); // Ensure attached
+        } finally {
+            ChainFixtures.RemoveChain(blockchain); // Remove chain
+        }
+    }
+
+    /**
+     * Test that reorganizing onto a heavier branch reverts the detached blocks'
+     * state, including state that was already flushed.
+     */
+    @Test
+    public void TestReorganize() {
+        Blockchain blockchain = ChainFixtures.MakeChain("test_chain_state_reorg"); // Make chain
+
+        CommonIO.MakeDirIfNotExist(CommonIO.DbPath + "/test_chain_state_fork"); // Make fork test cache
+
+        assertTrue("must remove test cache", CommonIO.DeleteDirectoryContents(new java.io.File(CommonIO.DbPath + "/test_chain_state_fork"))); // Delete fork test cache
+
+        Blockchain fork = new Blockchain(
+                new ChainConfig(new HashMap<BigInteger, Float>(), 0, "test_chain_state_fork", 10, 1f), blockchain.GenesisBlock); // Make fork sharing genesis
+
+        try {
+            StateDB state = new StateDB(blockchain, 1, 16); // Open state (flushed every block)
+            StateDB forkState = new StateDB(fork, 1, 16); // Open fork state
+
+            assertTrue("must add transfer", ChainFixtures.Mine(blockchain, ChainFixtures.Transfer(0, aliceKey, bob, 100))); // Add transfer
+            assertTrue("transfer must be flushed", state.FlushedHeight() == 1
+                    && blockchain.BlockDB.get(CommonDB.AccountKey(bob)) != null); // Ensure flushed
+
+            int i = 0; // Init fork nonce
+
+            while (!(fork.TotalDifficulty > blockchain.TotalDifficulty)) { // Extend fork until heavier
+                assertTrue("must add fork transfer", ChainFixtures.Mine(fork, ChainFixtures.Transfer(i++, aliceKey, carol, 10))); // Add transfer
+            }
+
+            for (long height = 1; height <= fork.Height; height++) { // Iterate through fork blocks
+                assertTrue("must add fork block", blockchain.AddBlock(fork.GetBlockByHeight(height))); // Add fork block
+            }
+
+            assertArrayEquals("must reorganize onto fork", fork.HeadHash, blockchain.HeadHash); // Ensure reorganized
+            assertTrue("detached transfer must be reverted", state.Balance(bob) == 0
+                    && blockchain.BlockDB.get(CommonDB.AccountKey(bob)) == null); // Ensure reverted
+            assertTrue("fork transfers must be applied", state.Balance(carol) == 10 * i && state.NextNonce(alice) == i
+                    && state.Balance(alice) == forkState.Balance(alice)); // Ensure applied
+            assertArrayEquals("state must match new head", blockchain.GetLastBlock().StateRoot, state.Root()); // Ensure root
+            assertTrue("reorganized state must be flushed", state.FlushedHeight() == blockchain.Height); // Ensure flushed
+
+            blockchain.State = null; // Drop state
+            blockchain.CloseBlockDB(); // Close block db
+
+            assertTrue("must reopen block db", blockchain.OpenBlockDB()); // Reopen block db
+
+            StateDB reopened = new StateDB(blockchain, 1, 16); // Reopen state
+
+            assertTrue("reopened state must match", reopened.Balance(bob) == 0 && reopened.Balance(carol) == 10 * i); // Ensure consistent
+        } finally {
+            ChainFixtures.RemoveChain(blockchain); // Remove chain
+            ChainFixtures.RemoveChain(fork); // Remove fork
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.dowlandaiello.gitchain.types;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import com.dowlandaiello.gitchain.common.CommonIO;
+
+import org.iq80.leveldb.DB;
+import org.iq80.leveldb.Options;
+import org.iq80.leveldb.WriteBatch;
+import org.junit.Test;
+
+import static org.fusesource.leveldbjni.JniDBFactory.factory;
+
+/**
+ * StateTrieTest is the main StateTrie testing file.
+ */
+public class StateTrieTest {
+    /**
+     * Test lookups, updates, and removals, and that roots only depend on contents.
+     */
+    @Test
+    public void TestStateTrie() {
+        StateTrie trie = new StateTrie(); // Init trie
+        StateTrie reversed = new StateTrie(); // Init trie filled in reverse
+
+        assertArrayEquals("empty trie must have empty root", StateTrie.EmptyRoot, trie.Root()); // Ensure empty
+
+        for (int i = 0; i < 200; i++) { // Fill tries
+            trie.Put(key(i), value(i)); // Put
+            reversed.Put(key(199 - i), value(199 - i)); // Put in reverse
+        }
+
+        for (int i = 0; i < 200; i++) { // Iterate through keys
+            assertArrayEquals("value must be found", value(i), trie.Get(key(i))); // Ensure found
+        }
+
+        assertTrue("absent key must not be found", trie.Get(key(200)) == null); // Ensure absent
+        assertArrayEquals("roots must not depend on insertion order", trie.Root(), reversed.Root()); // Ensure same root
+
+        byte[] root = trie.Root(); // Get root
+
+        trie.Put(key(7), value(1000)); // Update
+
+        assertTrue("update must change root", !Arrays.equals(root, trie.Root())); // Ensure changed
+
+        trie.Put(key(7), value(7)); // Revert
+
+        assertArrayEquals("reverting must restore root", root, trie.Root()); // Ensure restored
+
+        for (int i = 0; i < 200; i++) { // Empty trie
+            trie.Put(key(i), null); // Remove
+        }
+
+        assertArrayEquals("emptied trie must have empty root", StateTrie.EmptyRoot, trie.Root()); // Ensure empty
+    }
+
+    /**
+     * Test inclusion and exclusion proofs.
+     */
+    @Test
+    public void TestProve() {
+        StateTrie trie = new StateTrie(); // Init trie
+
+        for (int i = 0; i < 100; i++) { // Fill trie
+            trie.Put(key(i), value(i)); // Put
+        }
+
+        byte[] root = trie.Root(); // Get root
+
+        StateProof proof = new StateProof(trie.Prove(key(42)).Bytes()); // Prove and round trip
+
+        assertTrue("inclusion proof must verify", proof.Verify(key(42), value(42), root)); // Verify
+        assertTrue("proof must not verify a wrong value", !proof.Verify(key(42), value(43), root)); // Verify wrong value
+        assertTrue("proof must not verify another key", !proof.Verify(key(43), value(42), root)); // Verify wrong key
+        assertTrue("proof must not verify absence", !proof.Verify(key(42), null, root)); // Verify absence
+
+        StateProof absent = trie.Prove(key(500)); // Prove absence
+
+        assertTrue("exclusion proof must verify", absent.Verify(key(500), null, root)); // Verify
+        assertTrue("exclusion proof must not verify a value", !absent.Verify(key(500), value(500), root)); // Verify value
+
+        trie.Put(key(42), value(1000)); // Update
+
+        assertTrue("proof must not verify against another root", !proof.Verify(key(42), value(42), trie.Root())); // Verify stale
+
+        if (proof.Siblings.length > 0) { // Check has siblings
+            proof.Siblings[0] = StateTrie.EmptyRoot; // Tamper
+
+            assertTrue("tampered proof must not verify", !proof.Verify(key(42), value(42), root)); // Verify tampered
+        }
+    }
+
+    /**
+     * Test that committed nodes can be read back from the db, and that only nodes
+     * reachable from the root are written.
+     */
+    @Test
+    public void TestCommit() throws IOException {
+        File path = new File(CommonIO.DbPath + "/test_state_trie"); // Get db path
+
+        CommonIO.MakeDirIfNotExist(path.getPath()); // Make test cache
+
+        assertTrue("must remove test cache", CommonIO.DeleteDirectoryContents(path)); // Delete test cache
+
+        DB db = factory.open(path, new Options().createIfMissing(true)); // Open db
+
+        try {
+            StateTrie trie = new StateTrie(db, StateTrie.EmptyRoot, 16); // Init trie
+
+            for (int i = 0; i < 50; i++) { // Fill trie
+                trie.Put(key(i), value(i)); // Put
+                trie.Put(key(i), value(i + 1)); // Overwrite (obsoletes the first leaf)
+            }
+
+            WriteBatch batch = db.createWriteBatch(); // Init batch
+
+            trie.Commit(batch); // Write nodes
+
+            db.write(batch); // Write batch
+            batch.close(); // Close batch
+
+            trie.Committed(); // Forget dirty nodes
+
+            assertTrue("committed trie must have no dirty nodes", trie.Dirty() == 0); // Ensure clean
+
+            StateTrie reopened = new StateTrie(db, trie.Root(), 16); // Reopen trie
+
+            for (int i = 0; i < 50; i++) { // Iterate through keys
+                assertArrayEquals("committed value must be found", value(i + 1), reopened.Get(key(i))); // Ensure found
+            }
+
+            assertTrue("committed proof must verify", reopened.Prove(key(3)).Verify(key(3), value(4), trie.Root())); // Verify
+        } finally {
+            db.close(); // Close db
+
+            assertTrue("must remove test cache", CommonIO.DeleteDirectoryContents(path)); // Delete test cache
+        }
+    }
+
+    /**
+     * Make a test key.
+     *
+     * @param i key index
+     * @return key
+     */
+    private static byte[] key(int i) {
+        return ("account_" + i).getBytes(); // Return key
+    }
+
+    /**
+     * Make a test value.
+     *
+     * @param i value index
+     * @return value
+     */
+    private static byte[] value(int i) {
+        return new AccountState(i, i).Bytes(); // Return value
+    }
+}
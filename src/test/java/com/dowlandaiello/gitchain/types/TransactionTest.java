@@ -5,6 +5,10 @@ import static org.junit.Assert.fail;
 import static com.dowlandaiello.gitchain.types.Transaction.SignTransaction;
 import static com.dowlandaiello.gitchain.types.Transaction.VerifyTransactionSignature;
 
+import java.util.Arrays;
+
+import com.dowlandaiello.gitchain.common.CommonCodec;
+
 import org.junit.Test;
 import org.web3j.crypto.ECKeyPair;
 import org.web3j.crypto.Keys;
@@ -85,6 +89,40 @@ public class TransactionTest {
         }
     }
 
+    /**
+     * Test transaction decoding from raw data.
+     */
+    @Test
+    public void TestTransactionFromBytes() {
+        try {
+            ECKeyPair keyPair = Keys.createEcKeyPair(); // Generate a new key pair
+
+            Transaction transaction = new Transaction(0, keyPair.getPublicKey().toByteArray(), keyPair.getPublicKey().toByteArray(), 0f, 0, keyPair.getPublicKey().toByteArray()); // Initialize transaction
+
+            assertTrue("must sign successfully", SignTransaction(transaction, keyPair.getPrivateKey())); // Sign transaction
+
+            Transaction decodedTransaction = new Transaction(transaction.Bytes()); // Decode
+
+            assertTrue("decoded transaction must be equivalent", Arrays.equals(transaction.Bytes(), decodedTransaction.Bytes())); // Ensure equivalent
+            assertTrue("decoded transaction hash must be equivalent", Arrays.equals(transaction.Hash, decodedTransaction.Hash)); // Ensure hash decoded
+            assertTrue("decoded transaction signature must be valid", VerifyTransactionSignature(decodedTransaction)); // Ensure signature decoded
+            assertTrue("decoded transaction hash must match contents", Transaction.VerifyTransactionHash(decodedTransaction)); // Ensure hash valid
+
+            decodedTransaction.Value = 1000f; // Change contents
+
+            assertTrue("changed transaction hash must not match contents", !Transaction.VerifyTransactionHash(decodedTransaction)); // Ensure hash checked
+        } catch (Exception e) {
+            fail(e.getLocalizedMessage()); // Panic
+        }
+
+        try {
+            new Transaction(new byte[] { CommonCodec.TransactionTag, CommonCodec.Version, 0, 0 }); // Decode truncated
+
+            fail("truncated transaction must not decode"); // Panic
+        } catch (IllegalArgumentException e) { // Catch
+        }
+    }
+
     /**
      * Test transaction string marshaling.
      */